@@ -0,0 +1,222 @@
+package qouteall.imm_ptl.core;
+
+import com.mojang.blaze3d.vertex.VertexBuffer;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.client.renderer.LevelRenderer;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.client.renderer.ViewArea;
+import net.minecraft.client.renderer.chunk.SectionRenderDispatcher;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import org.slf4j.Logger;
+import qouteall.imm_ptl.core.commands.PortalDebugCommands;
+import qouteall.imm_ptl.core.compat.sodium_compatibility.SodiumInterface;
+import qouteall.imm_ptl.core.ducks.IEWorldRenderer;
+import qouteall.imm_ptl.core.miscellaneous.GcMonitor;
+import qouteall.imm_ptl.core.mixin.client.accessor.IEVertexBuffer_Accessor;
+import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.render.ImmPtlViewArea;
+import qouteall.imm_ptl.core.render.context_management.RenderStates;
+import qouteall.q_misc_util.Helper;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Releases the rendering resources of the secondary client worlds that are not used for some time.
+ * A world is used if it's the player's world, it was rendered in the last frame,
+ * or a portal near the player leads to it.
+ * <p>
+ * Hibernating resets the world renderer, which releases its compiled section buffers,
+ * and disposes the {@link qouteall.imm_ptl.core.render.context_management.DimensionRenderHelper}.
+ * They are rebuilt on demand when the world is rendered again.
+ * The {@link ClientLevel} and its chunks are kept, because the chunks are loaded and unloaded by the server.
+ * <p>
+ * The idle timeout is shortened when {@link GcMonitor#isMemoryNotEnough()} reports heap pressure,
+ * but most of the released memory is the GPU vertex buffers, the heap only gets back the section objects.
+ * So the reported number is the estimated GPU vertex memory of the released sections, not the freed heap.
+ * <p>
+ * It does nothing with Sodium, because Sodium manages its own section storage and buffers.
+ */
+//@OnlyIn(Dist.CLIENT)
+public class ClientWorldHibernation {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    // the idle timeout when the memory is not enough
+    public static final double MEMORY_PRESSURE_IDLE_SECONDS = 10;
+    
+    private static class WorldRecord {
+        long lastUsedTime;
+        boolean isHibernated = false;
+        // the estimated GPU vertex memory released by the last hibernation
+        long releasedVertexBytes = 0;
+        
+        WorldRecord(long lastUsedTime) {
+            this.lastUsedTime = lastUsedTime;
+        }
+    }
+    
+    private static final Map<ResourceKey<Level>, WorldRecord> records = new Object2ObjectOpenHashMap<>();
+    
+    private static long totalReleasedVertexBytes = 0;
+    
+    public static void tick() {
+        Minecraft client = Minecraft.getInstance();
+        if (client.level == null || client.player == null || !ClientWorldLoader.getIsInitialized()) {
+            return;
+        }
+        
+        long currTime = System.nanoTime();
+        ResourceKey<Level> playerDimension = client.level.dimension();
+        
+        for (ClientLevel world : ClientWorldLoader.getClientWorlds()) {
+            ResourceKey<Level> dimension = world.dimension();
+            WorldRecord record = records.computeIfAbsent(dimension, k -> new WorldRecord(currTime));
+            
+            if (dimension == playerDimension || RenderStates.renderedDimensions.contains(dimension)) {
+                markUsed(dimension, record, currTime);
+            }
+        }
+        
+        if (!IPGlobal.clientWorldHibernation || SodiumInterface.invoker.isSodiumPresent()) {
+            return;
+        }
+        
+        boolean memoryNotEnough = GcMonitor.isMemoryNotEnough();
+        
+        // check every second, or every tick when the memory is not enough
+        if (!memoryNotEnough && client.level.getGameTime() % 20 != 0) {
+            return;
+        }
+        
+        List<Portal> nearbyPortals = CHelper.getClientNearbyPortals(
+            RemoteWorldTickScheduler.NEAR_PORTAL_DISTANCE
+        ).toList();
+        for (Portal portal : nearbyPortals) {
+            WorldRecord record = records.get(portal.getDestDim());
+            if (record != null) {
+                markUsed(portal.getDestDim(), record, currTime);
+            }
+        }
+        
+        double idleSeconds = memoryNotEnough ?
+            Math.min(IPGlobal.clientWorldHibernationSeconds, MEMORY_PRESSURE_IDLE_SECONDS) :
+            IPGlobal.clientWorldHibernationSeconds;
+        long idleThreshold = Helper.secondToNano(idleSeconds);
+        
+        for (Map.Entry<ResourceKey<Level>, WorldRecord> entry : records.entrySet()) {
+            ResourceKey<Level> dimension = entry.getKey();
+            WorldRecord record = entry.getValue();
+            if (dimension != playerDimension && !record.isHibernated &&
+                currTime - record.lastUsedTime > idleThreshold
+            ) {
+                hibernate(dimension, record);
+                // resetting a world renderer waits for its section builder, so only do one at a time
+                break;
+            }
+        }
+    }
+    
+    private static void markUsed(ResourceKey<Level> dimension, WorldRecord record, long currTime) {
+        record.lastUsedTime = currTime;
+        if (record.isHibernated) {
+            record.isHibernated = false;
+            LOGGER.info("Client world {} woke from hibernation", dimension.location());
+        }
+    }
+    
+    private static void hibernate(ResourceKey<Level> dimension, WorldRecord record) {
+        LevelRenderer worldRenderer = ClientWorldLoader.WORLD_RENDERER_MAP.get(dimension);
+        if (worldRenderer == null) {
+            return;
+        }
+        
+        long bytes = estimateSectionVertexBytes(((IEWorldRenderer) worldRenderer).ip_getBuiltChunkStorage());
+        
+        ClientWorldLoader.releaseWorldRenderingResources(dimension);
+        
+        record.isHibernated = true;
+        record.releasedVertexBytes = bytes;
+        totalReleasedVertexBytes += bytes;
+        
+        LOGGER.info(
+            "Client world {} hibernated, released about {}MB of GPU vertex buffers (estimated)",
+            dimension.location(), PortalDebugCommands.toMiB(bytes)
+        );
+    }
+    
+    /**
+     * The GPU memory of the vertex buffers of the compiled sections. The block layers are quads,
+     * 6 indices per 4 vertices. The index buffers and the heap objects are not counted.
+     */
+    private static long estimateSectionVertexBytes(ViewArea viewArea) {
+        if (viewArea == null) {
+            return 0;
+        }
+        
+        Set<SectionRenderDispatcher.RenderSection> sections = new HashSet<>();
+        if (viewArea instanceof ImmPtlViewArea immPtlViewArea) {
+            immPtlViewArea.forEachManagedSection(sections::add);
+        }
+        if (viewArea.sections != null) {
+            sections.addAll(Arrays.asList(viewArea.sections));
+        }
+        sections.remove(null);
+        
+        long bytes = 0;
+        for (SectionRenderDispatcher.RenderSection section : sections) {
+            for (RenderType layer : RenderType.chunkBufferLayers()) {
+                VertexBuffer buffer = section.getBuffer(layer);
+                VertexFormat format = buffer.getFormat();
+                if (format != null) {
+                    int indexCount = ((IEVertexBuffer_Accessor) buffer).ip_getIndexCount();
+                    bytes += (long) (indexCount / 6) * 4 * format.getVertexSize();
+                }
+            }
+        }
+        return bytes;
+    }
+    
+    public static boolean isHibernated(ResourceKey<Level> dimension) {
+        WorldRecord record = records.get(dimension);
+        return record != null && record.isHibernated;
+    }
+    
+    /**
+     * @return the estimated GPU vertex memory released by the last hibernation of that world
+     */
+    public static long getReleasedVertexBytes(ResourceKey<Level> dimension) {
+        WorldRecord record = records.get(dimension);
+        return record == null ? 0 : record.releasedVertexBytes;
+    }
+    
+    public static long getTotalReleasedVertexBytes() {
+        return totalReleasedVertexBytes;
+    }
+    
+    public static void onDimensionDisposed(ResourceKey<Level> dimension) {
+        records.remove(dimension);
+    }
+    
+    public static void cleanUp() {
+        records.clear();
+    }
+    
+    public static String getDebugString() {
+        return "Hibernated Worlds: " + records.entrySet().stream()
+            .filter(e -> e.getValue().isHibernated)
+            .map(e -> "%s ~%dMB".formatted(
+                e.getKey().location().getPath(), PortalDebugCommands.toMiB(e.getValue().releasedVertexBytes)
+            ))
+            .collect(Collectors.joining(" ")) +
+            " Released Vertex Buffers ~" + PortalDebugCommands.toMiB(totalReleasedVertexBytes) + "MB";
+    }
+}
@@ -53,6 +53,9 @@ public class ClientWorldLoader {
     private static final Logger LOGGER = LoggerFactory.getLogger(ClientWorldLoader.class);
     
     private static final CountDownInt LOG_LIMIT = new CountDownInt(20);
+    
+    // the portals within it show the particles of the other side
+    private static final double RANDOM_TICK_PORTAL_DISTANCE = 10;
 
     private static final Map<ResourceKey<Level>, ClientLevel> CLIENT_WORLD_MAP =
         new Object2ObjectOpenHashMap<>();
@@ -101,11 +104,7 @@ public class ClientWorldLoader {
     public static void tick() {
         if (IPCGlobal.isClientRemoteTickingEnabled) {
             isClientRemoteTicking = true;
-            CLIENT_WORLD_MAP.values().forEach(world -> {
-                if (CLIENT.level != world) {
-                    tickRemoteWorld(world);
-                }
-            });
+            tickRemoteWorlds();
             WORLD_RENDERER_MAP.values().forEach(worldRenderer -> {
                 if (worldRenderer != CLIENT.levelRenderer) {
                     worldRenderer.tick();
@@ -134,6 +133,7 @@ public class ClientWorldLoader {
             LOGGER.info("Refreshed Lightmaps");
         }
         
+        ClientWorldHibernation.tick();
     }
     
     public static void disposeRenderHelpers() {
@@ -141,15 +141,46 @@ public class ClientWorldLoader {
         RENDER_HELPER_MAP.clear();
     }
     
-    private static void tickRemoteWorld(ClientLevel newWorld) {
-        List<Portal> nearbyPortals = CHelper.getClientNearbyPortals(10).collect(Collectors.toList());
+    private static void tickRemoteWorlds() {
+        List<ClientLevel> remoteWorlds = CLIENT_WORLD_MAP.values().stream()
+            .filter(world -> world != CLIENT.level).toList();
+        if (remoteWorlds.isEmpty()) {
+            return;
+        }
         
+        assert CLIENT.player != null;
+        Vec3 playerPos = CLIENT.player.position();
+        List<Portal> nearbyPortals = CHelper.getClientNearbyPortals(RemoteWorldTickScheduler.NEAR_PORTAL_DISTANCE)
+            .collect(Collectors.toList());
+        List<RemoteWorldTickScheduler.TickMode> tickModes = RemoteWorldTickTracker.schedule(
+            remoteWorlds, nearbyPortals, playerPos
+        );
+        List<Portal> randomTickPortals = nearbyPortals.stream()
+            .filter(portal -> portal.getDistanceToNearestPointInPortal(playerPos) <= RANDOM_TICK_PORTAL_DISTANCE)
+            .collect(Collectors.toList());
+        
+        for (int i = 0; i < remoteWorlds.size(); i++) {
+            ClientLevel world = remoteWorlds.get(i);
+            RemoteWorldTickScheduler.TickMode tickMode = tickModes.get(i);
+            long startTime = System.nanoTime();
+            tickRemoteWorld(world, tickMode, randomTickPortals);
+            RemoteWorldTickTracker.onWorldTicked(world, tickMode, System.nanoTime() - startTime);
+        }
+    }
+    
+    private static void tickRemoteWorld(
+        ClientLevel newWorld, RemoteWorldTickScheduler.TickMode tickMode, List<Portal> nearbyPortals
+    ) {
         withSwitchedWorld(newWorld, () -> {
             try {
-                newWorld.tickEntities();
+                boolean fullTick = tickMode == RemoteWorldTickScheduler.TickMode.full;
+                
+                if (fullTick) {
+                    newWorld.tickEntities();
+                }
                 newWorld.tick(() -> true);
                 
-                if (!CLIENT.isPaused()) {
+                if (fullTick && !CLIENT.isPaused()) {
                     tickRemoteWorldRandomTicksClient(newWorld, nearbyPortals);
                 }
                 
@@ -209,6 +240,9 @@ public class ClientWorldLoader {
         
         disposeRenderHelpers();
         
+        RemoteWorldTickTracker.cleanUp();
+        ClientWorldHibernation.cleanUp();
+        
         isInitialized = false;
     }
     
@@ -248,6 +282,8 @@ public class ClientWorldLoader {
             renderHelper.cleanUp();
         }
         
+        ClientWorldHibernation.onDimensionDisposed(dimension);
+        
         LOGGER.info("Client Dynamically Removed Dimension {}", dimension.location());
         
         if (clientWorld.getChunkSource().getLoadedChunksCount() > 0) {
@@ -263,6 +299,42 @@ public class ClientWorldLoader {
         NeoForge.EVENT_BUS.post(new DimensionEvents.CLIENT_DIMENSION_DYNAMIC_REMOVE_EVENT(dimension));
     }
     
+    /**
+     * Resets the world renderer of a secondary world, which releases its compiled section buffers,
+     * and disposes its render helper. They are rebuilt on demand when the world is rendered again.
+     */
+    public static void releaseWorldRenderingResources(ResourceKey<Level> dimension) {
+        Validate.notNull(CLIENT.level, "level is null");
+        Validate.isTrue(
+            CLIENT.level.dimension() != dimension,
+            "Cannot release current dimension"
+        );
+        Validate.isTrue(CLIENT.isSameThread(), "not on client thread");
+        
+        ClientLevel world = CLIENT_WORLD_MAP.get(dimension);
+        Validate.notNull(world, "missing client world %s", dimension.location());
+        
+        // avoid reloading the other world renderers
+        boolean originalIsReloading = isReloadingOtherWorldRenderers;
+        isReloadingOtherWorldRenderers = true;
+        try {
+            withSwitchedWorld(
+                world,
+                () -> {
+                    CLIENT.levelRenderer.allChanged();
+                }
+            );
+        }
+        finally {
+            isReloadingOtherWorldRenderers = originalIsReloading;
+        }
+        
+        DimensionRenderHelper renderHelper = RENDER_HELPER_MAP.remove(dimension);
+        if (renderHelper != null) {
+            renderHelper.cleanUp();
+        }
+    }
+    
     @NotNull
     public static LevelRenderer getWorldRenderer(ResourceKey<Level> dimension) {
         initializeIfNeeded();
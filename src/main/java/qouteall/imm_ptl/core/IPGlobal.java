@@ -59,6 +59,24 @@ public class IPGlobal {
     
     public static int portalRenderLimit = 200;
     
+    // the estimated cost of the nested portal renderings in a frame, 0 disables the planning, see PortalRenderPlanner
+    public static double portalRenderBudget = 40;
+    
+    // reduce the render distance inside the portals that look small, see PortalRenderer.getPortalRenderDistance
+    public static boolean screenSizedPortalRenderDistance = true;
+    
+    // tick the remote client worlds that are not rendered at a reduced rate, see RemoteWorldTickScheduler
+    public static boolean remoteWorldTickScheduling = true;
+    
+    // the time budget of the reduced rate remote world ticking in a tick
+    public static double remoteWorldTickBudgetMs = 5;
+    
+    // release the rendering resources of the secondary worlds that are not used, see ClientWorldHibernation.
+    // no effect with Sodium
+    public static boolean clientWorldHibernation = true;
+    
+    public static double clientWorldHibernationSeconds = 60;
+    
     public static boolean cacheGlBuffer = true;
     
     public static boolean reducedPortalRendering = false;
@@ -85,6 +103,17 @@ public class IPGlobal {
     
     public static int scaleLimit = 30;
     
+    // the max number of non-player entities teleported per tick, see RegularEntityTeleportQueue
+    public static int regularEntityTeleportBudgetPerTick = 100;
+    
+    // check the non-player entity portal crossing over the whole tick movement, see ContinuousPortalCrossing.
+    // off by default because it searches the portals around every fast moving entity each tick
+    public static boolean continuousEntityPortalCrossing = false;
+    
+    // bit i enables the section occlusion culling of portal layer i, see VisibleSectionDiscovery.
+    // layer 0 (no portal) is off by default
+    public static int sectionOcclusionCullingLayers = ~1;
+    
     public static boolean easeCreativePermission = true;
     public static boolean easeCommandStickPermission = true;
     
@@ -134,6 +163,7 @@ public class IPGlobal {
     public static boolean entityUntrackDebug = false;
     public static boolean entityTrackDebug = false;
     public static boolean clientPortalLoadDebug = false;
+    public static boolean portalRenderPlanDebug = false;
     
     public static boolean debugRenderPortalShapeMesh = false;
     
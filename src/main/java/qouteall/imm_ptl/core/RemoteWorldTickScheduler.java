@@ -0,0 +1,106 @@
+package qouteall.imm_ptl.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides how to tick the client worlds other than the player's world in a tick.
+ * <p>
+ * The worlds are ranked by whether they were rendered recently, then by the distance to the nearest portal
+ * that leads to them. A recently rendered world or a world with a near portal is fully ticked every tick,
+ * as its entities may be seen and skipping entity ticks makes them lag and snap.
+ * A hidden world is fully ticked every {@link #HIDDEN_FULL_TICK_INTERVAL} ticks,
+ * if the estimated time of its full tick fits in the remaining time budget of the tick.
+ * The worlds that are not fully ticked only process the updates (world time, light updates).
+ * A world that has not been fully ticked for {@link #MAX_FULL_TICK_INTERVAL} ticks is fully ticked regardless of the budget.
+ * <p>
+ * It only uses plain inputs, the game state part is in {@link RemoteWorldTickTracker}.
+ */
+public final class RemoteWorldTickScheduler {
+    
+    public static final int RECENTLY_RENDERED_TICKS = 20;
+    public static final double NEAR_PORTAL_DISTANCE = 32;
+    
+    public static final int HIDDEN_FULL_TICK_INTERVAL = 10;
+    public static final int MAX_FULL_TICK_INTERVAL = 40;
+    
+    public static enum TickMode {
+        // entities, world time, random ticks and light updates
+        full,
+        // world time and light updates
+        updates_only
+    }
+    
+    public static enum Visibility {
+        rendered,
+        near,
+        hidden
+    }
+    
+    /**
+     * @param ticksSinceRendered     Integer.MAX_VALUE if never rendered
+     * @param nearestPortalDistance  the distance from the player to the nearest portal leading to the world,
+     *                               positive infinity if there is no such portal nearby
+     * @param ticksSinceFullTick     Integer.MAX_VALUE if never fully ticked
+     * @param estimatedFullTickNanos the estimated time of a full tick of the world
+     */
+    public static record WorldInfo(
+        int ticksSinceRendered, double nearestPortalDistance,
+        int ticksSinceFullTick, long estimatedFullTickNanos
+    ) {
+        public Visibility getVisibility() {
+            if (ticksSinceRendered <= RECENTLY_RENDERED_TICKS) {
+                return Visibility.rendered;
+            }
+            if (nearestPortalDistance <= NEAR_PORTAL_DISTANCE) {
+                return Visibility.near;
+            }
+            return Visibility.hidden;
+        }
+    }
+    
+    private static final Comparator<WorldInfo> PRIORITY =
+        Comparator.comparing(WorldInfo::getVisibility)
+            .thenComparingDouble(WorldInfo::nearestPortalDistance)
+            .thenComparing(Comparator.comparingInt(WorldInfo::ticksSinceFullTick).reversed());
+    
+    public static int getFullTickInterval(Visibility visibility) {
+        return switch (visibility) {
+            case rendered, near -> 1;
+            case hidden -> HIDDEN_FULL_TICK_INTERVAL;
+        };
+    }
+    
+    /**
+     * @return the tick modes of the worlds, in the same order as the input
+     */
+    public static List<TickMode> schedule(List<WorldInfo> worlds, long budgetNanos) {
+        TickMode[] result = new TickMode[worlds.size()];
+        Arrays.fill(result, TickMode.updates_only);
+        
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < worlds.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing(worlds::get, PRIORITY));
+        
+        long remainingNanos = budgetNanos;
+        for (int index : order) {
+            WorldInfo world = worlds.get(index);
+            Visibility visibility = world.getVisibility();
+            
+            boolean forced = visibility != Visibility.hidden ||
+                world.ticksSinceFullTick() >= MAX_FULL_TICK_INTERVAL;
+            boolean due = world.ticksSinceFullTick() >= getFullTickInterval(visibility);
+            
+            if (forced || (due && world.estimatedFullTickNanos() <= remainingNanos)) {
+                result[index] = TickMode.full;
+                remainingNanos -= world.estimatedFullTickNanos();
+            }
+        }
+        
+        return Arrays.asList(result);
+    }
+}
@@ -0,0 +1,119 @@
+package qouteall.imm_ptl.core;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.Vec3;
+import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.render.context_management.RenderStates;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Gathers the inputs of {@link RemoteWorldTickScheduler} from the game state,
+ * and records the tick time and the tick rate of each remote world.
+ */
+//@OnlyIn(Dist.CLIENT)
+public class RemoteWorldTickTracker {
+    
+    private static class WorldRecord {
+        long lastRenderedTick = Long.MIN_VALUE;
+        long lastFullTick = Long.MIN_VALUE;
+        long estimatedFullTickNanos = 0;
+        int fullTickNum = 0;
+        // the full tick number in the last second
+        int lastSecondFullTickNum = 0;
+    }
+    
+    private static final Map<ResourceKey<Level>, WorldRecord> records = new Object2ObjectOpenHashMap<>();
+    
+    private static long tickCounter = 0;
+    
+    /**
+     * Called once per tick before ticking the remote worlds.
+     *
+     * @param nearbyPortals the portals near the player
+     * @return the tick modes of the worlds, in the same order as the input
+     */
+    public static List<RemoteWorldTickScheduler.TickMode> schedule(
+        List<ClientLevel> worlds, List<Portal> nearbyPortals, Vec3 playerPos
+    ) {
+        tickCounter++;
+        
+        if (tickCounter % 20 == 0) {
+            for (WorldRecord record : records.values()) {
+                record.lastSecondFullTickNum = record.fullTickNum;
+                record.fullTickNum = 0;
+            }
+        }
+        
+        if (!IPGlobal.remoteWorldTickScheduling) {
+            return worlds.stream().map(w -> RemoteWorldTickScheduler.TickMode.full).collect(Collectors.toList());
+        }
+        
+        List<RemoteWorldTickScheduler.WorldInfo> infos = new ArrayList<>();
+        for (ClientLevel world : worlds) {
+            ResourceKey<Level> dimension = world.dimension();
+            WorldRecord record = records.computeIfAbsent(dimension, k -> new WorldRecord());
+            
+            // the dimensions rendered in the last frame
+            if (RenderStates.renderedDimensions.contains(dimension)) {
+                record.lastRenderedTick = tickCounter;
+            }
+            
+            double nearestPortalDistance = Double.POSITIVE_INFINITY;
+            for (Portal portal : nearbyPortals) {
+                if (portal.getDestDim() == dimension) {
+                    nearestPortalDistance = Math.min(
+                        nearestPortalDistance, portal.getDistanceToNearestPointInPortal(playerPos)
+                    );
+                }
+            }
+            
+            infos.add(new RemoteWorldTickScheduler.WorldInfo(
+                getTicksSince(record.lastRenderedTick), nearestPortalDistance,
+                getTicksSince(record.lastFullTick), record.estimatedFullTickNanos
+            ));
+        }
+        
+        return RemoteWorldTickScheduler.schedule(
+            infos, (long) (IPGlobal.remoteWorldTickBudgetMs * 1000000)
+        );
+    }
+    
+    public static void onWorldTicked(ClientLevel world, RemoteWorldTickScheduler.TickMode mode, long nanos) {
+        if (mode != RemoteWorldTickScheduler.TickMode.full) {
+            return;
+        }
+        
+        WorldRecord record = records.computeIfAbsent(world.dimension(), k -> new WorldRecord());
+        record.lastFullTick = tickCounter;
+        record.fullTickNum++;
+        record.estimatedFullTickNanos = record.estimatedFullTickNanos == 0 ?
+            nanos : (record.estimatedFullTickNanos * 3 + nanos) / 4;
+    }
+    
+    private static int getTicksSince(long tick) {
+        if (tick == Long.MIN_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, tickCounter - tick);
+    }
+    
+    public static void cleanUp() {
+        records.clear();
+    }
+    
+    /**
+     * @return the full ticks per second of each remote world
+     */
+    public static String getDebugString() {
+        return "Remote World Ticks: " + records.entrySet().stream()
+            .map(e -> "%s %d".formatted(e.getKey().location().getPath(), e.getValue().lastSecondFullTickNum))
+            .collect(Collectors.joining(" "));
+    }
+}
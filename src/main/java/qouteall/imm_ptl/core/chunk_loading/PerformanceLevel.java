@@ -90,4 +90,26 @@ public enum PerformanceLevel {
             return 2;
         }
     }
+    
+    /**
+     * The section render distance inside a portal according to how large the portal looks.
+     * A portal that's at least 1/4 of the screen size (1/16 of the screen area) keeps the full distance.
+     * A smaller portal gets a distance proportional to its size on screen.
+     * Each deeper portal layer reduces it further.
+     * The portal world is rendered from the transformed camera, which is as far behind the portal
+     * destination as the camera is from the portal, so that distance is added on top.
+     *
+     * @param screenArea     the ratio of the screen that the portal covers, 0 to 1
+     * @param portalDistance the distance from the transformed camera to the portal destination, in blocks
+     * @param portalLayer    1 for the portals in the outer world
+     */
+    public static int getScreenSizedPortalRenderingDistance(
+        double screenArea, double portalDistance, int portalLayer, int originalDistance
+    ) {
+        double sizeRatio = Math.min(1, Math.sqrt(Math.max(0, screenArea)) / 0.25);
+        double layerRatio = 1.0 / (1 + (Math.max(1, portalLayer) - 1) * 0.5);
+        int distance = (int) Math.ceil(originalDistance * sizeRatio * layerRatio) +
+            (int) Math.ceil(Math.max(0, portalDistance) / 16);
+        return Math.min(originalDistance, Math.max(2, distance));
+    }
 }
@@ -1,6 +1,7 @@
 package qouteall.imm_ptl.core.collision;
 
 import com.google.common.collect.ImmutableList;
+import de.nick1st.imm_ptl.events.PortalDisposeEvent;
 import net.minecraft.client.Minecraft;
 import net.minecraft.core.Direction;
 import net.minecraft.network.chat.Component;
@@ -147,6 +148,19 @@ public class CollisionHelper {
      */
     @Nullable
     public static VoxelShape clipVoxelShape(VoxelShape shape, Vec3 clippingPlanePos, Vec3 clippingPlaneNormal) {
+        return clipVoxelShape(shape, clippingPlanePos, clippingPlaneNormal, null);
+    }
+    
+    /**
+     * Same as {@link #clipVoxelShape(VoxelShape, Vec3, Vec3)}.
+     * Only the shapes that intersect with the plane need the expensive joining, and it goes through the cache.
+     * The cache must only be used with the same plane.
+     */
+    @Nullable
+    public static VoxelShape clipVoxelShape(
+        VoxelShape shape, Vec3 clippingPlanePos, Vec3 clippingPlaneNormal,
+        @Nullable CollisionShapeCache cache
+    ) {
         if (shape.isEmpty()) {
             return null;
         }
@@ -169,6 +183,21 @@ public class CollisionHelper {
         
         // the shape is intersecting the clipping plane
         // clip the shape
+        if (cache != null) {
+            return cache.getOrCompute(
+                shape, shapeBoundingBox,
+                s -> clipIntersectingVoxelShape(s, clippingPlanePos, clippingPlaneNormal)
+            );
+        }
+        
+        return clipIntersectingVoxelShape(shape, clippingPlanePos, clippingPlaneNormal);
+    }
+    
+    @Nullable
+    private static VoxelShape clipIntersectingVoxelShape(
+        VoxelShape shape, Vec3 clippingPlanePos, Vec3 clippingPlaneNormal
+    ) {
+        AABB shapeBoundingBox = shape.bounds();
         AABB clippedBoundingBox = clipBox(
             shapeBoundingBox, clippingPlanePos, clippingPlaneNormal
         );
@@ -431,12 +460,20 @@ public class CollisionHelper {
     
     public static void init() {
         NeoForge.EVENT_BUS.addListener(TickEvent.ServerTickEvent.class, event -> {
+            if (event.phase == TickEvent.Phase.START) {
+                IndirectPortalLookupCache.SERVER.invalidate();
+            }
             if (event.phase == TickEvent.Phase.END) {
                 for (ServerLevel world : event.getServer().getAllLevels()) {
                     updateCollidingPortalForWorld(world, 0);
                 }
             }
         });
+        
+        NeoForge.EVENT_BUS.addListener(PortalDisposeEvent.class, event -> {
+            Portal portal = event.portal;
+            IndirectPortalLookupCache.get(portal.level()).invalidate(portal.level(), portal.getBoundingBox());
+        });
     }
     
     //@OnlyIn(Dist.CLIENT)
@@ -446,6 +483,8 @@ public class CollisionHelper {
     
     //@OnlyIn(Dist.CLIENT)
     public static void tickClient() {
+        IndirectPortalLookupCache.CLIENT.invalidate();
+        
         updateClientCollidingStatus();
         
         updateClientStagnateStatus();
@@ -0,0 +1,115 @@
+package qouteall.imm_ptl.core.collision;
+
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.shapes.DiscreteVoxelShape;
+import net.minecraft.world.phys.shapes.VoxelShape;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches the result of processing a block collision shape with a portal
+ * (clipping by a portal plane or subtracting the portal's collision exclusion).
+ * <p>
+ * Vanilla creates a new moved VoxelShape for every block in every collision query,
+ * so the shape object itself cannot be the key.
+ * But the moved shape shares the voxel data ({@link VoxelShape#shape}) with the unmoved block shape,
+ * which is cached per block state.
+ * So the key is the identity of the voxel data plus the shape's bounds in world coordinates,
+ * which carries the block position relative to the portal. Looking it up does not allocate the boxes of the shape.
+ * <p>
+ * One cache belongs to one portal and one operation.
+ * The portal drops it when its state changes.
+ * When it's full, the least recently used entry is dropped.
+ * Not thread-safe. A portal entity is only used by its world's thread.
+ */
+public final class CollisionShapeCache {
+    // the shapes near a portal are usually far fewer than that
+    private static final int MAX_SIZE = 2048;
+    
+    private static final AtomicLong globalHitCount = new AtomicLong();
+    private static final AtomicLong globalMissCount = new AtomicLong();
+    
+    private record Key(DiscreteVoxelShape voxels, AABB bounds) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key && key.voxels == voxels && key.bounds.equals(bounds);
+        }
+        
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(voxels) * 31 + bounds.hashCode();
+        }
+    }
+    
+    // wraps the result, because null result (fully clipped) also needs to be cached
+    private record Entry(@Nullable VoxelShape result) {}
+    
+    private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    
+    private long hitCount = 0;
+    private long missCount = 0;
+    
+    public CollisionShapeCache() {
+    }
+    
+    /**
+     * @param bounds the bounds of the shape ({@link VoxelShape#bounds()})
+     * @param func   must only depend on the shape's geometry and the state of the portal
+     */
+    public @Nullable VoxelShape getOrCompute(
+        VoxelShape shape, AABB bounds, Function<VoxelShape, VoxelShape> func
+    ) {
+        Key key = new Key(shape.shape, bounds);
+        
+        Entry entry = map.get(key);
+        if (entry != null) {
+            hitCount++;
+            globalHitCount.incrementAndGet();
+            return entry.result();
+        }
+        
+        missCount++;
+        globalMissCount.incrementAndGet();
+        
+        VoxelShape result = func.apply(shape);
+        
+        map.put(key, new Entry(result));
+        
+        return result;
+    }
+    
+    public int size() {
+        return map.size();
+    }
+    
+    public long getHitCount() {
+        return hitCount;
+    }
+    
+    public long getMissCount() {
+        return missCount;
+    }
+    
+    public static String getGlobalStatString() {
+        long hit = globalHitCount.get();
+        long miss = globalMissCount.get();
+        long total = hit + miss;
+        return "Portal collision shape cache: hit %d miss %d hit rate %.2f%%".formatted(
+            hit, miss, total == 0 ? 0.0 : hit * 100.0 / total
+        );
+    }
+    
+    public static void resetGlobalStat() {
+        globalHitCount.set(0);
+        globalMissCount.set(0);
+    }
+}
@@ -0,0 +1,137 @@
+package qouteall.imm_ptl.core.collision;
+
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.McHelper;
+import qouteall.imm_ptl.core.portal.Portal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Caches the portal lookup on the other side of a colliding portal within one tick.
+ * Every move of every entity that collides with a portal searches the portals near the
+ * transformed bounding box. With stacked or nested portals and many entities,
+ * the same entity sections are searched many times in one tick.
+ * <p>
+ * The box is expanded to block grid, so that the nearby boxes share the same lookup.
+ * The cached result contains all portals touching the expanded box,
+ * then the exact box test and the entity-specific predicate are applied for each query,
+ * so the result is the same as {@link McHelper#findEntitiesByBox}.
+ * <p>
+ * The cache is cleared every tick.
+ * When a portal's state changes or a portal is removed, only the lookups touching its old and new bounding box
+ * are removed.
+ * There is one cache for the client thread and one for the server thread.
+ */
+public final class IndirectPortalLookupCache {
+    // when exceeding, clear all
+    private static final int MAX_SIZE = 4096;
+    
+    public static final IndirectPortalLookupCache CLIENT = new IndirectPortalLookupCache();
+    public static final IndirectPortalLookupCache SERVER = new IndirectPortalLookupCache();
+    
+    private static final AtomicLong globalHitCount = new AtomicLong();
+    private static final AtomicLong globalMissCount = new AtomicLong();
+    private static final AtomicLong globalInvalidationCount = new AtomicLong();
+    
+    private record Key(
+        Level level, int minX, int minY, int minZ, int maxX, int maxY, int maxZ
+    ) {}
+    
+    private final HashMap<Key, List<Portal>> map = new HashMap<>();
+    
+    private IndirectPortalLookupCache() {
+    }
+    
+    public static IndirectPortalLookupCache get(Level level) {
+        return level.isClientSide() ? CLIENT : SERVER;
+    }
+    
+    /**
+     * The same as {@code McHelper.findEntitiesByBox(Portal.class, level, box, IPGlobal.maxNormalPortalRadius, predicate)}
+     */
+    public List<Portal> findPortals(Level level, AABB box, Predicate<Portal> predicate) {
+        Key key = new Key(
+            level,
+            (int) Math.floor(box.minX), (int) Math.floor(box.minY), (int) Math.floor(box.minZ),
+            (int) Math.ceil(box.maxX), (int) Math.ceil(box.maxY), (int) Math.ceil(box.maxZ)
+        );
+        
+        List<Portal> candidates = map.get(key);
+        if (candidates != null) {
+            globalHitCount.incrementAndGet();
+        }
+        else {
+            globalMissCount.incrementAndGet();
+            
+            candidates = McHelper.findEntitiesByBox(
+                Portal.class, level,
+                new AABB(key.minX, key.minY, key.minZ, key.maxX, key.maxY, key.maxZ),
+                IPGlobal.maxNormalPortalRadius,
+                p -> true
+            );
+            
+            if (map.size() >= MAX_SIZE) {
+                map.clear();
+            }
+            map.put(key, candidates);
+        }
+        
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+        
+        ArrayList<Portal> result = new ArrayList<>();
+        for (Portal portal : candidates) {
+            if (!portal.isRemoved() && portal.getBoundingBox().intersects(box) && predicate.test(portal)) {
+                result.add(portal);
+            }
+        }
+        return result;
+    }
+    
+    public void invalidate() {
+        if (!map.isEmpty()) {
+            map.clear();
+            globalInvalidationCount.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Remove the lookups whose expanded box touches the box.
+     */
+    public void invalidate(Level level, AABB box) {
+        if (map.isEmpty()) {
+            return;
+        }
+        
+        boolean removed = map.keySet().removeIf(key -> key.level == level &&
+            key.minX <= box.maxX && key.maxX >= box.minX &&
+            key.minY <= box.maxY && key.maxY >= box.minY &&
+            key.minZ <= box.maxZ && key.maxZ >= box.minZ
+        );
+        if (removed) {
+            globalInvalidationCount.incrementAndGet();
+        }
+    }
+    
+    public static String getGlobalStatString() {
+        long hit = globalHitCount.get();
+        long miss = globalMissCount.get();
+        long total = hit + miss;
+        return "Indirect colliding portal lookup cache: hit %d miss %d invalidation %d hit rate %.2f%%".formatted(
+            hit, miss, globalInvalidationCount.get(), total == 0 ? 0.0 : hit * 100.0 / total
+        );
+    }
+    
+    public static void resetGlobalStat() {
+        globalHitCount.set(0);
+        globalMissCount.set(0);
+        globalInvalidationCount.set(0);
+    }
+}
@@ -180,11 +180,9 @@ public class PortalCollisionHandler {
             return attemptedMove;
         }
         
-        List<Portal> indirectCollidingPortals = McHelper.findEntitiesByBox(
-            Portal.class,
-            collidingPortal.getDestinationWorld(),
+        List<Portal> indirectCollidingPortals = IndirectPortalLookupCache.get(destinationWorld).findPortals(
+            destinationWorld,
             boxOtherSide.expandTowards(transformedAttemptedMove),
-            IPGlobal.maxNormalPortalRadius,
             p -> CollisionHelper.mayEntityCollideWithPortal(
                 entity, p, transformedEyePos, boxOtherSide
             ) && collidingPortal.isOnDestinationSide(p.getOriginPos(), 0.1)
@@ -194,6 +192,8 @@ public class PortalCollisionHandler {
         Direction transformedGravityDirection = collidingPortal.getTransformedGravityDirection(GravityChangerInterface.invoker.getGravityDirection(entity));
         
         Plane innerClipping = collidingPortal.getInnerClipping();
+        CollisionShapeCache clippingCache = innerClipping == null ? null :
+            collidingPortal.getInnerClippingShapeCache(innerClipping);
         
         Vec3 collided = transformedAttemptedMove;
         collided = CollisionHelper.handleCollisionWithShapeProcessor(
@@ -202,7 +202,7 @@ public class PortalCollisionHandler {
             shape -> {
                 VoxelShape current = innerClipping == null ? shape :
                     CollisionHelper.clipVoxelShape(
-                        shape, innerClipping.pos(), innerClipping.normal()
+                        shape, innerClipping.pos(), innerClipping.normal(), clippingCache
                     );
                 
                 if (current == null) {
@@ -317,10 +317,9 @@ public class PortalCollisionHandler {
                 return null;
             }
             
-            shape = Shapes.joinUnoptimized(
-                shape,
-                exclusion,
-                BooleanOp.ONLY_FIRST
+            shape = portal.getThisSideExclusionShapeCache().getOrCompute(
+                shape, shapeBounds,
+                s -> Shapes.joinUnoptimized(s, exclusion, BooleanOp.ONLY_FIRST)
             );
             
             if (shape.isEmpty()) {
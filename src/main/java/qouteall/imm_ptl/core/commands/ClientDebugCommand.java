@@ -61,6 +61,7 @@ import qouteall.imm_ptl.core.render.ForceMainThreadRebuild;
 import qouteall.imm_ptl.core.render.ImmPtlViewArea;
 import qouteall.imm_ptl.core.render.MyGameRenderer;
 import qouteall.imm_ptl.core.render.PortalGroup;
+import qouteall.imm_ptl.core.render.ShaderCodeTransformation;
 import qouteall.imm_ptl.core.render.context_management.RenderStates;
 import qouteall.imm_ptl.core.teleportation.ClientTeleportationManager;
 import qouteall.q_misc_util.Helper;
@@ -181,6 +182,35 @@ public class ClientDebugCommand {
                 return 0;
             })
         );
+        builder = builder.then(Commands
+            .literal("report_shader_transformation_cache")
+            .executes(context -> {
+                CHelper.printChat(ShaderCodeTransformation.getGlobalStatString());
+                ShaderCodeTransformation.resetGlobalStat();
+                return 0;
+            })
+        );
+        builder = builder.then(Commands
+            .literal("teleport_replay_recording_enable")
+            .executes(context -> {
+                ClientTeleportationManager.setReplayRecordingEnabled(true);
+                return 0;
+            })
+        );
+        builder = builder.then(Commands
+            .literal("teleport_replay_recording_disable")
+            .executes(context -> {
+                ClientTeleportationManager.setReplayRecordingEnabled(false);
+                return 0;
+            })
+        );
+        builder = builder.then(Commands
+            .literal("dump_teleport_replay")
+            .executes(context -> {
+                CHelper.printChat(ClientTeleportationManager.dumpReplay());
+                return 0;
+            })
+        );
         builder = builder.then(Commands
             .literal("get_player_colliding_portal_client")
             .executes(context -> {
@@ -694,6 +724,11 @@ public class ClientDebugCommand {
             "client_portal_load_debug",
             cond -> IPGlobal.clientPortalLoadDebug = cond
         );
+        registerSwitchCommand(
+            builder,
+            "portal_render_plan_debug",
+            cond -> IPGlobal.portalRenderPlanDebug = cond
+        );
         registerSwitchCommand(
             builder,
             "mesh_render",
@@ -44,6 +44,8 @@ import qouteall.imm_ptl.core.chunk_loading.ChunkVisibility;
 import qouteall.imm_ptl.core.chunk_loading.ImmPtlChunkTickets;
 import qouteall.imm_ptl.core.chunk_loading.ImmPtlChunkTracking;
 import qouteall.imm_ptl.core.chunk_loading.PlayerChunkLoading;
+import qouteall.imm_ptl.core.collision.CollisionShapeCache;
+import qouteall.imm_ptl.core.collision.IndirectPortalLookupCache;
 import qouteall.imm_ptl.core.ducks.IEDistanceManager;
 import qouteall.imm_ptl.core.ducks.IEServerChunkCache;
 import qouteall.imm_ptl.core.ducks.IEServerWorld;
@@ -55,6 +57,8 @@ import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.shape.PortalShape;
 import qouteall.imm_ptl.core.portal.shape.SpecialFlatPortalShape;
 import qouteall.imm_ptl.core.render.TransformationManager;
+import qouteall.imm_ptl.core.teleportation.ServerTeleportationManager;
+import qouteall.imm_ptl.peripheral.alternate_dimension.ErrorTerrainGenerator;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.api.McRemoteProcedureCall;
 import qouteall.q_misc_util.my_util.MyTaskList;
@@ -628,6 +632,60 @@ public class PortalDebugCommands {
 //            })
 //        );
         
+        builder.then(Commands
+            .literal("report_error_terrain_cache")
+            .requires(serverCommandSource -> serverCommandSource.hasPermission(3))
+            .executes(context -> {
+                CommandSourceStack source = context.getSource();
+                for (ServerLevel world : source.getServer().getAllLevels()) {
+                    if (world.getChunkSource().getGenerator() instanceof ErrorTerrainGenerator generator) {
+                        String stat = generator.getCacheStatString();
+                        source.sendSuccess(
+                            () -> Component.literal(world.dimension().location() + " " + stat),
+                            false
+                        );
+                    }
+                }
+                return 0;
+            })
+        );
+        
+        builder.then(Commands
+            .literal("report_entity_teleport_queue")
+            .requires(serverCommandSource -> serverCommandSource.hasPermission(3))
+            .executes(context -> {
+                CommandSourceStack source = context.getSource();
+                String stat = ServerTeleportationManager.of(source.getServer())
+                    .regularEntityTeleportQueue.getStatString();
+                source.sendSuccess(() -> Component.literal(stat), false);
+                return 0;
+            })
+        );
+        
+        builder.then(Commands
+            .literal("report_collision_shape_cache")
+            .requires(serverCommandSource -> serverCommandSource.hasPermission(3))
+            .executes(context -> {
+                CommandSourceStack source = context.getSource();
+                String stat = CollisionShapeCache.getGlobalStatString();
+                CollisionShapeCache.resetGlobalStat();
+                source.sendSuccess(() -> Component.literal(stat), false);
+                return 0;
+            })
+        );
+        
+        builder.then(Commands
+            .literal("report_indirect_portal_lookup_cache")
+            .requires(serverCommandSource -> serverCommandSource.hasPermission(3))
+            .executes(context -> {
+                CommandSourceStack source = context.getSource();
+                String stat = IndirectPortalLookupCache.getGlobalStatString();
+                IndirectPortalLookupCache.resetGlobalStat();
+                source.sendSuccess(() -> Component.literal(stat), false);
+                return 0;
+            })
+        );
+        
         builder.then(Commands
             .literal("nofog_enable")
             .executes(context -> {
@@ -7,5 +7,13 @@ public interface IEFrustum {
         float minX, float minY, float minZ, float maxX, float maxY, float maxZ
     );
     
+    /**
+     * Same as {@link net.minecraft.client.renderer.culling.Frustum#isVisible} but without allocating the box.
+     * The coordinates are relative to the camera position passed to prepare().
+     */
+    boolean ip_isVisibleWithCamCoord(
+        float minX, float minY, float minZ, float maxX, float maxY, float maxZ
+    );
+    
     Vec3 ip_getViewVec3();
 }
@@ -3,10 +3,6 @@ package qouteall.imm_ptl.core.ducks;
 public interface IERenderSection {
     void portal_fullyReset();
     
-    long portal_getMark();
-    
-    void portal_setMark(long arg);
-    
     void portal_setIndex(int arg);
     
 }
@@ -0,0 +1,12 @@
+package qouteall.imm_ptl.core.mixin.client.accessor;
+
+import com.mojang.blaze3d.vertex.VertexBuffer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(VertexBuffer.class)
+public interface IEVertexBuffer_Accessor {
+    
+    @Accessor("indexCount")
+    int ip_getIndexCount();
+}
@@ -287,7 +287,7 @@ public abstract class MixinLevelRenderer implements IEWorldRenderer {
             if (WorldRenderInfo.isRendering()) {
                 level.getProfiler().push("ip_terrain_setup");
                 VisibleSectionDiscovery.discoverVisibleSections(
-                    level, ((ImmPtlViewArea) viewArea),
+                    ((ImmPtlViewArea) viewArea),
                     camera,
                     new Frustum(frustum).offsetToFullyIncludeCameraCube(8),
                     visibleSections
@@ -320,7 +320,7 @@ public abstract class MixinLevelRenderer implements IEWorldRenderer {
                     
                     level.getProfiler().push("ip_terrain_setup");
                     VisibleSectionDiscovery.discoverVisibleSections(
-                        level, ((ImmPtlViewArea) viewArea),
+                        ((ImmPtlViewArea) viewArea),
                         camera,
                         new Frustum(frustum).offsetToFullyIncludeCameraCube(8),
                         visibleSections
@@ -331,7 +331,7 @@ public abstract class MixinLevelRenderer implements IEWorldRenderer {
                     // debug
                     level.getProfiler().push("ip_terrain_setup_debug");
                     VisibleSectionDiscovery.discoverVisibleSections(
-                        level, ((ImmPtlViewArea) viewArea),
+                        ((ImmPtlViewArea) viewArea),
                         camera,
                         new Frustum(frustum).offsetToFullyIncludeCameraCube(8),
                         visibleSections
@@ -10,8 +10,6 @@ import qouteall.imm_ptl.core.ducks.IERenderSection;
 @Mixin(SectionRenderDispatcher.RenderSection.class)
 public abstract class MixinRenderSection implements IERenderSection {
     
-    private long portal_mark;
-    
     @Shadow
     protected abstract void reset();
     
@@ -25,16 +23,6 @@ public abstract class MixinRenderSection implements IERenderSection {
         reset();
     }
     
-    @Override
-    public long portal_getMark() {
-        return portal_mark;
-    }
-    
-    @Override
-    public void portal_setMark(long arg) {
-        portal_mark = arg;
-    }
-    
     @Override
     public void portal_setIndex(int arg) {
         index = arg;
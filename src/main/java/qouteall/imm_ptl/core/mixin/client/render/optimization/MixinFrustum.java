@@ -2,8 +2,10 @@ package qouteall.imm_ptl.core.mixin.client.render.optimization;
 
 import net.minecraft.client.renderer.culling.Frustum;
 import net.minecraft.world.phys.Vec3;
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
 import org.joml.Vector4f;
+import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
@@ -26,6 +28,10 @@ public class MixinFrustum implements IEFrustum {
     @Shadow
     private Vector4f viewVector;
     
+    @Shadow
+    @Final
+    private FrustumIntersection intersection;
+    
     /**
      * In {@link Frustum#offsetToFullyIncludeCameraCube(int)}
      * the camX, camY, camZ may get changed.
@@ -114,6 +120,21 @@ public class MixinFrustum implements IEFrustum {
         );
     }
     
+    @Override
+    public boolean ip_isVisibleWithCamCoord(
+        float minX, float minY, float minZ, float maxX, float maxY, float maxZ
+    ) {
+        if (ip_canDetermineInvisibleWithCamCoord(minX, minY, minZ, maxX, maxY, maxZ)) {
+            return false;
+        }
+        
+        // the camX, camY, camZ may be moved by offsetToFullyIncludeCameraCube
+        float dx = (float) (portal_camX - camX);
+        float dy = (float) (portal_camY - camY);
+        float dz = (float) (portal_camZ - camZ);
+        return intersection.testAab(minX + dx, minY + dy, minZ + dz, maxX + dx, maxY + dy, maxZ + dz);
+    }
+    
     @Override
     public Vec3 ip_getViewVec3() {
         return new Vec3(
@@ -31,6 +31,7 @@ import qouteall.imm_ptl.core.ducks.IEEntity;
 import qouteall.imm_ptl.core.miscellaneous.IPVanillaCopy;
 import qouteall.imm_ptl.core.portal.EndPortalEntity;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.teleportation.ServerTeleportationManager;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.my_util.CountDownInt;
 
@@ -276,6 +277,10 @@ public abstract class MixinEntity implements IEEntity, ImmPtlEntityExtension {
         }
         
         ip_portalCollisionHandler.notifyCollidingWithPortal(this_, ((Portal) portal));
+        
+        if (!level.isClientSide() && ((Portal) portal).getIsGlobal()) {
+            ServerTeleportationManager.of(level.getServer()).onEntityCollidingWithGlobalPortal(this_);
+        }
     }
     
     @Override
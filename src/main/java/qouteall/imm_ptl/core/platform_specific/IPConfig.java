@@ -72,6 +72,24 @@ public class IPConfig implements ConfigData {
     @ConfigEntry.Gui.Excluded
     public int portalRenderLimit = 200;
     @ConfigEntry.Gui.Excluded
+    public double portalRenderBudget = 40;
+    @ConfigEntry.Gui.Excluded
+    public boolean screenSizedPortalRenderDistance = true;
+    @ConfigEntry.Gui.Excluded
+    public int sectionOcclusionCullingLayers = ~1; // bit i for portal layer i
+    @ConfigEntry.Gui.Excluded
+    public boolean remoteWorldTickScheduling = true;
+    @ConfigEntry.Gui.Excluded
+    public double remoteWorldTickBudgetMs = 5;
+    @ConfigEntry.Gui.Excluded
+    public boolean clientWorldHibernation = true;
+    @ConfigEntry.Gui.Excluded
+    public double clientWorldHibernationSeconds = 60;
+    @ConfigEntry.Gui.Excluded
+    public int regularEntityTeleportBudgetPerTick = 100;
+    @ConfigEntry.Gui.Excluded
+    public boolean continuousEntityPortalCrossing = false;
+    @ConfigEntry.Gui.Excluded
     public boolean doCheckGlError = false;
     @ConfigEntry.Gui.Excluded
     public boolean shaderpackWarning = true;
@@ -170,6 +188,15 @@ public class IPConfig implements ConfigData {
         IPGlobal.maxPortalLayer = maxPortalLayer;
         IPGlobal.lagAttackProof = lagAttackProof;
         IPGlobal.portalRenderLimit = portalRenderLimit;
+        IPGlobal.portalRenderBudget = portalRenderBudget;
+        IPGlobal.screenSizedPortalRenderDistance = screenSizedPortalRenderDistance;
+        IPGlobal.sectionOcclusionCullingLayers = sectionOcclusionCullingLayers;
+        IPGlobal.remoteWorldTickScheduling = remoteWorldTickScheduling;
+        IPGlobal.remoteWorldTickBudgetMs = remoteWorldTickBudgetMs;
+        IPGlobal.clientWorldHibernation = clientWorldHibernation;
+        IPGlobal.clientWorldHibernationSeconds = clientWorldHibernationSeconds;
+        IPGlobal.regularEntityTeleportBudgetPerTick = regularEntityTeleportBudgetPerTick;
+        IPGlobal.continuousEntityPortalCrossing = continuousEntityPortalCrossing;
         IPGlobal.netherPortalFindingRadius = portalSearchingRange;
         IPGlobal.renderYourselfInPortal = renderYourselfInPortal;
         IPGlobal.activeLoading = serverSideNormalChunkLoading;
@@ -5,7 +5,6 @@ import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.phys.Vec3;
 import org.joml.Matrix3d;
-import org.joml.Matrix4d;
 import org.joml.Quaterniond;
 import qouteall.q_misc_util.my_util.DQuaternion;
 
@@ -25,8 +24,8 @@ public class Mirror extends Portal {
     
     // rotate before mirror
     @Override
-    public Vec3 transformLocalVecNonScale(Vec3 localVec) {
-        return getMirrored(super.transformLocalVecNonScale(localVec));
+    protected Vec3 getMirrorNormal() {
+        return getNormal();
     }
     
     @Override
@@ -40,26 +39,7 @@ public class Mirror extends Portal {
     }
     
     public static Vec3 mirroredVec(Vec3 vec, Vec3 normal) {
-        double len = vec.dot(normal);
-        return vec.add(normal.scale(len * -2));
-    }
-    
-    @Override
-    public Vec3 inverseTransformLocalVecNonScale(Vec3 localVec) {
-        return super.inverseTransformLocalVecNonScale(getMirrored(localVec));
-    }
-    
-    @Override
-    public Matrix4d getFullSpaceTransformation() {
-        Vec3 originPos = getOriginPos();
-        Vec3 destPos = getDestPos();
-        DQuaternion rot = getRotationD();
-        return new Matrix4d()
-            .translation(destPos.x, destPos.y, destPos.z)
-            .reflect(getNormal().x, getNormal().y, getNormal().z, 0)
-            .scale(getScale())
-            .rotate(rot.toMcQuaternion())
-            .translate(-originPos.x, -originPos.y, -originPos.z);
+        return PortalTransform.mirroredVec(vec, normal);
     }
     
     /**
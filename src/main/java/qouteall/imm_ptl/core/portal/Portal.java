@@ -41,6 +41,8 @@ import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.api.ImmPtlEntityExtension;
 import qouteall.imm_ptl.core.api.PortalAPI;
+import qouteall.imm_ptl.core.collision.CollisionShapeCache;
+import qouteall.imm_ptl.core.collision.IndirectPortalLookupCache;
 import qouteall.imm_ptl.core.compat.PehkuiInterface;
 import qouteall.imm_ptl.core.compat.iris_compatibility.IrisInterface;
 import qouteall.imm_ptl.core.mc_utils.IPEntityEventListenableEntity;
@@ -62,8 +64,10 @@ import qouteall.imm_ptl.core.portal.shape.SpecialFlatPortalShape;
 import qouteall.imm_ptl.core.render.PortalGroup;
 import qouteall.imm_ptl.core.render.PortalRenderable;
 import qouteall.imm_ptl.core.render.renderer.PortalRenderer;
+import qouteall.imm_ptl.core.teleportation.TeleportationBroadPhase;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.my_util.BoxPredicate;
+import qouteall.q_misc_util.my_util.DAffineTransform;
 import qouteall.q_misc_util.my_util.DQuaternion;
 import qouteall.q_misc_util.my_util.Mesh2D;
 import qouteall.q_misc_util.my_util.MyTaskList;
@@ -199,12 +203,19 @@ public class Portal extends Entity implements
     // these are caches
     private @Nullable AABB thinBoundingBoxCache;
     private @Nullable AABB boundingBoxCache;
+    private @Nullable AABB teleportationBoundsCache;
     private @Nullable Vec3 normalCache;
     private @Nullable Vec3 contentDirectionCache;
     private @Nullable PortalState portalStateCache;
     private @Nullable VoxelShape thisSideCollisionExclusion;
     private @Nullable UnilateralPortalState thisSideStateCache;
     private @Nullable UnilateralPortalState otherSideStateCache;
+    private @Nullable DAffineTransform transformCache;
+    private @Nullable DAffineTransform inverseTransformCache;
+    private @Nullable Matrix4d fullSpaceTransformationCache;
+    private @Nullable Plane innerClippingShapeCachePlane;
+    private @Nullable CollisionShapeCache innerClippingShapeCache;
+    private @Nullable CollisionShapeCache thisSideExclusionShapeCache;
 
     public Portal(
         EntityType<?> entityType, Level world
@@ -445,9 +456,7 @@ public class Portal extends Entity implements
      */
     @Override
     public Vec3 transformPoint(Vec3 pos) {
-        Vec3 localPos = pos.subtract(getOriginPos());
-        
-        return transformLocalVec(localPos).add(getDestPos());
+        return getCachedTransform().transformPoint(pos);
     }
     
     /**
@@ -455,7 +464,32 @@ public class Portal extends Entity implements
      */
     @Override
     public Vec3 transformLocalVec(Vec3 localVec) {
-        return transformLocalVecNonScale(localVec).scale(scaling);
+        return getCachedTransform().transformVec(localVec);
+    }
+    
+    /**
+     * @return the transformation of {@link #transformPoint(Vec3)}.
+     * It's rebuilt after {@link #updateCache()}, which also runs when the portal moves.
+     */
+    public DAffineTransform getCachedTransform() {
+        if (transformCache == null) {
+            transformCache = PortalTransform.getTransform(
+                getOriginPos(), getDestPos(), rotation, scaling, getMirrorNormal()
+            );
+        }
+        return transformCache;
+    }
+    
+    /**
+     * @return the transformation of {@link #inverseTransformPoint(Vec3)}
+     */
+    public DAffineTransform getCachedInverseTransform() {
+        if (inverseTransformCache == null) {
+            inverseTransformCache = PortalTransform.getInverseTransform(
+                getOriginPos(), getDestPos(), rotation, scaling, getMirrorNormal()
+            );
+        }
+        return inverseTransformCache;
     }
     
     /**
@@ -533,18 +567,34 @@ public class Portal extends Entity implements
      * If the portal attributes get changed, these cache should be updated
      */
     public void updateCache() {
+        transformCache = null;
+        inverseTransformCache = null;
+        fullSpaceTransformationCache = null;
+        
         if (axisW == null || axisH == null) {
             return;
         }
         
+        // if the bounding box is not computed, no lookup has found the portal with it
+        AABB oldBoundingBox = boundingBoxCache;
+        
         portalStateCache = null;
         boundingBoxCache = null;
+        teleportationBoundsCache = null;
         thinBoundingBoxCache = null;
         normalCache = null;
         contentDirectionCache = null;
         thisSideCollisionExclusion = null;
         thisSideStateCache = null;
         otherSideStateCache = null;
+        innerClippingShapeCachePlane = null;
+        innerClippingShapeCache = null;
+        thisSideExclusionShapeCache = null;
+        IndirectPortalLookupCache lookupCache = IndirectPortalLookupCache.get(level());
+        if (oldBoundingBox != null) {
+            lookupCache.invalidate(level(), oldBoundingBox);
+        }
+        lookupCache.invalidate(level(), getBoundingBox());
         
         if (!level().isClientSide()) {
             reloadAndSyncToClientNextTick();
@@ -846,6 +896,7 @@ public class Portal extends Entity implements
     
     public void setScaleTransformation(double newScale) {
         scaling = newScale;
+        updateCache();
     }
     
 
@@ -950,6 +1001,19 @@ public class Portal extends Entity implements
         return boundingBoxCache;
     }
     
+    /**
+     * Unlike {@link #getBoundingBox()}, it's not size-limited,
+     * so a segment that crosses the portal always intersects with it.
+     */
+    public AABB getTeleportationBounds() {
+        if (teleportationBoundsCache == null) {
+            teleportationBoundsCache = getPortalShape()
+                .getBoundingBox(getThisSideState(), false, 0)
+                .inflate(TeleportationBroadPhase.BOUNDS_MARGIN);
+        }
+        return teleportationBoundsCache;
+    }
+    
     protected boolean shouldLimitBoundingBox() {
         return !getIsGlobal();
     }
@@ -1186,29 +1250,28 @@ public class Portal extends Entity implements
     }
     
     public Vec3 transformLocalVecNonScale(Vec3 localVec) {
-        if (rotation == null) {
-            return localVec;
-        }
-        
-        return rotation.rotate(localVec);
+        return PortalTransform.transformLocalVecNonScale(rotation, getMirrorNormal(), localVec);
     }
     
     public Vec3 inverseTransformLocalVecNonScale(Vec3 localVec) {
-        if (rotation == null) {
-            return localVec;
-        }
-        
-        return rotation.getConjugated().rotate(localVec);
+        return PortalTransform.inverseTransformLocalVecNonScale(rotation, getMirrorNormal(), localVec);
+    }
+    
+    /**
+     * @return the normal of the reflection plane that is applied after rotation. null if it does not reflect
+     */
+    protected @Nullable Vec3 getMirrorNormal() {
+        return null;
     }
     
     @Override
     public Vec3 inverseTransformLocalVec(Vec3 localVec) {
-        return inverseTransformLocalVecNonScale(localVec).scale(1.0 / scaling);
+        return getCachedInverseTransform().transformVec(localVec);
     }
     
     @Override
     public Vec3 inverseTransformPoint(Vec3 point) {
-        return getOriginPos().add(inverseTransformLocalVec(point.subtract(getDestPos())));
+        return getCachedInverseTransform().transformPoint(point);
     }
 
     /**
@@ -1395,15 +1458,16 @@ public class Portal extends Entity implements
         throw new UnsupportedOperationException();
     }
     
+    /**
+     * Same as {@link #getFullSpaceTransformation()} but writes into the given matrix
+     * @return dest
+     */
+    public Matrix4d getFullSpaceTransformation(Matrix4d dest) {
+        return getCachedTransform().toMatrix(dest);
+    }
+    
     public Matrix4d getFullSpaceTransformation() {
-        Vec3 originPos = getOriginPos();
-        Vec3 destPos = getDestPos();
-        DQuaternion rot = getRotationD();
-        return new Matrix4d()
-            .translation(destPos.x, destPos.y, destPos.z)
-            .scale(getScale())
-            .rotate(rot.toMcQuaternion())
-            .translate(-originPos.x, -originPos.y, -originPos.z);
+        return getFullSpaceTransformation(new Matrix4d());
     }
     
     /**
@@ -1540,9 +1604,14 @@ public class Portal extends Entity implements
     }
     
     public TransformationDesc getTransformationDesc() {
+        if (fullSpaceTransformationCache == null) {
+            fullSpaceTransformationCache = getFullSpaceTransformation(new Matrix4d());
+        }
+        
+        // the cached matrix is never modified, updateCache() drops it and a new one gets built
         return new TransformationDesc(
             getDestDim(),
-            getFullSpaceTransformation(),
+            fullSpaceTransformationCache,
             getRotationD(),
             getScale()
         );
@@ -1980,6 +2049,28 @@ public class Portal extends Entity implements
         }
         return thisSideCollisionExclusion;
     }
+    
+    /**
+     * The cache of block collision shapes clipped by the inner clipping plane.
+     * A new cache is used if the plane changes.
+     */
+    public CollisionShapeCache getInnerClippingShapeCache(Plane innerClipping) {
+        if (innerClippingShapeCache == null || !innerClipping.equals(innerClippingShapeCachePlane)) {
+            innerClippingShapeCache = new CollisionShapeCache();
+            innerClippingShapeCachePlane = innerClipping;
+        }
+        return innerClippingShapeCache;
+    }
+    
+    /**
+     * The cache of block collision shapes with {@link #getThisSideCollisionExclusion()} subtracted.
+     */
+    public CollisionShapeCache getThisSideExclusionShapeCache() {
+        if (thisSideExclusionShapeCache == null) {
+            thisSideExclusionShapeCache = new CollisionShapeCache();
+        }
+        return thisSideExclusionShapeCache;
+    }
 
     // for PortalRenderable
     @Override
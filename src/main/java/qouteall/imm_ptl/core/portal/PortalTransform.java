@@ -0,0 +1,71 @@
+package qouteall.imm_ptl.core.portal;
+
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+import qouteall.q_misc_util.my_util.DAffineTransform;
+import qouteall.q_misc_util.my_util.DQuaternion;
+
+/**
+ * The transformation of {@link Portal} and {@link Mirror}: firstly rotate, then mirror, then scale.
+ * It does not depend on the entity, so that it can be used without a world.
+ */
+public final class PortalTransform {
+    
+    public static Vec3 transformLocalVecNonScale(
+        @Nullable DQuaternion rotation, @Nullable Vec3 mirrorNormal, Vec3 localVec
+    ) {
+        Vec3 result = rotation == null ? localVec : rotation.rotate(localVec);
+        if (mirrorNormal != null) {
+            result = mirroredVec(result, mirrorNormal);
+        }
+        return result;
+    }
+    
+    public static Vec3 inverseTransformLocalVecNonScale(
+        @Nullable DQuaternion rotation, @Nullable Vec3 mirrorNormal, Vec3 localVec
+    ) {
+        if (mirrorNormal != null) {
+            localVec = mirroredVec(localVec, mirrorNormal);
+        }
+        return rotation == null ? localVec : rotation.getConjugated().rotate(localVec);
+    }
+    
+    public static Vec3 transformLocalVec(
+        @Nullable DQuaternion rotation, double scaling, @Nullable Vec3 mirrorNormal, Vec3 localVec
+    ) {
+        return transformLocalVecNonScale(rotation, mirrorNormal, localVec).scale(scaling);
+    }
+    
+    public static Vec3 inverseTransformLocalVec(
+        @Nullable DQuaternion rotation, double scaling, @Nullable Vec3 mirrorNormal, Vec3 localVec
+    ) {
+        return inverseTransformLocalVecNonScale(rotation, mirrorNormal, localVec).scale(1.0 / scaling);
+    }
+    
+    public static Vec3 mirroredVec(Vec3 vec, Vec3 normal) {
+        double len = vec.dot(normal);
+        return vec.add(normal.scale(len * -2));
+    }
+    
+    /**
+     * @return the transformation that equals {@link Portal#transformPoint(Vec3)}
+     */
+    public static DAffineTransform getTransform(
+        Vec3 originPos, Vec3 destPos, @Nullable DQuaternion rotation, double scaling, @Nullable Vec3 mirrorNormal
+    ) {
+        return DAffineTransform.fromLinearPart(
+            v -> transformLocalVec(rotation, scaling, mirrorNormal, v), originPos, destPos
+        );
+    }
+    
+    /**
+     * @return the transformation that equals {@link Portal#inverseTransformPoint(Vec3)}
+     */
+    public static DAffineTransform getInverseTransform(
+        Vec3 originPos, Vec3 destPos, @Nullable DQuaternion rotation, double scaling, @Nullable Vec3 mirrorNormal
+    ) {
+        return DAffineTransform.fromLinearPart(
+            v -> inverseTransformLocalVec(rotation, scaling, mirrorNormal, v), destPos, originPos
+        );
+    }
+}
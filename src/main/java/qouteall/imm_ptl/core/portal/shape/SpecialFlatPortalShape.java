@@ -15,9 +15,21 @@ import qouteall.q_misc_util.my_util.*;
 public final class SpecialFlatPortalShape implements PortalShape {
     public final @NotNull Mesh2D mesh;
     
+    // the mesh is rarely changed after creating the shape, but queried every frame and tick.
+    // rebuilt lazily when the mesh changes. building it concurrently does no harm
+    private volatile @Nullable TriangleBVH bvh;
+    
     public SpecialFlatPortalShape(@NotNull Mesh2D mesh) {
         this.mesh = mesh;
-        this.mesh.enableTriangleLookup();
+    }
+    
+    public @NotNull TriangleBVH getBVH() {
+        TriangleBVH currBVH = bvh;
+        if (currBVH == null || currBVH.getMeshModificationCount() != mesh.getModificationCount()) {
+            currBVH = TriangleBVH.build(mesh);
+            bvh = currBVH;
+        }
+        return currBVH;
     }
     
     public static void init() {
@@ -88,7 +100,7 @@ public final class SpecialFlatPortalShape implements PortalShape {
         double boxR = Math.max(leniency, 0.00001);
         double nx = localX / halfWidth;
         double ny = localY / halfHeight;
-        boolean intersectWithMesh = mesh.boxIntersects(
+        boolean intersectWithMesh = getBVH().boxIntersects(
             nx - boxR, ny - boxR,
             nx + boxR, ny + boxR
         );
@@ -209,7 +221,7 @@ public final class SpecialFlatPortalShape implements PortalShape {
         double halfWidth = portalState.width() / 2;
         double halfHeight = portalState.height() / 2;
         
-        return mesh.boxIntersects(
+        return getBVH().boxIntersects(
             minX / halfWidth, minY / halfHeight,
             maxX / halfWidth, maxY / halfHeight
         );
@@ -2,6 +2,7 @@ package qouteall.imm_ptl.core.render;
 
 import com.mojang.blaze3d.vertex.PoseStack;
 import de.nick1st.imm_ptl.events.ClientCleanupEvent;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.client.player.LocalPlayer;
@@ -34,6 +35,8 @@ import qouteall.imm_ptl.core.render.renderer.PortalRenderer;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.my_util.Plane;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.WeakHashMap;
 
 //@OnlyIn(Dist.CLIENT)
@@ -43,6 +46,17 @@ public class CrossPortalEntityRenderer {
     //there is no weak hash set
     private static final WeakHashMap<Entity, Object> collidedEntities = new WeakHashMap<>();
     
+    private static record Projection(Entity entity, Portal collidingPortal) {}
+    
+    // the projections of the collided entities, indexed by the colliding portal's destination dimension.
+    // it's rebuilt after ticking, so that rendering a world only visits the projections in that world.
+    // it holds the entities until the next tick
+    private static final Object2ObjectOpenHashMap<ResourceKey<Level>, List<Projection>> projectionIndex =
+        new Object2ObjectOpenHashMap<>();
+    private static int indexedProjectionNum = 0;
+    private static int renderedProjectionNum = 0;
+    private static int lastFrameRenderedProjectionNum = 0;
+    
     public static boolean isRenderingEntityNormally = false;
     
     public static boolean isRenderingEntityProjection = false;
@@ -58,6 +72,8 @@ public class CrossPortalEntityRenderer {
     
     private static void cleanUp() {
         collidedEntities.clear();
+        projectionIndex.clear();
+        indexedProjectionNum = 0;
     }
     
     private static void onClientTick() {
@@ -65,6 +81,41 @@ public class CrossPortalEntityRenderer {
             Entity entity = entry.getKey();
             return entity.isRemoved() || !((IEEntity) entity).ip_isCollidingWithPortal();
         });
+        
+        rebuildProjectionIndex();
+    }
+    
+    // the portal collisions only change when ticking
+    private static void rebuildProjectionIndex() {
+        projectionIndex.clear();
+        indexedProjectionNum = 0;
+        
+        for (Entity entity : collidedEntities.keySet()) {
+            PortalCollisionHandler collisionHandler = ((IEEntity) entity).ip_getPortalCollisionHandler();
+            
+            if (collisionHandler != null) {
+                for (PortalCollisionEntry e : collisionHandler.portalCollisions) {
+                    Portal collidingPortal = e.portal;
+                    if (!(collidingPortal instanceof Mirror)) {
+                        projectionIndex.computeIfAbsent(
+                            collidingPortal.getDestDim(), k -> new ArrayList<>()
+                        ).add(new Projection(entity, collidingPortal));
+                        indexedProjectionNum++;
+                    }
+                }
+            }
+        }
+    }
+    
+    public static void onPreRender() {
+        lastFrameRenderedProjectionNum = renderedProjectionNum;
+        renderedProjectionNum = 0;
+    }
+    
+    public static String getDebugString() {
+        return "Entity Projections: indexed %d rendered %d".formatted(
+            indexedProjectionNum, lastFrameRenderedProjectionNum
+        );
     }
     
     public static void onEntityTickClient(Entity entity) {
@@ -150,22 +201,18 @@ public class CrossPortalEntityRenderer {
             return;
         }
         
-        ResourceKey<Level> clientDim = client.level.dimension();
+        List<Projection> projections = projectionIndex.get(client.level.dimension());
+        if (projections == null) {
+            return;
+        }
         
-        for (Entity entity : collidedEntities.keySet()) {
-            PortalCollisionHandler collisionHandler = ((IEEntity) entity).ip_getPortalCollisionHandler();
-            
-            if (collisionHandler != null) {
-                for (PortalCollisionEntry e : collisionHandler.portalCollisions) {
-                    Portal collidingPortal = e.portal;
-                    if (!(collidingPortal instanceof Mirror)) {
-                        ResourceKey<Level> projectionDimension = collidingPortal.getDestDim();
-                        if (clientDim == projectionDimension) {
-                            renderProjectedEntity(entity, collidingPortal, matrixStack);
-                        }
-                    }
-                }
+        for (Projection projection : projections) {
+            Entity entity = projection.entity();
+            // the entity may be removed or teleported after ticking
+            if (entity.isRemoved() || entity.level() != projection.collidingPortal().level()) {
+                continue;
             }
+            renderProjectedEntity(entity, projection.collidingPortal(), matrixStack);
         }
     }
     
@@ -274,6 +321,7 @@ public class CrossPortalEntityRenderer {
             }
         }
         
+        renderedProjectionNum++;
         isRenderingEntityProjection = true;
         matrixStack.pushPose();
         try {
@@ -12,9 +12,11 @@ import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.PortalLike;
 import qouteall.imm_ptl.core.portal.animation.UnilateralPortalState;
 import qouteall.imm_ptl.core.render.context_management.PortalRendering;
+import qouteall.q_misc_util.my_util.BoxBatch;
 import qouteall.q_misc_util.my_util.BoxPredicateF;
 import qouteall.q_misc_util.my_util.Plane;
 
+import java.util.Arrays;
 import java.util.Comparator;
 
 //@OnlyIn(Dist.CLIENT)
@@ -86,15 +88,9 @@ public class FrustumCuller {
         }
         
         if (PortalRendering.isRendering()) {
-            PortalLike renderingPortal = PortalRendering.getRenderingPortal();
-            
             // do inner frustum culling
             
-            if (renderingPortal instanceof Portal portal) {
-                return portal.getPortalShape().getInnerFrustumCullingFunc(
-                    portal, new Vec3(cameraX, cameraY, cameraZ)
-                );
-            }
+            return getRenderingPortalInnerFrustumCullingFunc(new Vec3(cameraX, cameraY, cameraZ));
         }
         else {
             if (!IPCGlobal.useSuperAdvancedFrustumCulling) {
@@ -123,6 +119,28 @@ public class FrustumCuller {
         return null;
     }
     
+    /**
+     * The inner frustum culling func of the portal that's being rendered. It's also used in
+     * {@link VisibleSectionDiscovery} to stop discovering the sections that cannot be seen through the portal.
+     * The func takes camera-relative coordinates. Returning true means culled.
+     * Must use after checking {@link PortalRendering#isRendering()}
+     */
+    public static @Nullable BoxPredicateF getRenderingPortalInnerFrustumCullingFunc(Vec3 cameraPos) {
+        if (!IPCGlobal.doUseAdvancedFrustumCulling) {
+            return null;
+        }
+        if (IrisInterface.invoker.isRenderingShadowMap()) {
+            return null;
+        }
+        
+        PortalLike renderingPortal = PortalRendering.getRenderingPortal();
+        if (renderingPortal instanceof Portal portal) {
+            return portal.getPortalShape().getInnerFrustumCullingFunc(portal, cameraPos);
+        }
+        
+        return null;
+    }
+    
     @Nullable
     private static Portal getCurrentNearestVisibleCullablePortal() {
         if (TransformationManager.isIsometricView) {
@@ -182,24 +200,39 @@ public class FrustumCuller {
         // 2  1
         // 3  0
         Vec3[] vTransformed = new Vec3[]{
-            portal.transformPoint(v[0]).subtract(cameraPos),
-            portal.transformPoint(v[1]).subtract(cameraPos),
-            portal.transformPoint(v[2]).subtract(cameraPos),
-            portal.transformPoint(v[3]).subtract(cameraPos)
+            portal.transformPoint(v[0]),
+            portal.transformPoint(v[1]),
+            portal.transformPoint(v[2]),
+            portal.transformPoint(v[3])
         };
         
-        if (portal instanceof Mirror) {
+        return getFlatPortalInnerFrustumCullingFunc(vTransformed, portal instanceof Mirror, cameraPos);
+    }
+    
+    /**
+     * @param transformedVertices the four vertices of the portal in counter-clockwise order,
+     *                            transformed to the world inside the portal
+     */
+    public static Frustum4Planes getFlatPortalInnerFrustumCullingFunc(
+        Vec3[] transformedVertices, boolean isMirror, Vec3 cameraPos
+    ) {
+        // 2  1
+        // 3  0
+        Vec3[] v = new Vec3[]{
+            transformedVertices[0].subtract(cameraPos),
+            transformedVertices[1].subtract(cameraPos),
+            transformedVertices[2].subtract(cameraPos),
+            transformedVertices[3].subtract(cameraPos)
+        };
+        
+        if (isMirror) {
             // flip for mirror
-            vTransformed = new Vec3[]{
-                vTransformed[3], vTransformed[2], vTransformed[1], vTransformed[0]
-            };
+            v = new Vec3[]{v[3], v[2], v[1], v[0]};
         }
         
-        Frustum4Planes fourPlanes =
-            getFrustumPlanesFromFourVerticesCounterClockwise(vTransformed);
-        
         // to cull out, it must be fully outside portal frustum
-        return fourPlanes::isFullyOutside;
+        // returned directly so that its batch test is used
+        return getFrustumPlanesFromFourVerticesCounterClockwise(v);
     }
     
     // the frustum culling func returning true means culled
@@ -267,12 +300,38 @@ public class FrustumCuller {
         return testingBoxX * planeX + testingBoxY * planeY + testingBoxZ * planeZ + planeW < 0;
     }
     
+    /**
+     * As a {@link BoxPredicateF}, it returns true for the boxes fully outside.
+     */
     public record Frustum4Planes(
         float p0X, float p0Y, float p0Z, float p0W,
         float p1X, float p1Y, float p1Z, float p1W,
         float p2X, float p2Y, float p2Z, float p2W,
         float p3X, float p3Y, float p3Z, float p3W
-    ) {
+    ) implements BoxPredicateF {
+        @Override
+        public boolean test(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+            return isFullyOutside(minX, minY, minZ, maxX, maxY, maxZ);
+        }
+        
+        /**
+         * A box is fully outside when it's fully behind any plane,
+         * that's when the min of the farthest corner distances of the four planes is negative.
+         */
+        @Override
+        public void testBatch(BoxBatch boxes, long[] result) {
+            int size = boxes.size();
+            float[] distances = boxes.getScratch();
+            Arrays.fill(distances, 0, size, Float.POSITIVE_INFINITY);
+            
+            minFarthestCornerDistance(boxes, p0X, p0Y, p0Z, p0W, distances);
+            minFarthestCornerDistance(boxes, p1X, p1Y, p1Z, p1W, distances);
+            minFarthestCornerDistance(boxes, p2X, p2Y, p2Z, p2W, distances);
+            minFarthestCornerDistance(boxes, p3X, p3Y, p3Z, p3W, distances);
+            
+            packNegative(distances, size, result);
+        }
+        
         public boolean isFullyOutside(
             float minX, float minY, float minZ, float maxX, float maxY, float maxZ
         ) {
@@ -311,6 +370,43 @@ public class FrustumCuller {
     }
     
     
+    /**
+     * The batch form of {@link #isFullyBehindPlane}. For each box, the distance of the box corner
+     * that's farthest towards the plane normal is computed in the same order as the scalar one,
+     * so that the results are the same, and the min with the existing value is stored.
+     * The corner choice only depends on the plane, so the loop has no branch and no call,
+     * which the JIT can compile to SIMD instructions.
+     */
+    public static void minFarthestCornerDistance(
+        BoxBatch boxes,
+        float planeX, float planeY, float planeZ, float planeW,
+        float[] distances
+    ) {
+        float[] xs = planeX > 0 ? boxes.getMaxX() : boxes.getMinX();
+        float[] ys = planeY > 0 ? boxes.getMaxY() : boxes.getMinY();
+        float[] zs = planeZ > 0 ? boxes.getMaxZ() : boxes.getMinZ();
+        int size = boxes.size();
+        for (int i = 0; i < size; i++) {
+            distances[i] = Math.min(distances[i], xs[i] * planeX + ys[i] * planeY + zs[i] * planeZ + planeW);
+        }
+    }
+    
+    /**
+     * Sets the result bits of the negative distances and clears the others.
+     */
+    public static void packNegative(float[] distances, int size, long[] result) {
+        int wordNum = BoxBatch.getResultLength(size);
+        for (int word = 0; word < wordNum; word++) {
+            int start = word << 6;
+            int end = Math.min(start + 64, size);
+            long bits = 0;
+            for (int i = start; i < end; i++) {
+                bits |= (distances[i] < 0 ? 1L : 0L) << (i - start);
+            }
+            result[word] = bits;
+        }
+    }
+    
     @Deprecated
     public enum BatchTestResult {
         all_true,
@@ -14,7 +14,6 @@ import net.minecraft.util.Mth;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.neoforged.neoforge.common.NeoForge;
-import org.apache.commons.lang3.Validate;
 import org.jetbrains.annotations.Nullable;
 import qouteall.imm_ptl.core.ClientWorldLoader;
 import qouteall.imm_ptl.core.IPGlobal;
@@ -30,6 +29,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Queue;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.LongConsumer;
 
 //@OnlyIn(Dist.CLIENT)
@@ -44,21 +44,10 @@ public class ImmPtlViewArea extends ViewArea {
         }
     }
     
-    public static class Preset {
-        public final RenderSection[] data;
-        public long lastActiveTime = 0;
-        
-        public Preset(
-            RenderSection[] data
-        ) {
-            this.data = data;
-        }
-    }
-    
     private final SectionRenderDispatcher factory;
     private final Long2ObjectOpenHashMap<Column> columnMap = new Long2ObjectOpenHashMap<>();
-    private final Long2ObjectOpenHashMap<Preset> presets = new Long2ObjectOpenHashMap<>();
-    private Preset currentPreset = null;
+    // created when the camera is first positioned. it fills the vanilla sections array
+    private @Nullable ToroidalColumnArray<RenderSection> columnArray = null;
     
     public final int minSectionY;
     public final int endSectionY;
@@ -125,7 +114,6 @@ public class ImmPtlViewArea extends ViewArea {
             RenderSection::releaseBuffers
         );
         columnMap.clear();
-        presets.clear();
         
         isAlive = false;
     }
@@ -144,20 +132,29 @@ public class ImmPtlViewArea extends ViewArea {
         
         int cameraChunkX = cameraBlockX >> 4;
         int cameraChunkZ = cameraBlockZ >> 4;
-        ChunkPos cameraChunkPos = new ChunkPos(
-            cameraChunkX, cameraChunkZ
-        );
+        if (columnArray == null) {
+            columnArray = new ToroidalColumnArray<>(
+                sections, sectionGridSizeX, sectionGridSizeY, sectionGridSizeZ
+            );
+        }
         
-        Preset preset = presets.computeIfAbsent(
-            cameraChunkPos.toLong(),
-            whatever -> {
-                return createPresetByChunkPos(cameraChunkX, cameraChunkZ);
+        // only the columns that enter or leave the covered area are updated
+        long currentTime = System.nanoTime();
+        columnArray.moveTo(
+            cameraChunkX, cameraChunkZ,
+            columnChunkPos -> {
+                Column column = provideColumn(columnChunkPos);
+                column.mark = currentTime;
+                return column.sections;
+            },
+            columnChunkPos -> {
+                // keep the column for some time in case the camera moves back
+                Column column = columnMap.get(columnChunkPos);
+                if (column != null) {
+                    column.mark = currentTime;
+                }
             }
         );
-        preset.lastActiveTime = System.nanoTime();
-        
-        this.sections = preset.data;
-        this.currentPreset = preset;
         
         Minecraft.getInstance().getProfiler().pop();
     }
@@ -176,68 +173,6 @@ public class ImmPtlViewArea extends ViewArea {
         return column.sections[offsetChunkY];
     }
     
-    /**
-     * {@link ViewArea#repositionCamera(double, double)}
-     */
-    private Preset createPresetByChunkPos(int sectionX, int sectionZ) {
-        RenderSection[] sections1 =
-            new RenderSection[this.sectionGridSizeX * this.sectionGridSizeY * this.sectionGridSizeZ];
-        
-        for (int cx = 0; cx < this.sectionGridSizeX; ++cx) {
-            int xBlockSize = this.sectionGridSizeX * 16;
-            int xStart = (sectionX << 4) - xBlockSize / 2;
-            int px = xStart + Math.floorMod(cx * 16 - xStart, xBlockSize);
-            
-            for (int cz = 0; cz < this.sectionGridSizeZ; ++cz) {
-                int zBlockSize = this.sectionGridSizeZ * 16;
-                int zStart = (sectionZ << 4) - zBlockSize / 2;
-                int pz = zStart + Math.floorMod(cz * 16 - zStart, zBlockSize);
-                
-                Validate.isTrue(px % 16 == 0);
-                Validate.isTrue(pz % 16 == 0);
-                
-                Column column = provideColumn(ChunkPos.asLong(px >> 4, pz >> 4));
-                
-                for (int offsetCy = 0; offsetCy < this.sectionGridSizeY; ++offsetCy) {
-                    int index = this.getChunkIndex(cx, offsetCy, cz);
-                    sections1[index] = column.sections[offsetCy];
-                }
-            }
-        }
-        
-        return new Preset(sections1);
-    }
-    
-    /**
-     * {@link ViewArea#repositionCamera(double, double)}
-     */
-    private void foreachPresetCoveredChunkPoses(
-        int centerChunkX, int centerChunkZ,
-        LongConsumer func
-    ) {
-        RenderSection[] sections1 =
-            new RenderSection[this.sectionGridSizeX * this.sectionGridSizeY * this.sectionGridSizeZ];
-        
-        for (int cx = 0; cx < this.sectionGridSizeX; ++cx) {
-            int xBlockSize = this.sectionGridSizeX * 16;
-            int xStart = (centerChunkX << 4) - xBlockSize / 2;
-            int px = xStart + Math.floorMod(cx * 16 - xStart, xBlockSize);
-            
-            for (int cz = 0; cz < this.sectionGridSizeZ; ++cz) {
-                int zBlockSize = this.sectionGridSizeZ * 16;
-                int zStart = (centerChunkZ << 4) - zBlockSize / 2;
-                int pz = zStart + Math.floorMod(cz * 16 - zStart, zBlockSize);
-                
-                Validate.isTrue(px % 16 == 0);
-                Validate.isTrue(pz % 16 == 0);
-                
-                long sectionPos = ChunkPos.asLong(px >> 4, pz >> 4);
-                
-                func.accept(sectionPos);
-            }
-        }
-    }
-    
     //copy because private
     private int getChunkIndex(int x, int y, int z) {
         return (z * this.sectionGridSizeY + y) * this.sectionGridSizeX + x;
@@ -290,30 +225,17 @@ public class ImmPtlViewArea extends ViewArea {
     private void purge() {
         Minecraft.getInstance().getProfiler().push("my_built_section_storage_purge");
         
-        long dropTime = Helper.secondToNano(GcMonitor.isMemoryNotEnough() ? 3 : 20);
-        
         long currentTime = System.nanoTime();
         
-        presets.long2ObjectEntrySet().removeIf(entry -> {
-            Preset preset = entry.getValue();
-            
-            long centerChunkPos = entry.getLongKey();
-            
-            boolean shouldDropPreset = shouldDropPreset(dropTime, currentTime, preset);
-            
-            if (!shouldDropPreset) {
-                foreachPresetCoveredChunkPoses(
-                    ChunkPos.getX(centerChunkPos),
-                    ChunkPos.getZ(centerChunkPos),
-                    columnChunkPos -> {
-                        Column column = columnMap.get(columnChunkPos);
-                        column.mark = currentTime;
-                    }
-                );
-            }
-            
-            return shouldDropPreset;
-        });
+        // the columns in the sections array must not be removed
+        if (columnArray != null) {
+            columnArray.forEachCoveredColumn(columnChunkPos -> {
+                Column column = columnMap.get(columnChunkPos);
+                if (column != null) {
+                    column.mark = currentTime;
+                }
+            });
+        }
         
         long timeThreshold = Helper.secondToNano(5);
         
@@ -350,20 +272,9 @@ public class ImmPtlViewArea extends ViewArea {
         Minecraft.getInstance().getProfiler().pop();
     }
     
-    private boolean shouldDropPreset(long dropTime, long currentTime, Preset preset) {
-        if (preset.data == this.sections) {
-            return false;
-        }
-        return currentTime - preset.lastActiveTime > dropTime;
-    }
-    
     private Set<RenderSection> getAllActiveBuiltChunks() {
         HashSet<RenderSection> result = new HashSet<>();
         
-        presets.forEach((key, preset) -> {
-            result.addAll(Arrays.asList(preset.data));
-        });
-        
         if (sections != null) {
             result.addAll(Arrays.asList(sections));
         }
@@ -374,6 +285,14 @@ public class ImmPtlViewArea extends ViewArea {
         return result;
     }
     
+    public void forEachManagedSection(Consumer<RenderSection> func) {
+        for (Column column : columnMap.values()) {
+            for (RenderSection section : column.sections) {
+                func.accept(section);
+            }
+        }
+    }
+    
     public int getManagedSectionNum() {
         return columnMap.size() * sectionGridSizeY;
     }
@@ -469,6 +388,41 @@ public class ImmPtlViewArea extends ViewArea {
         return column.sections[yOffset];
     }
     
+    /**
+     * Does not create the column or mark it, so it can be called from other threads
+     * when the render thread does not modify the view area.
+     *
+     * @param missingColumnConsumer accepts the column key if the column does not exist
+     */
+    @Nullable
+    public RenderSection rawFetchExisting(int cx, int cy, int cz, LongConsumer missingColumnConsumer) {
+        if (cy < minSectionY || cy >= endSectionY) {
+            return null;
+        }
+        
+        long l = ChunkPos.asLong(cx, cz);
+        Column column = columnMap.get(l);
+        
+        if (column == null) {
+            missingColumnConsumer.accept(l);
+            return null;
+        }
+        
+        int yOffset = cy - minSectionY;
+        
+        return column.sections[yOffset];
+    }
+    
+    /**
+     * Keeps the column from being purged for some time.
+     */
+    public void markColumn(int cx, int cz, long timeMark) {
+        Column column = columnMap.get(ChunkPos.asLong(cx, cz));
+        if (column != null) {
+            column.mark = timeMark;
+        }
+    }
+    
     @Nullable
     public RenderSection rawGet(int cx, int cy, int cz) {
         if (cy < minSectionY || cy >= endSectionY) {
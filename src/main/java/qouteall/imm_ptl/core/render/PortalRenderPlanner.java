@@ -0,0 +1,234 @@
+package qouteall.imm_ptl.core.render;
+
+import it.unimi.dsi.fastutil.objects.Reference2ObjectLinkedOpenHashMap;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Decides which portals to render in a frame before rendering any of them.
+ * <p>
+ * The nodes form the portal recursion tree of the frame. The root is the outer world,
+ * a child node is a portal seen through its parent node's portal.
+ * Each node has the estimated screen area that it covers (clipped by its parent's screen area)
+ * and the estimated cost of rendering the world inside it.
+ * <p>
+ * The portals in the outer world (layer 1) are always selected, like without the planning,
+ * and their cost is not counted. The budget only limits the nested portals.
+ * The nested portals are selected from the largest screen area to the smallest,
+ * a node can only be selected after its parent. When the next node exceeds the budget,
+ * it and all the remaining nodes are cut. So the small or far sub-portals are cut first.
+ * <p>
+ * It only uses plain inputs, the tree building from the game state is in
+ * {@link qouteall.imm_ptl.core.render.renderer.PortalRecursionPlan}.
+ */
+public final class PortalRenderPlanner {
+    
+    // the cost of rendering the world once, regardless of the portal size
+    public static final double PASS_COST = 1.0;
+    // the extra cost of a portal that covers the whole screen
+    public static final double FULL_SCREEN_FILL_COST = 1.0;
+    
+    private static final Comparator<Node> PRIORITY =
+        Comparator.comparingDouble((Node node) -> -node.getScreenArea())
+            .thenComparingDouble(node -> node.distance);
+    
+    /**
+     * A rectangle in normalized device coordinates. The screen is [-1, 1] on both axes.
+     */
+    public static record ScreenRect(float minX, float minY, float maxX, float maxY) {
+        public static final ScreenRect FULL = new ScreenRect(-1, -1, 1, 1);
+        public static final ScreenRect EMPTY = new ScreenRect(0, 0, 0, 0);
+        
+        public ScreenRect intersect(ScreenRect other) {
+            return new ScreenRect(
+                Math.max(minX, other.minX), Math.max(minY, other.minY),
+                Math.min(maxX, other.maxX), Math.min(maxY, other.maxY)
+            );
+        }
+        
+        public boolean isEmpty() {
+            return minX >= maxX || minY >= maxY;
+        }
+        
+        /**
+         * @return the ratio of the screen that it covers, 0 to 1
+         */
+        public double getScreenArea() {
+            if (isEmpty()) {
+                return 0;
+            }
+            return ((double) (maxX - minX)) * (maxY - minY) / 4;
+        }
+    }
+    
+    public static final class Node {
+        @Nullable
+        public final Node parent;
+        // the portal of this node, null for the root
+        @Nullable
+        public final Object key;
+        // 0 for the root
+        public final int layer;
+        public final ScreenRect screenRect;
+        public final double distance;
+        public final double cost;
+        
+        private final Reference2ObjectLinkedOpenHashMap<Object, Node> children =
+            new Reference2ObjectLinkedOpenHashMap<>();
+        private boolean selected = false;
+        
+        private Node(
+            @Nullable Node parent, @Nullable Object key, int layer,
+            ScreenRect screenRect, double distance, double cost
+        ) {
+            this.parent = parent;
+            this.key = key;
+            this.layer = layer;
+            this.screenRect = screenRect;
+            this.distance = distance;
+            this.cost = cost;
+        }
+        
+        public static Node createRoot() {
+            Node root = new Node(null, null, 0, ScreenRect.FULL, 0, 0);
+            root.selected = true;
+            return root;
+        }
+        
+        /**
+         * If the key is already added, returns the existing child.
+         *
+         * @param screenRect the screen rect of the portal, it will be clipped by this node's screen rect
+         */
+        public Node addChild(Object key, ScreenRect screenRect, double distance) {
+            Node existing = children.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            
+            ScreenRect clipped = screenRect.intersect(this.screenRect);
+            Node child = new Node(
+                this, key, layer + 1, clipped, distance, estimateCost(clipped.getScreenArea())
+            );
+            children.put(key, child);
+            return child;
+        }
+        
+        @Nullable
+        public Node getChild(Object key) {
+            return children.get(key);
+        }
+        
+        public Collection<Node> getChildren() {
+            return children.values();
+        }
+        
+        public boolean isSelected() {
+            return selected;
+        }
+        
+        public double getScreenArea() {
+            return screenRect.getScreenArea();
+        }
+        
+        public void forEachNode(Consumer<Node> func) {
+            func.accept(this);
+            for (Node child : children.values()) {
+                child.forEachNode(func);
+            }
+        }
+    }
+    
+    /**
+     * @param selectedNum including the outer world portals
+     * @param usedCost    the cost of the selected nested portals
+     */
+    public static record Result(int selectedNum, int cutNum, double usedCost) {}
+    
+    public static double estimateCost(double screenArea) {
+        return PASS_COST + screenArea * FULL_SCREEN_FILL_COST;
+    }
+    
+    /**
+     * @param childrenExpander adds the children of a node. It's only called for the root and the selected nodes,
+     *                         so the sub-trees of the cut nodes are not built.
+     */
+    public static Result plan(Node root, double budget, Consumer<Node> childrenExpander) {
+        PriorityQueue<Node> frontier = new PriorityQueue<>(PRIORITY);
+        childrenExpander.accept(root);
+        
+        int selectedNum = 0;
+        for (Node node : new ArrayList<>(root.getChildren())) {
+            node.selected = true;
+            selectedNum++;
+            
+            childrenExpander.accept(node);
+            frontier.addAll(node.getChildren());
+        }
+        
+        double usedCost = 0;
+        while (!frontier.isEmpty()) {
+            Node node = frontier.peek();
+            if (node.getScreenArea() <= 0 || usedCost + node.cost > budget) {
+                break;
+            }
+            frontier.poll();
+            
+            node.selected = true;
+            selectedNum++;
+            usedCost += node.cost;
+            
+            childrenExpander.accept(node);
+            frontier.addAll(node.getChildren());
+        }
+        
+        return new Result(selectedNum, frontier.size(), usedCost);
+    }
+    
+    /**
+     * Projects the points to the screen and gets their bounding rect.
+     * If all points are near or behind the camera, the shape is not visible, it returns an empty rect.
+     * If only some of them are, it returns the full screen,
+     * because the projection of the shape can no longer be bounded by the projected points.
+     *
+     * @param points relative to the camera
+     */
+    public static ScreenRect projectToScreen(Matrix4f viewProjection, Vec3[] points) {
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        int behindNum = 0;
+        Vector4f v = new Vector4f();
+        for (Vec3 point : points) {
+            v.set((float) point.x, (float) point.y, (float) point.z, 1.0f);
+            viewProjection.transform(v);
+            if (v.w < 0.05f) {
+                behindNum++;
+                continue;
+            }
+            float x = v.x / v.w;
+            float y = v.y / v.w;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        
+        if (behindNum == points.length) {
+            return ScreenRect.EMPTY;
+        }
+        if (behindNum > 0) {
+            return ScreenRect.FULL;
+        }
+        return new ScreenRect(minX, minY, maxX, maxY).intersect(ScreenRect.FULL);
+    }
+}
@@ -0,0 +1,38 @@
+package qouteall.imm_ptl.core.render;
+
+import net.minecraft.core.Direction;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The sections that {@link SectionTraversal} walks on.
+ * Separated from the render sections so that the traversal can run on synthetic grids in tests.
+ */
+public interface SectionGrid<S> {
+    /**
+     * @return null if the section does not exist
+     */
+    @Nullable
+    S getSection(int cx, int cy, int cz);
+    
+    /**
+     * The sections out of frustum are neither put into the result nor walked through.
+     * The sections that intersect the frustum must be connected for that to not drop sections,
+     * which is true for convex frustums that contain the camera.
+     */
+    boolean isInFrustum(S section);
+    
+    /**
+     * The fully clipped sections are walked through but not put into the result.
+     * When rendering through a portal, the sections between the camera and the portal are clipped,
+     * but they are needed to reach the sections behind the portal.
+     */
+    default boolean isFullyClipped(S section) {
+        return false;
+    }
+    
+    /**
+     * Whether a line of sight can enter the section from one face and leave from the other face.
+     * It must not return false if there is such a line of sight.
+     */
+    boolean canSeeThrough(S section, Direction from, Direction to);
+}
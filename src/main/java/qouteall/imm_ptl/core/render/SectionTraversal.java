@@ -0,0 +1,207 @@
+package qouteall.imm_ptl.core.render;
+
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
+
+import java.util.ArrayDeque;
+
+/**
+ * Breadth-first traversal of sections from the camera.
+ * <p>
+ * Without occlusion culling, it walks all sections in frustum and view distance
+ * that are connected to the start.
+ * <p>
+ * With occlusion culling, it's the same idea as vanilla's occlusion graph.
+ * A section only lets the traversal go out from a face that can be seen from a face it was entered from,
+ * so the sections behind solid walls and in closed caves are not walked.
+ * Unlike vanilla, when a walked section is entered from a new face later, it's walked again,
+ * and the traversal never goes back towards the camera section, because a line of sight doesn't.
+ * So a section is not dropped if a line of sight reaches it.
+ * <p>
+ * The frustum decides which sections are walked, and the clipping decides which walked sections are put into the result,
+ * see {@link SectionGrid}.
+ * <p>
+ * The state is in the traversal object instead of the sections, so multiple traversals can exist.
+ */
+public final class SectionTraversal<S> {
+    private static final Direction[] DIRECTIONS = Direction.values();
+    
+    // the low 6 bits are the faces that the section was entered from
+    private static final int ALL_FACES = (1 << 6) - 1;
+    private static final int QUEUED = 1 << 6;
+    private static final int VISITED = 1 << 7;
+    
+    private final Long2ByteOpenHashMap states = new Long2ByteOpenHashMap();
+    private final ArrayDeque<S> queue = new ArrayDeque<>();
+    private final LongArrayFIFOQueue posQueue = new LongArrayFIFOQueue();
+    
+    private SectionGrid<S> grid;
+    private ObjectArrayList<S> result;
+    private int cameraX;
+    private int cameraY;
+    private int cameraZ;
+    private int viewDistance;
+    private boolean occlusionCulling;
+    
+    private int walkNum;
+    
+    public void begin(
+        SectionGrid<S> grid,
+        int cameraX, int cameraY, int cameraZ,
+        int viewDistance,
+        boolean occlusionCulling,
+        ObjectArrayList<S> result
+    ) {
+        this.grid = grid;
+        this.cameraX = cameraX;
+        this.cameraY = cameraY;
+        this.cameraZ = cameraZ;
+        this.viewDistance = viewDistance;
+        this.occlusionCulling = occlusionCulling;
+        this.result = result;
+        
+        states.clear();
+        queue.clear();
+        posQueue.clear();
+        walkNum = 0;
+    }
+    
+    /**
+     * The start section can be seen through from all faces.
+     */
+    public void addStart(int cx, int cy, int cz, boolean skipFrustumTest) {
+        visit(cx, cy, cz, ALL_FACES, skipFrustumTest);
+    }
+    
+    public void run() {
+        while (!queue.isEmpty()) {
+            S section = queue.poll();
+            long pos = posQueue.dequeueLong();
+            walkNum++;
+            
+            int state = states.get(pos) & 0xFF;
+            states.put(pos, (byte) (state & ~QUEUED));
+            int enteredFaces = state & ALL_FACES;
+            
+            int cx = SectionPos.x(pos);
+            int cy = SectionPos.y(pos);
+            int cz = SectionPos.z(pos);
+            
+            for (Direction direction : DIRECTIONS) {
+                int dx = direction.getStepX();
+                int dy = direction.getStepY();
+                int dz = direction.getStepZ();
+                
+                if (occlusionCulling) {
+                    if (dx * (cx - cameraX) < 0 || dy * (cy - cameraY) < 0 || dz * (cz - cameraZ) < 0) {
+                        continue;
+                    }
+                    
+                    if (enteredFaces != ALL_FACES && !canLeave(section, enteredFaces, direction)) {
+                        continue;
+                    }
+                }
+                
+                visit(
+                    cx + dx, cy + dy, cz + dz,
+                    1 << direction.getOpposite().ordinal(), false
+                );
+            }
+        }
+    }
+    
+    /**
+     * Release the references.
+     */
+    public void end() {
+        grid = null;
+        result = null;
+        queue.clear();
+        posQueue.clear();
+    }
+    
+    /**
+     * The number of times that sections are walked. It's larger than the result size
+     * when occlusion culling walks a section again or when there are clipped sections.
+     */
+    public int getWalkNum() {
+        return walkNum;
+    }
+    
+    private boolean canLeave(S section, int enteredFaces, Direction direction) {
+        for (Direction from : DIRECTIONS) {
+            if ((enteredFaces & (1 << from.ordinal())) != 0) {
+                if (grid.canSeeThrough(section, from, direction)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private void visit(int cx, int cy, int cz, int enteredFaces, boolean skipFrustumTest) {
+        if (Math.abs(cx - cameraX) > viewDistance) {
+            return;
+        }
+        if (Math.abs(cy - cameraY) > viewDistance) {
+            return;
+        }
+        if (Math.abs(cz - cameraZ) > viewDistance) {
+            return;
+        }
+        
+        long pos = SectionPos.asLong(cx, cy, cz);
+        int state = states.get(pos) & 0xFF;
+        
+        if ((state & VISITED) == 0) {
+            S section = grid.getSection(cx, cy, cz);
+            if (section == null) {
+                return;
+            }
+            
+            if (!skipFrustumTest && !grid.isInFrustum(section)) {
+                // no entered face means rejected
+                states.put(pos, (byte) VISITED);
+                return;
+            }
+            
+            states.put(pos, (byte) (VISITED | QUEUED | enteredFaces));
+            if (!grid.isFullyClipped(section)) {
+                result.add(section);
+            }
+            queue.add(section);
+            posQueue.enqueue(pos);
+            return;
+        }
+        
+        int oldEnteredFaces = state & ALL_FACES;
+        if (oldEnteredFaces == 0) {
+            return;
+        }
+        
+        // without occlusion culling, the entered faces don't matter
+        if (!occlusionCulling) {
+            return;
+        }
+        
+        if ((oldEnteredFaces | enteredFaces) == oldEnteredFaces) {
+            return;
+        }
+        
+        int newState = state | enteredFaces;
+        if ((state & QUEUED) == 0) {
+            // the section was walked. walk it again with the new face
+            S section = grid.getSection(cx, cy, cz);
+            if (section == null) {
+                return;
+            }
+            newState |= QUEUED;
+            queue.add(section);
+            posQueue.enqueue(pos);
+        }
+        states.put(pos, (byte) newState);
+    }
+}
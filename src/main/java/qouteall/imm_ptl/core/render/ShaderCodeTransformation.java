@@ -10,6 +10,9 @@ import qouteall.q_misc_util.Helper;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 // change the shader code to add clipping mechanism
 // 2 ways of clipping:
@@ -50,18 +53,27 @@ public class ShaderCodeTransformation {
         public boolean debugOutput;
     }
     
-    private static List<Config> configs;
+    private static record CompiledTransformation(Pattern pattern, String replacement) {}
+    
+    private static record CompiledConfig(Config config, List<CompiledTransformation> transformations) {}
+    
+    // the key contains the whole input code, so different codes with the same hash don't share the result
+    private static record CacheKey(Program.Type type, String shaderId, String inputCode) {}
+    
+    private static final int MAX_CACHE_SIZE = 1000;
+    
+    private static List<CompiledConfig> configs;
+    
+    private static final ConcurrentHashMap<CacheKey, String> cache = new ConcurrentHashMap<>();
+    private static final AtomicLong cacheHitCount = new AtomicLong();
+    private static final AtomicLong cacheMissCount = new AtomicLong();
     
     public static void init() {
         if (IPGlobal.enableClippingMechanism) {
-            Yaml yaml = new Yaml();
-            
             String yamlStr = McHelper.readTextResource(new ResourceLocation(
                 "immersive_portals:shaders/shader_transformation.yaml"
             ));
-            ConfigsObj configsObj = yaml.loadAs(yamlStr, ConfigsObj.class);
-            
-            configs = configsObj.configs;
+            loadConfigs(yamlStr);
             
             Helper.log("Loaded Shader Code Transformation");
         }
@@ -70,13 +82,53 @@ public class ShaderCodeTransformation {
         }
     }
     
+    /**
+     * Parses the configs and compiles the patterns. The cached transformation results are dropped.
+     */
+    public static void loadConfigs(String yamlStr) {
+        Yaml yaml = new Yaml();
+        ConfigsObj configsObj = yaml.loadAs(yamlStr, ConfigsObj.class);
+        
+        configs = configsObj.configs.stream().map(config -> new CompiledConfig(
+            config,
+            config.transformations.stream().map(entry -> new CompiledTransformation(
+                Pattern.compile(entry.pattern),
+                String.join("\n", entry.replacement)
+            )).toList()
+        )).toList();
+        
+        cache.clear();
+    }
+    
     public static String transform(Program.Type type, String shaderId, String inputCode) {
-        if (configs == null) {
+        List<CompiledConfig> currConfigs = configs;
+        if (currConfigs == null) {
             Helper.log("Shader Transform Skipping " + shaderId);
             return inputCode;
         }
         
-        Config selected = getConfig(type, shaderId);
+        CacheKey key = new CacheKey(type, shaderId, inputCode);
+        String cached = cache.get(key);
+        if (cached != null) {
+            cacheHitCount.incrementAndGet();
+            return cached;
+        }
+        cacheMissCount.incrementAndGet();
+        
+        String result = doTransform(currConfigs, type, shaderId, inputCode);
+        
+        if (cache.size() >= MAX_CACHE_SIZE) {
+            cache.clear();
+        }
+        cache.put(key, result);
+        
+        return result;
+    }
+    
+    private static String doTransform(
+        List<CompiledConfig> configs, Program.Type type, String shaderId, String inputCode
+    ) {
+        CompiledConfig selected = getConfig(configs, type, shaderId);
         
         if (selected == null) {
             return inputCode;
@@ -84,12 +136,11 @@ public class ShaderCodeTransformation {
         
         String result = inputCode;
         
-        for (TransformationEntry entry : selected.transformations) {
-            String replacement = String.join("\n", entry.replacement);
-            result = result.replaceAll(entry.pattern, replacement);
+        for (CompiledTransformation transformation : selected.transformations) {
+            result = transformation.pattern.matcher(result).replaceAll(transformation.replacement);
         }
         
-        if (selected.debugOutput) {
+        if (selected.config.debugOutput) {
             Helper.log("Shader Transformed " + shaderId + "\n" + result);
         }
         
@@ -97,10 +148,10 @@ public class ShaderCodeTransformation {
     }
     
     @Nullable
-    private static Config getConfig(Program.Type type, String shaderId) {
+    private static CompiledConfig getConfig(List<CompiledConfig> configs, Program.Type type, String shaderId) {
         return configs.stream().filter(
-            config -> matches(config.type, type) &&
-                config.affectedShaders.contains(shaderId)
+            c -> matches(c.config.type, type) &&
+                c.config.affectedShaders.contains(shaderId)
         ).findFirst().orElse(null);
     }
     
@@ -110,6 +161,28 @@ public class ShaderCodeTransformation {
             return false;
         }
         
-        return configs.stream().anyMatch(config -> config.affectedShaders.contains(shaderName));
+        return configs.stream().anyMatch(c -> c.config.affectedShaders.contains(shaderName));
+    }
+    
+    public static long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+    
+    public static long getCacheMissCount() {
+        return cacheMissCount.get();
+    }
+    
+    public static String getGlobalStatString() {
+        long hit = cacheHitCount.get();
+        long miss = cacheMissCount.get();
+        long total = hit + miss;
+        return "Shader transformation cache: hit %d miss %d hit rate %.2f%% size %d".formatted(
+            hit, miss, total == 0 ? 0.0 : hit * 100.0 / total, cache.size()
+        );
+    }
+    
+    public static void resetGlobalStat() {
+        cacheHitCount.set(0);
+        cacheMissCount.set(0);
     }
 }
@@ -0,0 +1,141 @@
+package qouteall.imm_ptl.core.render;
+
+import net.minecraft.world.level.ChunkPos;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+
+/**
+ * The sections around the camera in a flat array with the same layout as vanilla's ViewArea:
+ * index {@code (z * sizeY + y) * sizeX + x}, where x and z are the chunk coordinates modulo the grid size.
+ * The covered chunks are {@code [center - size / 2, center - size / 2 + size)} on each axis.
+ * <p>
+ * When the camera moves, only the slots whose chunk changes are updated,
+ * so walking does not allocate a new array for each camera chunk.
+ * The slots are updated in place. Like vanilla's ViewArea, another thread reading at the same time
+ * may see a mix of the old and new columns.
+ */
+public final class ToroidalColumnArray<T> {
+    private final T[] data;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    
+    private boolean initialized = false;
+    private int centerX;
+    private int centerZ;
+    
+    /**
+     * @param data the array to fill. Its length must be sizeX * sizeY * sizeZ.
+     */
+    public ToroidalColumnArray(T[] data, int sizeX, int sizeY, int sizeZ) {
+        Validate.isTrue(data.length == sizeX * sizeY * sizeZ, "wrong array length %d", data.length);
+        this.data = data;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+    }
+    
+    public T[] getData() {
+        return data;
+    }
+    
+    public boolean isInitialized() {
+        return initialized;
+    }
+    
+    /**
+     * @param columnProvider gives the column of the chunk pos, its length must be sizeY
+     * @param onColumnLeave  called with the chunk pos of each column that's no longer covered
+     */
+    public void moveTo(
+        int newCenterX, int newCenterZ,
+        LongFunction<T[]> columnProvider,
+        LongConsumer onColumnLeave
+    ) {
+        if (initialized && newCenterX == centerX && newCenterZ == centerZ) {
+            return;
+        }
+        
+        int newMinX = getMinCovered(newCenterX, sizeX);
+        int newMinZ = getMinCovered(newCenterZ, sizeZ);
+        
+        if (!initialized) {
+            for (int x = newMinX; x < newMinX + sizeX; x++) {
+                for (int z = newMinZ; z < newMinZ + sizeZ; z++) {
+                    putColumn(x, z, columnProvider.apply(ChunkPos.asLong(x, z)));
+                }
+            }
+        }
+        else {
+            int oldMinX = getMinCovered(centerX, sizeX);
+            int oldMinZ = getMinCovered(centerZ, sizeZ);
+            
+            // if it moves far, no slot is kept
+            for (int x = newMinX; x < newMinX + sizeX; x++) {
+                boolean xKept = x >= oldMinX && x < oldMinX + sizeX;
+                int oldX = oldMinX + Math.floorMod(x - oldMinX, sizeX);
+                
+                for (int z = newMinZ; z < newMinZ + sizeZ; z++) {
+                    boolean zKept = z >= oldMinZ && z < oldMinZ + sizeZ;
+                    if (xKept && zKept) {
+                        continue;
+                    }
+                    
+                    int oldZ = oldMinZ + Math.floorMod(z - oldMinZ, sizeZ);
+                    onColumnLeave.accept(ChunkPos.asLong(oldX, oldZ));
+                    putColumn(x, z, columnProvider.apply(ChunkPos.asLong(x, z)));
+                }
+            }
+        }
+        
+        initialized = true;
+        centerX = newCenterX;
+        centerZ = newCenterZ;
+    }
+    
+    public void forEachCoveredColumn(LongConsumer func) {
+        if (!initialized) {
+            return;
+        }
+        
+        int minX = getMinCovered(centerX, sizeX);
+        int minZ = getMinCovered(centerZ, sizeZ);
+        for (int x = minX; x < minX + sizeX; x++) {
+            for (int z = minZ; z < minZ + sizeZ; z++) {
+                func.accept(ChunkPos.asLong(x, z));
+            }
+        }
+    }
+    
+    /**
+     * Same as vanilla's ViewArea, it does not check whether the chunk is covered.
+     *
+     * @param offsetY the section y minus the min section y
+     */
+    @Nullable
+    public T get(int cx, int offsetY, int cz) {
+        if (offsetY < 0 || offsetY >= sizeY) {
+            return null;
+        }
+        return data[getIndex(Math.floorMod(cx, sizeX), offsetY, Math.floorMod(cz, sizeZ))];
+    }
+    
+    private void putColumn(int cx, int cz, T[] column) {
+        int slotX = Math.floorMod(cx, sizeX);
+        int slotZ = Math.floorMod(cz, sizeZ);
+        for (int offsetY = 0; offsetY < sizeY; offsetY++) {
+            data[getIndex(slotX, offsetY, slotZ)] = column[offsetY];
+        }
+    }
+    
+    private int getIndex(int slotX, int offsetY, int slotZ) {
+        return (slotZ * sizeY + offsetY) * sizeX + slotX;
+    }
+    
+    public static int getMinCovered(int center, int size) {
+        return center - size / 2;
+    }
+}
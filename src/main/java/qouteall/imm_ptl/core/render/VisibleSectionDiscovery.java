@@ -1,173 +1,524 @@
 package qouteall.imm_ptl.core.render;
 
 import de.nick1st.imm_ptl.events.ClientCleanupEvent;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import net.minecraft.client.Camera;
-import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.client.renderer.chunk.SectionRenderDispatcher;
 import net.minecraft.client.renderer.chunk.SectionRenderDispatcher.RenderSection;
 import net.minecraft.client.renderer.culling.Frustum;
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
 import net.minecraft.core.SectionPos;
-import net.minecraft.world.phys.AABB;
+import net.minecraft.util.Mth;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.phys.Vec3;
 import net.neoforged.neoforge.common.NeoForge;
-import qouteall.imm_ptl.core.ClientWorldLoader;
-import qouteall.imm_ptl.core.IPCGlobal;
+import org.jetbrains.annotations.Nullable;
+import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.chunk_loading.PerformanceLevel;
-import qouteall.imm_ptl.core.ducks.IERenderSection;
+import qouteall.imm_ptl.core.ducks.IEFrustum;
 import qouteall.imm_ptl.core.miscellaneous.ClientPerformanceMonitor;
 import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.PortalLike;
 import qouteall.imm_ptl.core.portal.nether_portal.BlockTraverse;
 import qouteall.imm_ptl.core.render.context_management.PortalRendering;
 import qouteall.imm_ptl.core.render.context_management.WorldRenderInfo;
+import qouteall.q_misc_util.my_util.BoxBatch;
+import qouteall.q_misc_util.my_util.BoxPredicateF;
+import qouteall.q_misc_util.my_util.Plane;
 
-import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Stack;
+import java.util.function.LongConsumer;
 
 /**
  * Discover visible sections by breadth-first traverse, for portal rendering.
- * Probably faster than vanilla (because no cave culling and garbage object allocation).
- * No multi-threading because portal rendering camera views are very dynamic which is not suitable for that.
- * No cave culling because vanilla has a multithreaded cave culling that's hard to integrate with portal rendering.
+ * Probably faster than vanilla (because no garbage object allocation).
+ * The occlusion culling (cave culling) is done in the same thread by {@link SectionTraversal},
+ * it can be switched for each portal layer by {@link IPGlobal#sectionOcclusionCullingLayers}.
+ * When rendering through a portal, the sections out of the portal's inner frustum are not discovered,
+ * and the sections behind the portal's clipping plane are walked through but not put into the result.
+ * The inner frustum is tested for a whole section column at once by {@link BoxPredicateF#testBatch}.
  * The cave culling is conditionally enabled with Sodium: {@link PortalRendering#shouldEnableSodiumCaveCulling()}
+ * <p>
+ * All states of a discovery are in the discovery object, the inputs are plain values in {@link Input},
+ * and the sections are read from a {@link SectionSource}.
+ * On the render thread, {@link ViewAreaSource} creates the missing render sections while discovering.
+ * A concurrent {@link ViewAreaSource} only reads the existing ones, so the discoveries on different
+ * discovery objects can run on worker threads at the same time,
+ * then {@link ViewAreaSource#finishConcurrentDiscovery} creates the missing ones on the render thread.
  */
 //@OnlyIn(Dist.CLIENT)
-public class VisibleSectionDiscovery {
+public class VisibleSectionDiscovery<S> {
     
-    private static ImmPtlViewArea builtChunks;
-    private static Frustum vanillaFrustum;
-    private static ObjectArrayList<RenderSection> resultHolder;
-    private static final ArrayDeque<RenderSection> tempQueue = new ArrayDeque<>();
-    private static SectionPos cameraSectionPos;
-    private static long timeMark;
-    private static int viewDistance;
+    public static final int SECTION_SIZE = 16;
+    
+    // used by the render thread
+    private static final VisibleSectionDiscovery<RenderSection> renderThreadDiscovery =
+        new VisibleSectionDiscovery<>();
+    private static final ViewAreaSource renderThreadSource = new ViewAreaSource(false);
+    
+    private final SectionTraversal<S> traversal = new SectionTraversal<>();
+    private final CullingGrid<S> grid = new CullingGrid<>();
+    
+    /**
+     * Where the discovered sections come from.
+     */
+    public interface SectionSource<S> {
+        /**
+         * @return null if the section does not exist
+         */
+        @Nullable
+        S getSection(int cx, int cy, int cz);
+        
+        /**
+         * @return the section coordinate packed by {@link SectionPos#asLong(int, int, int)}
+         */
+        long getSectionPos(S section);
+        
+        /**
+         * Same as {@link SectionGrid#canSeeThrough(Object, Direction, Direction)}.
+         */
+        boolean canSeeThrough(S section, Direction from, Direction to);
+    }
+    
+    /**
+     * The inputs of one discovery.
+     *
+     * @param viewDistance             in sections
+     * @param minSectionY              the sections out of [minSectionY, endSectionY) don't exist
+     * @param frustumCullingFunc       in camera-relative coordinates. returning true means culled
+     * @param clippingPlane            the sections fully behind it are clipped,
+     *                                 and the sections not fully in front of it are considered transparent
+     * @param portalFrustumCullingFunc in camera-relative coordinates. returning true means culled
+     * @param modifiedIterationOrigin  if not null, the traversal starts from it instead of the camera section
+     */
+    public record Input(
+        Vec3 cameraPos,
+        int viewDistance,
+        int minSectionY,
+        int endSectionY,
+        boolean occlusionCulling,
+        BoxPredicateF frustumCullingFunc,
+        @Nullable Plane clippingPlane,
+        @Nullable BoxPredicateF portalFrustumCullingFunc,
+        @Nullable SectionPos modifiedIterationOrigin
+    ) {
+        /**
+         * Decides whether to do occlusion culling.
+         *
+         * @param portalLayer 0 for the outer world
+         */
+        public static Input create(
+            Vec3 cameraPos,
+            int viewDistance,
+            int minSectionY,
+            int endSectionY,
+            int portalLayer,
+            BoxPredicateF frustumCullingFunc,
+            @Nullable Plane clippingPlane,
+            @Nullable BoxPredicateF portalFrustumCullingFunc,
+            @Nullable SectionPos modifiedIterationOrigin
+        ) {
+            boolean occlusionCulling = isSectionOcclusionCullingEnabled(portalLayer);
+            // without the clipping plane, the blocks near the camera may wrongly occlude
+            if (portalLayer > 0 && clippingPlane == null) {
+                occlusionCulling = false;
+            }
+            // the traversal does not start from the camera section
+            if (modifiedIterationOrigin != null) {
+                occlusionCulling = false;
+            }
+            
+            return new Input(
+                cameraPos, viewDistance, minSectionY, endSectionY, occlusionCulling,
+                frustumCullingFunc, clippingPlane, portalFrustumCullingFunc, modifiedIterationOrigin
+            );
+        }
+        
+        /**
+         * Reads the current rendering states. Must be called on the render thread.
+         * The frustum must not be used elsewhere until the discovery finishes.
+         */
+        public static Input capture(
+            ImmPtlViewArea builtChunks,
+            Vec3 cameraPos,
+            Frustum vanillaFrustum
+        ) {
+            vanillaFrustum.prepare(cameraPos.x, cameraPos.y, cameraPos.z);
+            IEFrustum frustum = (IEFrustum) vanillaFrustum;
+            
+            int viewDistance = PerformanceLevel.getPortalRenderingDistance(
+                ClientPerformanceMonitor.level, WorldRenderInfo.getRenderDistance()
+            );
+            
+            SectionPos modifiedIterationOrigin = null;
+            Plane clippingPlane = null;
+            BoxPredicateF portalFrustumCullingFunc = null;
+            if (PortalRendering.isRendering()) {
+                PortalLike renderingPortal = PortalRendering.getRenderingPortal();
+                if (renderingPortal instanceof Portal portal) {
+                    modifiedIterationOrigin = portal.getPortalShape()
+                        .getModifiedVisibleSectionIterationOrigin(portal, cameraPos);
+                    clippingPlane = portal.getInnerClipping();
+                }
+                portalFrustumCullingFunc = FrustumCuller.getRenderingPortalInnerFrustumCullingFunc(cameraPos);
+            }
+            
+            return create(
+                cameraPos, viewDistance, builtChunks.minSectionY, builtChunks.endSectionY,
+                PortalRendering.getPortalLayer(),
+                (minX, minY, minZ, maxX, maxY, maxZ) ->
+                    !frustum.ip_isVisibleWithCamCoord(minX, minY, minZ, maxX, maxY, maxZ),
+                clippingPlane, portalFrustumCullingFunc, modifiedIterationOrigin
+            );
+        }
+    }
+    
+    /**
+     * The render sections of an {@link ImmPtlViewArea}.
+     * A source can only be used by one discovery at a time.
+     */
+    public static final class ViewAreaSource implements SectionSource<RenderSection> {
+        private final boolean concurrent;
+        // the columns that a concurrent discovery needs but don't exist
+        private final LongOpenHashSet missingColumns = new LongOpenHashSet();
+        private final LongConsumer missingColumnConsumer = missingColumns::add;
+        private ImmPtlViewArea builtChunks;
+        private long timeMark;
+        
+        /**
+         * @param concurrent if true, the discovery does not modify the view area,
+         *                   so it can run on a worker thread while other concurrent discoveries
+         *                   read the same view area.
+         *                   The render thread must not modify the view area during that.
+         */
+        public ViewAreaSource(boolean concurrent) {
+            this.concurrent = concurrent;
+        }
+        
+        public void setup(ImmPtlViewArea builtChunks_) {
+            builtChunks = builtChunks_;
+            timeMark = System.nanoTime();
+            missingColumns.clear();
+        }
+        
+        /**
+         * Creates the missing columns that the concurrent discovery needed
+         * and keeps the columns of the result from being purged. Must be called on the render thread.
+         * The created sections are not compiled yet, so they don't render anything in this frame,
+         * and the next discovery will walk into them.
+         */
+        public void finishConcurrentDiscovery(ObjectArrayList<RenderSection> result) {
+            LongIterator iterator = missingColumns.iterator();
+            while (iterator.hasNext()) {
+                builtChunks.provideColumn(iterator.nextLong()).mark = timeMark;
+            }
+            for (RenderSection section : result) {
+                BlockPos origin = section.getOrigin();
+                builtChunks.markColumn(origin.getX() >> 4, origin.getZ() >> 4, timeMark);
+            }
+            release();
+        }
+        
+        // avoid memory leak
+        public void release() {
+            builtChunks = null;
+            missingColumns.clear();
+        }
+        
+        @Override
+        public @Nullable RenderSection getSection(int cx, int cy, int cz) {
+            if (concurrent) {
+                return builtChunks.rawFetchExisting(cx, cy, cz, missingColumnConsumer);
+            }
+            return builtChunks.rawFetch(cx, cy, cz, timeMark);
+        }
+        
+        @Override
+        public long getSectionPos(RenderSection section) {
+            BlockPos origin = section.getOrigin();
+            return SectionPos.asLong(origin.getX() >> 4, origin.getY() >> 4, origin.getZ() >> 4);
+        }
+        
+        @Override
+        public boolean canSeeThrough(RenderSection section, Direction from, Direction to) {
+            SectionRenderDispatcher.CompiledSection compiled = section.getCompiled();
+            // the section that is not compiled yet may become visible after compiling
+            if (compiled == SectionRenderDispatcher.CompiledSection.UNCOMPILED) {
+                return true;
+            }
+            return compiled.facesCanSeeEachOther(from, to);
+        }
+    }
+    
+    private static class CullingGrid<S> implements SectionGrid<S> {
+        private SectionSource<S> source;
+        // in camera-relative coordinates. returning true means culled
+        private BoxPredicateF frustumCullingFunc;
+        // when rendering a portal, the sections fully behind that plane are clipped,
+        // and the sections that are not fully in front of that plane are considered transparent
+        private @Nullable Plane clippingPlane;
+        // the portal's inner frustum, in camera-relative coordinates. returning true means culled
+        private @Nullable BoxPredicateF portalFrustumCullingFunc;
+        private double cameraX;
+        private double cameraY;
+        private double cameraZ;
+        
+        // the portal frustum culling is done for a whole column at once when a section of it is first tested.
+        // the offset of the column's result bits in columnCullingResults
+        private final Long2IntOpenHashMap columnCullingResultOffsets = new Long2IntOpenHashMap();
+        private long[] columnCullingResults = new long[64];
+        private int columnCullingResultsSize = 0;
+        private final BoxBatch columnBoxes = new BoxBatch(32);
+        private long[] columnResult = new long[1];
+        private int minSectionY;
+        private int endSectionY;
+        
+        private CullingGrid() {
+            columnCullingResultOffsets.defaultReturnValue(-1);
+        }
+        
+        private void setup(SectionSource<S> source_, Input input) {
+            source = source_;
+            frustumCullingFunc = input.frustumCullingFunc();
+            clippingPlane = input.clippingPlane();
+            portalFrustumCullingFunc = input.portalFrustumCullingFunc();
+            cameraX = input.cameraPos().x;
+            cameraY = input.cameraPos().y;
+            cameraZ = input.cameraPos().z;
+            minSectionY = input.minSectionY();
+            endSectionY = input.endSectionY();
+            columnCullingResultOffsets.clear();
+            columnCullingResultsSize = 0;
+        }
+        
+        // avoid memory leak
+        private void release() {
+            source = null;
+            frustumCullingFunc = null;
+            clippingPlane = null;
+            portalFrustumCullingFunc = null;
+        }
+        
+        @Override
+        public @Nullable S getSection(int cx, int cy, int cz) {
+            return source.getSection(cx, cy, cz);
+        }
+        
+        // NOTE the vanilla frustum culling code may wrongly cull the first section
+        @Override
+        public boolean isInFrustum(S section) {
+            long sectionPos = source.getSectionPos(section);
+            int cx = SectionPos.x(sectionPos);
+            int cy = SectionPos.y(sectionPos);
+            int cz = SectionPos.z(sectionPos);
+            
+            // the section bounding box, relative to the camera
+            float minX = (float) (cx * SECTION_SIZE - cameraX);
+            float minY = (float) (cy * SECTION_SIZE - cameraY);
+            float minZ = (float) (cz * SECTION_SIZE - cameraZ);
+            float maxX = (float) (cx * SECTION_SIZE + SECTION_SIZE - cameraX);
+            float maxY = (float) (cy * SECTION_SIZE + SECTION_SIZE - cameraY);
+            float maxZ = (float) (cz * SECTION_SIZE + SECTION_SIZE - cameraZ);
+            if (frustumCullingFunc.test(minX, minY, minZ, maxX, maxY, maxZ)) {
+                return false;
+            }
+            
+            // stop discovering the sections that cannot be seen through the portal
+            if (portalFrustumCullingFunc != null) {
+                if (cy >= minSectionY && cy < endSectionY) {
+                    return !isPortalFrustumCulledInColumn(cx, cy, cz);
+                }
+                return !portalFrustumCullingFunc.test(minX, minY, minZ, maxX, maxY, maxZ);
+            }
+            
+            return true;
+        }
+        
+        private boolean isPortalFrustumCulledInColumn(int cx, int cy, int cz) {
+            assert portalFrustumCullingFunc != null;
+            long columnKey = ChunkPos.asLong(cx, cz);
+            int offset = columnCullingResultOffsets.get(columnKey);
+            if (offset == -1) {
+                offset = testColumn(cx, cz);
+                columnCullingResultOffsets.put(columnKey, offset);
+            }
+            
+            int index = cy - minSectionY;
+            return (columnCullingResults[offset + (index >>> 6)] & (1L << index)) != 0;
+        }
+        
+        /**
+         * @return the offset of the result bits in columnCullingResults
+         */
+        private int testColumn(int cx, int cz) {
+            assert portalFrustumCullingFunc != null;
+            // same as the section bounding box, relative to the camera
+            float minX = (float) (cx * SECTION_SIZE - cameraX);
+            float minZ = (float) (cz * SECTION_SIZE - cameraZ);
+            float maxX = (float) (cx * SECTION_SIZE + SECTION_SIZE - cameraX);
+            float maxZ = (float) (cz * SECTION_SIZE + SECTION_SIZE - cameraZ);
+            columnBoxes.clear();
+            for (int cy = minSectionY; cy < endSectionY; cy++) {
+                columnBoxes.add(
+                    minX, (float) (cy * SECTION_SIZE - cameraY), minZ,
+                    maxX, (float) (cy * SECTION_SIZE + SECTION_SIZE - cameraY), maxZ
+                );
+            }
+            
+            int resultLength = BoxBatch.getResultLength(columnBoxes.size());
+            if (columnResult.length < resultLength) {
+                columnResult = new long[resultLength];
+            }
+            portalFrustumCullingFunc.testBatch(columnBoxes, columnResult);
+            
+            if (columnCullingResultsSize + resultLength > columnCullingResults.length) {
+                columnCullingResults = Arrays.copyOf(
+                    columnCullingResults,
+                    Math.max(columnCullingResults.length * 2, columnCullingResultsSize + resultLength)
+                );
+            }
+            int offset = columnCullingResultsSize;
+            System.arraycopy(columnResult, 0, columnCullingResults, offset, resultLength);
+            columnCullingResultsSize += resultLength;
+            return offset;
+        }
+        
+        @Override
+        public boolean isFullyClipped(S section) {
+            if (clippingPlane == null) {
+                return false;
+            }
+            long sectionPos = source.getSectionPos(section);
+            return getCenterDistance(sectionPos, clippingPlane) + getProjectedRadius(clippingPlane) < 0;
+        }
+        
+        @Override
+        public boolean canSeeThrough(S section, Direction from, Direction to) {
+            // when rendering a portal, the camera is behind the portal destination,
+            // the blocks between the camera and the portal are clipped, so they don't occlude
+            if (clippingPlane != null) {
+                long sectionPos = source.getSectionPos(section);
+                if (getCenterDistance(sectionPos, clippingPlane) - getProjectedRadius(clippingPlane) <= 0) {
+                    return true;
+                }
+            }
+            
+            return source.canSeeThrough(section, from, to);
+        }
+        
+        private static double getCenterDistance(long sectionPos, Plane plane) {
+            return plane.getDistanceTo(
+                SectionPos.x(sectionPos) * SECTION_SIZE + SECTION_SIZE / 2.0,
+                SectionPos.y(sectionPos) * SECTION_SIZE + SECTION_SIZE / 2.0,
+                SectionPos.z(sectionPos) * SECTION_SIZE + SECTION_SIZE / 2.0
+            );
+        }
+        
+        private static double getProjectedRadius(Plane plane) {
+            Vec3 normal = plane.normal();
+            return (Math.abs(normal.x) + Math.abs(normal.y) + Math.abs(normal.z)) * SECTION_SIZE / 2;
+        }
+    }
+    
+    public VisibleSectionDiscovery() {
+    }
     
     public static void discoverVisibleSections(
-        ClientLevel world,
         ImmPtlViewArea builtChunks_,
         Camera camera,
         Frustum vanillaFrustum_,
         ObjectArrayList<RenderSection> resultHolder_
     ) {
-        builtChunks = builtChunks_;
-        vanillaFrustum = vanillaFrustum_;
-        resultHolder = resultHolder_;
-        
+        renderThreadSource.setup(builtChunks_);
+        renderThreadDiscovery.discover(
+            renderThreadSource,
+            Input.capture(builtChunks_, camera.getPosition(), vanillaFrustum_),
+            resultHolder_
+        );
+        renderThreadSource.release();
+    }
+    
+    /**
+     * Does not touch any global state, the result only depends on the source and the input.
+     */
+    public void discover(SectionSource<S> source, Input input, ObjectArrayList<S> resultHolder) {
         resultHolder.clear();
-        tempQueue.clear();
         
-        updateViewDistance();
+        grid.setup(source, input);
         
-        timeMark = System.nanoTime();
+        Vec3 cameraPos = input.cameraPos();
+        int cameraSectionX = SectionPos.blockToSectionCoord(Mth.floor(cameraPos.x));
+        int cameraSectionY = SectionPos.blockToSectionCoord(Mth.floor(cameraPos.y));
+        int cameraSectionZ = SectionPos.blockToSectionCoord(Mth.floor(cameraPos.z));
+        int viewDistance = input.viewDistance();
         
-        Vec3 cameraPos = camera.getPosition();
-        vanillaFrustum.prepare(cameraPos.x, cameraPos.y, cameraPos.z);
-        cameraSectionPos = SectionPos.of(BlockPos.containing(cameraPos));
-        
-        SectionPos modifiedVisibleSectionIterationOrigin = null;
-        if (PortalRendering.isRendering()) {
-            PortalLike renderingPortal = PortalRendering.getRenderingPortal();
-            if (renderingPortal instanceof Portal portal) {
-                modifiedVisibleSectionIterationOrigin = portal.getPortalShape()
-                    .getModifiedVisibleSectionIterationOrigin(portal, cameraPos);
-            }
-        }
+        traversal.begin(
+            grid,
+            cameraSectionX, cameraSectionY, cameraSectionZ,
+            viewDistance, input.occlusionCulling(), resultHolder
+        );
         
-        if (modifiedVisibleSectionIterationOrigin != null) {
-            checkSection(
-                modifiedVisibleSectionIterationOrigin.getX(),
-                modifiedVisibleSectionIterationOrigin.getY(),
-                modifiedVisibleSectionIterationOrigin.getZ(),
+        SectionPos modifiedIterationOrigin = input.modifiedIterationOrigin();
+        if (modifiedIterationOrigin != null) {
+            traversal.addStart(
+                modifiedIterationOrigin.getX(),
+                modifiedIterationOrigin.getY(),
+                modifiedIterationOrigin.getZ(),
                 true
             );
         }
-        else if (cameraPos.y < world.getMinBuildHeight()) {
-            discoverBottomOrTopLayerVisibleChunks(builtChunks.minSectionY);
+        else if (cameraSectionY < input.minSectionY()) {
+            discoverBottomOrTopLayerVisibleChunks(
+                cameraSectionX, cameraSectionZ, viewDistance, input.minSectionY()
+            );
         }
-        else if (cameraPos.y > world.getMaxBuildHeight()) {
-            discoverBottomOrTopLayerVisibleChunks(builtChunks.endSectionY - 1);
+        else if (cameraSectionY >= input.endSectionY()) {
+            discoverBottomOrTopLayerVisibleChunks(
+                cameraSectionX, cameraSectionZ, viewDistance, input.endSectionY() - 1
+            );
         }
         else {
-            checkSection(
-                cameraSectionPos.x(),
-                cameraSectionPos.y(),
-                cameraSectionPos.z(),
-                true
-            );
+            traversal.addStart(cameraSectionX, cameraSectionY, cameraSectionZ, true);
         }
         
         // breadth-first searching
-        while (!tempQueue.isEmpty()) {
-            RenderSection curr = tempQueue.poll();
-            int cx = SectionPos.blockToSectionCoord(curr.getOrigin().getX());
-            int cy = SectionPos.blockToSectionCoord(curr.getOrigin().getY());
-            int cz = SectionPos.blockToSectionCoord(curr.getOrigin().getZ());
-            
-            checkSection(cx + 1, cy, cz, false);
-            checkSection(cx - 1, cy, cz, false);
-            checkSection(cx, cy + 1, cz, false);
-            checkSection(cx, cy - 1, cz, false);
-            checkSection(cx, cy, cz + 1, false);
-            checkSection(cx, cy, cz - 1, false);
-        }
+        traversal.run();
         
         // avoid memory leak
-        resultHolder = null;
-        builtChunks = null;
-        vanillaFrustum = null;
+        traversal.end();
+        grid.release();
     }
     
-    private static void updateViewDistance() {
-        int distance = WorldRenderInfo.getRenderDistance();
-        viewDistance = PerformanceLevel.getPortalRenderingDistance(
-            ClientPerformanceMonitor.level, distance
-        );
+    /**
+     * @return the number of sections walked by the last discovery
+     */
+    public int getWalkNum() {
+        return traversal.getWalkNum();
     }
     
-    // NOTE the vanilla frustum culling code may wrongly cull the first section
-    private static boolean isVisible(RenderSection builtChunk) {
-        AABB box = builtChunk.getBoundingBox();
-        return vanillaFrustum.isVisible(box);
+    public static boolean isSectionOcclusionCullingEnabled(int portalLayer) {
+        return (IPGlobal.sectionOcclusionCullingLayers & (1 << Math.min(portalLayer, 31))) != 0;
     }
     
-    private static void discoverBottomOrTopLayerVisibleChunks(int cy) {
+    private void discoverBottomOrTopLayerVisibleChunks(
+        int cameraSectionX, int cameraSectionZ, int viewDistance, int cy
+    ) {
         BlockTraverse.searchOnPlane(
-            cameraSectionPos.x(),
-            cameraSectionPos.z(),
+            cameraSectionX,
+            cameraSectionZ,
             viewDistance - 1,
             (cx, cz) -> {
-                checkSection(cx, cy, cz, false);
+                traversal.addStart(cx, cy, cz, false);
                 return null;
             }
         );
     }
     
-    private static void checkSection(int cx, int cy, int cz, boolean skipFrustumTest) {
-        if (Math.abs(cx - cameraSectionPos.x()) > viewDistance) {
-            return;
-        }
-        if (Math.abs(cy - cameraSectionPos.y()) > viewDistance) {
-            return;
-        }
-        if (Math.abs(cz - cameraSectionPos.z()) > viewDistance) {
-            return;
-        }
-        
-        RenderSection builtChunk =
-            builtChunks.rawFetch(cx, cy, cz, timeMark);
-        if (builtChunk != null) {
-            IERenderSection ieRenderSection = (IERenderSection) builtChunk;
-            if (ieRenderSection.portal_getMark() != timeMark) {
-                ieRenderSection.portal_setMark(timeMark);// mark it checked
-                if (skipFrustumTest || isVisible(builtChunk)) {
-                    tempQueue.add(builtChunk);
-                    resultHolder.add(builtChunk);
-                }
-            }
-        }
-    }
-    
     private static final Stack<ObjectArrayList<RenderSection>> listCaches = new Stack<>();
     
     public static ObjectArrayList<RenderSection> takeList() {
@@ -186,7 +537,7 @@ public class VisibleSectionDiscovery {
     
     public static void init() {
         NeoForge.EVENT_BUS.addListener(ClientCleanupEvent.class, e -> VisibleSectionDiscovery.cleanUp());
-
+        
         // @Nick1st - DynDimLib removal
 //        ClientWorldLoader.CLIENT_DIMENSION_DYNAMIC_REMOVE_EVENT.register((dim) -> {
 //            cleanUp();
@@ -195,9 +546,9 @@ public class VisibleSectionDiscovery {
     
     private static void cleanUp() {
         listCaches.clear();
-        resultHolder = null;
-        builtChunks = null;
-        vanillaFrustum = null;
+        renderThreadDiscovery.traversal.end();
+        renderThreadDiscovery.grid.release();
+        renderThreadSource.release();
     }
     
 }
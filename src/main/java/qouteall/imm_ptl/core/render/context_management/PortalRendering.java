@@ -80,6 +80,13 @@ public class PortalRendering {
         return portalLayers.peek();
     }
     
+    /**
+     * @param layer 1 for the outermost portal, {@link #getPortalLayer()} for the innermost portal
+     */
+    public static PortalLike getRenderingPortalOfLayer(int layer) {
+        return portalLayers.get(layer - 1);
+    }
+    
     public static void onBeginPortalWorldRendering() {
         List<WeakReference<PortalLike>> currRenderInfo = portalLayers.stream().map(
             (Function<PortalLike, WeakReference<PortalLike>>) WeakReference::new
@@ -17,9 +17,11 @@ import net.minecraft.world.phys.Vec3;
 import org.joml.Matrix4f;
 import org.slf4j.Logger;
 import qouteall.imm_ptl.core.CHelper;
+import qouteall.imm_ptl.core.ClientWorldHibernation;
 import qouteall.imm_ptl.core.ClientWorldLoader;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
+import qouteall.imm_ptl.core.RemoteWorldTickTracker;
 import qouteall.imm_ptl.core.block_manipulation.BlockManipulationClient;
 import qouteall.imm_ptl.core.ducks.IEEntity;
 import qouteall.imm_ptl.core.ducks.IEGameRenderer;
@@ -28,9 +30,11 @@ import qouteall.imm_ptl.core.mixin.client.particle.IEParticle;
 import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.PortalLike;
 import qouteall.imm_ptl.core.portal.animation.StableClientTimer;
+import qouteall.imm_ptl.core.render.CrossPortalEntityRenderer;
 import qouteall.imm_ptl.core.render.ForceMainThreadRebuild;
 import qouteall.imm_ptl.core.render.MyRenderHelper;
 import qouteall.imm_ptl.core.render.QueryManager;
+import qouteall.imm_ptl.core.render.renderer.PortalRecursionPlan;
 import qouteall.q_misc_util.Helper;
 
 import java.lang.ref.WeakReference;
@@ -121,6 +125,8 @@ public class RenderStates {
         
         ForceMainThreadRebuild.onPreRender();
         
+        CrossPortalEntityRenderer.onPreRender();
+        
         debugText = "";
 //        debugText = originalCamera.getPos().toString();
         
@@ -270,6 +276,7 @@ public class RenderStates {
         }
         
         result.add("Occlusion Query Stall: " + QueryManager.queryStallCounter);
+        result.add(CrossPortalEntityRenderer.getDebugString());
         result.add("Client Perf %s %d %d".formatted(
             ClientPerformanceMonitor.level,
             ClientPerformanceMonitor.getAverageFps(),
@@ -277,6 +284,13 @@ public class RenderStates {
         ));
         
         result.add(StableClientTimer.getDebugString());
+        result.add(RemoteWorldTickTracker.getDebugString());
+        result.add(ClientWorldHibernation.getDebugString());
+        
+        String portalRenderDistanceInfo = PortalRecursionPlan.getRenderDistanceDebugString();
+        if (!portalRenderDistanceInfo.isEmpty()) {
+            result.addAll(Helper.splitStringByLen(portalRenderDistanceInfo, 50));
+        }
         
         String blockPointingInfo = BlockManipulationClient.getDebugString();
         if (blockPointingInfo != null) {
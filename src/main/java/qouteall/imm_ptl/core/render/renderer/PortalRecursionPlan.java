@@ -0,0 +1,381 @@
+package qouteall.imm_ptl.core.render.renderer;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix4f;
+import org.slf4j.Logger;
+import qouteall.imm_ptl.core.ClientWorldLoader;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.IPMcHelper;
+import qouteall.imm_ptl.core.chunk_loading.PerformanceLevel;
+import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalLike;
+import qouteall.imm_ptl.core.render.PortalRenderPlanner;
+import qouteall.imm_ptl.core.render.PortalRenderable;
+import qouteall.imm_ptl.core.render.context_management.PortalRendering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Builds the portal recursion tree of the frame from the game state and plans it with {@link PortalRenderPlanner}.
+ * The plan is made when collecting the portals of the outer world.
+ * Then in each layer, the portals cut by the plan are not rendered.
+ * <p>
+ * The nested portals are gathered with the same conditions as {@link PortalRenderer#getPortalsToRender},
+ * except for the frustum culling and the predicate event.
+ * The portal states are read through {@link Context}, so the plan can also be built on simulated portals.
+ * The screen rect of a nested portal is got by transforming its bounding box corners back to the outer world.
+ * A nested portal that is fully behind the camera gets an empty screen rect, so it is cut.
+ * The portals that the plan does not know are not cut, they are still limited by {@link IPGlobal#portalRenderLimit}.
+ */
+public class PortalRecursionPlan {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    @Nullable
+    private static PortalRenderPlanner.Node currentPlan = null;
+    
+    @Nullable
+    private static String lastLoggedPlan = null;
+    
+    private static final List<String> renderDistanceRecords = new ArrayList<>();
+    private static String renderDistanceDebugString = "";
+    
+    /**
+     * The portal states that the plan reads.
+     * {@link GameContext} reads the portal entities, others can plan without the game.
+     */
+    public interface Context<P> {
+        /**
+         * Calls the func for the portals in the world inside the outer portal that are near the pos
+         * and can be rendered inside the outer portal. The distance and the visibility are checked by the plan.
+         */
+        void forEachPortalNear(P outerPortal, Vec3 pos, double range, Consumer<P> func);
+        
+        /**
+         * @param portalLayer the layer of the outer portal, 1 for the portals in the outer world
+         */
+        double getRenderRange(int portalLayer, P outerPortal);
+        
+        boolean isRoughlyVisibleTo(P portal, Vec3 cameraPos);
+        
+        double getDistanceToNearestPoint(P portal, Vec3 pos);
+        
+        /**
+         * Whether the portal leads back to the world of the outer portal, at the outer portal.
+         */
+        boolean isReverse(P portal, P outerPortal);
+        
+        /**
+         * The portals of the same group have the same rendering delegate.
+         */
+        P getRenderingDelegate(P portal);
+        
+        Vec3 transformPoint(P portal, Vec3 pos);
+        
+        Vec3 inverseTransformPoint(P portal, Vec3 pos);
+        
+        AABB getThinBoundingBox(P portal);
+    }
+    
+    private static final class GameContext implements Context<PortalLike> {
+        private static final GameContext INSTANCE = new GameContext();
+        
+        @Override
+        public void forEachPortalNear(
+            PortalLike outerPortal, Vec3 pos, double range, Consumer<PortalLike> func
+        ) {
+            ClientLevel world = ClientWorldLoader.getWorld(outerPortal.getDestDim());
+            IPMcHelper.foreachNearbyPortals(world, pos, (int) Math.ceil(range), portal -> {
+                if (!portal.isPortalValid()) {
+                    return;
+                }
+                
+                if (!portal.isVisible() && IPGlobal.maxPortalLayer != 0) {
+                    return;
+                }
+                
+                if (outerPortal.cannotRenderInMe(portal)) {
+                    return;
+                }
+                
+                func.accept(portal);
+            });
+        }
+        
+        @Override
+        public double getRenderRange(int portalLayer, PortalLike outerPortal) {
+            return PortalRenderer.getRenderRange(portalLayer, outerPortal);
+        }
+        
+        @Override
+        public boolean isRoughlyVisibleTo(PortalLike portal, Vec3 cameraPos) {
+            return portal.isRoughlyVisibleTo(cameraPos);
+        }
+        
+        @Override
+        public double getDistanceToNearestPoint(PortalLike portal, Vec3 pos) {
+            return portal.getDistanceToNearestPointInPortal(pos);
+        }
+        
+        // same as PortalRendering.isInvalidRecursionRendering
+        @Override
+        public boolean isReverse(PortalLike portal, PortalLike outerPortal) {
+            return portal instanceof Portal portalEntity && outerPortal instanceof Portal outerPortalEntity &&
+                Portal.isReversePortal(portalEntity, outerPortalEntity);
+        }
+        
+        @Override
+        public PortalLike getRenderingDelegate(PortalLike portal) {
+            return portal.getRenderingDelegate();
+        }
+        
+        @Override
+        public Vec3 transformPoint(PortalLike portal, Vec3 pos) {
+            return portal.transformPoint(pos);
+        }
+        
+        @Override
+        public Vec3 inverseTransformPoint(PortalLike portal, Vec3 pos) {
+            return portal.inverseTransformPoint(pos);
+        }
+        
+        @Override
+        public AABB getThinBoundingBox(PortalLike portal) {
+            return portal.getThinBoundingBox();
+        }
+    }
+    
+    /**
+     * @param outerPortals the portals to render in the outer world
+     * @param cameraPos    the outer world camera pos
+     */
+    public static void planFrame(
+        List<PortalRenderable> outerPortals,
+        Matrix4f modelView, Matrix4f projection, Vec3 cameraPos
+    ) {
+        renderDistanceDebugString = renderDistanceRecords.isEmpty() ? "" :
+            "Portal Render Distance: " + String.join(" ", renderDistanceRecords);
+        renderDistanceRecords.clear();
+        
+        if (IPGlobal.portalRenderBudget <= 0) {
+            currentPlan = null;
+            return;
+        }
+        
+        Matrix4f viewProjection = new Matrix4f(projection).mul(modelView);
+        
+        List<PortalLike> portals = new ArrayList<>(outerPortals.size());
+        for (PortalRenderable renderable : outerPortals) {
+            portals.add(renderable.getPortalLike());
+        }
+        
+        PortalRenderPlanner.Node root = PortalRenderPlanner.Node.createRoot();
+        PortalRenderPlanner.Result result = buildPlan(
+            root, GameContext.INSTANCE, portals, viewProjection, cameraPos,
+            IPGlobal.portalRenderBudget, PortalRendering.getMaxPortalLayer()
+        );
+        
+        currentPlan = root;
+        
+        if (IPGlobal.portalRenderPlanDebug) {
+            logPlan(root, result);
+        }
+    }
+    
+    /**
+     * Builds the recursion tree under the root and plans it.
+     *
+     * @param outerPortals   the portals to render in the outer world, already culled
+     * @param viewProjection the outer world view projection, in camera-relative coordinates
+     * @param cameraPos      the outer world camera pos
+     */
+    public static <P> PortalRenderPlanner.Result buildPlan(
+        PortalRenderPlanner.Node root, Context<P> context, List<P> outerPortals,
+        Matrix4f viewProjection, Vec3 cameraPos, double budget, int maxPortalLayer
+    ) {
+        return PortalRenderPlanner.plan(
+            root, budget, node -> {
+                if (node.parent == null) {
+                    for (P portal : outerPortals) {
+                        node.addChild(
+                            portal,
+                            getScreenRect(context, node, portal, viewProjection, cameraPos),
+                            context.getDistanceToNearestPoint(portal, cameraPos)
+                        );
+                    }
+                }
+                else if (node.layer < maxPortalLayer) {
+                    addNestedPortals(context, node, viewProjection, cameraPos);
+                }
+            }
+        );
+    }
+    
+    /**
+     * The render distance inside the node's portal, see {@link PerformanceLevel#getScreenSizedPortalRenderingDistance}.
+     * The node's distance is measured outside the portal, the scale turns it into the distance inside.
+     */
+    public static int getScreenSizedRenderDistance(
+        PortalRenderPlanner.Node node, double portalScale, int originalDistance
+    ) {
+        return PerformanceLevel.getScreenSizedPortalRenderingDistance(
+            node.getScreenArea(), node.distance * portalScale, node.layer, originalDistance
+        );
+    }
+    
+    /**
+     * @return whether the portal should not be rendered in the current portal layer
+     */
+    public static boolean isCut(PortalLike portal) {
+        PortalRenderPlanner.Node node = getRenderingNode();
+        if (node == null) {
+            return false;
+        }
+        
+        PortalRenderPlanner.Node child = node.getChild(portal);
+        return child != null && !child.isSelected();
+    }
+    
+    /**
+     * @return the node of the current portal layer, null if the plan does not know it
+     */
+    @Nullable
+    public static PortalRenderPlanner.Node getRenderingNode() {
+        PortalRenderPlanner.Node node = currentPlan;
+        int portalLayer = PortalRendering.getPortalLayer();
+        for (int layer = 1; layer <= portalLayer && node != null; layer++) {
+            node = node.getChild(PortalRendering.getRenderingPortalOfLayer(layer));
+        }
+        return node;
+    }
+    
+    public static void recordRenderDistance(PortalRenderPlanner.Node node, int originalDistance, int distance) {
+        if (renderDistanceRecords.size() < 8) {
+            renderDistanceRecords.add("L%d %.1f%% %d/%d".formatted(
+                node.layer, node.getScreenArea() * 100, distance, originalDistance
+            ));
+        }
+    }
+    
+    /**
+     * @return the render distances of the portals rendered in the last frame
+     */
+    public static String getRenderDistanceDebugString() {
+        return renderDistanceDebugString;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <P> void addNestedPortals(
+        Context<P> context, PortalRenderPlanner.Node node, Matrix4f viewProjection, Vec3 cameraPos
+    ) {
+        P outerPortal = (P) node.key;
+        assert outerPortal != null;
+        
+        Vec3 innerCameraPos = transformFromOuterWorld(context, node, cameraPos);
+        double renderRange = context.getRenderRange(node.layer, outerPortal);
+        
+        context.forEachPortalNear(outerPortal, innerCameraPos, renderRange, portal -> {
+            if (!context.isRoughlyVisibleTo(portal, innerCameraPos)) {
+                return;
+            }
+            
+            double distance = context.getDistanceToNearestPoint(portal, innerCameraPos);
+            if (distance > renderRange) {
+                return;
+            }
+            
+            if (node.parent != null && portal == node.parent.key && context.isReverse(portal, outerPortal)) {
+                return;
+            }
+            
+            P renderingDelegate = context.getRenderingDelegate(portal);
+            if (node.getChild(renderingDelegate) != null) {
+                // another portal of the same group is already added
+                return;
+            }
+            
+            node.addChild(
+                renderingDelegate,
+                getScreenRect(context, node, renderingDelegate, viewProjection, cameraPos),
+                distance
+            );
+        });
+    }
+    
+    private static <P> PortalRenderPlanner.ScreenRect getScreenRect(
+        Context<P> context, PortalRenderPlanner.Node parent, P portal, Matrix4f viewProjection, Vec3 cameraPos
+    ) {
+        AABB box = context.getThinBoundingBox(portal);
+        Vec3[] corners = new Vec3[]{
+            new Vec3(box.minX, box.minY, box.minZ),
+            new Vec3(box.minX, box.minY, box.maxZ),
+            new Vec3(box.minX, box.maxY, box.minZ),
+            new Vec3(box.minX, box.maxY, box.maxZ),
+            new Vec3(box.maxX, box.minY, box.minZ),
+            new Vec3(box.maxX, box.minY, box.maxZ),
+            new Vec3(box.maxX, box.maxY, box.minZ),
+            new Vec3(box.maxX, box.maxY, box.maxZ)
+        };
+        for (int i = 0; i < corners.length; i++) {
+            corners[i] = inverseTransformToOuterWorld(context, parent, corners[i]).subtract(cameraPos);
+        }
+        return PortalRenderPlanner.projectToScreen(viewProjection, corners);
+    }
+    
+    /**
+     * Transforms a point in the outer world to the world inside the node's portal.
+     */
+    @SuppressWarnings("unchecked")
+    public static <P> Vec3 transformFromOuterWorld(Context<P> context, PortalRenderPlanner.Node node, Vec3 pos) {
+        if (node.parent == null) {
+            return pos;
+        }
+        Vec3 parentPos = transformFromOuterWorld(context, node.parent, pos);
+        return context.transformPoint((P) node.key, parentPos);
+    }
+    
+    /**
+     * Transforms a point in the world inside the node's portal to the outer world.
+     */
+    @SuppressWarnings("unchecked")
+    public static <P> Vec3 inverseTransformToOuterWorld(Context<P> context, PortalRenderPlanner.Node node, Vec3 pos) {
+        PortalRenderPlanner.Node curr = node;
+        while (curr.parent != null) {
+            pos = context.inverseTransformPoint((P) curr.key, pos);
+            curr = curr.parent;
+        }
+        return pos;
+    }
+    
+    private static void logPlan(PortalRenderPlanner.Node root, PortalRenderPlanner.Result result) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(
+            "Portal render plan: selected %d cut %d cost %.2f budget %.2f",
+            result.selectedNum(), result.cutNum(), result.usedCost(), IPGlobal.portalRenderBudget
+        ));
+        root.forEachNode(node -> {
+            if (node.parent == null) {
+                return;
+            }
+            sb.append('\n');
+            sb.append("  ".repeat(node.layer));
+            sb.append(String.format(
+                "%s %s area %.4f distance %.1f cost %.2f",
+                node.isSelected() ? "render" : "cut", node.key,
+                node.getScreenArea(), node.distance, node.cost
+            ));
+        });
+        
+        // only log when the plan changes
+        String str = sb.toString();
+        if (!str.equals(lastLoggedPlan)) {
+            lastLoggedPlan = str;
+            LOGGER.info(str);
+        }
+    }
+}
@@ -33,6 +33,7 @@ import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.imm_ptl.core.render.MyGameRenderer;
 import qouteall.imm_ptl.core.render.MyRenderHelper;
 import qouteall.imm_ptl.core.render.PortalGroup;
+import qouteall.imm_ptl.core.render.PortalRenderPlanner;
 import qouteall.imm_ptl.core.render.PortalRenderable;
 import qouteall.imm_ptl.core.render.TransformationManager;
 import qouteall.imm_ptl.core.render.context_management.PortalRendering;
@@ -156,6 +157,15 @@ public abstract class PortalRenderer {
             }
         });
         
+        if (!PortalRendering.isRendering()) {
+            PortalRecursionPlan.planFrame(
+                renderables,
+                matrixStack.last().pose(), RenderSystem.getProjectionMatrix(),
+                client.gameRenderer.getMainCamera().getPosition()
+            );
+        }
+        renderables.removeIf(e -> PortalRecursionPlan.isCut(e.getPortalLike()));
+        
         Vec3 cameraPos = CHelper.getCurrentCameraPos();
         renderables.sort(Comparator.comparingDouble(
             e -> e.getPortalLike().getDistanceToNearestPointInPortal(cameraPos)
@@ -215,16 +225,26 @@ public abstract class PortalRenderer {
     }
     
     public static double getRenderRange() {
+        return getRenderRange(
+            PortalRendering.getPortalLayer(),
+            PortalRendering.isRendering() ? PortalRendering.getRenderingPortal() : null
+        );
+    }
+    
+    /**
+     * @param outerPortal the innermost portal that's being rendered, null when rendering the outer world
+     */
+    public static double getRenderRange(int portalLayer, @Nullable PortalLike outerPortal) {
         double range = client.options.getEffectiveRenderDistance() * 16;
         if (RenderStates.isLaggy || IPGlobal.reducedPortalRendering) {
             range = 16;
         }
-        if (PortalRendering.getPortalLayer() > 1) {
+        if (portalLayer > 1) {
             //do not render deep layers of mirror when far away
-            range /= (PortalRendering.getPortalLayer());
+            range /= portalLayer;
         }
-        if (PortalRendering.getPortalLayer() >= 1) {
-            double outerPortalScale = PortalRendering.getRenderingPortal().getScale();
+        if (outerPortal != null) {
+            double outerPortalScale = outerPortal.getScale();
             if (outerPortalScale > 2) {
                 range *= outerPortalScale;
                 range = Math.min(range, 32 * 16);
@@ -272,6 +292,24 @@ public abstract class PortalRenderer {
     }
     
     private static int getPortalRenderDistance(PortalLike portal) {
+        int distance = getPortalRenderDistanceIgnoringScreenSize(portal);
+        
+        // the fuse view portals look seamless, a reduced distance will be noticed
+        if (IPGlobal.screenSizedPortalRenderDistance && !portal.isFuseView()) {
+            PortalRenderPlanner.Node node = PortalRecursionPlan.getRenderingNode();
+            if (node != null) {
+                int reducedDistance = PortalRecursionPlan.getScreenSizedRenderDistance(
+                    node, portal.getScale(), distance
+                );
+                PortalRecursionPlan.recordRenderDistance(node, distance, reducedDistance);
+                return reducedDistance;
+            }
+        }
+        
+        return distance;
+    }
+    
+    private static int getPortalRenderDistanceIgnoringScreenSize(PortalLike portal) {
         int mcRenderDistance = client.options.getEffectiveRenderDistance();
         
         if (portal.getScale() > 2) {
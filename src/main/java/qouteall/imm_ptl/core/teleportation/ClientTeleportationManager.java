@@ -51,9 +51,11 @@ import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.my_util.Plane;
 import qouteall.q_misc_util.my_util.Vec2d;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.function.Function;
 
@@ -80,6 +82,9 @@ public class ClientTeleportationManager {
     
     private static long teleportationCounter = 0;
     
+    // only non-null when recording is enabled by debug command
+    private static @Nullable TeleportationReplay.Recorder replayRecorder = null;
+    
     public static void init() {
         NeoForge.EVENT_BUS.addListener(IPGlobal.PostClientTickEvent.class, postClientTickEvent -> ClientTeleportationManager.tick());
 
@@ -211,6 +216,10 @@ public class ClientTeleportationManager {
         
         Vec3 thisFrameEyePos = getPlayerEyePos(partialTicks);
         
+        if (replayRecorder != null) {
+            replayRecorder.beginFrame(thisFrameEyePos);
+        }
+        
         if (lastPlayerEyePos.distanceToSqr(thisFrameEyePos) > 1600) {
             // when the player is moving too fast, don't do teleportation
             return null;
@@ -222,7 +231,8 @@ public class ClientTeleportationManager {
         Vec3 lastTickEyePos = McHelper.getLastTickEyePos(player);
         Vec3 thisTickEyePos = McHelper.getEyePos(player);
         
-        ArrayList<TeleportationUtil.Teleportation> teleportationCandidates = new ArrayList<>();
+        TeleportationBroadPhase.ClosestSelector closestSelector =
+            new TeleportationBroadPhase.ClosestSelector(lastPlayerEyePos);
         IPMcHelper.traverseNearbyPortals(
             player.level(),
             thisFrameEyePos,
@@ -243,6 +253,22 @@ public class ClientTeleportationManager {
                     // the portal is running a real animation
                     assert portal.animation.clientCurrentFramePortalState != null;
                     
+                    if (replayRecorder != null) {
+                        replayRecorder.recordPortal(
+                            portal.getUUID(), portal.animation.clientCurrentFramePortalState
+                        );
+                    }
+                    
+                    if (!TeleportationBroadPhase.segmentIntersectsBox(
+                        lastPlayerEyePos, thisFrameEyePos,
+                        TeleportationBroadPhase.getAnimatedPortalBounds(
+                            portal.animation.clientLastFramePortalState,
+                            portal.animation.clientCurrentFramePortalState
+                        )
+                    )) {
+                        return;
+                    }
+                    
                     TeleportationUtil.Teleportation teleportation =
                         TeleportationUtil.checkDynamicTeleportation(
                             portal,
@@ -257,31 +283,32 @@ public class ClientTeleportationManager {
                             partialTicks
                         );
                     
-                    if (teleportation != null) {
-                        teleportationCandidates.add(teleportation);
-                    }
+                    closestSelector.accept(teleportation);
                 }
                 else {
                     // the portal is static
+                    if (replayRecorder != null) {
+                        replayRecorder.recordPortal(portal.getUUID(), portal.getPortalState());
+                    }
+                    
+                    if (!TeleportationBroadPhase.segmentIntersectsBox(
+                        lastPlayerEyePos, thisFrameEyePos, portal.getTeleportationBounds()
+                    )) {
+                        return;
+                    }
+                    
                     TeleportationUtil.Teleportation teleportation =
                         TeleportationUtil.checkStaticTeleportation(
                             portal,
                             lastPlayerEyePos, thisFrameEyePos,
                             lastTickEyePos, thisTickEyePos
                         );
-                    if (teleportation != null) {
-                        teleportationCandidates.add(teleportation);
-                    }
+                    closestSelector.accept(teleportation);
                 }
             }
         );
         
-        TeleportationUtil.Teleportation teleportation = teleportationCandidates
-            .stream()
-            .min(Comparator.comparingDouble(
-                p -> p.worldCollisionPoint().distanceToSqr(lastPlayerEyePos)
-            ))
-            .orElse(null);
+        TeleportationUtil.Teleportation teleportation = closestSelector.getClosest();
         
         
         if (teleportation != null) {
@@ -310,6 +337,63 @@ public class ClientTeleportationManager {
         }
     }
     
+    public static void setReplayRecordingEnabled(boolean enabled) {
+        replayRecorder = enabled ? new TeleportationReplay.Recorder(200) : null;
+    }
+    
+    /**
+     * Writes the recorded frames of the nearest recorded portal into a replay file,
+     * which can be put into the teleportation regression tests.
+     *
+     * @return the message to show
+     */
+    public static String dumpReplay() {
+        if (replayRecorder == null) {
+            return "Teleportation replay recording is not enabled";
+        }
+        
+        LocalPlayer player = client.player;
+        assert player != null;
+        
+        Vec3 eyePos = player.getEyePosition();
+        TeleportationReplay replay = null;
+        double minDistance = Double.POSITIVE_INFINITY;
+        List<Portal> nearbyPortals = new ArrayList<>();
+        IPMcHelper.traverseNearbyPortals(
+            player.level(), eyePos, IPGlobal.maxNormalPortalRadius + 1, nearbyPortals::add
+        );
+        for (Portal portal : nearbyPortals) {
+            double distance = portal.getDistanceToNearestPointInPortal(eyePos);
+            if (distance >= minDistance) {
+                continue;
+            }
+            TeleportationReplay r = replayRecorder.extract(
+                portal.getUUID(), portal.getPortalShape(), portal.toString()
+            );
+            if (r != null) {
+                replay = r;
+                minDistance = distance;
+            }
+        }
+        
+        if (replay == null) {
+            return "No recorded portal nearby";
+        }
+        
+        Path dir = O_O.getGameDir().resolve("imm_ptl_teleport_replays");
+        Path file = dir.resolve("replay_%d.snbt".formatted(System.currentTimeMillis()));
+        try {
+            Files.createDirectories(dir);
+            Files.writeString(file, replay.toSnbt());
+        }
+        catch (IOException e) {
+            LOGGER.error("Failed to write teleportation replay", e);
+            return "Failed to write teleportation replay " + e;
+        }
+        
+        return "Written %d frames into %s".formatted(replay.frames.size(), file);
+    }
+    
     public static Vec3 getPlayerEyePos(float partialTick) {
         return client.player.getEyePosition(partialTick);
     }
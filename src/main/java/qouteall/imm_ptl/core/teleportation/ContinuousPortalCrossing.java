@@ -0,0 +1,252 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.projectile.Projectile;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.McHelper;
+import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.animation.UnilateralPortalState;
+import qouteall.imm_ptl.core.portal.shape.PortalShape;
+import qouteall.imm_ptl.core.portal.shape.RectangularPortalShape;
+import qouteall.q_misc_util.my_util.RayTraceResult;
+
+/**
+ * The portal crossing check of non-player entities on server, over the whole tick movement.
+ * <p>
+ * For rectangular portals, the entity box moving over the tick is tested against the portal rectangle,
+ * so the crossing is not skipped no matter how fast the entity is,
+ * and an entity whose box goes through the portal edge is teleported even if its eye passes beside the portal.
+ * The eye still has to go from the front of the portal plane to the back in that tick,
+ * so an entity that only touches the portal is not teleported early.
+ * Other portal shapes raytrace the eye movement against the shape.
+ * <p>
+ * The entities are searched near the portal in the portal tick, like without continuous crossing.
+ * The entities that moved further than {@link #NEAR_SEARCH_MARGIN} in the tick may not be found that way,
+ * so they are searched by their swept box at the tick end, see {@link #isFastMoving}.
+ * <p>
+ * Projectiles use the eye position of the next tick as the end, because they may hit the block
+ * behind the portal in the next tick before being teleported.
+ */
+public final class ContinuousPortalCrossing {
+    // the same as Portal.rayTrace
+    public static final double LENIENCY = 0.001;
+    
+    // without continuous crossing, the entities moving faster than that are not teleported
+    public static final double LEGACY_MAX_MOTION_SQ = 20;
+    
+    // a longer movement is probably a position setting instead of moving
+    public static final double MAX_MOTION = 64;
+    
+    // without continuous crossing, the entity should be within that distance to portal when teleporting
+    public static final double LEGACY_TELEPORT_REACH = 5;
+    
+    // the entities searched near the portal are the ones within that distance to the portal bounds
+    public static final double NEAR_SEARCH_MARGIN = 2;
+    
+    private ContinuousPortalCrossing() {}
+    
+    public static boolean isEnabled() {
+        return IPGlobal.continuousEntityPortalCrossing;
+    }
+    
+    public static Vec3 getTickStartEyePos(Entity entity) {
+        return entity.getEyePosition(0);
+    }
+    
+    public static Vec3 getTickEndEyePos(Entity entity) {
+        Vec3 eyePos = entity.getEyePosition(1);
+        if (entity instanceof Projectile) {
+            eyePos = eyePos.add(McHelper.getWorldVelocity(entity));
+        }
+        return eyePos;
+    }
+    
+    /**
+     * The box that contains the entity box during the whole tick movement.
+     */
+    public static AABB getSweptBox(Entity entity) {
+        Vec3 currentEyePos = entity.getEyePosition(1);
+        return sweepBox(
+            entity.getBoundingBox(),
+            getTickStartEyePos(entity).subtract(currentEyePos),
+            getTickEndEyePos(entity).subtract(currentEyePos)
+        );
+    }
+    
+    public static AABB sweepBox(AABB box, Vec3 startOffset, Vec3 endOffset) {
+        return box.move(startOffset).minmax(box.move(endOffset));
+    }
+    
+    /**
+     * @param portalBounds the bounds that contain the portal, see {@link Portal#getTeleportationBounds()}
+     * @param startBox     the entity box at the start of the movement. It moves together with the eye
+     * @return the crossing point of the eye on the portal plane. null if the entity does not go through the portal
+     */
+    public static @Nullable RayTraceResult findCrossing(
+        PortalShape shape, UnilateralPortalState thisSideState, AABB portalBounds,
+        AABB startBox, Vec3 fromEyePos, Vec3 toEyePos
+    ) {
+        Vec3 motion = toEyePos.subtract(fromEyePos);
+        
+        // this rejects most entities that are not near the portal
+        if (!sweepBox(startBox, Vec3.ZERO, motion).intersects(portalBounds)) {
+            return null;
+        }
+        
+        if (shape == RectangularPortalShape.INSTANCE) {
+            return findRectangleCrossing(thisSideState, startBox, fromEyePos, toEyePos);
+        }
+        
+        if (!TeleportationBroadPhase.segmentIntersectsBox(fromEyePos, toEyePos, portalBounds)) {
+            return null;
+        }
+        
+        return shape.raytracePortalShape(thisSideState, fromEyePos, toEyePos, LENIENCY);
+    }
+    
+    public static @Nullable RayTraceResult findCrossing(Portal portal, Entity entity) {
+        return findCrossing(portal, entity, getTickStartEyePos(entity), getTickEndEyePos(entity));
+    }
+    
+    /**
+     * @param fromEyePos the eye position at the start of the movement. The entity box is moved along with it.
+     */
+    public static @Nullable RayTraceResult findCrossing(
+        Portal portal, Entity entity, Vec3 fromEyePos, Vec3 toEyePos
+    ) {
+        AABB startBox = entity.getBoundingBox().move(fromEyePos.subtract(entity.getEyePosition(1)));
+        return findCrossing(
+            portal.getPortalShape(), portal.getThisSideState(), portal.getTeleportationBounds(),
+            startBox, fromEyePos, toEyePos
+        );
+    }
+    
+    /**
+     * Tests the moving entity box against the portal rectangle with the separating axis theorem.
+     * On each axis, the projections overlap in a time range, because both the box position and the
+     * projections are linear to time. The box touches the rectangle in the intersection of the time ranges.
+     */
+    public static @Nullable RayTraceResult findRectangleCrossing(
+        UnilateralPortalState thisSideState, AABB startBox, Vec3 fromEyePos, Vec3 toEyePos
+    ) {
+        Vec3 localFrom = thisSideState.transformGlobalToLocal(fromEyePos);
+        Vec3 localTo = thisSideState.transformGlobalToLocal(toEyePos);
+        if (!(localFrom.z > 0 && localTo.z < 0)) {
+            return null;
+        }
+        
+        Vec3 motion = toEyePos.subtract(fromEyePos);
+        Vec3 center = startBox.getCenter().subtract(thisSideState.position());
+        Vec3 halfSize = new Vec3(startBox.getXsize() / 2, startBox.getYsize() / 2, startBox.getZsize() / 2);
+        Vec3 halfW = thisSideState.getAxisW().scale(thisSideState.width() / 2);
+        Vec3 halfH = thisSideState.getAxisH().scale(thisSideState.height() / 2);
+        
+        // the time range [0, 1] of the tick movement
+        double[] timeRange = {0, 1};
+        
+        if (!clipTimeRange(timeRange, thisSideState.getNormal(), center, motion, halfSize, halfW, halfH)) {
+            return null;
+        }
+        Vec3[] boxAxes = {new Vec3(1, 0, 0), new Vec3(0, 1, 0), new Vec3(0, 0, 1)};
+        for (Vec3 boxAxis : boxAxes) {
+            if (!clipTimeRange(timeRange, boxAxis, center, motion, halfSize, halfW, halfH)) {
+                return null;
+            }
+        }
+        for (Vec3 boxAxis : boxAxes) {
+            for (Vec3 edge : new Vec3[]{halfW, halfH}) {
+                Vec3 axis = edge.cross(boxAxis);
+                // parallel edges do not give a separating axis
+                if (axis.lengthSqr() < 1e-12) {
+                    continue;
+                }
+                if (!clipTimeRange(timeRange, axis.normalize(), center, motion, halfSize, halfW, halfH)) {
+                    return null;
+                }
+            }
+        }
+        
+        double t = localFrom.z / (localFrom.z - localTo.z);
+        return new RayTraceResult(t, fromEyePos.lerp(toEyePos, t), thisSideState.getNormal());
+    }
+    
+    /**
+     * Narrows the time range to when the projections of the moving box and the rectangle overlap on the axis.
+     *
+     * @param center the box center relative to the rectangle center at the start of the movement
+     * @return false if the range becomes empty
+     */
+    private static boolean clipTimeRange(
+        double[] timeRange, Vec3 axis, Vec3 center, Vec3 motion, Vec3 halfSize, Vec3 halfW, Vec3 halfH
+    ) {
+        double radius = Math.abs(axis.x) * halfSize.x + Math.abs(axis.y) * halfSize.y +
+            Math.abs(axis.z) * halfSize.z + Math.abs(axis.dot(halfW)) + Math.abs(axis.dot(halfH)) +
+            LENIENCY;
+        double start = axis.dot(center);
+        double speed = axis.dot(motion);
+        
+        // |start + speed * t| <= radius
+        if (Math.abs(speed) < 1e-12) {
+            return Math.abs(start) <= radius;
+        }
+        double t1 = (-radius - start) / speed;
+        double t2 = (radius - start) / speed;
+        timeRange[0] = Math.max(timeRange[0], Math.min(t1, t2));
+        timeRange[1] = Math.min(timeRange[1], Math.max(t1, t2));
+        return timeRange[0] <= timeRange[1];
+    }
+    
+    /**
+     * The box for finding the entities near the portal in the portal tick.
+     */
+    public static AABB getEntitySearchBox(Portal portal) {
+        if (isEnabled()) {
+            return portal.getTeleportationBounds().inflate(NEAR_SEARCH_MARGIN);
+        }
+        return portal.getBoundingBox().inflate(2);
+    }
+    
+    /**
+     * Whether the entity box at the tick start or tick end is further than {@link #NEAR_SEARCH_MARGIN}
+     * from the current box. If not, the swept box is inside the current box inflated by the margin,
+     * so the entity is found by {@link #getEntitySearchBox} if it crosses any portal.
+     * The fast entities are searched by their swept box instead.
+     *
+     * @param startOffset the eye position at the tick start relative to the current eye position
+     * @param endOffset   the eye position at the tick end relative to the current eye position
+     */
+    public static boolean isFastMoving(Vec3 startOffset, Vec3 endOffset) {
+        double marginSq = NEAR_SEARCH_MARGIN * NEAR_SEARCH_MARGIN;
+        return startOffset.lengthSqr() > marginSq || endOffset.lengthSqr() > marginSq;
+    }
+    
+    public static boolean isFastMoving(Entity entity) {
+        Vec3 currentEyePos = entity.getEyePosition(1);
+        return isFastMoving(
+            getTickStartEyePos(entity).subtract(currentEyePos),
+            getTickEndEyePos(entity).subtract(currentEyePos)
+        );
+    }
+    
+    public static boolean isMotionAcceptable(double motionSq) {
+        if (isEnabled()) {
+            return motionSq <= MAX_MOTION * MAX_MOTION;
+        }
+        return motionSq <= LEGACY_MAX_MOTION_SQ;
+    }
+    
+    /**
+     * The teleportation is delayed to the tick end,
+     * so the entity may be away from the portal by about one tick of movement.
+     */
+    public static double getTeleportReach(Entity entity) {
+        if (!isEnabled()) {
+            return LEGACY_TELEPORT_REACH;
+        }
+        double motion = getTickEndEyePos(entity).distanceTo(getTickStartEyePos(entity));
+        return LEGACY_TELEPORT_REACH + motion * 2;
+    }
+}
@@ -0,0 +1,48 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The entities that collided with a global portal, per dimension.
+ * The global portal teleportation only iterates these instead of all entities.
+ * It may contain stale entries, which are removed when iterating.
+ *
+ * @param <D> the dimension
+ * @param <E> the entity
+ */
+public final class GlobalPortalCandidateSet<D, E> {
+    private final Map<D, ObjectLinkedOpenHashSet<E>> entities = new HashMap<>();
+    
+    public void add(D dimension, E entity) {
+        entities.computeIfAbsent(dimension, k -> new ObjectLinkedOpenHashSet<>()).add(entity);
+    }
+    
+    /**
+     * Removes the stale entries of the dimension, then returns a copy of the remaining ones.
+     * Teleporting modifies the set, so the result is a copy.
+     */
+    public List<E> pruneAndGet(D dimension, Predicate<E> isStale) {
+        ObjectLinkedOpenHashSet<E> set = entities.get(dimension);
+        if (set == null || set.isEmpty()) {
+            return List.of();
+        }
+        
+        set.removeIf(isStale);
+        return new ArrayList<>(set);
+    }
+    
+    public void removeDimension(D dimension) {
+        entities.remove(dimension);
+    }
+    
+    public int size(D dimension) {
+        ObjectLinkedOpenHashSet<E> set = entities.get(dimension);
+        return set == null ? 0 : set.size();
+    }
+}
@@ -0,0 +1,232 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.longs.Long2BooleanOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import net.minecraft.world.phys.Vec3;
+import org.slf4j.Logger;
+import qouteall.imm_ptl.core.IPGlobal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The pending teleportations of non-player entities, grouped by source and destination dimension.
+ * Each group is processed in one pass per tick.
+ * The number of teleportations per tick is limited by {@link IPGlobal#regularEntityTeleportBudgetPerTick},
+ * the remaining ones wait for the next tick.
+ * The entity waits if the destination chunk is not loaded.
+ * An entity that has waited for {@link #MAX_WAIT_TICKS} is teleported regardless of the budget and chunk loading,
+ * because it's already past the portal and will not be queued again.
+ * An entry is only dropped when its entity or portal is gone or has changed world.
+ * The entries are stamped with the number of processed ticks, not the game time,
+ * so everything queued before a {@link #processTick} call counts as queued in that tick.
+ * <p>
+ * The game state is accessed through {@link Context}, so it can be tested without a server.
+ *
+ * @param <D> the dimension
+ * @param <E> the entity
+ * @param <P> the portal
+ */
+public class RegularEntityTeleportQueue<D, E, P> {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    public static final int MAX_WAIT_TICKS = 3;
+    
+    public interface Context<D, E, P> {
+        D getDimension(E entity);
+        
+        D getDestDimension(P portal);
+        
+        /**
+         * @return false if the entity or portal is removed, or the entity is no longer in fromDim,
+         * or any of the dimensions no longer exists
+         */
+        boolean canStillTeleport(E entity, P portal, D fromDim, D toDim);
+        
+        /**
+         * @return the chunk position (see {@link net.minecraft.world.level.ChunkPos#asLong(int, int)})
+         * that the entity will be in after teleporting
+         */
+        long getDestChunk(E entity, P portal);
+        
+        boolean isChunkLoaded(D dimension, long chunkPos);
+    }
+    
+    public interface TeleportFunc<E, P> {
+        /**
+         * @param fromEyePos the eye position at the start of the tick when it's queued, which is before crossing
+         * @param isDeferred whether it's teleported in a later tick than the tick it's queued.
+         *                   If so, the movement of the current tick is not the crossing movement.
+         */
+        void teleport(E entity, P portal, Vec3 fromEyePos, boolean isDeferred);
+    }
+    
+    private record GroupKey<D>(D fromDim, D toDim) {}
+    
+    private record PendingTeleport<E, P>(E entity, P portal, long queuedTick, Vec3 fromEyePos) {}
+    
+    private final Context<D, E, P> context;
+    
+    private final LinkedHashMap<GroupKey<D>, ArrayDeque<PendingTeleport<E, P>>> groups = new LinkedHashMap<>();
+    private final ObjectOpenHashSet<E> queuedEntities = new ObjectOpenHashSet<>();
+    
+    // the number of processed ticks
+    private long tickNum = 0;
+    
+    private long queuedNum = 0;
+    private long doneNum = 0;
+    private long droppedNum = 0;
+    private long expiredNum = 0;
+    
+    public RegularEntityTeleportQueue(Context<D, E, P> context) {
+        this.context = context;
+    }
+    
+    /**
+     * @param fromEyePos the eye position at the start of this tick
+     * @return false if the entity is already in queue
+     */
+    public boolean enqueue(E entity, P portal, Vec3 fromEyePos) {
+        if (!queuedEntities.add(entity)) {
+            return false;
+        }
+        
+        groups.computeIfAbsent(
+            new GroupKey<>(context.getDimension(entity), context.getDestDimension(portal)),
+            k -> new ArrayDeque<>()
+        ).add(new PendingTeleport<>(entity, portal, tickNum, fromEyePos));
+        
+        queuedNum++;
+        return true;
+    }
+    
+    public void processTick(TeleportFunc<E, P> teleportFunc) {
+        long currentTick = tickNum;
+        tickNum++;
+        
+        if (groups.isEmpty()) {
+            return;
+        }
+        
+        int budget = IPGlobal.regularEntityTeleportBudgetPerTick;
+        
+        // the teleportation may enqueue new entities, so iterate on a copy
+        List<Map.Entry<GroupKey<D>, ArrayDeque<PendingTeleport<E, P>>>> groupList =
+            new ArrayList<>(groups.entrySet());
+        GroupKey<D> exhaustedGroup = null;
+        
+        for (Map.Entry<GroupKey<D>, ArrayDeque<PendingTeleport<E, P>>> entry : groupList) {
+            GroupKey<D> key = entry.getKey();
+            ArrayDeque<PendingTeleport<E, P>> group = entry.getValue();
+            
+            Long2BooleanOpenHashMap chunkLoadedCache = new Long2BooleanOpenHashMap();
+            List<PendingTeleport<E, P>> deferred = new ArrayList<>();
+            
+            // when the budget is used up, only the expired ones are teleported
+            boolean budgetExhausted = false;
+            int num = group.size();
+            for (int i = 0; i < num; i++) {
+                PendingTeleport<E, P> pending = group.poll();
+                assert pending != null;
+                
+                E entity = pending.entity();
+                P portal = pending.portal();
+                if (!context.canStillTeleport(entity, portal, key.fromDim(), key.toDim())) {
+                    queuedEntities.remove(entity);
+                    droppedNum++;
+                    continue;
+                }
+                
+                boolean expired = currentTick - pending.queuedTick() >= MAX_WAIT_TICKS;
+                
+                if (!expired) {
+                    if (budget <= 0) {
+                        budgetExhausted = true;
+                        deferred.add(pending);
+                        continue;
+                    }
+                    
+                    long chunkPos = context.getDestChunk(entity, portal);
+                    boolean chunkLoaded = chunkLoadedCache.computeIfAbsent(
+                        chunkPos, k -> context.isChunkLoaded(key.toDim(), k)
+                    );
+                    if (!chunkLoaded) {
+                        deferred.add(pending);
+                        continue;
+                    }
+                }
+                else {
+                    expiredNum++;
+                }
+                
+                queuedEntities.remove(entity);
+                budget--;
+                doneNum++;
+                
+                try {
+                    teleportFunc.teleport(
+                        entity, portal, pending.fromEyePos(), currentTick != pending.queuedTick()
+                    );
+                }
+                catch (Throwable e) {
+                    LOGGER.error("Failed to teleport {} through {}", entity, portal, e);
+                }
+            }
+            
+            // keep the queue order. the new entries of this tick are after the deferred ones
+            List<PendingTeleport<E, P>> newEntries = new ArrayList<>(group);
+            group.clear();
+            group.addAll(deferred);
+            group.addAll(newEntries);
+            
+            if (budgetExhausted && exhaustedGroup == null) {
+                exhaustedGroup = key;
+            }
+        }
+        
+        groups.values().removeIf(ArrayDeque::isEmpty);
+        
+        // move the group that used up the budget to the end,
+        // so that one busy group does not block the other groups every tick
+        if (exhaustedGroup != null) {
+            ArrayDeque<PendingTeleport<E, P>> group = groups.remove(exhaustedGroup);
+            if (group != null) {
+                groups.put(exhaustedGroup, group);
+            }
+        }
+    }
+    
+    public boolean isQueued(E entity) {
+        return queuedEntities.contains(entity);
+    }
+    
+    public int getPendingNum() {
+        return queuedEntities.size();
+    }
+    
+    public long getQueuedNum() {
+        return queuedNum;
+    }
+    
+    public long getDoneNum() {
+        return doneNum;
+    }
+    
+    public long getDroppedNum() {
+        return droppedNum;
+    }
+    
+    public long getExpiredNum() {
+        return expiredNum;
+    }
+    
+    public String getStatString() {
+        return "pending %d queued %d done %d expired %d dropped %d groups %d".formatted(
+            getPendingNum(), queuedNum, doneNum, expiredNum, droppedNum, groups.size()
+        );
+    }
+}
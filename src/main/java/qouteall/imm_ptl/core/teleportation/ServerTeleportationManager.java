@@ -5,6 +5,7 @@ import de.nick1st.imm_ptl.events.DimensionEvents;
 import de.nick1st.imm_ptl.events.ServerPortalTickEvent;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.MinecraftServer;
@@ -14,9 +15,11 @@ import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.Mob;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.entity.projectile.Projectile;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.pathfinder.Path;
+import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.Vec3;
 import net.neoforged.neoforge.common.NeoForge;
 import net.neoforged.neoforge.event.TickEvent;
@@ -27,6 +30,7 @@ import qouteall.imm_ptl.core.IPMcHelper;
 import qouteall.imm_ptl.core.IPPerServerInfo;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.chunk_loading.ImmPtlChunkTracking;
+import qouteall.imm_ptl.core.collision.PortalCollisionEntry;
 import qouteall.imm_ptl.core.collision.PortalCollisionHandler;
 import qouteall.imm_ptl.core.compat.GravityChangerInterface;
 import qouteall.imm_ptl.core.compat.PehkuiInterface;
@@ -41,6 +45,7 @@ import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.api.McRemoteProcedureCall;
 import qouteall.q_misc_util.my_util.MyTaskList;
+import qouteall.q_misc_util.my_util.RayTraceResult;
 import qouteall.q_misc_util.my_util.WithDim;
 
 import java.util.*;
@@ -55,13 +60,57 @@ public class ServerTeleportationManager {
     public boolean isFiringMyChangeDimensionEvent = false;
     public final WeakHashMap<ServerPlayer, WithDim<Vec3>> lastPosition = new WeakHashMap<>();
     
+    // the non-player entities that collided with a global portal
+    private final GlobalPortalCandidateSet<ResourceKey<Level>, Entity> globalPortalCollidingEntities =
+        new GlobalPortalCandidateSet<>();
+    
+    public final RegularEntityTeleportQueue<ResourceKey<Level>, Entity, Portal> regularEntityTeleportQueue =
+        new RegularEntityTeleportQueue<>(new RegularEntityTeleportQueue.Context<>() {
+            @Override
+            public ResourceKey<Level> getDimension(Entity entity) {
+                return entity.level().dimension();
+            }
+            
+            @Override
+            public ResourceKey<Level> getDestDimension(Portal portal) {
+                return portal.getDestDim();
+            }
+            
+            @Override
+            public boolean canStillTeleport(
+                Entity entity, Portal portal, ResourceKey<Level> fromDim, ResourceKey<Level> toDim
+            ) {
+                if (entity.isRemoved() || portal.isRemoved()) {
+                    return false;
+                }
+                if (entity.level().dimension() != fromDim || portal.level() != entity.level()) {
+                    return false;
+                }
+                return MiscHelper.getServer().getLevel(toDim) != null;
+            }
+            
+            @Override
+            public long getDestChunk(Entity entity, Portal portal) {
+                Vec3 destPos = portal.transformPoint(entity.position());
+                return ChunkPos.asLong(
+                    SectionPos.blockToSectionCoord(destPos.x), SectionPos.blockToSectionCoord(destPos.z)
+                );
+            }
+            
+            @Override
+            public boolean isChunkLoaded(ResourceKey<Level> dimension, long chunkPos) {
+                ServerLevel world = MiscHelper.getServer().getLevel(dimension);
+                return world != null && world.hasChunk(ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos));
+            }
+        });
+    
     public static ServerTeleportationManager of(MinecraftServer server) {
         return IPPerServerInfo.of(server).teleportationManager;
     }
 
     public static void init() {
         NeoForge.EVENT_BUS.addListener(TickEvent.ServerTickEvent.class, event -> {
-            of(event.getServer()).tick(event.getServer());
+            of(event.getServer()).tick(event.getServer(), event.phase);
         });
 
         NeoForge.EVENT_BUS.addListener(ServerPortalTickEvent.class, event -> {
@@ -74,21 +123,38 @@ public class ServerTeleportationManager {
 
         NeoForge.EVENT_BUS.addListener(DimensionEvents.BeforeRemovingDimensionEvent.class,
                 beforeRemovingDimensionEvent -> of(beforeRemovingDimensionEvent.getServer()).evacuatePlayersFromDimension(beforeRemovingDimensionEvent.dimension));
+        
+        NeoForge.EVENT_BUS.addListener(DimensionEvents.BeforeRemovingDimensionEvent.class,
+            event -> of(event.getServer()).globalPortalCollidingEntities.removeDimension(event.dimension.dimension())
+        );
     }
     
     public ServerTeleportationManager() {
 
     }
 
-    private void tick(MinecraftServer server) {
+    private void tick(MinecraftServer server, TickEvent.Phase phase) {
         teleportingEntities.clear();
         
-        manageGlobalPortalTeleportation();
+        // after the entities moved in this tick,
+        // so the global portal teleportations are processed in the same tick as they are queued
+        if (phase == TickEvent.Phase.END) {
+            if (ContinuousPortalCrossing.isEnabled()) {
+                startTeleportingFastEntities(server);
+            }
+            
+            manageGlobalPortalTeleportation();
+            
+            regularEntityTeleportQueue.processTick(this::teleportRegularEntity);
+        }
     }
     
     public static boolean shouldEntityTeleport(Portal portal, Entity entity) {
         if (entity.level() != portal.level()) {return false;}
         if (!portal.canTeleportEntity(entity)) {return false;}
+        if (ContinuousPortalCrossing.isEnabled()) {
+            return ContinuousPortalCrossing.findCrossing(portal, entity) != null;
+        }
         Vec3 lastEyePos = entity.getEyePosition(0);
         Vec3 nextEyePos = entity.getEyePosition(1);
         
@@ -126,24 +192,52 @@ public class ServerTeleportationManager {
         }
         
         double motion = McHelper.lastTickPosOf(entity).distanceToSqr(entity.position());
-        if (motion > 20) {
+        if (!ContinuousPortalCrossing.isMotionAcceptable(motion)) {
             return;
         }
-        ServerTaskList.of(portal.getServer()).addTask(() -> {
-            try {
-                teleportRegularEntity(entity, portal);
-            }
-            catch (Throwable e) {
-                LOGGER.error("", e);
+        regularEntityTeleportQueue.enqueue(
+            entity, portal, McHelper.getLastTickEyePos(entity)
+        );
+    }
+    
+    /**
+     * The entities that moved far in this tick may not be found near the portal in the portal tick,
+     * so the portals are searched by their swept box.
+     * The crossings found in the portal tick are not queued again.
+     */
+    private void startTeleportingFastEntities(MinecraftServer server) {
+        for (ServerLevel world : server.getAllLevels()) {
+            for (Entity entity : world.getAllEntities()) {
+                if (entity instanceof Portal || entity instanceof ServerPlayer) {
+                    continue;
+                }
+                if (regularEntityTeleportQueue.isQueued(entity)) {
+                    continue;
+                }
+                if (!ContinuousPortalCrossing.isFastMoving(entity)) {
+                    continue;
+                }
+                double motion = McHelper.lastTickPosOf(entity).distanceToSqr(entity.position());
+                if (!ContinuousPortalCrossing.isMotionAcceptable(motion)) {
+                    continue;
+                }
+                
+                AABB sweptBox = ContinuousPortalCrossing.getSweptBox(entity)
+                    .inflate(TeleportationBroadPhase.BOUNDS_MARGIN);
+                for (Portal portal : world.getEntitiesOfClass(Portal.class, sweptBox, p -> true)) {
+                    if (shouldEntityTeleport(portal, entity)) {
+                        startTeleportingRegularEntity(portal, entity);
+                        break;
+                    }
+                }
             }
-            return true;
-        });
+        }
     }
     
     private static Stream<Entity> getEntitiesToTeleport(Portal portal) {
         return portal.level().getEntitiesOfClass(
             Entity.class,
-            portal.getBoundingBox().inflate(2),
+            ContinuousPortalCrossing.getEntitySearchBox(portal),
             e -> true
         ).stream().filter(
             e -> !(e instanceof Portal)
@@ -479,27 +573,61 @@ public class ServerTeleportationManager {
         ((IEServerPlayerEntity) player).portal_worldChanged(fromWorld, oldPos);
     }
     
+    /**
+     * Called when an entity collides with a global portal on server side.
+     */
+    public void onEntityCollidingWithGlobalPortal(Entity entity) {
+        if (entity instanceof ServerPlayer) {
+            return;
+        }
+        
+        globalPortalCollidingEntities.add(entity.level().dimension(), entity);
+    }
+    
     private void manageGlobalPortalTeleportation() {
         for (ServerLevel world : MiscHelper.getServer().getAllLevels()) {
-            for (Entity entity : world.getAllEntities()) {
-                if (!(entity instanceof ServerPlayer)) {
-                    Portal collidingPortal = ((IEEntity) entity).ip_getCollidingPortal();
-                    
-                    if (collidingPortal != null && collidingPortal.getIsGlobal()) {
-                        if (shouldEntityTeleport(collidingPortal, entity)) {
-                            startTeleportingRegularEntity(collidingPortal, entity);
-                        }
+            List<Entity> entities = globalPortalCollidingEntities.pruneAndGet(
+                world.dimension(),
+                entity -> entity.isRemoved() || entity.level() != world || !hasGlobalPortalCollision(entity)
+            );
+            
+            for (Entity entity : entities) {
+                Portal collidingPortal = ((IEEntity) entity).ip_getCollidingPortal();
+                
+                if (collidingPortal != null && collidingPortal.getIsGlobal()) {
+                    if (shouldEntityTeleport(collidingPortal, entity)) {
+                        startTeleportingRegularEntity(collidingPortal, entity);
                     }
                 }
             }
         }
     }
     
+    // the colliding portal is the first collision entry,
+    // an entity colliding with a global portal may have another portal as the colliding portal temporarily,
+    // so only remove it when it has no global portal collision
+    private static boolean hasGlobalPortalCollision(Entity entity) {
+        PortalCollisionHandler handler = ((IEEntity) entity).ip_getPortalCollisionHandler();
+        if (handler == null) {
+            return false;
+        }
+        for (PortalCollisionEntry collision : handler.portalCollisions) {
+            if (collision.portal.getIsGlobal()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     public boolean isTeleporting(Entity entity) {
         return teleportingEntities.contains(entity);
     }
     
-    private void teleportRegularEntity(Entity entity, Portal portal) {
+    /**
+     * @param fromEyePos the eye position at the start of the tick when it's queued
+     * @param isDeferred whether it's teleported in a later tick than the tick it's queued
+     */
+    private void teleportRegularEntity(Entity entity, Portal portal, Vec3 fromEyePos, boolean isDeferred) {
         Validate.isTrue(!(entity instanceof ServerPlayer));
         if (entity.getRemovalReason() != null) {
             LOGGER.error(
@@ -514,9 +642,22 @@ public class ServerTeleportationManager {
             return;
         }
         
-        if (portal.getDistanceToNearestPointInPortal(entity.getEyePosition()) > 5) {
-            LOGGER.error("Entity is too far to teleport {} {}", entity, portal);
-            return;
+        Vec3 newEyePos;
+        if (!isDeferred) {
+            if (portal.getDistanceToNearestPointInPortal(entity.getEyePosition()) >
+                ContinuousPortalCrossing.getTeleportReach(entity)
+            ) {
+                LOGGER.error("Entity is too far to teleport {} {}", entity, portal);
+                return;
+            }
+            newEyePos = getRegularEntityTeleportedEyePos(entity, portal);
+        }
+        else {
+            // it moved in the ticks after it's queued, so the movement of this tick is not the crossing movement
+            newEyePos = getDeferredEntityTeleportedEyePos(entity, portal, fromEyePos);
+            if (newEyePos == null) {
+                return;
+            }
         }
         
         long currGameTime = McHelper.getServerGameTime();
@@ -535,8 +676,6 @@ public class ServerTeleportationManager {
 
         List<Entity> passengerList = entity.getPassengers();
         
-        Vec3 newEyePos = getRegularEntityTeleportedEyePos(entity, portal);
-        
         TeleportationUtil.transformEntityVelocity(
             portal, entity, TeleportationUtil.PortalPointVelocity.ZERO, oldPos
         );
@@ -587,11 +726,21 @@ public class ServerTeleportationManager {
         Vec3 deltaMovement = eyePosThisTick.subtract(eyePosLastTick);
         Vec3 deltaMovementDirection = deltaMovement.normalize();
         
+        // a fast entity may be far from the crossing point
+        double reach = ContinuousPortalCrossing.getTeleportReach(entity);
         Vec3 collidingPoint = portal.rayTrace(
-            eyePosThisTick.subtract(deltaMovementDirection.scale(5)),
-            eyePosThisTick.add(deltaMovementDirection)
+            eyePosThisTick.subtract(deltaMovementDirection.scale(reach)),
+            eyePosThisTick.add(deltaMovementDirection.scale(reach - 4))
         );
         
+        if (collidingPoint == null && ContinuousPortalCrossing.isEnabled()) {
+            // the box went through the portal while the eye passed beside the portal
+            RayTraceResult crossing = ContinuousPortalCrossing.findCrossing(portal, entity);
+            if (crossing != null) {
+                collidingPoint = crossing.hitPos();
+            }
+        }
+        
         if (collidingPoint == null) {
             collidingPoint = eyePosLastTick;
         }
@@ -601,6 +750,39 @@ public class ServerTeleportationManager {
         return result;
     }
     
+    /**
+     * For the entity that waited in {@link RegularEntityTeleportQueue}.
+     * Use the movement from the eye position before crossing to the current eye position.
+     *
+     * @return null if it no longer crosses the portal or it's too far
+     */
+    @Nullable
+    private static Vec3 getDeferredEntityTeleportedEyePos(Entity entity, Portal portal, Vec3 fromEyePos) {
+        Vec3 eyePos = McHelper.getEyePos(entity);
+        
+        double maxMovement = ContinuousPortalCrossing.getTeleportReach(entity) *
+            (RegularEntityTeleportQueue.MAX_WAIT_TICKS + 1);
+        if (eyePos.distanceTo(fromEyePos) > maxMovement) {
+            LOGGER.warn("Entity moved too far when waiting for teleportation {} {}", entity, portal);
+            return null;
+        }
+        
+        Vec3 collidingPoint = portal.rayTrace(fromEyePos, eyePos);
+        if (collidingPoint == null && ContinuousPortalCrossing.isEnabled()) {
+            RayTraceResult crossing = ContinuousPortalCrossing.findCrossing(portal, entity, fromEyePos, eyePos);
+            if (crossing != null) {
+                collidingPoint = crossing.hitPos();
+            }
+        }
+        if (collidingPoint == null) {
+            // it went back or moved out of the portal area
+            return null;
+        }
+        
+        Vec3 movementDirection = eyePos.subtract(fromEyePos).normalize();
+        return portal.transformPoint(collidingPoint).add(movementDirection.scale(0.05));
+    }
+    
     /**
      * {@link Entity#changeDimension(ServerLevel)}
      * Sometimes resuing the same entity object is problematic
@@ -0,0 +1,148 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+import qouteall.imm_ptl.core.portal.PortalState;
+
+/**
+ * The cheap test before the exact teleportation check.
+ * If the eye movement segment does not touch the bounds of a portal, it cannot cross the portal.
+ */
+public final class TeleportationBroadPhase {
+    /**
+     * Added to the bounds so that floating point error does not make the broad phase
+     * reject a crossing that the exact check accepts.
+     */
+    public static final double BOUNDS_MARGIN = 0.01;
+    
+    private TeleportationBroadPhase() {}
+    
+    public static boolean segmentIntersectsBox(Vec3 from, Vec3 to, AABB box) {
+        return segmentIntersectsBox(
+            from.x, from.y, from.z, to.x, to.y, to.z,
+            box.minX, box.minY, box.minZ, box.maxX, box.maxY, box.maxZ
+        );
+    }
+    
+    /**
+     * Slab test. Touching counts as intersecting.
+     */
+    public static boolean segmentIntersectsBox(
+        double fromX, double fromY, double fromZ,
+        double toX, double toY, double toZ,
+        double minX, double minY, double minZ,
+        double maxX, double maxY, double maxZ
+    ) {
+        double tMin = 0;
+        double tMax = 1;
+        
+        double dx = toX - fromX;
+        if (dx == 0) {
+            if (fromX < minX || fromX > maxX) {
+                return false;
+            }
+        }
+        else {
+            double t1 = (minX - fromX) / dx;
+            double t2 = (maxX - fromX) / dx;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+            if (tMin > tMax) {
+                return false;
+            }
+        }
+        
+        double dy = toY - fromY;
+        if (dy == 0) {
+            if (fromY < minY || fromY > maxY) {
+                return false;
+            }
+        }
+        else {
+            double t1 = (minY - fromY) / dy;
+            double t2 = (maxY - fromY) / dy;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+            if (tMin > tMax) {
+                return false;
+            }
+        }
+        
+        double dz = toZ - fromZ;
+        if (dz == 0) {
+            return fromZ >= minZ && fromZ <= maxZ;
+        }
+        else {
+            double t1 = (minZ - fromZ) / dz;
+            double t2 = (maxZ - fromZ) / dz;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+            return tMin <= tMax;
+        }
+    }
+    
+    /**
+     * The bounds of an animated portal during one frame.
+     * The interpolated portal center is on the line between the two centers,
+     * and every point of the portal is within half of its diagonal from the center.
+     */
+    public static AABB getAnimatedPortalBounds(PortalState lastFrameState, PortalState currentFrameState) {
+        double radius = Math.max(
+            getHalfDiagonal(lastFrameState), getHalfDiagonal(currentFrameState)
+        ) + BOUNDS_MARGIN;
+        
+        Vec3 a = lastFrameState.fromPos;
+        Vec3 b = currentFrameState.fromPos;
+        return new AABB(
+            Math.min(a.x, b.x) - radius, Math.min(a.y, b.y) - radius, Math.min(a.z, b.z) - radius,
+            Math.max(a.x, b.x) + radius, Math.max(a.y, b.y) + radius, Math.max(a.z, b.z) + radius
+        );
+    }
+    
+    private static double getHalfDiagonal(PortalState state) {
+        return Math.sqrt(
+            state.width * state.width + state.height * state.height + state.thickness * state.thickness
+        ) / 2;
+    }
+    
+    /**
+     * Keeps the candidate whose collision point is closest to the reference point,
+     * without collecting the candidates into a list.
+     * The first one wins when the distances are equal.
+     */
+    public static final class ClosestSelector {
+        private final double refX;
+        private final double refY;
+        private final double refZ;
+        
+        private @Nullable TeleportationUtil.Teleportation closest;
+        private double closestDistanceSq = Double.POSITIVE_INFINITY;
+        
+        public ClosestSelector(Vec3 referencePoint) {
+            this.refX = referencePoint.x;
+            this.refY = referencePoint.y;
+            this.refZ = referencePoint.z;
+        }
+        
+        public void accept(@Nullable TeleportationUtil.Teleportation teleportation) {
+            if (teleportation == null) {
+                return;
+            }
+            
+            Vec3 p = teleportation.worldCollisionPoint();
+            double dx = p.x - refX;
+            double dy = p.y - refY;
+            double dz = p.z - refZ;
+            double distanceSq = dx * dx + dy * dy + dz * dz;
+            if (closest == null || distanceSq < closestDistanceSq) {
+                closest = teleportation;
+                closestDistanceSq = distanceSq;
+            }
+        }
+        
+        public @Nullable TeleportationUtil.Teleportation getClosest() {
+            return closest;
+        }
+    }
+}
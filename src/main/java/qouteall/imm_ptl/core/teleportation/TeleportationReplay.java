@@ -0,0 +1,181 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.SnbtPrinterTagVisitor;
+import net.minecraft.nbt.Tag;
+import net.minecraft.nbt.TagParser;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+import qouteall.imm_ptl.core.portal.PortalState;
+import qouteall.imm_ptl.core.portal.shape.PortalShape;
+import qouteall.imm_ptl.core.portal.shape.PortalShapeSerialization;
+import qouteall.imm_ptl.core.portal.shape.RectangularPortalShape;
+import qouteall.q_misc_util.Helper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A recorded eye path against one portal, used for reproducing teleportation bugs without the game.
+ * <p>
+ * It's stored as SNBT so that it can be edited by hand:
+ * <pre>
+ * {
+ *     version: 1,
+ *     description: "...",
+ *     shape: {type: "rectangular"},
+ *     frames: [
+ *         {eyeX: 0.0d, eyeY: 0.0d, eyeZ: 1.0d, portal: {...}},
+ *         {eyeX: 0.0d, eyeY: 0.0d, eyeZ: -1.0d}
+ *     ]
+ * }
+ * </pre>
+ * The portal tag is the same as {@link PortalState#toTag()}.
+ * It can be omitted in a frame, then it's the same as the previous frame.
+ * When the portal state changes between two frames, the portal is animated in that frame.
+ */
+public final class TeleportationReplay {
+    public static final int FORMAT_VERSION = 1;
+    
+    public record Frame(Vec3 eyePos, PortalState portalState) {}
+    
+    public final String description;
+    public final PortalShape shape;
+    public final List<Frame> frames;
+    
+    public TeleportationReplay(String description, PortalShape shape, List<Frame> frames) {
+        this.description = description;
+        this.shape = shape;
+        this.frames = frames;
+    }
+    
+    public CompoundTag toTag() {
+        CompoundTag tag = new CompoundTag();
+        tag.putInt("version", FORMAT_VERSION);
+        tag.putString("description", description);
+        tag.put("shape", PortalShapeSerialization.serialize(shape));
+        
+        ListTag frameList = new ListTag();
+        PortalState lastState = null;
+        for (Frame frame : frames) {
+            CompoundTag frameTag = new CompoundTag();
+            Helper.putVec3d(frameTag, "eye", frame.eyePos());
+            if (frame.portalState() != lastState) {
+                frameTag.put("portal", frame.portalState().toTag());
+                lastState = frame.portalState();
+            }
+            frameList.add(frameTag);
+        }
+        tag.put("frames", frameList);
+        
+        return tag;
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the data is invalid
+     */
+    public static TeleportationReplay fromTag(CompoundTag tag) {
+        int version = tag.getInt("version");
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported replay version " + version);
+        }
+        
+        PortalShape shape = RectangularPortalShape.INSTANCE;
+        if (tag.contains("shape")) {
+            shape = PortalShapeSerialization.deserialize(tag.getCompound("shape"));
+            if (shape == null) {
+                throw new IllegalArgumentException("Invalid portal shape " + tag.get("shape"));
+            }
+        }
+        
+        ListTag frameList = tag.getList("frames", Tag.TAG_COMPOUND);
+        List<Frame> frames = new ArrayList<>();
+        PortalState lastState = null;
+        for (int i = 0; i < frameList.size(); i++) {
+            CompoundTag frameTag = frameList.getCompound(i);
+            if (frameTag.contains("portal")) {
+                lastState = PortalState.fromTag(frameTag.getCompound("portal"));
+            }
+            if (lastState == null) {
+                throw new IllegalArgumentException("The first frame does not have portal state");
+            }
+            frames.add(new Frame(Helper.getVec3d(frameTag, "eye"), lastState));
+        }
+        
+        return new TeleportationReplay(tag.getString("description"), shape, frames);
+    }
+    
+    public String toSnbt() {
+        return new SnbtPrinterTagVisitor().visit(toTag());
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the text is invalid
+     */
+    public static TeleportationReplay fromSnbt(String snbt) {
+        CompoundTag tag;
+        try {
+            tag = TagParser.parseTag(snbt);
+        }
+        catch (CommandSyntaxException e) {
+            throw new IllegalArgumentException("Invalid replay SNBT", e);
+        }
+        return fromTag(tag);
+    }
+    
+    /**
+     * Remembers the eye positions and the states of the checked portals in the recent frames.
+     * The portal states are immutable and cached by the portal, so recording them is cheap.
+     */
+    public static final class Recorder {
+        private record RecordedFrame(Vec3 eyePos, Map<UUID, PortalState> portalStates) {}
+        
+        private final int capacity;
+        private final ArrayDeque<RecordedFrame> frames = new ArrayDeque<>();
+        
+        public Recorder(int capacity) {
+            this.capacity = capacity;
+        }
+        
+        public void beginFrame(Vec3 eyePos) {
+            if (frames.size() >= capacity) {
+                frames.removeFirst();
+            }
+            frames.addLast(new RecordedFrame(eyePos, new HashMap<>()));
+        }
+        
+        public void recordPortal(UUID portalId, PortalState portalState) {
+            RecordedFrame frame = frames.peekLast();
+            if (frame != null) {
+                frame.portalStates().put(portalId, portalState);
+            }
+        }
+        
+        /**
+         * @return the frames in which the portal was checked. null if it was never checked
+         */
+        public @Nullable TeleportationReplay extract(
+            UUID portalId, PortalShape shape, String description
+        ) {
+            List<Frame> result = new ArrayList<>();
+            for (RecordedFrame frame : frames) {
+                PortalState portalState = frame.portalStates().get(portalId);
+                if (portalState != null) {
+                    result.add(new Frame(frame.eyePos(), portalState));
+                }
+            }
+            
+            if (result.isEmpty()) {
+                return null;
+            }
+            
+            return new TeleportationReplay(description, shape, result);
+        }
+    }
+}
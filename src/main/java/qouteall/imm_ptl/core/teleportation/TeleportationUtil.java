@@ -98,11 +98,27 @@ public class TeleportationUtil {
         Portal portal, Vec3 lastPos, Vec3 currentPos,
         Vec3 lastTickEyePos, Vec3 thisTickEyePos
     ) {
-        Vec3 lastLocalPos = portal.transformFromWorldToPortalLocal(lastPos);
-        Vec3 currentLocalPos = portal.transformFromWorldToPortalLocal(currentPos);
-        
-        PortalShape portalShape = portal.getPortalShape();
-        UnilateralPortalState portalThisSideState = portal.getThisSideState();
+        return checkStaticTeleportation(
+            portal, portal.getPortalShape(), portal.getPortalState(), portal.getThisSideState(),
+            lastPos, currentPos, lastTickEyePos, thisTickEyePos
+        );
+    }
+    
+    /**
+     * Only depends on the portal state and shape, so it can be run without a world.
+     *
+     * @param portal only put into the result. null when not running in game
+     * @param portalThisSideState must be the this side of portalState
+     */
+    @Nullable
+    public static Teleportation checkStaticTeleportation(
+        @Nullable Portal portal, PortalShape portalShape,
+        PortalState portalState, UnilateralPortalState portalThisSideState,
+        Vec3 lastPos, Vec3 currentPos,
+        Vec3 lastTickEyePos, Vec3 thisTickEyePos
+    ) {
+        Vec3 lastLocalPos = portalState.worldPosToPortalLocalPos(lastPos);
+        Vec3 currentLocalPos = portalState.worldPosToPortalLocalPos(currentPos);
         
         // use portal-local coordinate to simplify teleportation check
         RayTraceResult localRayTraceResult = portalShape.raytracePortalShapeByLocalPos(
@@ -119,10 +135,9 @@ public class TeleportationUtil {
             localRayTraceResult.hitPos()
         );
         
-        Vec3 newLastTickEyePos = portal.transformPoint(lastTickEyePos);
-        Vec3 newThisTickEyePos = portal.transformPoint(thisTickEyePos);
+        Vec3 newLastTickEyePos = portalState.transformPoint(lastTickEyePos);
+        Vec3 newThisTickEyePos = portalState.transformPoint(thisTickEyePos);
         
-        PortalState portalState = portal.getPortalState();
         return new Teleportation(
             false,
             portal,
@@ -136,7 +151,7 @@ public class TeleportationUtil {
             portalState, portalState,
             portalState, portalState,
             PortalPointVelocity.ZERO,
-            portal.transformPoint(worldHitPos),
+            portalState.transformPoint(worldHitPos),
             newLastTickEyePos, newThisTickEyePos
         );
     }
@@ -149,13 +164,32 @@ public class TeleportationUtil {
         Vec3 lastFrameEyePos, Vec3 currentFrameEyePos,
         PortalState lastTickState, PortalState thisTickState,
         Vec3 lastTickEyePos, Vec3 thisTickEyePos, float partialTicks
+    ) {
+        return checkDynamicTeleportation(
+            portal, portal.getPortalShape(), portal.getThisSideState(),
+            lastFrameState, currentFrameState,
+            lastFrameEyePos, currentFrameEyePos,
+            lastTickState, thisTickState,
+            lastTickEyePos, thisTickEyePos, partialTicks
+        );
+    }
+    
+    /**
+     * Only depends on the portal states and shape, so it can be run without a world.
+     *
+     * @param portal only put into the result. null when not running in game
+     */
+    @Nullable
+    public static Teleportation checkDynamicTeleportation(
+        @Nullable Portal portal, PortalShape portalShape, UnilateralPortalState portalThisSideState,
+        PortalState lastFrameState, PortalState currentFrameState,
+        Vec3 lastFrameEyePos, Vec3 currentFrameEyePos,
+        PortalState lastTickState, PortalState thisTickState,
+        Vec3 lastTickEyePos, Vec3 thisTickEyePos, float partialTicks
     ) {
         Vec3 lastLocalPos = lastFrameState.worldPosToPortalLocalPos(lastFrameEyePos);
         Vec3 currentLocalPos = currentFrameState.worldPosToPortalLocalPos(currentFrameEyePos);
         
-        UnilateralPortalState portalThisSideState = portal.getThisSideState();
-        PortalShape portalShape = portal.getPortalShape();
-        
         RayTraceResult rayTraceResult = portalShape.raytracePortalShapeByLocalPos(
             portalThisSideState, lastLocalPos, currentLocalPos,
             0
@@ -49,6 +49,8 @@ public class PeripheralModMain {
     public static void init() {
         FormulaGenerator.init();
         
+        ErrorTerrainGenerator.init();
+        
         IntrinsicPortalGeneration.init();
         
         DimStackManagement.init();
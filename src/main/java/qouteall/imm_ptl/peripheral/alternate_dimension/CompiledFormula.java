@@ -0,0 +1,337 @@
+package qouteall.imm_ptl.peripheral.alternate_dimension;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A flattened form of the expressions generated by
+ * {@link FormulaGenerator#newGetRandomTriCompositeExpression(java.util.Random, int)}.
+ * The lambda tree evaluates one point per call and goes through several layers of
+ * megamorphic interface calls. This evaluates the same expression from an instruction array,
+ * and can evaluate a whole column in one pass with primitive double arrays.
+ * <p>
+ * The opcodes are the indices of the entries in the selectors of {@link FormulaGenerator},
+ * in adding order. The results are bit-for-bit the same as the lambda tree.
+ * <p>
+ * Instruction layout: for each nest layer, 3 uni ops (for x, y, z) then 3 tri ops.
+ * At the end, the shuffle op then the final tri op.
+ * Each nest layer has 3 constants, which are the random args of the uni ops (0 if unused).
+ */
+public final class CompiledFormula {
+    public static final int UNI_OP_NUM = 22;
+    public static final int TRI_OP_NUM = 21;
+    public static final int SHUFFLE_OP_NUM = 6;
+    
+    private static final int LAYER_CODE_LENGTH = 6;
+    private static final int LAYER_CONSTANT_LENGTH = 3;
+    
+    private final int nestLayer;
+    private final int[] code;
+    private final double[] constants;
+    
+    public CompiledFormula(int nestLayer, int[] code, double[] constants) {
+        if (code.length != nestLayer * LAYER_CODE_LENGTH + 2) {
+            throw new IllegalArgumentException("Invalid code length " + code.length);
+        }
+        if (constants.length != nestLayer * LAYER_CONSTANT_LENGTH) {
+            throw new IllegalArgumentException("Invalid constant length " + constants.length);
+        }
+        this.nestLayer = nestLayer;
+        this.code = code;
+        this.constants = constants;
+    }
+    
+    public int getNestLayer() {
+        return nestLayer;
+    }
+    
+    public int[] getCode() {
+        return code.clone();
+    }
+    
+    public double[] getConstants() {
+        return constants.clone();
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the code is malformed
+     */
+    public static CompiledFormula fromCode(int[] code, double[] constants) {
+        int nestLayer = (code.length - 2) / LAYER_CODE_LENGTH;
+        for (int layer = 0; layer < nestLayer; layer++) {
+            int c = layer * LAYER_CODE_LENGTH;
+            for (int i = 0; i < 3; i++) {
+                checkOp(code[c + i], UNI_OP_NUM);
+                checkOp(code[c + 3 + i], TRI_OP_NUM);
+            }
+        }
+        if (code.length >= 2) {
+            checkOp(code[code.length - 2], SHUFFLE_OP_NUM);
+            checkOp(code[code.length - 1], TRI_OP_NUM);
+        }
+        return new CompiledFormula(nestLayer, code, constants);
+    }
+    
+    private static void checkOp(int op, int opNum) {
+        if (op < 0 || op >= opNum) {
+            throw new IllegalArgumentException("Invalid op " + op);
+        }
+    }
+    
+    public static boolean uniOpTakesArg(int op) {
+        return op >= 14;
+    }
+    
+    public double eval(double x, double y, double z) {
+        for (int layer = 0; layer < nestLayer; layer++) {
+            int c = layer * LAYER_CODE_LENGTH;
+            int k = layer * LAYER_CONSTANT_LENGTH;
+            
+            double ux = uni(code[c], constants[k], x);
+            double uy = uni(code[c + 1], constants[k + 1], y);
+            double uz = uni(code[c + 2], constants[k + 2], z);
+            
+            x = tri(code[c + 3], ux, uy, uz);
+            y = tri(code[c + 4], ux, uy, uz);
+            z = tri(code[c + 5], ux, uy, uz);
+        }
+        
+        int c = nestLayer * LAYER_CODE_LENGTH;
+        int finalOp = code[c + 1];
+        return switch (code[c]) {
+            case 0 -> tri(finalOp, x, y, z);
+            case 1 -> tri(finalOp, x, z, y);
+            case 2 -> tri(finalOp, y, z, x);
+            case 3 -> tri(finalOp, y, x, z);
+            case 4 -> tri(finalOp, z, x, y);
+            case 5 -> tri(finalOp, z, y, x);
+            default -> throw new IllegalStateException("Invalid shuffle op " + code[c]);
+        };
+    }
+    
+    /**
+     * Evaluates the expression for all points (x, ys[i], z) where i is in [0, length).
+     * Equivalent to calling {@link #eval(double, double, double)} for each point.
+     */
+    public void evalColumn(
+        double x, double[] ys, double z,
+        double[] out, int length,
+        @NotNull Workspace workspace
+    ) {
+        workspace.ensureCapacity(length);
+        
+        double[] rx = workspace.x;
+        double[] ry = workspace.y;
+        double[] rz = workspace.z;
+        double[] nx = workspace.nx;
+        double[] ny = workspace.ny;
+        double[] nz = workspace.nz;
+        
+        for (int i = 0; i < length; i++) {
+            rx[i] = x;
+            ry[i] = ys[i];
+            rz[i] = z;
+        }
+        
+        for (int layer = 0; layer < nestLayer; layer++) {
+            int c = layer * LAYER_CODE_LENGTH;
+            int k = layer * LAYER_CONSTANT_LENGTH;
+            
+            uniColumn(code[c], constants[k], rx, length);
+            uniColumn(code[c + 1], constants[k + 1], ry, length);
+            uniColumn(code[c + 2], constants[k + 2], rz, length);
+            
+            triColumn(code[c + 3], rx, ry, rz, nx, length);
+            triColumn(code[c + 4], rx, ry, rz, ny, length);
+            triColumn(code[c + 5], rx, ry, rz, nz, length);
+            
+            double[] t;
+            t = rx; rx = nx; nx = t;
+            t = ry; ry = ny; ny = t;
+            t = rz; rz = nz; nz = t;
+        }
+        
+        int c = nestLayer * LAYER_CODE_LENGTH;
+        int finalOp = code[c + 1];
+        switch (code[c]) {
+            case 0 -> triColumn(finalOp, rx, ry, rz, out, length);
+            case 1 -> triColumn(finalOp, rx, rz, ry, out, length);
+            case 2 -> triColumn(finalOp, ry, rz, rx, out, length);
+            case 3 -> triColumn(finalOp, ry, rx, rz, out, length);
+            case 4 -> triColumn(finalOp, rz, rx, ry, out, length);
+            case 5 -> triColumn(finalOp, rz, ry, rx, out, length);
+            default -> throw new IllegalStateException("Invalid shuffle op " + code[c]);
+        }
+    }
+    
+    // the loops are inside the switch branches so that the simple ones can be vectorized by JIT
+    private static void uniColumn(int op, double arg, double[] arr, int length) {
+        switch (op) {
+            case 0 -> {} // identity
+            case 1 -> {
+                for (int i = 0; i < length; i++) {
+                    arr[i] = -arr[i];
+                }
+            }
+            case 2 -> {
+                for (int i = 0; i < length; i++) {
+                    arr[i] = arr[i] * arr[i];
+                }
+            }
+            case 3 -> {
+                for (int i = 0; i < length; i++) {
+                    arr[i] = arr[i] * arr[i] * arr[i];
+                }
+            }
+            case 10 -> {
+                for (int i = 0; i < length; i++) {
+                    arr[i] = Math.abs(arr[i]);
+                }
+            }
+            case 14 -> {
+                for (int i = 0; i < length; i++) {
+                    arr[i] = arr[i] * arg;
+                }
+            }
+            case 17 -> {
+                for (int i = 0; i < length; i++) {
+                    arr[i] = arr[i] + arg;
+                }
+            }
+            default -> {
+                for (int i = 0; i < length; i++) {
+                    arr[i] = uni(op, arg, arr[i]);
+                }
+            }
+        }
+    }
+    
+    private static void triColumn(
+        int op, double[] xs, double[] ys, double[] zs, double[] out, int length
+    ) {
+        switch (op) {
+            case 0, 5 -> {
+                for (int i = 0; i < length; i++) {
+                    out[i] = xs[i] + ys[i] + zs[i];
+                }
+            }
+            case 1 -> {
+                for (int i = 0; i < length; i++) {
+                    out[i] = xs[i] * ys[i] * zs[i];
+                }
+            }
+            case 2 -> {
+                for (int i = 0; i < length; i++) {
+                    out[i] = xs[i] * ys[i] + zs[i];
+                }
+            }
+            case 3 -> {
+                for (int i = 0; i < length; i++) {
+                    out[i] = xs[i] + ys[i] * zs[i];
+                }
+            }
+            case 4 -> {
+                for (int i = 0; i < length; i++) {
+                    out[i] = xs[i] * zs[i] + ys[i];
+                }
+            }
+            case 6 -> {
+                for (int i = 0; i < length; i++) {
+                    out[i] = xs[i] * xs[i] + ys[i] * ys[i] + zs[i] * zs[i];
+                }
+            }
+            default -> {
+                for (int i = 0; i < length; i++) {
+                    out[i] = tri(op, xs[i], ys[i], zs[i]);
+                }
+            }
+        }
+    }
+    
+    // must be in the same order as FormulaGenerator.initUniFuncSelector
+    static double uni(int op, double arg, double x) {
+        return switch (op) {
+            case 0 -> x;
+            case 1 -> -x;
+            case 2 -> x * x;
+            case 3 -> x * x * x;
+            case 4 -> Math.max(x, 0);
+            case 5 -> Math.sin(x * 3);
+            case 6 -> Math.cos(x * 7);
+            case 7 -> Math.exp(x * 3);
+            case 8 -> Math.log(Math.abs(x) + 1);
+            case 9 -> Math.cosh(x);
+            case 10 -> Math.abs(x);
+            case 11 -> Math.round(x);
+            case 12 -> Math.sqrt(Math.abs(x));
+            case 13 -> FormulaGenerator.weirdSwap(x);
+            case 14 -> x * arg;
+            case 15 -> x / Math.max(arg, 0.1);
+            case 16 -> Math.max(x, arg);
+            case 17 -> x + arg;
+            case 18 -> Math.floor(x * arg * 23);
+            case 19 -> Math.floor(x * arg);
+            case 20 -> FormulaGenerator.weirdAnd(arg, x);
+            case 21 -> FormulaGenerator.weirdXor(arg, x);
+            default -> throw new IllegalStateException("Invalid uni op " + op);
+        };
+    }
+    
+    // must be in the same order as FormulaGenerator.initTriFuncSelector
+    static double tri(int op, double x, double y, double z) {
+        return switch (op) {
+            case 0 -> x + y + z;
+            case 1 -> x * y * z;
+            case 2 -> x * y + z;
+            case 3 -> x + y * z;
+            case 4 -> x * z + y;
+            case 5 -> x + y + z;
+            case 6 -> x * x + y * y + z * z;
+            case 7 -> x + y * y + z * z;
+            case 8 -> x * x + y + z * z;
+            case 9 -> x * x + y * y + z;
+            case 10 -> -x * x + y * y + z * z;
+            case 11 -> x * x - y * y + z * z;
+            case 12 -> x * x + y * y - z * z;
+            case 13 -> (x + y + z) * (x + y + z);
+            case 14 -> (x + y + z) * (x + y - z);
+            case 15 -> x * x * x * y * z;
+            case 16 -> Math.pow(y, x + z);
+            case 17 -> Math.pow(y, x - z);
+            case 18 -> Math.pow(x * z, y);
+            case 19 -> Math.log(Math.abs(x + y + z) + 0.5);
+            case 20 -> Math.log(Math.abs(x - y * z) + 0.5);
+            default -> throw new IllegalStateException("Invalid tri op " + op);
+        };
+    }
+    
+    /**
+     * The scratch buffers for column evaluation. Not thread-safe, use one per thread.
+     */
+    public static final class Workspace {
+        private double[] x;
+        private double[] y;
+        private double[] z;
+        private double[] nx;
+        private double[] ny;
+        private double[] nz;
+        
+        public Workspace(int capacity) {
+            allocate(capacity);
+        }
+        
+        private void allocate(int capacity) {
+            x = new double[capacity];
+            y = new double[capacity];
+            z = new double[capacity];
+            nx = new double[capacity];
+            ny = new double[capacity];
+            nz = new double[capacity];
+        }
+        
+        private void ensureCapacity(int capacity) {
+            if (x.length < capacity) {
+                allocate(capacity);
+            }
+        }
+    }
+}
@@ -7,6 +7,8 @@ import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
 
+import java.util.function.IntFunction;
+
 public class ErrorTerrainComposition {
     
     
@@ -132,7 +134,9 @@ public class ErrorTerrainComposition {
         );
         if (funcValue > splitPoint) {
             if (((int) funcValue) % 37 == 0) {
-                Block randomBlock = BuiltInRegistries.BLOCK.getRandom(RandomSource.create()).get().value();
+                // use a positional random so that the same region always yields the same blocks
+                RandomSource random = RandomSource.create(Mth.getSeed(worldX, worldY, worldZ));
+                Block randomBlock = BuiltInRegistries.BLOCK.getRandom(random).get().value();
                 //player should not get beacon so easily
                 if (randomBlock == Blocks.BEACON) {
                     randomBlock = Blocks.AIR;
@@ -175,15 +179,34 @@ public class ErrorTerrainComposition {
         return splitPoint;
     }
     
+    private static final RegionErrorTerrainGenerator.Composition[] compositions = {
+        mountain, classicalSolid, classicalHollow, classicalWatery,
+        newSolid, floatingSea, treasured, layeredHollow
+    };
+    
     public static final RandomSelector<RegionErrorTerrainGenerator.Composition> selector =
-        new RandomSelector.Builder<RegionErrorTerrainGenerator.Composition>()
-            .add(25, mountain)
-            .add(40, classicalSolid)
-            .add(50, classicalHollow)
-            .add(10, classicalWatery)
-            .add(10, newSolid)
-            .add(30, floatingSea)
-            .add(1, treasured)
-            .add(15, layeredHollow)
-            .build();
+        Weights.build(i -> compositions[i]);
+    
+    /**
+     * Choosing a composition index does not need the compositions,
+     * so it does not load the blocks.
+     */
+    public static final class Weights {
+        // in the same order as the compositions
+        private static final int[] weights = {25, 40, 50, 10, 10, 30, 1, 15};
+        
+        public static final RandomSelector<Integer> indexSelector = build(i -> i);
+        
+        public static int size() {
+            return weights.length;
+        }
+        
+        private static <T> RandomSelector<T> build(IntFunction<T> entryFunc) {
+            RandomSelector.Builder<T> builder = new RandomSelector.Builder<>();
+            for (int i = 0; i < weights.length; i++) {
+                builder.add(weights[i], entryFunc.apply(i));
+            }
+            return builder.build();
+        }
+    }
 }
@@ -2,14 +2,17 @@ package qouteall.imm_ptl.peripheral.alternate_dimension;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.mojang.serialization.Codec;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Holder;
 import net.minecraft.core.HolderGetter;
 import net.minecraft.core.registries.Registries;
 import net.minecraft.resources.RegistryOps;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.StructureManager;
 import net.minecraft.world.level.biome.Biome;
@@ -25,26 +28,50 @@ import net.minecraft.world.level.levelgen.NoiseBasedChunkGenerator;
 import net.minecraft.world.level.levelgen.NoiseGeneratorSettings;
 import net.minecraft.world.level.levelgen.RandomState;
 import net.minecraft.world.level.levelgen.blending.Blender;
+import net.neoforged.neoforge.common.NeoForge;
+import net.neoforged.neoforge.event.level.LevelEvent;
+import org.jetbrains.annotations.Nullable;
 import qouteall.q_misc_util.Helper;
 
 import java.util.ArrayList;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ErrorTerrainGenerator extends DelegatedChunkGenerator {
     
     public static final Codec<ErrorTerrainGenerator> codec = RecordCodecBuilder.create(
         instance -> instance.group(
                 RegistryOps.retrieveGetter(Registries.BIOME),
-                RegistryOps.retrieveGetter(Registries.NOISE_SETTINGS)
+                RegistryOps.retrieveGetter(Registries.NOISE_SETTINGS),
+                Codec.BOOL.optionalFieldOf("deterministic_regions", false)
+                    .forGetter(ErrorTerrainGenerator::isDeterministicRegions)
             )
             .apply(instance, ErrorTerrainGenerator::create)
     );
     
+    public static void init() {
+        NeoForge.EVENT_BUS.addListener(LevelEvent.Load.class, event -> {
+            if (event.getLevel() instanceof ServerLevel serverLevel &&
+                serverLevel.getChunkSource().getGenerator() instanceof ErrorTerrainGenerator generator
+            ) {
+                generator.attachToLevel(serverLevel);
+            }
+        });
+    }
+    
     public static ErrorTerrainGenerator create(
         HolderGetter<Biome> biomeHolderGetter,
         HolderGetter<NoiseGeneratorSettings> noiseGeneratorSettingsHolderGetter
+    ) {
+        return create(biomeHolderGetter, noiseGeneratorSettingsHolderGetter, false);
+    }
+    
+    public static ErrorTerrainGenerator create(
+        HolderGetter<Biome> biomeHolderGetter,
+        HolderGetter<NoiseGeneratorSettings> noiseGeneratorSettingsHolderGetter,
+        boolean deterministicRegions
     ) {
         ChaosBiomeSource chaosBiomeSource = ChaosBiomeSource.createChaosBiomeSource(biomeHolderGetter);
         
@@ -56,7 +83,7 @@ public class ErrorTerrainGenerator extends DelegatedChunkGenerator {
         );
         
         return new ErrorTerrainGenerator(
-            chaosBiomeSource, islandChunkGenerator
+            chaosBiomeSource, islandChunkGenerator, deterministicRegions
         );
     }
     
@@ -70,28 +97,117 @@ public class ErrorTerrainGenerator extends DelegatedChunkGenerator {
     
     private final LoadingCache<ChunkPos, RegionErrorTerrainGenerator> cache;
     
+    /**
+     * If true, the region seed is derived from the world seed and the region coordinate,
+     * so the same region always yields the same terrain,
+     * and the region data is stored in {@link ErrorTerrainRegionStorage}.
+     * Otherwise, the system time is used as seed.
+     */
+    private final boolean deterministicRegions;
+    
+    // set when the level loads. accessed from world generation threads
+    private volatile long worldSeed;
+    @Nullable
+    private volatile ErrorTerrainRegionStorage regionStorage;
+    
+    // the recently built regions, used for counting rebuilds. the oldest ones are removed when it's full
+    private static final int BUILT_REGION_RECORD_NUM = 16384;
+    private final LongLinkedOpenHashSet builtRegions = new LongLinkedOpenHashSet();
+    private final AtomicLong rebuildCount = new AtomicLong();
+    private final AtomicLong restoreCount = new AtomicLong();
     
     public ErrorTerrainGenerator(
         BiomeSource biomeSource, ChunkGenerator delegate
+    ) {
+        this(biomeSource, delegate, false);
+    }
+    
+    public ErrorTerrainGenerator(
+        BiomeSource biomeSource, ChunkGenerator delegate, boolean deterministicRegions
     ) {
         super(biomeSource, delegate);
         
+        this.deterministicRegions = deterministicRegions;
+        
+        // the region generators are restored from the region storage,
+        // so expiring is harmless. expire after access to reduce churn
         cache = CacheBuilder.newBuilder()
             .maximumSize(10000)
-            .expireAfterWrite(30, TimeUnit.SECONDS)
+            .expireAfterAccess(30, TimeUnit.SECONDS)
+            .recordStats()
             .build(
                 new CacheLoader<ChunkPos, RegionErrorTerrainGenerator>() {
                     public RegionErrorTerrainGenerator load(ChunkPos key) {
-                        return new RegionErrorTerrainGenerator(
-                            key.x, key.z,
-                            System.nanoTime()
-                            // use the system time as seed
-                            // there is no need to keep the error terrain generation consistent
-                        );
+                        return loadRegion(key.x, key.z);
                     }
                 });
     }
     
+    public void attachToLevel(ServerLevel level) {
+        worldSeed = level.getSeed();
+        if (deterministicRegions) {
+            regionStorage = ErrorTerrainRegionStorage.get(level);
+        }
+        cache.invalidateAll();
+    }
+    
+    private RegionErrorTerrainGenerator loadRegion(int regionX, int regionZ) {
+        boolean isRebuild;
+        synchronized (builtRegions) {
+            isRebuild = !builtRegions.add(ChunkPos.asLong(regionX, regionZ));
+            if (builtRegions.size() > BUILT_REGION_RECORD_NUM) {
+                builtRegions.removeFirstLong();
+            }
+        }
+        if (isRebuild) {
+            rebuildCount.incrementAndGet();
+        }
+        
+        if (!deterministicRegions) {
+            // use the system time as seed
+            return new RegionErrorTerrainGenerator(
+                RegionErrorTerrainGenerator.RegionData.generate(regionX, regionZ, System.nanoTime())
+            );
+        }
+        
+        ErrorTerrainRegionStorage storage = regionStorage;
+        if (storage == null) {
+            // the world seed is not known yet
+            throw new IllegalStateException(
+                "Deterministic error terrain region generated before the level is loaded"
+            );
+        }
+        
+        RegionErrorTerrainGenerator.RegionData stored = storage.getRegion(regionX, regionZ);
+        if (stored != null) {
+            restoreCount.incrementAndGet();
+            return new RegionErrorTerrainGenerator(stored);
+        }
+        
+        RegionErrorTerrainGenerator.RegionData regionData = storage.putRegionIfAbsent(
+            RegionErrorTerrainGenerator.RegionData.generate(regionX, regionZ, worldSeed)
+        );
+        
+        return new RegionErrorTerrainGenerator(regionData);
+    }
+    
+    public boolean isDeterministicRegions() {
+        return deterministicRegions;
+    }
+    
+    public String getCacheStatString() {
+        CacheStats stats = cache.stats();
+        ErrorTerrainRegionStorage storage = regionStorage;
+        return String.format(
+            "deterministic:%s hit:%d miss:%d rebuild:%d restored:%d cached:%d stored:%d",
+            deterministicRegions,
+            stats.hitCount(), stats.missCount(),
+            rebuildCount.get(), restoreCount.get(),
+            cache.size(),
+            storage == null ? 0 : storage.getRegionNum()
+        );
+    }
+    
     @Override
     protected Codec<? extends ChunkGenerator> codec() {
         return codec;
@@ -132,25 +248,27 @@ public class ErrorTerrainGenerator extends DelegatedChunkGenerator {
             cache.get(new ChunkPos(regionX, regionZ))
         );
         
-        for (int sectionY = 0; sectionY < 16; sectionY++) {
-            LevelChunkSection section = protoChunk.getSection(sectionY);
-            
-            for (int localX = 0; localX < 16; localX++) {
-                for (int localZ = 0; localZ < 16; localZ++) {
-                    for (int localY = 0; localY < 16; localY++) {
-                        int worldX = pos.x * 16 + localX;
-                        int worldY = sectionY * 16 + localY;
-                        int worldZ = pos.z * 16 + localZ;
-                        
-                        BlockState currBlockState = generator.getBlockComposition(
-                            worldX, worldY, worldZ
-                        );
-                        
-                        if (currBlockState != air) {
-                            section.setBlockState(localX, localY, localZ, currBlockState, false);
-                            oceanFloorHeightMap.update(localX, worldY, localZ, currBlockState);
-                            surfaceHeightMap.update(localX, worldY, localZ, currBlockState);
-                        }
+        // evaluate the whole column at once, which is much faster than evaluating per block
+        double[] columnValues = new double[maxY];
+        CompiledFormula.Workspace workspace = new CompiledFormula.Workspace(maxY);
+        
+        for (int localX = 0; localX < 16; localX++) {
+            for (int localZ = 0; localZ < 16; localZ++) {
+                int worldX = pos.x * 16 + localX;
+                int worldZ = pos.z * 16 + localZ;
+                
+                generator.calcColumn(worldX, worldZ, columnValues, workspace);
+                
+                for (int worldY = 0; worldY < maxY; worldY++) {
+                    BlockState currBlockState = generator.getBlockCompositionByValue(
+                        worldX, worldY, worldZ, columnValues[worldY]
+                    );
+                    
+                    if (currBlockState != air) {
+                        LevelChunkSection section = protoChunk.getSection(worldY >> 4);
+                        section.setBlockState(localX, worldY & 15, localZ, currBlockState, false);
+                        oceanFloorHeightMap.update(localX, worldY, localZ, currBlockState);
+                        surfaceHeightMap.update(localX, worldY, localZ, currBlockState);
                     }
                 }
             }
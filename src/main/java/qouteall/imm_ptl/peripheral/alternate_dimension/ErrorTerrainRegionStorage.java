@@ -0,0 +1,149 @@
+package qouteall.imm_ptl.peripheral.alternate_dimension;
+
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.saveddata.SavedData;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+/**
+ * Stores the chosen formula parameters of each error terrain region,
+ * so that chunks generated later (or after reloading) in the same region
+ * use the same formula and don't leave seams.
+ * Only used in the deterministic mode. At most {@link #MAX_REGION_NUM} regions are stored,
+ * the oldest ones are evicted. An evicted region is generated again from the world seed, which yields the same data.
+ * Accessed from world generation threads.
+ */
+public class ErrorTerrainRegionStorage extends SavedData {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    public static final int MAX_REGION_NUM = 65536;
+    
+    // in insertion order
+    private final Long2ObjectLinkedOpenHashMap<RegionErrorTerrainGenerator.RegionData> regions =
+        new Long2ObjectLinkedOpenHashMap<>();
+    
+    public static ErrorTerrainRegionStorage get(ServerLevel world) {
+        return world.getDataStorage().computeIfAbsent(
+            new SavedData.Factory<>(
+                ErrorTerrainRegionStorage::new,
+                ErrorTerrainRegionStorage::fromTag,
+                null
+            ),
+            "imm_ptl_error_terrain_regions"
+        );
+    }
+    
+    public ErrorTerrainRegionStorage() {
+    }
+    
+    @Nullable
+    public synchronized RegionErrorTerrainGenerator.RegionData getRegion(int regionX, int regionZ) {
+        return regions.get(ChunkPos.asLong(regionX, regionZ));
+    }
+    
+    /**
+     * @return the already stored region data if present, otherwise the newly put one
+     */
+    public synchronized RegionErrorTerrainGenerator.RegionData putRegionIfAbsent(
+        RegionErrorTerrainGenerator.RegionData regionData
+    ) {
+        long key = ChunkPos.asLong(regionData.regionX(), regionData.regionZ());
+        RegionErrorTerrainGenerator.RegionData existing = regions.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        regions.put(key, regionData);
+        evictIfNeeded();
+        setDirty();
+        return regionData;
+    }
+    
+    private void evictIfNeeded() {
+        while (regions.size() > MAX_REGION_NUM) {
+            regions.removeFirst();
+        }
+    }
+    
+    public synchronized int getRegionNum() {
+        return regions.size();
+    }
+    
+    public static ErrorTerrainRegionStorage fromTag(CompoundTag tag) {
+        ErrorTerrainRegionStorage storage = new ErrorTerrainRegionStorage();
+        
+        ListTag list = tag.getList("regions", Tag.TAG_COMPOUND);
+        for (int i = 0; i < list.size(); i++) {
+            CompoundTag regionTag = list.getCompound(i);
+            try {
+                RegionErrorTerrainGenerator.RegionData regionData = regionDataFromTag(regionTag);
+                storage.regions.put(
+                    ChunkPos.asLong(regionData.regionX(), regionData.regionZ()),
+                    regionData
+                );
+            }
+            catch (IllegalArgumentException e) {
+                // the region will be generated again
+                LOGGER.error("Invalid error terrain region data {}", regionTag, e);
+            }
+        }
+        storage.evictIfNeeded();
+        
+        return storage;
+    }
+    
+    @Override
+    public synchronized CompoundTag save(CompoundTag tag) {
+        ListTag list = new ListTag();
+        for (RegionErrorTerrainGenerator.RegionData regionData : regions.values()) {
+            list.add(regionDataToTag(regionData));
+        }
+        tag.put("regions", list);
+        return tag;
+    }
+    
+    public static CompoundTag regionDataToTag(RegionErrorTerrainGenerator.RegionData regionData) {
+        CompoundTag tag = new CompoundTag();
+        tag.putInt("x", regionData.regionX());
+        tag.putInt("z", regionData.regionZ());
+        tag.putIntArray("code", regionData.expression().getCode());
+        
+        // store the raw bits to keep the generation bit-for-bit the same
+        double[] constants = regionData.expression().getConstants();
+        long[] constantBits = new long[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            constantBits[i] = Double.doubleToRawLongBits(constants[i]);
+        }
+        tag.putLongArray("constants", constantBits);
+        
+        tag.putInt("composition", regionData.compositionIndex());
+        return tag;
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the data is invalid
+     */
+    public static RegionErrorTerrainGenerator.RegionData regionDataFromTag(CompoundTag tag) {
+        long[] constantBits = tag.getLongArray("constants");
+        double[] constants = new double[constantBits.length];
+        for (int i = 0; i < constantBits.length; i++) {
+            constants[i] = Double.longBitsToDouble(constantBits[i]);
+        }
+        
+        CompiledFormula expression = CompiledFormula.fromCode(tag.getIntArray("code"), constants);
+        
+        int compositionIndex = tag.getInt("composition");
+        if (compositionIndex < 0 || compositionIndex >= ErrorTerrainComposition.Weights.size()) {
+            throw new IllegalArgumentException("Invalid composition " + compositionIndex);
+        }
+        
+        return new RegionErrorTerrainGenerator.RegionData(
+            tag.getInt("x"), tag.getInt("z"), expression, compositionIndex
+        );
+    }
+}
@@ -1,6 +1,7 @@
 package qouteall.imm_ptl.peripheral.alternate_dimension;
 
 import it.unimi.dsi.fastutil.doubles.DoubleList;
+import org.apache.commons.lang3.Validate;
 
 import java.util.Random;
 import java.util.function.Function;
@@ -55,6 +56,10 @@ public class FormulaGenerator {
     public static void init() {
         initUniFuncSelector();
         initTriFuncSelector();
+        
+        Validate.isTrue(uniFuncSelector.size() == CompiledFormula.UNI_OP_NUM);
+        Validate.isTrue(triFuncSelector.size() == CompiledFormula.TRI_OP_NUM);
+        Validate.isTrue(shuffleFunSelector.size() == CompiledFormula.SHUFFLE_OP_NUM);
     }
     
     private static void initUniFuncSelector() {
@@ -99,15 +104,15 @@ public class FormulaGenerator {
         return ((double) d - 256) / 256;
     }
     
-    private static double weirdAnd(double a, double b) {
+    static double weirdAnd(double a, double b) {
         return fromInt(toInt(a) & toInt(b));
     }
     
-    private static double weirdXor(double a, double b) {
+    static double weirdXor(double a, double b) {
         return fromInt(toInt(a) ^ toInt(b));
     }
     
-    private static double weirdSwap(double a) {
+    static double weirdSwap(double a) {
         int i = toInt(a);
         
         int r = ((i & 0x0F) << 4) | ((i & 0xF0) >> 4);
@@ -158,6 +163,38 @@ public class FormulaGenerator {
         }
     }
     
+    /**
+     * Generates the same expression as {@link #newGetRandomTriCompositeExpression(Random, int)}
+     * with the same random, in the compiled form.
+     * The random is consumed in exactly the same order.
+     */
+    public static CompiledFormula newRandomCompiledExpression(Random random, int nestLayer) {
+        int[] code = new int[nestLayer * 6 + 2];
+        double[] constants = new double[nestLayer * 3];
+        
+        for (int layer = 0; layer < nestLayer; layer++) {
+            int c = layer * 6;
+            int k = layer * 3;
+            
+            for (int i = 0; i < 3; i++) {
+                int uniOp = uniFuncSelector.selectIndex(random);
+                code[c + i] = uniOp;
+                if (CompiledFormula.uniOpTakesArg(uniOp)) {
+                    constants[k + i] = random.nextDouble();
+                }
+            }
+            
+            for (int i = 0; i < 3; i++) {
+                code[c + 3 + i] = triFuncSelector.selectIndex(random);
+            }
+        }
+        
+        code[nestLayer * 6] = shuffleFunSelector.selectIndex(random);
+        code[nestLayer * 6 + 1] = triFuncSelector.selectIndex(random);
+        
+        return new CompiledFormula(nestLayer, code, constants);
+    }
+    
     public static TriToTriFuncCPS newGetComplexTriNumFunc1(Random random) {
         TriNumFunction f1 = triFuncSelector.select(random);
         TriNumFunction f2 = triFuncSelector.select(random);
@@ -32,6 +32,20 @@ public class RandomSelector<T> {
     }
     
     public T selectByRandomValue(int randomValue) {
+        return (T) entries[selectIndexByRandomValue(randomValue)];
+    }
+    
+    /**
+     * Consumes the random in the same way as {@link #select(Random)},
+     * but returns the index of the entry in adding order.
+     */
+    public int selectIndex(Random random) {
+        int randomValue = random.nextInt(weightSum);
+        
+        return selectIndexByRandomValue(randomValue);
+    }
+    
+    public int selectIndexByRandomValue(int randomValue) {
         int result = Arrays.binarySearch(
             subWeightSum,
             0, subWeightSum.length,
@@ -39,15 +53,23 @@ public class RandomSelector<T> {
         );
         
         if (result >= 0) {
-            return (T) entries[result + 1];
+            return result + 1;
         }
         else {
             //result = -firstEleGreaterThanValue - 1
             int firstEleGreaterThanValue = -(result + 1);
-            return (T) entries[firstEleGreaterThanValue];
+            return firstEleGreaterThanValue;
         }
     }
     
+    public T get(int index) {
+        return (T) entries[index];
+    }
+    
+    public int size() {
+        return entries.length;
+    }
+    
     public static class Builder<A> {
         private final ArrayList<Tuple<A, Integer>> data = new ArrayList<>();
         
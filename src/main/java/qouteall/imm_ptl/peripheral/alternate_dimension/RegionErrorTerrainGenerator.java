@@ -19,9 +19,42 @@ public class RegionErrorTerrainGenerator {
         );
     }
     
+    private static final double[] NORMALIZED_Y = new double[ErrorTerrainGenerator.maxY];
+    
+    static {
+        for (int worldY = 0; worldY < ErrorTerrainGenerator.maxY; worldY++) {
+            NORMALIZED_Y[worldY] = worldY / ((double) ErrorTerrainGenerator.maxY);
+        }
+    }
+    
+    /**
+     * The chosen formula parameters of one region.
+     * Stored in {@link ErrorTerrainRegionStorage} so that the region stays the same after reloading.
+     */
+    public static record RegionData(
+        int regionX,
+        int regionZ,
+        CompiledFormula expression,
+        int compositionIndex
+    ) {
+        public static RegionData generate(int regionX, int regionZ, long seed) {
+            long realSeed = LinearCongruentialGenerator.next(
+                seed, LinearCongruentialGenerator.next(
+                    regionX, regionZ
+                )
+            );
+            Random random = new Random(realSeed);
+            CompiledFormula expression = FormulaGenerator.newRandomCompiledExpression(random, 3);
+            
+            int compositionIndex = ErrorTerrainComposition.Weights.indexSelector.selectIndex(random);
+            
+            return new RegionData(regionX, regionZ, expression, compositionIndex);
+        }
+    }
+    
     private final int regionX;
     private final int regionZ;
-    private FormulaGenerator.TriNumFunction expression;
+    private final CompiledFormula expression;
     private final double middle;
     private final double upMiddle;
     private final double downMiddle;
@@ -32,28 +65,20 @@ public class RegionErrorTerrainGenerator {
         int regionZ_,
         long seed
     ) {
-        regionX = regionX_;
-        regionZ = regionZ_;
-        
-        initExpression(seed);
+        this(RegionData.generate(regionX_, regionZ_, seed));
+    }
+    
+    public RegionErrorTerrainGenerator(RegionData regionData) {
+        regionX = regionData.regionX();
+        regionZ = regionData.regionZ();
+        expression = regionData.expression();
+        composition = ErrorTerrainComposition.selector.get(regionData.compositionIndex());
         
         middle = calcMiddle(0.4, 0.5);
         upMiddle = calcMiddle(1.0, 1.0);
         downMiddle = calcMiddle(0.0, 0);
     }
     
-    private void initExpression(long seed) {
-        long realSeed = LinearCongruentialGenerator.next(
-            seed, LinearCongruentialGenerator.next(
-                regionX, regionZ
-            )
-        );
-        Random random = new Random(realSeed);
-        expression = FormulaGenerator.newGetRandomTriCompositeExpression(random, 3);
-        
-        composition = ErrorTerrainComposition.selector.select(random);
-    }
-    
     private double calcMiddle(double lowerHeight, double upperHeight) {
         double[] arr = new double[8];
         double zero = 0.2;
@@ -101,4 +126,41 @@ public class RegionErrorTerrainGenerator {
         );
     }
     
+    /**
+     * Evaluates the function values of the column at (worldX, worldZ) for worldY in [0, maxY).
+     * The result is the same as {@link #calc(int, int, int)} for each y.
+     */
+    public void calcColumn(
+        int worldX, int worldZ,
+        double[] out, CompiledFormula.Workspace workspace
+    ) {
+        int a = ErrorTerrainGenerator.regionChunkNum * 16;
+        
+        int regionStartX = regionX * a;
+        int regionStartZ = regionZ * a;
+        expression.evalColumn(
+            (worldX - regionStartX) / ((double) a),
+            NORMALIZED_Y,
+            (worldZ - regionStartZ) / ((double) a),
+            out, ErrorTerrainGenerator.maxY, workspace
+        );
+    }
+    
+    public BlockState getBlockCompositionByValue(
+        int worldX,
+        int worldY,
+        int worldZ,
+        double funcValue
+    ) {
+        if (worldY >= ErrorTerrainGenerator.maxY) {
+            return ErrorTerrainComposition.air;
+        }
+        
+        return composition.generate(
+            worldY, funcValue,
+            middle, upMiddle, downMiddle,
+            worldX, worldZ
+        );
+    }
+    
 }
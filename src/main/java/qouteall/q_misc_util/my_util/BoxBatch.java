@@ -0,0 +1,107 @@
+package qouteall.q_misc_util.my_util;
+
+import java.util.Arrays;
+
+/**
+ * Boxes stored as struct-of-arrays, for testing many boxes in one loop by {@link BoxPredicateF#testBatch}.
+ * The results are bitmasks, bit i of {@code result[i >>> 6]} is the result of box i.
+ */
+public final class BoxBatch {
+    private float[] minX;
+    private float[] minY;
+    private float[] minZ;
+    private float[] maxX;
+    private float[] maxY;
+    private float[] maxZ;
+    // for the intermediate values of the batch tests
+    private float[] scratch;
+    private int size = 0;
+    
+    public BoxBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        minX = new float[capacity];
+        minY = new float[capacity];
+        minZ = new float[capacity];
+        maxX = new float[capacity];
+        maxY = new float[capacity];
+        maxZ = new float[capacity];
+        scratch = new float[capacity];
+    }
+    
+    public void clear() {
+        size = 0;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public void add(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        if (size == this.minX.length) {
+            grow();
+        }
+        this.minX[size] = minX;
+        this.minY[size] = minY;
+        this.minZ[size] = minZ;
+        this.maxX[size] = maxX;
+        this.maxY[size] = maxY;
+        this.maxZ[size] = maxZ;
+        size++;
+    }
+    
+    private void grow() {
+        int newCapacity = minX.length * 2;
+        minX = Arrays.copyOf(minX, newCapacity);
+        minY = Arrays.copyOf(minY, newCapacity);
+        minZ = Arrays.copyOf(minZ, newCapacity);
+        maxX = Arrays.copyOf(maxX, newCapacity);
+        maxY = Arrays.copyOf(maxY, newCapacity);
+        maxZ = Arrays.copyOf(maxZ, newCapacity);
+        scratch = new float[newCapacity];
+    }
+    
+    // the arrays may be longer than the size
+    
+    public float[] getMinX() {
+        return minX;
+    }
+    
+    public float[] getMinY() {
+        return minY;
+    }
+    
+    public float[] getMinZ() {
+        return minZ;
+    }
+    
+    public float[] getMaxX() {
+        return maxX;
+    }
+    
+    public float[] getMaxY() {
+        return maxY;
+    }
+    
+    public float[] getMaxZ() {
+        return maxZ;
+    }
+    
+    public float[] getScratch() {
+        return scratch;
+    }
+    
+    /**
+     * @return the number of longs needed for the result bitmask
+     */
+    public static int getResultLength(int boxNum) {
+        return (boxNum + 63) >>> 6;
+    }
+    
+    public static boolean getResult(long[] result, int index) {
+        return (result[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    public static void setResult(long[] result, int index) {
+        result[index >>> 6] |= 1L << index;
+    }
+}
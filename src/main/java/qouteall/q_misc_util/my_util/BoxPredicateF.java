@@ -1,8 +1,32 @@
 package qouteall.q_misc_util.my_util;
 
+import java.util.Arrays;
+
 public interface BoxPredicateF {
     BoxPredicateF nonePredicate =
         (float minX, float minY, float minZ, float maxX, float maxY, float maxZ) -> false;
     
     boolean test(float minX, float minY, float minZ, float maxX, float maxY, float maxZ);
+    
+    /**
+     * Tests all boxes of the batch and sets the bits of the true results.
+     * The result must be the same as testing the boxes one by one.
+     *
+     * @param result its length must be at least {@link BoxBatch#getResultLength(int)}, it's cleared first
+     */
+    default void testBatch(BoxBatch boxes, long[] result) {
+        int size = boxes.size();
+        Arrays.fill(result, 0, BoxBatch.getResultLength(size), 0);
+        float[] minX = boxes.getMinX();
+        float[] minY = boxes.getMinY();
+        float[] minZ = boxes.getMinZ();
+        float[] maxX = boxes.getMaxX();
+        float[] maxY = boxes.getMaxY();
+        float[] maxZ = boxes.getMaxZ();
+        for (int i = 0; i < size; i++) {
+            if (test(minX[i], minY[i], minZ[i], maxX[i], maxY[i], maxZ[i])) {
+                BoxBatch.setResult(result, i);
+            }
+        }
+    }
 }
@@ -0,0 +1,147 @@
+package qouteall.q_misc_util.my_util;
+
+import net.minecraft.world.phys.Vec3;
+import org.joml.Matrix4d;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * An immutable affine transformation in double: p' = M * (p - fromPos) + toPos.
+ * M is a 3x3 matrix, so it's the 4x3 part of a 4x4 transformation matrix.
+ * The translation is kept as two positions instead of one offset,
+ * so that the result is as precise as subtracting and adding the positions directly,
+ * even with large world coordinates.
+ * <p>
+ * The methods that take primitive arguments don't allocate.
+ */
+public final class DAffineTransform {
+    // row-major
+    public final double m00, m01, m02;
+    public final double m10, m11, m12;
+    public final double m20, m21, m22;
+    
+    public final double fromX, fromY, fromZ;
+    public final double toX, toY, toZ;
+    
+    public DAffineTransform(
+        double m00, double m01, double m02,
+        double m10, double m11, double m12,
+        double m20, double m21, double m22,
+        double fromX, double fromY, double fromZ,
+        double toX, double toY, double toZ
+    ) {
+        this.m00 = m00;
+        this.m01 = m01;
+        this.m02 = m02;
+        this.m10 = m10;
+        this.m11 = m11;
+        this.m12 = m12;
+        this.m20 = m20;
+        this.m21 = m21;
+        this.m22 = m22;
+        this.fromX = fromX;
+        this.fromY = fromY;
+        this.fromZ = fromZ;
+        this.toX = toX;
+        this.toY = toY;
+        this.toZ = toZ;
+    }
+    
+    /**
+     * @param linearPart must be a linear transformation. The matrix is got by transforming the 3 unit vectors.
+     */
+    public static DAffineTransform fromLinearPart(
+        UnaryOperator<Vec3> linearPart, Vec3 fromPos, Vec3 toPos
+    ) {
+        Vec3 cx = linearPart.apply(new Vec3(1, 0, 0));
+        Vec3 cy = linearPart.apply(new Vec3(0, 1, 0));
+        Vec3 cz = linearPart.apply(new Vec3(0, 0, 1));
+        
+        return new DAffineTransform(
+            cx.x, cy.x, cz.x,
+            cx.y, cy.y, cz.y,
+            cx.z, cy.z, cz.z,
+            fromPos.x, fromPos.y, fromPos.z,
+            toPos.x, toPos.y, toPos.z
+        );
+    }
+    
+    public double transformVecX(double x, double y, double z) {
+        return m00 * x + m01 * y + m02 * z;
+    }
+    
+    public double transformVecY(double x, double y, double z) {
+        return m10 * x + m11 * y + m12 * z;
+    }
+    
+    public double transformVecZ(double x, double y, double z) {
+        return m20 * x + m21 * y + m22 * z;
+    }
+    
+    public double transformPointX(double x, double y, double z) {
+        return transformVecX(x - fromX, y - fromY, z - fromZ) + toX;
+    }
+    
+    public double transformPointY(double x, double y, double z) {
+        return transformVecY(x - fromX, y - fromY, z - fromZ) + toY;
+    }
+    
+    public double transformPointZ(double x, double y, double z) {
+        return transformVecZ(x - fromX, y - fromY, z - fromZ) + toZ;
+    }
+    
+    /**
+     * Writes the 3 coordinates into out[offset], out[offset + 1], out[offset + 2]
+     */
+    public void transformPoint(double x, double y, double z, double[] out, int offset) {
+        double lx = x - fromX;
+        double ly = y - fromY;
+        double lz = z - fromZ;
+        out[offset] = transformVecX(lx, ly, lz) + toX;
+        out[offset + 1] = transformVecY(lx, ly, lz) + toY;
+        out[offset + 2] = transformVecZ(lx, ly, lz) + toZ;
+    }
+    
+    /**
+     * Writes the 3 coordinates into out[offset], out[offset + 1], out[offset + 2]
+     */
+    public void transformVec(double x, double y, double z, double[] out, int offset) {
+        out[offset] = transformVecX(x, y, z);
+        out[offset + 1] = transformVecY(x, y, z);
+        out[offset + 2] = transformVecZ(x, y, z);
+    }
+    
+    public Vec3 transformPoint(Vec3 pos) {
+        return new Vec3(
+            transformPointX(pos.x, pos.y, pos.z),
+            transformPointY(pos.x, pos.y, pos.z),
+            transformPointZ(pos.x, pos.y, pos.z)
+        );
+    }
+    
+    public Vec3 transformVec(Vec3 vec) {
+        return new Vec3(
+            transformVecX(vec.x, vec.y, vec.z),
+            transformVecY(vec.x, vec.y, vec.z),
+            transformVecZ(vec.x, vec.y, vec.z)
+        );
+    }
+    
+    /**
+     * Writes the transformation into the 4x4 matrix
+     * @return dest
+     */
+    public Matrix4d toMatrix(Matrix4d dest) {
+        double tx = toX - transformVecX(fromX, fromY, fromZ);
+        double ty = toY - transformVecY(fromX, fromY, fromZ);
+        double tz = toZ - transformVecZ(fromX, fromY, fromZ);
+        
+        // JOML takes the arguments column by column
+        return dest.set(
+            m00, m10, m20, 0,
+            m01, m11, m21, 0,
+            m02, m12, m22, 0,
+            tx, ty, tz, 1
+        );
+    }
+}
@@ -1,6 +1,7 @@
 package qouteall.q_misc_util.my_util;
 
 import com.google.gson.*;
+import io.netty.buffer.Unpooled;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
@@ -9,6 +10,7 @@ import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import net.minecraft.nbt.*;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.util.Mth;
 import net.minecraft.util.Unit;
 import org.apache.commons.lang3.Validate;
@@ -25,6 +27,10 @@ public class Mesh2D {
     
     public static final int gridCountForOneSide = 1 << 30;
     
+    public static final int BINARY_FORMAT_VERSION = 1;
+    private static final int COORD_MODE_QUANTIZED = 0;
+    private static final int COORD_MODE_RAW = 1;
+    
     // the grid coord is used for merging near points, not to represent points
     // the points still retain double precision
     public static long encodeToGrid(double x, double y) {
@@ -53,7 +59,11 @@ public class Mesh2D {
     
     // when null, the quad tree is not being maintained
     // when not null, the quad tree is being maintained to keep consistent with the mesh
-    public @Nullable QuadTree<IntArrayList> triangleLookup;
+    public @Nullable TriangleQuadTree triangleLookup;
+    
+    // increased when the triangles or the point coordinates change
+    // used for invalidating the structures derived from the mesh, such as TriangleBVH
+    private int modificationCount = 0;
     
     public Mesh2D() {}
     
@@ -207,6 +217,10 @@ public class Mesh2D {
         trianglePointIndexes.set(triangleIndex * 3 + 2, -1);
     }
     
+    public int getModificationCount() {
+        return modificationCount;
+    }
+    
     public boolean isTriangleValid(int triangleIndex) {
         if (triangleIndex == -1) {
             return false;
@@ -1009,18 +1023,18 @@ public class Mesh2D {
             return;
         }
         
-        triangleLookup = new QuadTree<>(() -> new IntArrayList(1));
+        triangleLookup = new TriangleQuadTree();
         
         for (int ti = 0; ti < getStoredTriangleNum(); ++ti) {
             if (!isTriangleValid(ti)) {
                 continue;
             }
             
-            getTriangleIdListInTriangleLookup(ti).add(ti);
+            addTriangleToTriangleLookup(ti);
         }
     }
     
-    private IntArrayList getTriangleIdListInTriangleLookup(int ti) {
+    private void addTriangleToTriangleLookup(int ti) {
         Validate.notNull(triangleLookup);
         
         int p0Index = trianglePointIndexes.getInt(ti * 3);
@@ -1039,9 +1053,7 @@ public class Mesh2D {
         double maxX = Math.max(p0x, Math.max(p1x, p2x));
         double maxY = Math.max(p0y, Math.max(p1y, p2y));
         
-        return triangleLookup.acquireElementForBoundingBox(
-            minX, minY, maxX, maxY
-        );
+        triangleLookup.add(ti, minX, minY, maxX, maxY);
     }
     
     private <U> @Nullable U traverseNearbyTriangles(
@@ -1100,43 +1112,37 @@ public class Mesh2D {
             Range.rangeIntersects(minY, maxY, triMinY, triMaxY);
     }
     
+    /**
+     * Traverses the triangles whose bounding box intersects with the box.
+     * The triangle lookup must be enabled.
+     * The bounding box test is done using the bounding boxes stored in the quad tree.
+     */
     private <U> @Nullable U traverseTrianglesByBB(
         double minX, double minY, double maxX, double maxY,
         Int2ObjectFunction<U> func
     ) {
         Validate.notNull(triangleLookup);
-        return triangleLookup.traverse(
-            minX, minY, maxX, maxY,
-            (IntArrayList triangleIndexList) -> {
-                IntIterator iterator = triangleIndexList.intIterator();
-                while (iterator.hasNext()) {
-                    int ti = iterator.nextInt();
-                    if (boundingBoxIntersects(ti, minX, minY, maxX, maxY)) {
-                        U result = func.apply(ti);
-                        if (result != null) {
-                            return result;
-                        }
-                    }
-                }
-                return null;
-            }
-        );
+        return triangleLookup.traverse(minX, minY, maxX, maxY, func);
     }
     
     public void notifyTriangleAddedForQuadTree(int triangleIndex) {
+        modificationCount++;
+        
         if (triangleLookup == null) {
             return;
         }
         
-        getTriangleIdListInTriangleLookup(triangleIndex).add(triangleIndex);
+        addTriangleToTriangleLookup(triangleIndex);
     }
     
     public void notifyTriangleRemovedForQuadTree(int triangleIndex) {
+        modificationCount++;
+        
         if (triangleLookup == null) {
             return;
         }
         
-        boolean removed = getTriangleIdListInTriangleLookup(triangleIndex).rem(triangleIndex);
+        boolean removed = triangleLookup.remove(triangleIndex);
         Validate.isTrue(removed, "triangle %d not found in quad tree", triangleIndex);
     }
     
@@ -1161,7 +1167,7 @@ public class Mesh2D {
             Validate.isTrue(pointToTriangles.get(p2Index).contains(triangleIndex));
             
             if (triangleLookup != null) {
-                Validate.isTrue(getTriangleIdListInTriangleLookup(triangleIndex).contains(triangleIndex));
+                Validate.isTrue(triangleLookup.contains(triangleIndex));
             }
             
             double p0x = pointCoords.getDouble(p0Index * 2);
@@ -1187,11 +1193,10 @@ public class Mesh2D {
         
         if (triangleLookup != null) {
             triangleLookup.traverse(
-                -1, -1, 1, 1,
-                triangleList -> {
-                    triangleList.intStream().forEach(triangleIndex -> {
-                        Validate.isTrue(isTriangleValid(triangleIndex));
-                    });
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                triangleIndex -> {
+                    Validate.isTrue(isTriangleValid(triangleIndex));
                     return null;
                 }
             );
@@ -1552,6 +1557,10 @@ public class Mesh2D {
     public void transformPoints(Function<Vec2d, Vec2d> transform) {
         gridToPointIndex.clear();
         
+        // the triangle bounding boxes change, rebuild the lookup when needed
+        triangleLookup = null;
+        modificationCount++;
+        
         for (int i = 0; i < getStoredPointNum(); i++) {
             // Note: unused points are also transformed
             double x = pointCoords.getDouble(i * 2);
@@ -1575,26 +1584,23 @@ public class Mesh2D {
         
         Unit result = this.triangleLookup.traverse(
             minX, minY, maxX, maxY,
-            triangleList -> {
-                for (int i = 0; i < triangleList.size(); i++) {
-                    int triangleId = triangleList.getInt(i);
-                    int p0Index = getTrianglePointIndex(triangleId, 0);
-                    int p1Index = getTrianglePointIndex(triangleId, 1);
-                    int p2Index = getTrianglePointIndex(triangleId, 2);
-                    
-                    double p0x = this.pointCoords.getDouble(p0Index * 2);
-                    double p0y = this.pointCoords.getDouble(p0Index * 2 + 1);
-                    double p1x = this.pointCoords.getDouble(p1Index * 2);
-                    double p1y = this.pointCoords.getDouble(p1Index * 2 + 1);
-                    double p2x = this.pointCoords.getDouble(p2Index * 2);
-                    double p2y = this.pointCoords.getDouble(p2Index * 2 + 1);
-                    
-                    if (GeometryUtil.triangleIntersectsWithAABB(
-                        p0x, p0y, p1x, p1y, p2x, p2y,
-                        minX, minY, maxX, maxY
-                    )) {
-                        return Unit.INSTANCE;
-                    }
+            triangleId -> {
+                int p0Index = getTrianglePointIndex(triangleId, 0);
+                int p1Index = getTrianglePointIndex(triangleId, 1);
+                int p2Index = getTrianglePointIndex(triangleId, 2);
+                
+                double p0x = this.pointCoords.getDouble(p0Index * 2);
+                double p0y = this.pointCoords.getDouble(p0Index * 2 + 1);
+                double p1x = this.pointCoords.getDouble(p1Index * 2);
+                double p1y = this.pointCoords.getDouble(p1Index * 2 + 1);
+                double p2x = this.pointCoords.getDouble(p2Index * 2);
+                double p2y = this.pointCoords.getDouble(p2Index * 2 + 1);
+                
+                if (GeometryUtil.triangleIntersectsWithAABB(
+                    p0x, p0y, p1x, p1y, p2x, p2y,
+                    minX, minY, maxX, maxY
+                )) {
+                    return Unit.INSTANCE;
                 }
                 
                 return null;
@@ -1641,41 +1647,21 @@ public class Mesh2D {
     }
     
     public CompoundTag toTag() {
-        compact();
-        
-        ListTag pointCoordsTag = new ListTag();
-        ListTag trianglesTag = new ListTag();
-        
-        for (int i = 0; i < getStoredPointNum(); i++) {
-            double x = this.pointCoords.getDouble(i * 2);
-            double y = this.pointCoords.getDouble(i * 2 + 1);
-            
-            pointCoordsTag.add(DoubleTag.valueOf(x));
-            pointCoordsTag.add(DoubleTag.valueOf(y));
-        }
-        
-        for (int i = 0; i < getStoredTriangleNum(); i++) {
-            if (!isTriangleValid(i)) {
-                continue;
-            }
-            
-            int p0Index = trianglePointIndexes.getInt(i * 3);
-            int p1Index = trianglePointIndexes.getInt(i * 3 + 1);
-            int p2Index = trianglePointIndexes.getInt(i * 3 + 2);
-            
-            trianglesTag.add(IntTag.valueOf(p0Index));
-            trianglesTag.add(IntTag.valueOf(p1Index));
-            trianglesTag.add(IntTag.valueOf(p2Index));
-        }
-        
         CompoundTag tag = new CompoundTag();
-        tag.put("pointCoords", pointCoordsTag);
-        tag.put("triangles", trianglesTag);
-        
+        tag.putByteArray("binary", toBinary());
         return tag;
     }
     
     public static @Nullable Mesh2D fromTag(CompoundTag tag) {
+        if (tag.contains("binary", Tag.TAG_BYTE_ARRAY)) {
+            return fromBinary(tag.getByteArray("binary"));
+        }
+        
+        return fromOldFormatTag(tag);
+    }
+    
+    // the format before the binary format. still read for compatibility
+    private static @Nullable Mesh2D fromOldFormatTag(CompoundTag tag) {
         ListTag pointCoords = tag.getList("pointCoords", Tag.TAG_DOUBLE);
         ListTag triangles = tag.getList("triangles", Tag.TAG_INT);
         
@@ -1709,6 +1695,174 @@ public class Mesh2D {
         return mesh;
     }
     
+    /**
+     * The compact binary format. Layout:
+     * <ul>
+     *     <li>version byte</li>
+     *     <li>coordinate mode byte: quantized or raw double</li>
+     *     <li>point count (var int), then the points.
+     *     In quantized mode, each coordinate is rounded to the grid of {@link #encodeToGrid(double, double)}
+     *     and stored as zigzag var long delta to the previous point.</li>
+     *     <li>triangle count (var int), then the triangles.
+     *     The first point index is stored as zigzag delta to the previous triangle's first point index,
+     *     the other two are stored as zigzag delta to the first point index.</li>
+     * </ul>
+     * Rounding to the grid does not change which points are merged, because
+     * the points are merged by the same grid.
+     */
+    public byte[] toBinary() {
+        compact();
+        
+        int pointNum = getStoredPointNum();
+        
+        boolean quantized = true;
+        for (int i = 0; i < pointNum * 2; i++) {
+            // also false for NaN
+            if (!(Math.abs(pointCoords.getDouble(i)) <= 1)) {
+                quantized = false;
+                break;
+            }
+        }
+        
+        FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer());
+        buf.writeByte(BINARY_FORMAT_VERSION);
+        buf.writeByte(quantized ? COORD_MODE_QUANTIZED : COORD_MODE_RAW);
+        
+        buf.writeVarInt(pointNum);
+        long lastGridX = 0;
+        long lastGridY = 0;
+        for (int i = 0; i < pointNum; i++) {
+            double x = pointCoords.getDouble(i * 2);
+            double y = pointCoords.getDouble(i * 2 + 1);
+            if (quantized) {
+                long gridX = Math.round(x * gridCountForOneSide);
+                long gridY = Math.round(y * gridCountForOneSide);
+                buf.writeVarLong(zigzagEncode(gridX - lastGridX));
+                buf.writeVarLong(zigzagEncode(gridY - lastGridY));
+                lastGridX = gridX;
+                lastGridY = gridY;
+            }
+            else {
+                buf.writeDouble(x);
+                buf.writeDouble(y);
+            }
+        }
+        
+        int triangleNum = 0;
+        for (int i = 0; i < getStoredTriangleNum(); i++) {
+            if (isTriangleValid(i)) {
+                triangleNum++;
+            }
+        }
+        
+        buf.writeVarInt(triangleNum);
+        int lastP0Index = 0;
+        for (int i = 0; i < getStoredTriangleNum(); i++) {
+            if (!isTriangleValid(i)) {
+                continue;
+            }
+            
+            int p0Index = trianglePointIndexes.getInt(i * 3);
+            int p1Index = trianglePointIndexes.getInt(i * 3 + 1);
+            int p2Index = trianglePointIndexes.getInt(i * 3 + 2);
+            
+            buf.writeVarLong(zigzagEncode(p0Index - lastP0Index));
+            buf.writeVarLong(zigzagEncode(p1Index - p0Index));
+            buf.writeVarLong(zigzagEncode(p2Index - p0Index));
+            lastP0Index = p0Index;
+        }
+        
+        byte[] result = new byte[buf.readableBytes()];
+        buf.readBytes(result);
+        return result;
+    }
+    
+    /**
+     * @return null if the data is malformed, empty or of unknown version
+     */
+    public static @Nullable Mesh2D fromBinary(byte[] bytes) {
+        FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.wrappedBuffer(bytes));
+        
+        try {
+            int version = buf.readByte();
+            if (version != BINARY_FORMAT_VERSION) {
+                return null;
+            }
+            
+            int coordMode = buf.readByte();
+            if (coordMode != COORD_MODE_QUANTIZED && coordMode != COORD_MODE_RAW) {
+                return null;
+            }
+            
+            int pointNum = buf.readVarInt();
+            // each point takes at least 2 bytes. avoid allocating huge array for malformed data
+            if (pointNum <= 0 || pointNum > buf.readableBytes() / 2) {
+                return null;
+            }
+            
+            double[] coords = new double[pointNum * 2];
+            long gridX = 0;
+            long gridY = 0;
+            for (int i = 0; i < pointNum; i++) {
+                if (coordMode == COORD_MODE_QUANTIZED) {
+                    gridX += zigzagDecode(buf.readVarLong());
+                    gridY += zigzagDecode(buf.readVarLong());
+                    coords[i * 2] = ((double) gridX) / gridCountForOneSide;
+                    coords[i * 2 + 1] = ((double) gridY) / gridCountForOneSide;
+                }
+                else {
+                    coords[i * 2] = buf.readDouble();
+                    coords[i * 2 + 1] = buf.readDouble();
+                }
+            }
+            
+            int triangleNum = buf.readVarInt();
+            // each triangle takes at least 3 bytes
+            if (triangleNum <= 0 || triangleNum > buf.readableBytes() / 3) {
+                return null;
+            }
+            
+            Mesh2D mesh = new Mesh2D();
+            int p0Index = 0;
+            for (int i = 0; i < triangleNum; i++) {
+                p0Index += (int) zigzagDecode(buf.readVarLong());
+                int p1Index = p0Index + (int) zigzagDecode(buf.readVarLong());
+                int p2Index = p0Index + (int) zigzagDecode(buf.readVarLong());
+                
+                if (!isIndexInRange(p0Index, pointNum) ||
+                    !isIndexInRange(p1Index, pointNum) ||
+                    !isIndexInRange(p2Index, pointNum)
+                ) {
+                    return null;
+                }
+                
+                mesh.addTriangle(
+                    coords[p0Index * 2], coords[p0Index * 2 + 1],
+                    coords[p1Index * 2], coords[p1Index * 2 + 1],
+                    coords[p2Index * 2], coords[p2Index * 2 + 1]
+                );
+            }
+            
+            return mesh;
+        }
+        catch (RuntimeException e) {
+            // truncated data or too long var int
+            return null;
+        }
+    }
+    
+    private static boolean isIndexInRange(int index, int size) {
+        return index >= 0 && index < size;
+    }
+    
+    private static long zigzagEncode(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+    
+    private static long zigzagDecode(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+    
     public void debugVisualize() {
         JsonObject jsonObject = toJson();
         
@@ -0,0 +1,219 @@
+package qouteall.q_misc_util.my_util;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+/**
+ * An immutable bounding volume hierarchy over the triangles of a {@link Mesh2D}.
+ * The triangle coordinates are copied into a flat array, in the order of BVH leaves,
+ * so the queries don't need to go through the point indexes of the mesh.
+ * Built once and used for many queries. Rebuild it when the mesh changes.
+ */
+public final class TriangleBVH {
+    private static final int LEAF_SIZE = 4;
+    
+    // the traversal stack of the queries, reused because the queries are on the collision path.
+    // the depth is logarithmic to triangle count
+    private static final ThreadLocal<int[]> QUERY_STACK = ThreadLocal.withInitial(() -> new int[64]);
+    
+    // 6 numbers per triangle, counter-clockwise
+    private final double[] triangleCoords;
+    private final int triangleNum;
+    
+    // 4 numbers per node: minX, minY, maxX, maxY
+    private final double[] nodeBounds;
+    // for inner node: the index of the left child. the right child is at left + 1
+    // for leaf node: the start index of triangles
+    private final int[] nodeFirst;
+    // for leaf node: triangle count (> 0). for inner node: 0
+    private final int[] nodeCount;
+    private int nodeNum;
+    
+    private final int meshModificationCount;
+    
+    private TriangleBVH(double[] triangleCoords, int triangleNum, int meshModificationCount) {
+        this.triangleCoords = triangleCoords;
+        this.triangleNum = triangleNum;
+        this.meshModificationCount = meshModificationCount;
+        
+        int maxNodeNum = Math.max(1, triangleNum * 2);
+        this.nodeBounds = new double[maxNodeNum * 4];
+        this.nodeFirst = new int[maxNodeNum];
+        this.nodeCount = new int[maxNodeNum];
+    }
+    
+    public static TriangleBVH build(Mesh2D mesh) {
+        int validNum = 0;
+        for (int ti = 0; ti < mesh.getStoredTriangleNum(); ti++) {
+            if (mesh.isTriangleValid(ti)) {
+                validNum++;
+            }
+        }
+        
+        double[] coords = new double[validNum * 6];
+        int i = 0;
+        for (int ti = 0; ti < mesh.getStoredTriangleNum(); ti++) {
+            if (!mesh.isTriangleValid(ti)) {
+                continue;
+            }
+            for (int v = 0; v < 3; v++) {
+                int pointIndex = mesh.getTrianglePointIndex(ti, v);
+                coords[i * 6 + v * 2] = mesh.getPointX(pointIndex);
+                coords[i * 6 + v * 2 + 1] = mesh.getPointY(pointIndex);
+            }
+            i++;
+        }
+        
+        return build(coords, mesh.getModificationCount());
+    }
+    
+    /**
+     * @param coords 6 numbers per triangle. The triangles must be counter-clockwise.
+     */
+    public static TriangleBVH build(double[] coords, int meshModificationCount) {
+        int triangleNum = coords.length / 6;
+        
+        int[] order = new int[triangleNum];
+        double[] centroids = new double[triangleNum * 2];
+        for (int t = 0; t < triangleNum; t++) {
+            order[t] = t;
+            centroids[t * 2] = (coords[t * 6] + coords[t * 6 + 2] + coords[t * 6 + 4]) / 3;
+            centroids[t * 2 + 1] = (coords[t * 6 + 1] + coords[t * 6 + 3] + coords[t * 6 + 5]) / 3;
+        }
+        
+        double[] reordered = new double[coords.length];
+        TriangleBVH bvh = new TriangleBVH(reordered, triangleNum, meshModificationCount);
+        
+        bvh.nodeNum = 1;
+        bvh.buildNode(0, 0, triangleNum, order, centroids, coords);
+        
+        for (int t = 0; t < triangleNum; t++) {
+            System.arraycopy(coords, order[t] * 6, reordered, t * 6, 6);
+        }
+        
+        return bvh;
+    }
+    
+    private void buildNode(
+        int node, int start, int end,
+        int[] order, double[] centroids, double[] coords
+    ) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double cMinX = Double.POSITIVE_INFINITY;
+        double cMinY = Double.POSITIVE_INFINITY;
+        double cMaxX = Double.NEGATIVE_INFINITY;
+        double cMaxY = Double.NEGATIVE_INFINITY;
+        
+        for (int i = start; i < end; i++) {
+            int t = order[i];
+            for (int v = 0; v < 3; v++) {
+                double x = coords[t * 6 + v * 2];
+                double y = coords[t * 6 + v * 2 + 1];
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+            cMinX = Math.min(cMinX, centroids[t * 2]);
+            cMinY = Math.min(cMinY, centroids[t * 2 + 1]);
+            cMaxX = Math.max(cMaxX, centroids[t * 2]);
+            cMaxY = Math.max(cMaxY, centroids[t * 2 + 1]);
+        }
+        
+        nodeBounds[node * 4] = minX;
+        nodeBounds[node * 4 + 1] = minY;
+        nodeBounds[node * 4 + 2] = maxX;
+        nodeBounds[node * 4 + 3] = maxY;
+        
+        int count = end - start;
+        if (count <= LEAF_SIZE) {
+            // count is 0 only when the whole mesh is empty, which is handled in the queries
+            nodeFirst[node] = start;
+            nodeCount[node] = count;
+            return;
+        }
+        
+        // split at the median of centroids along the longer axis
+        int axis = (cMaxX - cMinX) >= (cMaxY - cMinY) ? 0 : 1;
+        int mid = (start + end) >>> 1;
+        IntArrays.quickSort(
+            order, start, end,
+            (a, b) -> Double.compare(centroids[a * 2 + axis], centroids[b * 2 + axis])
+        );
+        
+        int left = nodeNum;
+        nodeNum += 2;
+        nodeFirst[node] = left;
+        nodeCount[node] = 0;
+        
+        buildNode(left, start, mid, order, centroids, coords);
+        buildNode(left + 1, mid, end, order, centroids, coords);
+    }
+    
+    public int getTriangleNum() {
+        return triangleNum;
+    }
+    
+    public int getMeshModificationCount() {
+        return meshModificationCount;
+    }
+    
+    public double getTriangleCoord(int triangle, int index) {
+        return triangleCoords[triangle * 6 + index];
+    }
+    
+    /**
+     * Touching counts as intersecting, same as {@link Mesh2D#boxIntersects(double, double, double, double)}.
+     */
+    public boolean boxIntersects(double minX, double minY, double maxX, double maxY) {
+        if (triangleNum == 0) {
+            return false;
+        }
+        
+        int[] stack = QUERY_STACK.get();
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            int b = node * 4;
+            if (nodeBounds[b + 2] < minX || nodeBounds[b] > maxX ||
+                nodeBounds[b + 3] < minY || nodeBounds[b + 1] > maxY
+            ) {
+                continue;
+            }
+            
+            if (nodeCount[node] != 0) {
+                int first = nodeFirst[node];
+                int end = first + nodeCount[node];
+                for (int t = first; t < end; t++) {
+                    int c = t * 6;
+                    if (GeometryUtil.triangleIntersectsWithAABB(
+                        triangleCoords[c], triangleCoords[c + 1],
+                        triangleCoords[c + 2], triangleCoords[c + 3],
+                        triangleCoords[c + 4], triangleCoords[c + 5],
+                        minX, minY, maxX, maxY
+                    )) {
+                        return true;
+                    }
+                }
+            }
+            else {
+                int left = nodeFirst[node];
+                stack[stackSize++] = left;
+                stack[stackSize++] = left + 1;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Points on the triangle edges count as inside.
+     */
+    public boolean containsPoint(double x, double y) {
+        return boxIntersects(x, y, x, y);
+    }
+}
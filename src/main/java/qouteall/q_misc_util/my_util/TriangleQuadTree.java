@@ -0,0 +1,265 @@
+package qouteall.q_misc_util.my_util;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A quad tree for looking up triangles by bounding box, kept in flat int arrays.
+ * Unlike {@link QuadTree}, it does not allocate an object per node.
+ * The triangles of a node form a doubly linked list, so removing is O(1).
+ * <p>
+ * The root node covers [-1, 1] x [-1, 1]. A triangle is put into the deepest node
+ * whose child split lines does not cross its bounding box (same as {@link QuadTree}).
+ * The outer quadrants extend to infinity, so triangles outside the root range are still accepted.
+ */
+public class TriangleQuadTree {
+    public static final int MAX_LEVEL = 8;
+    
+    private static final int INITIAL_NODE_CAPACITY = 16;
+    private static final int INITIAL_TRIANGLE_CAPACITY = 16;
+    
+    // for node n, its --, -+, +-, ++ children are respectively at index 4n, 4n+1, 4n+2, 4n+3
+    // -1 means no child. node 0 is the root
+    private int[] nodeChildren;
+    // the first triangle in the node, -1 means empty
+    private int[] nodeHead;
+    private int nodeNum;
+    
+    // indexed by triangle id. -1 in triangleNode means the triangle is not in the tree
+    private int[] triangleNode;
+    private int[] triangleNext;
+    private int[] trianglePrev;
+    // 4 numbers per triangle: minX, minY, maxX, maxY
+    private double[] triangleBounds;
+    private int triangleNum;
+    
+    public TriangleQuadTree() {
+        clear();
+    }
+    
+    public void clear() {
+        nodeChildren = new int[INITIAL_NODE_CAPACITY * 4];
+        nodeHead = new int[INITIAL_NODE_CAPACITY];
+        nodeNum = 0;
+        allocateNode(); // the root node
+        
+        triangleNode = new int[INITIAL_TRIANGLE_CAPACITY];
+        Arrays.fill(triangleNode, -1);
+        triangleNext = new int[INITIAL_TRIANGLE_CAPACITY];
+        trianglePrev = new int[INITIAL_TRIANGLE_CAPACITY];
+        triangleBounds = new double[INITIAL_TRIANGLE_CAPACITY * 4];
+        triangleNum = 0;
+    }
+    
+    private int allocateNode() {
+        if (nodeNum == nodeHead.length) {
+            int newCapacity = nodeHead.length * 2;
+            nodeHead = Arrays.copyOf(nodeHead, newCapacity);
+            nodeChildren = Arrays.copyOf(nodeChildren, newCapacity * 4);
+        }
+        int node = nodeNum;
+        nodeNum++;
+        nodeHead[node] = -1;
+        Arrays.fill(nodeChildren, node * 4, node * 4 + 4, -1);
+        return node;
+    }
+    
+    private void ensureTriangleCapacity(int triangleIndex) {
+        if (triangleIndex < triangleNode.length) {
+            return;
+        }
+        int newCapacity = Math.max(triangleNode.length * 2, triangleIndex + 1);
+        int oldCapacity = triangleNode.length;
+        triangleNode = Arrays.copyOf(triangleNode, newCapacity);
+        Arrays.fill(triangleNode, oldCapacity, newCapacity, -1);
+        triangleNext = Arrays.copyOf(triangleNext, newCapacity);
+        trianglePrev = Arrays.copyOf(trianglePrev, newCapacity);
+        triangleBounds = Arrays.copyOf(triangleBounds, newCapacity * 4);
+    }
+    
+    /**
+     * The bounding box is stored, so the triangle can be removed after its points changed.
+     */
+    public void add(
+        int triangleIndex,
+        double minX, double minY, double maxX, double maxY
+    ) {
+        ensureTriangleCapacity(triangleIndex);
+        if (triangleNode[triangleIndex] != -1) {
+            throw new IllegalStateException("triangle %d is already in quad tree".formatted(triangleIndex));
+        }
+        
+        int node = acquireNode(minX, minY, maxX, maxY);
+        
+        int head = nodeHead[node];
+        triangleNode[triangleIndex] = node;
+        triangleNext[triangleIndex] = head;
+        trianglePrev[triangleIndex] = -1;
+        if (head != -1) {
+            trianglePrev[head] = triangleIndex;
+        }
+        nodeHead[node] = triangleIndex;
+        
+        int b = triangleIndex * 4;
+        triangleBounds[b] = minX;
+        triangleBounds[b + 1] = minY;
+        triangleBounds[b + 2] = maxX;
+        triangleBounds[b + 3] = maxY;
+        
+        triangleNum++;
+    }
+    
+    /**
+     * @return whether the triangle was in the tree
+     */
+    public boolean remove(int triangleIndex) {
+        if (!contains(triangleIndex)) {
+            return false;
+        }
+        
+        int node = triangleNode[triangleIndex];
+        int prev = trianglePrev[triangleIndex];
+        int next = triangleNext[triangleIndex];
+        
+        if (prev != -1) {
+            triangleNext[prev] = next;
+        }
+        else {
+            nodeHead[node] = next;
+        }
+        if (next != -1) {
+            trianglePrev[next] = prev;
+        }
+        
+        triangleNode[triangleIndex] = -1;
+        triangleNum--;
+        return true;
+    }
+    
+    public boolean contains(int triangleIndex) {
+        return triangleIndex >= 0 && triangleIndex < triangleNode.length &&
+            triangleNode[triangleIndex] != -1;
+    }
+    
+    public int getTriangleNum() {
+        return triangleNum;
+    }
+    
+    public int getNodeNum() {
+        return nodeNum;
+    }
+    
+    public double getStoredMinX(int triangleIndex) {
+        return triangleBounds[triangleIndex * 4];
+    }
+    
+    public double getStoredMinY(int triangleIndex) {
+        return triangleBounds[triangleIndex * 4 + 1];
+    }
+    
+    public double getStoredMaxX(int triangleIndex) {
+        return triangleBounds[triangleIndex * 4 + 2];
+    }
+    
+    public double getStoredMaxY(int triangleIndex) {
+        return triangleBounds[triangleIndex * 4 + 3];
+    }
+    
+    private int acquireNode(double minX, double minY, double maxX, double maxY) {
+        int node = 0;
+        double centerX = 0;
+        double centerY = 0;
+        double halfSize = 1;
+        
+        for (int level = 0; level < MAX_LEVEL; level++) {
+            boolean minXSig = minX >= centerX;
+            boolean minYSig = minY >= centerY;
+            boolean maxXSig = maxX >= centerX;
+            boolean maxYSig = maxY >= centerY;
+            
+            if (minXSig != maxXSig || minYSig != maxYSig) {
+                break;
+            }
+            
+            int childSlot = node * 4 + (minXSig ? 2 : 0) + (minYSig ? 1 : 0);
+            int child = nodeChildren[childSlot];
+            if (child == -1) {
+                child = allocateNode();
+                nodeChildren[childSlot] = child;
+            }
+            
+            halfSize *= 0.5;
+            centerX += minXSig ? halfSize : -halfSize;
+            centerY += minYSig ? halfSize : -halfSize;
+            node = child;
+        }
+        
+        return node;
+    }
+    
+    /**
+     * Visits the triangles whose bounding box intersects with the box (touching counts as intersecting).
+     *
+     * @param func if it returns non-null, the traversal stops and returns the result
+     * @return the first non-null result of func, null if not found
+     */
+    public <U> @Nullable U traverse(
+        double minX, double minY, double maxX, double maxY,
+        Int2ObjectFunction<U> func
+    ) {
+        return traverseNode(0, 0, 0, 1, minX, minY, maxX, maxY, func);
+    }
+    
+    private <U> @Nullable U traverseNode(
+        int node, double centerX, double centerY, double halfSize,
+        double minX, double minY, double maxX, double maxY,
+        Int2ObjectFunction<U> func
+    ) {
+        int ti = nodeHead[node];
+        while (ti != -1) {
+            // the func may remove this triangle, so get the next one first
+            int next = triangleNext[ti];
+            int b = ti * 4;
+            if (Math.max(minX, triangleBounds[b]) <= Math.min(maxX, triangleBounds[b + 2]) &&
+                Math.max(minY, triangleBounds[b + 1]) <= Math.min(maxY, triangleBounds[b + 3])
+            ) {
+                U result = func.apply(ti);
+                if (result != null) {
+                    return result;
+                }
+            }
+            ti = next;
+        }
+        
+        // the triangles in the - side child have max < center
+        // the triangles in the + side child have min >= center
+        int bxMin = minX < centerX ? 0 : 1;
+        int bxMax = maxX >= centerX ? 1 : 0;
+        int byMin = minY < centerY ? 0 : 1;
+        int byMax = maxY >= centerY ? 1 : 0;
+        
+        double childHalfSize = halfSize * 0.5;
+        for (int bx = bxMin; bx <= bxMax; bx++) {
+            for (int by = byMin; by <= byMax; by++) {
+                int child = nodeChildren[node * 4 + bx * 2 + by];
+                if (child != -1) {
+                    U result = traverseNode(
+                        child,
+                        centerX + (bx == 1 ? childHalfSize : -childHalfSize),
+                        centerY + (by == 1 ? childHalfSize : -childHalfSize),
+                        childHalfSize,
+                        minX, minY, maxX, maxY,
+                        func
+                    );
+                    if (result != null) {
+                        return result;
+                    }
+                }
+            }
+        }
+        
+        return null;
+    }
+}
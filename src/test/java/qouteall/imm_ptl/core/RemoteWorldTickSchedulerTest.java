@@ -0,0 +1,96 @@
+package qouteall.imm_ptl.core;
+
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static qouteall.imm_ptl.core.RemoteWorldTickScheduler.TickMode;
+import static qouteall.imm_ptl.core.RemoteWorldTickScheduler.WorldInfo;
+
+public class RemoteWorldTickSchedulerTest {
+    private static final long MS = 1000000;
+    
+    private static WorldInfo rendered(int ticksSinceFullTick, long costNanos) {
+        return new WorldInfo(0, 5, ticksSinceFullTick, costNanos);
+    }
+    
+    private static WorldInfo near(double distance, int ticksSinceFullTick, long costNanos) {
+        return new WorldInfo(Integer.MAX_VALUE, distance, ticksSinceFullTick, costNanos);
+    }
+    
+    private static WorldInfo hidden(int ticksSinceFullTick, long costNanos) {
+        return new WorldInfo(Integer.MAX_VALUE, Double.POSITIVE_INFINITY, ticksSinceFullTick, costNanos);
+    }
+    
+    @Test
+    public void testRenderedWorldAlwaysFullyTicked() {
+        List<TickMode> result = RemoteWorldTickScheduler.schedule(
+            List.of(rendered(1, 10 * MS), rendered(1, 10 * MS)), 0
+        );
+        Validate.isTrue(result.equals(List.of(TickMode.full, TickMode.full)));
+    }
+    
+    @Test
+    public void testHiddenWorldTickedAtInterval() {
+        int interval = RemoteWorldTickScheduler.HIDDEN_FULL_TICK_INTERVAL;
+        Validate.isTrue(RemoteWorldTickScheduler.schedule(
+            List.of(hidden(interval - 1, MS)), 100 * MS
+        ).get(0) == TickMode.updates_only);
+        Validate.isTrue(RemoteWorldTickScheduler.schedule(
+            List.of(hidden(interval, MS)), 100 * MS
+        ).get(0) == TickMode.full);
+        
+        // a world that was never ticked is due
+        Validate.isTrue(RemoteWorldTickScheduler.schedule(
+            List.of(hidden(Integer.MAX_VALUE, 0)), 0
+        ).get(0) == TickMode.full);
+    }
+    
+    @Test
+    public void testBudgetRespected() {
+        int interval = RemoteWorldTickScheduler.HIDDEN_FULL_TICK_INTERVAL;
+        List<TickMode> result = RemoteWorldTickScheduler.schedule(
+            List.of(hidden(interval, 3 * MS), hidden(interval, 3 * MS), hidden(interval, 3 * MS)),
+            7 * MS
+        );
+        Validate.isTrue(result.stream().filter(m -> m == TickMode.full).count() == 2);
+    }
+    
+    @Test
+    public void testRenderedWorldConsumesBudget() {
+        int interval = RemoteWorldTickScheduler.HIDDEN_FULL_TICK_INTERVAL;
+        List<TickMode> result = RemoteWorldTickScheduler.schedule(
+            List.of(hidden(interval, 2 * MS), rendered(1, 4 * MS)), 5 * MS
+        );
+        Validate.isTrue(result.equals(List.of(TickMode.updates_only, TickMode.full)));
+    }
+    
+    @Test
+    public void testStarvedWorldForced() {
+        int max = RemoteWorldTickScheduler.MAX_FULL_TICK_INTERVAL;
+        List<TickMode> result = RemoteWorldTickScheduler.schedule(
+            List.of(hidden(max - 1, 10 * MS), hidden(max, 10 * MS)), 0
+        );
+        Validate.isTrue(result.equals(List.of(TickMode.updates_only, TickMode.full)));
+    }
+    
+    @Test
+    public void testNearWorldAlwaysFullyTicked() {
+        List<TickMode> result = RemoteWorldTickScheduler.schedule(
+            List.of(near(20, 1, 10 * MS), near(5, 1, 10 * MS), hidden(1, MS)), 0
+        );
+        Validate.isTrue(result.equals(List.of(TickMode.full, TickMode.full, TickMode.updates_only)));
+    }
+    
+    @Test
+    public void testNearWorldConsumesBudget() {
+        int interval = RemoteWorldTickScheduler.HIDDEN_FULL_TICK_INTERVAL;
+        List<TickMode> result = RemoteWorldTickScheduler.schedule(
+            List.of(hidden(interval, 3 * MS), near(20, 1, 3 * MS), hidden(interval + 1, 3 * MS)),
+            7 * MS
+        );
+        // the hidden world that waited longer goes first
+        Validate.isTrue(result.equals(List.of(TickMode.updates_only, TickMode.full, TickMode.full)));
+    }
+}
@@ -0,0 +1,70 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+
+public class PerformanceLevelTest {
+    
+    private static int distance(double screenArea, int portalLayer, int originalDistance) {
+        return PerformanceLevel.getScreenSizedPortalRenderingDistance(screenArea, 0, portalLayer, originalDistance);
+    }
+    
+    @Test
+    public void testLargePortalKeepsFullDistance() {
+        Validate.isTrue(distance(1, 1, 32) == 32);
+        Validate.isTrue(distance(0.5, 1, 32) == 32);
+        Validate.isTrue(distance(1.0 / 16, 1, 32) == 32);
+        Validate.isTrue(distance(1, 1, 2) == 2);
+    }
+    
+    @Test
+    public void testSmallPortalRendersFewSections() {
+        // 1/8 of the screen size
+        Validate.isTrue(distance(1.0 / 64, 1, 32) == 16);
+        // 1/32 of the screen size
+        Validate.isTrue(distance(1.0 / 1024, 1, 32) == 4);
+        // never less than 2
+        Validate.isTrue(distance(0, 1, 32) == 2);
+        Validate.isTrue(distance(1e-6, 1, 32) == 2);
+        Validate.isTrue(distance(0, 1, 1) == 1);
+    }
+    
+    @Test
+    public void testDeeperLayerRendersLess() {
+        Validate.isTrue(distance(1, 2, 32) == 22);
+        Validate.isTrue(distance(1, 3, 32) == 16);
+        Validate.isTrue(distance(1.0 / 64, 3, 32) == 8);
+    }
+    
+    @Test
+    public void testSmallFarPortalKeepsCameraDistance() {
+        // a 4x4 portal 200 blocks away with 70 degrees vertical fov
+        double screenHeight = 2 * 200 * Math.tan(Math.toRadians(35));
+        double screenArea = (4 / screenHeight) * (4 / (screenHeight * 16 / 9));
+        Validate.isTrue(distance(screenArea, 1, 32) == 2);
+        
+        int d = PerformanceLevel.getScreenSizedPortalRenderingDistance(screenArea, 200, 1, 32);
+        Validate.isTrue(d >= 200 / 16 + 1, "%d", d);
+        Validate.isTrue(d < 32);
+        
+        Validate.isTrue(PerformanceLevel.getScreenSizedPortalRenderingDistance(screenArea, 200, 1, 8) == 8);
+        Validate.isTrue(PerformanceLevel.getScreenSizedPortalRenderingDistance(screenArea, 16, 1, 32) == 3);
+    }
+    
+    @Test
+    public void testMonotonic() {
+        for (int originalDistance = 1; originalDistance <= 64; originalDistance++) {
+            for (int layer = 1; layer <= 5; layer++) {
+                int last = 0;
+                for (int i = 0; i <= 100; i++) {
+                    double area = i / 100.0;
+                    int d = distance(area, layer, originalDistance);
+                    Validate.isTrue(d >= last, "not monotonic at area %f layer %d", area, layer);
+                    Validate.isTrue(d <= originalDistance);
+                    Validate.isTrue(d <= distance(area, Math.max(1, layer - 1), originalDistance));
+                    last = d;
+                }
+            }
+        }
+    }
+}
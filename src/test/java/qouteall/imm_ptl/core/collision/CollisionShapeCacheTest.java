@@ -0,0 +1,170 @@
+package qouteall.imm_ptl.core.collision;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.core.Direction;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import net.minecraft.world.phys.shapes.BooleanOp;
+import net.minecraft.world.phys.shapes.Shapes;
+import net.minecraft.world.phys.shapes.VoxelShape;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class CollisionShapeCacheTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final VoxelShape[] BLOCK_SHAPES = new VoxelShape[]{
+        Shapes.block(),
+        Shapes.box(0, 0, 0, 1, 0.5, 1),
+        Shapes.box(0, 0.5, 0, 1, 1, 1),
+        Shapes.or(Shapes.box(0, 0, 0, 1, 0.5, 1), Shapes.box(0, 0.5, 0, 0.5, 1, 1)),
+        Shapes.box(0.375, 0, 0.375, 0.625, 1.5, 0.625),
+        Shapes.box(0, 0, 0, 1, 0.125, 1),
+    };
+    
+    private static VoxelShape randomBlockShape(Random random, int range) {
+        VoxelShape shape = BLOCK_SHAPES[random.nextInt(BLOCK_SHAPES.length)];
+        return shape.move(
+            random.nextInt(-range, range + 1),
+            random.nextInt(-range, range + 1),
+            random.nextInt(-range, range + 1)
+        );
+    }
+    
+    private static boolean isSame(@Nullable VoxelShape a, @Nullable VoxelShape b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return !Shapes.joinIsNotEmpty(a, b, BooleanOp.NOT_SAME);
+    }
+    
+    @Test
+    public void testClippingSameAsUncached() {
+        Random random = new Random(1);
+        
+        for (int planeIndex = 0; planeIndex < 20; planeIndex++) {
+            Vec3 planePos = new Vec3(
+                random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2
+            );
+            // axis-aligned and diagonal planes
+            Vec3 planeNormal = planeIndex % 2 == 0 ?
+                new Vec3(Direction.values()[random.nextInt(6)].step()) :
+                new Vec3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize();
+            
+            CollisionShapeCache cache = new CollisionShapeCache();
+            
+            for (int i = 0; i < 2000; i++) {
+                // the same block shapes are queried again by the following iterations
+                VoxelShape shape = randomBlockShape(random, 3);
+                
+                VoxelShape uncached = CollisionHelper.clipVoxelShape(shape, planePos, planeNormal);
+                VoxelShape cached = CollisionHelper.clipVoxelShape(shape, planePos, planeNormal, cache);
+                
+                Validate.isTrue(isSame(uncached, cached));
+            }
+            
+            Validate.isTrue(cache.getHitCount() > 0);
+        }
+    }
+    
+    @Test
+    public void testCollisionSameAsUncachedInRandomMoves() {
+        Random random = new Random(2);
+        
+        Vec3 planePos = new Vec3(0.3, 0, 0.2);
+        Vec3 planeNormal = new Vec3(1, 0, 1).normalize();
+        CollisionShapeCache cache = new CollisionShapeCache();
+        
+        for (int moveIndex = 0; moveIndex < 3000; moveIndex++) {
+            List<VoxelShape> uncachedShapes = new ArrayList<>();
+            List<VoxelShape> cachedShapes = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                // a new moved shape object for every query, same as vanilla block collision
+                VoxelShape shape = randomBlockShape(random, 2);
+                
+                VoxelShape uncached = CollisionHelper.clipVoxelShape(shape, planePos, planeNormal);
+                if (uncached != null) {
+                    uncachedShapes.add(uncached);
+                }
+                VoxelShape cached = CollisionHelper.clipVoxelShape(shape, planePos, planeNormal, cache);
+                if (cached != null) {
+                    cachedShapes.add(cached);
+                }
+            }
+            
+            AABB entityBox = new AABB(-0.3, 0, -0.3, 0.3, 1.8, 0.3).move(
+                random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2
+            );
+            
+            for (Direction.Axis axis : Direction.Axis.values()) {
+                double attempt = random.nextDouble() * 6 - 3;
+                double uncachedResult = Shapes.collide(axis, entityBox, uncachedShapes, attempt);
+                double cachedResult = Shapes.collide(axis, entityBox, cachedShapes, attempt);
+                Validate.isTrue(uncachedResult == cachedResult);
+            }
+        }
+        
+        LOGGER.info(
+            "Clipping cache hit {} miss {}", cache.getHitCount(), cache.getMissCount()
+        );
+        Validate.isTrue(cache.getHitCount() > cache.getMissCount());
+    }
+    
+    @Test
+    public void testExclusionSameAsUncached() {
+        Random random = new Random(3);
+        
+        VoxelShape exclusion = Shapes.create(new AABB(-1, -2, -0.5, 1, 2, 0));
+        CollisionShapeCache cache = new CollisionShapeCache();
+        
+        for (int i = 0; i < 3000; i++) {
+            VoxelShape shape = randomBlockShape(random, 2);
+            
+            VoxelShape uncached = Shapes.joinUnoptimized(shape, exclusion, BooleanOp.ONLY_FIRST);
+            VoxelShape cached = cache.getOrCompute(
+                shape, shape.bounds(), s -> Shapes.joinUnoptimized(s, exclusion, BooleanOp.ONLY_FIRST)
+            );
+            
+            Validate.isTrue(isSame(uncached, cached));
+        }
+        
+        Validate.isTrue(cache.getHitCount() > 0);
+    }
+    
+    @Test
+    public void testLeastRecentlyUsedDropped() {
+        CollisionShapeCache cache = new CollisionShapeCache();
+        
+        for (int i = 0; i < 10000; i++) {
+            VoxelShape shape = Shapes.block().move(i, 0, 0);
+            cache.getOrCompute(shape, shape.bounds(), s -> s);
+            
+            // a new moved shape object each time, like in the collision of a standing entity
+            VoxelShape frequentlyUsed = Shapes.block().move(-1, 0, 0);
+            cache.getOrCompute(frequentlyUsed, frequentlyUsed.bounds(), s -> s);
+        }
+        
+        Validate.isTrue(cache.size() <= 2048);
+        // the frequently used entry is never dropped
+        Validate.isTrue(cache.getMissCount() == 10000 + 1);
+    }
+    
+    @Test
+    public void testDifferentShapesAtSamePosition() {
+        CollisionShapeCache cache = new CollisionShapeCache();
+        
+        // the block at the position changes, for example a slab becomes a full block
+        for (VoxelShape blockShape : BLOCK_SHAPES) {
+            VoxelShape shape = blockShape.move(3, 0, 0);
+            VoxelShape result = cache.getOrCompute(shape, shape.bounds(), s -> s);
+            Validate.isTrue(isSame(shape, result));
+        }
+        Validate.isTrue(cache.getHitCount() == 0);
+    }
+}
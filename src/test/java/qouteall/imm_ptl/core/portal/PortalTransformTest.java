@@ -0,0 +1,101 @@
+package qouteall.imm_ptl.core.portal;
+
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.joml.Matrix4d;
+import org.joml.Quaterniond;
+import org.joml.Vector3d;
+import org.junit.jupiter.api.Test;
+import qouteall.q_misc_util.my_util.DAffineTransform;
+import qouteall.q_misc_util.my_util.DQuaternion;
+
+import java.util.Random;
+
+/**
+ * Tests the transformations that {@link Portal} caches in {@link Portal#updateCache()}.
+ */
+public class PortalTransformTest {
+    
+    private static final double EPSILON = 1e-9;
+    
+    @Test
+    public void testInverse() {
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            DQuaternion rotation = random.nextInt(5) == 0 ? null : randomRotation(random);
+            double scaling = random.nextInt(3) == 0 ? 1 : Math.exp(random.nextDouble() * 4 - 2);
+            Vec3 mirrorNormal = random.nextInt(4) == 0 ? randomVec(random, 1).normalize() : null;
+            Vec3 originPos = randomVec(random, 10000);
+            Vec3 destPos = randomVec(random, 10000);
+            
+            DAffineTransform transform = PortalTransform.getTransform(
+                originPos, destPos, rotation, scaling, mirrorNormal
+            );
+            DAffineTransform inverse = PortalTransform.getInverseTransform(
+                originPos, destPos, rotation, scaling, mirrorNormal
+            );
+            
+            Vec3 point = originPos.add(randomVec(random, 100));
+            Vec3 transformed = transform.transformPoint(point);
+            
+            // same as the old Portal.transformPoint
+            Vec3 expected = PortalTransform.transformLocalVec(
+                rotation, scaling, mirrorNormal, point.subtract(originPos)
+            ).add(destPos);
+            Validate.isTrue(expected.distanceTo(transformed) < EPSILON, "%s %s", expected, transformed);
+            
+            Vec3 back = inverse.transformPoint(transformed);
+            Validate.isTrue(back.distanceTo(point) < EPSILON, "%s %s", back, point);
+        }
+    }
+    
+    /**
+     * The matrix of the cached transformation replaces the ones built by
+     * Portal.getFullSpaceTransformation and Mirror.getFullSpaceTransformation.
+     */
+    @Test
+    public void testMatrixSameAsPortalAndMirror() {
+        Random random = new Random(4);
+        for (int i = 0; i < 1000; i++) {
+            DQuaternion rotation = randomRotation(random);
+            double scaling = random.nextInt(3) == 0 ? 1 : Math.exp(random.nextDouble() * 4 - 2);
+            boolean mirror = random.nextBoolean();
+            Vec3 mirrorNormal = mirror ? randomVec(random, 1).normalize() : null;
+            Vec3 originPos = randomVec(random, 1000);
+            Vec3 destPos = randomVec(random, 1000);
+            
+            Matrix4d expected = new Matrix4d().translation(destPos.x, destPos.y, destPos.z);
+            if (mirror) {
+                expected.reflect(mirrorNormal.x, mirrorNormal.y, mirrorNormal.z, 0);
+            }
+            expected
+                .scale(scaling)
+                .rotate(new Quaterniond(rotation.x, rotation.y, rotation.z, rotation.w))
+                .translate(-originPos.x, -originPos.y, -originPos.z);
+            
+            Matrix4d matrix = PortalTransform.getTransform(
+                originPos, destPos, rotation, scaling, mirrorNormal
+            ).toMatrix(new Matrix4d());
+            
+            Vec3 point = originPos.add(randomVec(random, 100));
+            Vector3d p1 = expected.transformPosition(new Vector3d(point.x, point.y, point.z));
+            Vector3d p2 = matrix.transformPosition(new Vector3d(point.x, point.y, point.z));
+            // the matrix form loses some precision for large coordinates
+            Validate.isTrue(p1.distance(p2) < 1e-6, "%s %s", p1, p2);
+        }
+    }
+    
+    private static DQuaternion randomRotation(Random random) {
+        return DQuaternion.rotationByDegrees(
+            randomVec(random, 1).normalize(), random.nextDouble() * 360
+        );
+    }
+    
+    private static Vec3 randomVec(Random random, double range) {
+        return new Vec3(
+            (random.nextDouble() * 2 - 1) * range,
+            (random.nextDouble() * 2 - 1) * range,
+            (random.nextDouble() * 2 - 1) * range
+        );
+    }
+}
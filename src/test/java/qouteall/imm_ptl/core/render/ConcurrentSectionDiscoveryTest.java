@@ -0,0 +1,174 @@
+package qouteall.imm_ptl.core.render;
+
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import qouteall.q_misc_util.my_util.BoxPredicateF;
+import qouteall.q_misc_util.my_util.Plane;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many {@link VisibleSectionDiscovery} at the same time on shared grids,
+ * each thread reusing its own discovery object, and compares the results with the serial ones.
+ */
+public class ConcurrentSectionDiscoveryTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final int SECTION_NUM_Y = 8;
+    
+    private record Task(SyntheticSectionGrid grid, VisibleSectionDiscovery.Input input) {
+        ObjectArrayList<SyntheticSectionGrid.Section> run(
+            VisibleSectionDiscovery<SyntheticSectionGrid.Section> discovery
+        ) {
+            ObjectArrayList<SyntheticSectionGrid.Section> result = new ObjectArrayList<>();
+            discovery.discover(grid, input, result);
+            return result;
+        }
+    }
+    
+    /**
+     * Culls the boxes fully behind the plane that goes through the camera.
+     */
+    private static BoxPredicateF halfSpace(double dirX, double dirY, double dirZ) {
+        return (minX, minY, minZ, maxX, maxY, maxZ) -> {
+            // the corner of the box that is furthest along the direction
+            double x = dirX > 0 ? maxX : minX;
+            double y = dirY > 0 ? maxY : minY;
+            double z = dirZ > 0 ? maxZ : minZ;
+            return x * dirX + y * dirY + z * dirZ < 0;
+        };
+    }
+    
+    private static List<Task> createTasks(Random random, int taskNum) {
+        List<SyntheticSectionGrid> grids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            grids.add(SyntheticSectionGrid.caves(random, 16, SECTION_NUM_Y, 16, 30));
+        }
+        
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < taskNum; i++) {
+            SyntheticSectionGrid grid = grids.get(random.nextInt(grids.size()));
+            Vec3 voxelPos = grid.getRandomAirPos(random);
+            Validate.notNull(voxelPos);
+            Vec3 cameraPos = voxelPos.scale(SyntheticSectionGrid.BLOCKS_PER_VOXEL);
+            
+            // looking towards a random horizontal direction
+            double angle = random.nextDouble() * Math.PI * 2;
+            double dirX = Math.cos(angle);
+            double dirZ = Math.sin(angle);
+            
+            // some discoveries are like looking through a portal in front of the camera
+            Plane clippingPlane = null;
+            BoxPredicateF portalFrustum = null;
+            if (random.nextBoolean()) {
+                Vec3 direction = new Vec3(dirX, 0, dirZ);
+                clippingPlane = new Plane(cameraPos.add(direction.scale(8 + random.nextInt(24))), direction);
+                double sideAngle = angle + (random.nextBoolean() ? 0.5 : -0.5);
+                portalFrustum = halfSpace(Math.cos(sideAngle), random.nextGaussian() * 0.2, Math.sin(sideAngle));
+            }
+            
+            VisibleSectionDiscovery.Input input = new VisibleSectionDiscovery.Input(
+                cameraPos, 2 + random.nextInt(10), 0, SECTION_NUM_Y, random.nextBoolean(),
+                halfSpace(dirX, 0, dirZ), clippingPlane, portalFrustum, null
+            );
+            tasks.add(new Task(grid, input));
+        }
+        return tasks;
+    }
+    
+    @Test
+    public void testConcurrentSameAsSerial() throws Exception {
+        List<Task> tasks = createTasks(new Random(1), 400);
+        
+        VisibleSectionDiscovery<SyntheticSectionGrid.Section> serialDiscovery = new VisibleSectionDiscovery<>();
+        List<ObjectArrayList<SyntheticSectionGrid.Section>> serialResults = new ArrayList<>();
+        for (Task task : tasks) {
+            serialResults.add(task.run(serialDiscovery));
+        }
+        
+        int sectionNum = serialResults.stream().mapToInt(List::size).sum();
+        Validate.isTrue(sectionNum > tasks.size(), "too few sections %d", sectionNum);
+        
+        int threadNum = 8;
+        // each thread reuses its own discovery object
+        ThreadLocal<VisibleSectionDiscovery<SyntheticSectionGrid.Section>> discoveries =
+            ThreadLocal.withInitial(VisibleSectionDiscovery::new);
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum);
+        try {
+            for (int round = 0; round < 5; round++) {
+                List<Future<ObjectArrayList<SyntheticSectionGrid.Section>>> futures = new ArrayList<>();
+                for (Task task : tasks) {
+                    futures.add(executor.submit(() -> task.run(discoveries.get())));
+                }
+                
+                for (int i = 0; i < tasks.size(); i++) {
+                    ObjectArrayList<SyntheticSectionGrid.Section> result = futures.get(i).get();
+                    Validate.isTrue(
+                        result.equals(serialResults.get(i)),
+                        "different result in task %d round %d", i, round
+                    );
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        
+        LOGGER.info("{} discoveries on {} threads, {} sections in total", tasks.size(), threadNum, sectionNum);
+    }
+    
+    /**
+     * Run it with {@code gradlew benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmark() throws Exception {
+        List<Task> tasks = createTasks(new Random(2), 200);
+        int threadNum = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        
+        VisibleSectionDiscovery<SyntheticSectionGrid.Section> serialDiscovery = new VisibleSectionDiscovery<>();
+        ThreadLocal<VisibleSectionDiscovery<SyntheticSectionGrid.Section>> discoveries =
+            ThreadLocal.withInitial(VisibleSectionDiscovery::new);
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum);
+        try {
+            long serialTime = 0;
+            long concurrentTime = 0;
+            int roundNum = 10;
+            for (int round = 0; round < roundNum; round++) {
+                long start = System.nanoTime();
+                for (Task task : tasks) {
+                    task.run(serialDiscovery);
+                }
+                serialTime += System.nanoTime() - start;
+                
+                start = System.nanoTime();
+                List<Future<ObjectArrayList<SyntheticSectionGrid.Section>>> futures = new ArrayList<>();
+                for (Task task : tasks) {
+                    futures.add(executor.submit(() -> task.run(discoveries.get())));
+                }
+                for (Future<ObjectArrayList<SyntheticSectionGrid.Section>> future : futures) {
+                    future.get();
+                }
+                concurrentTime += System.nanoTime() - start;
+            }
+            
+            LOGGER.info(
+                "{} discoveries: serial {} us, {} threads {} us",
+                tasks.size(), serialTime / roundNum / 1000, threadNum, concurrentTime / roundNum / 1000
+            );
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
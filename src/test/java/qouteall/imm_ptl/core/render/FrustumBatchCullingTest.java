@@ -0,0 +1,166 @@
+package qouteall.imm_ptl.core.render;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import qouteall.q_misc_util.my_util.BoxBatch;
+import qouteall.q_misc_util.my_util.BoxPredicateF;
+
+import java.util.Random;
+
+public class FrustumBatchCullingTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static Vec3 randomVec(Random random) {
+        return new Vec3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+    }
+    
+    /**
+     * The inner frustum of a random flat portal in front of the camera.
+     */
+    private static FrustumCuller.Frustum4Planes randomFrustum(Random random) {
+        Vec3 center = randomVec(random).normalize().scale(1 + random.nextDouble() * 20);
+        Vec3 normal = center.scale(-1).normalize();
+        Vec3 axisW = randomVec(random).cross(normal).normalize();
+        Vec3 axisH = normal.cross(axisW);
+        double halfW = 0.2 + random.nextDouble() * 5;
+        double halfH = 0.2 + random.nextDouble() * 5;
+        return FrustumCuller.getFrustumPlanesFromFourVerticesCounterClockwise(new Vec3[]{
+            center.add(axisW.scale(halfW)).subtract(axisH.scale(halfH)),
+            center.add(axisW.scale(halfW)).add(axisH.scale(halfH)),
+            center.subtract(axisW.scale(halfW)).add(axisH.scale(halfH)),
+            center.subtract(axisW.scale(halfW)).subtract(axisH.scale(halfH))
+        });
+    }
+    
+    private static void addRandomBoxes(Random random, BoxBatch boxes, int num) {
+        boxes.clear();
+        for (int i = 0; i < num; i++) {
+            float x = (float) (random.nextGaussian() * 40);
+            float y = (float) (random.nextGaussian() * 40);
+            float z = (float) (random.nextGaussian() * 40);
+            float size = random.nextBoolean() ? 16 : random.nextFloat() * 20;
+            boxes.add(x, y, z, x + size, y + random.nextFloat() * 20, z + size);
+        }
+    }
+    
+    private static void checkSameAsScalar(BoxPredicateF predicate, BoxBatch boxes, long[] result) {
+        predicate.testBatch(boxes, result);
+        for (int i = 0; i < boxes.size(); i++) {
+            boolean expected = predicate.test(
+                boxes.getMinX()[i], boxes.getMinY()[i], boxes.getMinZ()[i],
+                boxes.getMaxX()[i], boxes.getMaxY()[i], boxes.getMaxZ()[i]
+            );
+            Validate.isTrue(BoxBatch.getResult(result, i) == expected, "different at %d", i);
+        }
+        // no bit beyond the size
+        int size = boxes.size();
+        if ((size & 63) != 0) {
+            Validate.isTrue((result[size >>> 6] >>> (size & 63)) == 0);
+        }
+    }
+    
+    @Test
+    public void testSameAsScalarOnRandomInput() {
+        Random random = new Random(1);
+        BoxBatch boxes = new BoxBatch(4);
+        long[] result = new long[BoxBatch.getResultLength(300)];
+        int culledNum = 0;
+        int totalNum = 0;
+        
+        for (int round = 0; round < 500; round++) {
+            FrustumCuller.Frustum4Planes frustum = randomFrustum(random);
+            addRandomBoxes(random, boxes, random.nextInt(300));
+            // the result array contains garbage from the previous round
+            checkSameAsScalar(frustum, boxes, result);
+            
+            // the default implementation of other predicates
+            BoxPredicateF lambda = frustum::isFullyOutside;
+            checkSameAsScalar(lambda, boxes, result);
+            
+            for (int i = 0; i < boxes.size(); i++) {
+                if (BoxBatch.getResult(result, i)) {
+                    culledNum++;
+                }
+            }
+            totalNum += boxes.size();
+        }
+        
+        // both culled and not culled cases are covered
+        Validate.isTrue(culledNum > 0 && culledNum < totalNum);
+    }
+    
+    @Test
+    public void testBoxesOnPlanes() {
+        // the boxes touching the planes are the edge cases of the comparison
+        FrustumCuller.Frustum4Planes frustum = FrustumCuller.getFrustumPlanesFromFourVerticesCounterClockwise(
+            new Vec3[]{
+                new Vec3(1, -1, -1), new Vec3(1, 1, -1), new Vec3(-1, 1, -1), new Vec3(-1, -1, -1)
+            }
+        );
+        BoxBatch boxes = new BoxBatch(1);
+        for (int x = -20; x <= 20; x++) {
+            for (int z = -20; z <= 0; z++) {
+                boxes.add(x, -1, z, x + 1, 1, z + 1);
+                boxes.add(x, 0, z, x, 0, z);
+            }
+        }
+        checkSameAsScalar(frustum, boxes, new long[BoxBatch.getResultLength(boxes.size())]);
+    }
+    
+    @Test
+    @Tag("benchmark")
+    public void benchmark() {
+        Random random = new Random(2);
+        // the sections of a column in a world of 384 blocks high
+        int columnHeight = 24;
+        int columnNum = 4000;
+        FrustumCuller.Frustum4Planes frustum = randomFrustum(random);
+        BoxPredicateF lambda = frustum::isFullyOutside;
+        
+        BoxBatch[] columns = new BoxBatch[columnNum];
+        for (int i = 0; i < columnNum; i++) {
+            columns[i] = new BoxBatch(columnHeight);
+            float x = (random.nextInt(64) - 32) * 16;
+            float z = (random.nextInt(64) - 32) * 16;
+            for (int cy = -4; cy < columnHeight - 4; cy++) {
+                columns[i].add(x, cy * 16 - 70, z, x + 16, cy * 16 + 16 - 70, z + 16);
+            }
+        }
+        long[] result = new long[1];
+        
+        for (int round = 0; round < 10; round++) {
+            int scalarCulled = 0;
+            long start = System.nanoTime();
+            for (BoxBatch column : columns) {
+                for (int i = 0; i < column.size(); i++) {
+                    if (lambda.test(
+                        column.getMinX()[i], column.getMinY()[i], column.getMinZ()[i],
+                        column.getMaxX()[i], column.getMaxY()[i], column.getMaxZ()[i]
+                    )) {
+                        scalarCulled++;
+                    }
+                }
+            }
+            long scalarTime = System.nanoTime() - start;
+            
+            int batchCulled = 0;
+            start = System.nanoTime();
+            for (BoxBatch column : columns) {
+                frustum.testBatch(column, result);
+                batchCulled += Long.bitCount(result[0]);
+            }
+            long batchTime = System.nanoTime() - start;
+            
+            Validate.isTrue(scalarCulled == batchCulled);
+            LOGGER.info(
+                "{} sections: one by one {} us, batch {} us, speedup {}",
+                columnNum * columnHeight, scalarTime / 1000, batchTime / 1000,
+                String.format("%.2f", (double) scalarTime / batchTime)
+            );
+        }
+    }
+}
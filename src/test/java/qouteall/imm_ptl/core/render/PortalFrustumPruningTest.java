@@ -0,0 +1,245 @@
+package qouteall.imm_ptl.core.render;
+
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import qouteall.q_misc_util.my_util.Plane;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests the pruning of {@link SectionTraversal} by the portal's inner frustum and clipping plane,
+ * in the same way as {@link VisibleSectionDiscovery} does when rendering through a portal.
+ */
+public class PortalFrustumPruningTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    /**
+     * A flat portal seen from the camera, in the voxel coordinates of {@link SyntheticSectionGrid}.
+     * Like when rendering through a portal, the camera is behind the portal destination,
+     * and the things between the camera and the portal are clipped.
+     */
+    private record PortalView(
+        Vec3 cameraPos, FrustumCuller.Frustum4Planes frustum, Plane clipping, Plane relativeClipping
+    ) {
+        static PortalView create(
+            Vec3 cameraPos, Vec3 forward, double distance, double halfWidth, double halfHeight
+        ) {
+            // the portal normal faces the camera
+            Vec3 normal = forward.scale(-1);
+            Vec3 up = Math.abs(normal.y) > 0.9 ? new Vec3(1, 0, 0) : new Vec3(0, 1, 0);
+            Vec3 axisW = up.cross(normal).normalize();
+            Vec3 axisH = normal.cross(axisW);
+            
+            // 2  1
+            // 3  0
+            Vec3 center = forward.scale(distance);
+            Vec3[] vertices = new Vec3[]{
+                center.add(axisW.scale(halfWidth)).subtract(axisH.scale(halfHeight)),
+                center.add(axisW.scale(halfWidth)).add(axisH.scale(halfHeight)),
+                center.subtract(axisW.scale(halfWidth)).add(axisH.scale(halfHeight)),
+                center.subtract(axisW.scale(halfWidth)).subtract(axisH.scale(halfHeight))
+            };
+            
+            return new PortalView(
+                cameraPos,
+                FrustumCuller.getFrustumPlanesFromFourVerticesCounterClockwise(vertices),
+                new Plane(cameraPos.add(center), forward),
+                new Plane(center, forward)
+            );
+        }
+        
+        boolean isCulled(SyntheticSectionGrid.Section section) {
+            int n = SyntheticSectionGrid.N;
+            return frustum.isFullyOutside(
+                (float) (section.cx * n - cameraPos.x),
+                (float) (section.cy * n - cameraPos.y),
+                (float) (section.cz * n - cameraPos.z),
+                (float) ((section.cx + 1) * n - cameraPos.x),
+                (float) ((section.cy + 1) * n - cameraPos.y),
+                (float) ((section.cz + 1) * n - cameraPos.z)
+            );
+        }
+        
+        boolean isClipped(SyntheticSectionGrid.Section section) {
+            int n = SyntheticSectionGrid.N;
+            return FrustumCuller.isFullyBehindPlane(
+                (float) (section.cx * n - cameraPos.x),
+                (float) (section.cy * n - cameraPos.y),
+                (float) (section.cz * n - cameraPos.z),
+                (float) ((section.cx + 1) * n - cameraPos.x),
+                (float) ((section.cy + 1) * n - cameraPos.y),
+                (float) ((section.cz + 1) * n - cameraPos.z),
+                (float) relativeClipping.getEquationX(),
+                (float) relativeClipping.getEquationY(),
+                (float) relativeClipping.getEquationZ(),
+                (float) relativeClipping.getEquationW()
+            );
+        }
+        
+        boolean canSeeThroughPortal(Vec3 point) {
+            Vec3 r = point.subtract(cameraPos);
+            return clipping.isPointOnPositiveSide(point) && !frustum.isFullyOutside(
+                (float) r.x, (float) r.y, (float) r.z, (float) r.x, (float) r.y, (float) r.z
+            );
+        }
+        
+        void apply(SyntheticSectionGrid grid) {
+            grid.frustum = s -> !isCulled(s);
+            grid.clipped = this::isClipped;
+        }
+    }
+    
+    private record TraversalResult(ObjectArrayList<SyntheticSectionGrid.Section> sections, int walkNum) {}
+    
+    private static TraversalResult traverse(
+        SyntheticSectionGrid grid, Vec3 cameraPos, boolean occlusionCulling
+    ) {
+        int cx = (int) Math.floor(cameraPos.x / SyntheticSectionGrid.N);
+        int cy = (int) Math.floor(cameraPos.y / SyntheticSectionGrid.N);
+        int cz = (int) Math.floor(cameraPos.z / SyntheticSectionGrid.N);
+        
+        ObjectArrayList<SyntheticSectionGrid.Section> result = new ObjectArrayList<>();
+        SectionTraversal<SyntheticSectionGrid.Section> traversal = new SectionTraversal<>();
+        traversal.begin(grid, cx, cy, cz, 1000, occlusionCulling, result);
+        traversal.addStart(cx, cy, cz, true);
+        traversal.run();
+        traversal.end();
+        return new TraversalResult(result, traversal.getWalkNum());
+    }
+    
+    private static Vec3 randomForward(Random random) {
+        return new Vec3(random.nextGaussian(), random.nextGaussian() * 0.3, random.nextGaussian()).normalize();
+    }
+    
+    private static PortalView randomPortalView(Random random, Vec3 cameraPos) {
+        return PortalView.create(
+            cameraPos, randomForward(random),
+            1 + random.nextDouble() * 6,
+            0.5 + random.nextDouble(), 0.5 + random.nextDouble() * 1.5
+        );
+    }
+    
+    private static void checkNoVisibleSectionDropped(
+        SyntheticSectionGrid grid, PortalView view, boolean occlusionCulling, int[] counts
+    ) {
+        grid.frustum = s -> true;
+        grid.clipped = s -> false;
+        TraversalResult notPruned = traverse(grid, view.cameraPos(), occlusionCulling);
+        
+        view.apply(grid);
+        TraversalResult pruned = traverse(grid, view.cameraPos(), occlusionCulling);
+        
+        Set<SyntheticSectionGrid.Section> prunedSet = new HashSet<>(pruned.sections());
+        Validate.isTrue(prunedSet.size() == pruned.sections().size(), "duplicated section in result");
+        Validate.isTrue(new HashSet<>(notPruned.sections()).containsAll(prunedSet));
+        for (SyntheticSectionGrid.Section section : prunedSet) {
+            Validate.isTrue(!view.isCulled(section) && !view.isClipped(section));
+        }
+        
+        Set<SyntheticSectionGrid.Section> visible =
+            grid.getRayVisibleSections(view.cameraPos(), view::canSeeThroughPortal);
+        for (SyntheticSectionGrid.Section section : visible) {
+            Validate.isTrue(
+                prunedSet.contains(section),
+                "visible section %s dropped, camera %s", section, view.cameraPos()
+            );
+        }
+        
+        counts[0] += visible.size();
+        counts[1] += pruned.sections().size();
+        counts[2] += notPruned.sections().size();
+    }
+    
+    @Test
+    public void testNoVisibleSectionDroppedInOpenSpace() {
+        Random random = new Random(1);
+        SyntheticSectionGrid grid = new SyntheticSectionGrid(20, 10, 20, false);
+        grid.updateConnectivity();
+        int[] counts = new int[3];
+        
+        for (int i = 0; i < 20; i++) {
+            Vec3 cameraPos = grid.getRandomAirPos(random);
+            Validate.notNull(cameraPos);
+            
+            checkNoVisibleSectionDropped(grid, randomPortalView(random, cameraPos), false, counts);
+        }
+        
+        LOGGER.info("Open space: visible {} emitted with pruning {} without pruning {}", counts[0], counts[1], counts[2]);
+        Validate.isTrue(counts[1] < counts[2]);
+    }
+    
+    @Test
+    public void testNoVisibleSectionDroppedInCaves() {
+        Random random = new Random(2);
+        int[] counts = new int[3];
+        
+        for (int i = 0; i < 30; i++) {
+            SyntheticSectionGrid grid = SyntheticSectionGrid.caves(random, 12, 8, 12, 12);
+            Vec3 cameraPos = grid.getRandomAirPos(random);
+            Validate.notNull(cameraPos);
+            PortalView view = randomPortalView(random, cameraPos);
+            
+            checkNoVisibleSectionDropped(grid, view, true, counts);
+            checkNoVisibleSectionDropped(grid, view, false, counts);
+        }
+        
+        LOGGER.info("Caves: visible {} emitted with pruning {} without pruning {}", counts[0], counts[1], counts[2]);
+    }
+    
+    @Test
+    @Tag("benchmark")
+    public void benchmark() {
+        // a large open area, looking through a portal that's 2 wide and 3 high
+        SyntheticSectionGrid grid = new SyntheticSectionGrid(48, 16, 48, false);
+        grid.updateConnectivity();
+        Vec3 cameraPos = new Vec3(24.5, 8.5, 24.5).scale(SyntheticSectionGrid.N);
+        Vec3 forward = new Vec3(1, -0.1, 0.3).normalize();
+        
+        // the vanilla frustum with 70 degrees vertical fov and 16:9 aspect ratio
+        double tanHalfFov = Math.tan(Math.toRadians(35));
+        PortalView vanillaView = PortalView.create(cameraPos, forward, 1, tanHalfFov * 16 / 9, tanHalfFov);
+        
+        for (double distance : new double[]{2, 8, 24}) {
+            PortalView portalView = PortalView.create(cameraPos, forward, distance, 1, 1.5);
+            
+            TraversalResult notPruned = null;
+            TraversalResult pruned = null;
+            long notPrunedTime = 0;
+            long prunedTime = 0;
+            int roundNum = 20;
+            for (int round = 0; round < roundNum; round++) {
+                // without pruning, only the vanilla frustum is used in the traversal
+                grid.frustum = s -> !vanillaView.isCulled(s);
+                grid.clipped = s -> false;
+                long start = System.nanoTime();
+                notPruned = traverse(grid, cameraPos, false);
+                notPrunedTime += System.nanoTime() - start;
+                
+                grid.frustum = s -> !vanillaView.isCulled(s) && !portalView.isCulled(s);
+                grid.clipped = portalView::isClipped;
+                start = System.nanoTime();
+                pruned = traverse(grid, cameraPos, false);
+                prunedTime += System.nanoTime() - start;
+            }
+            
+            LOGGER.info(
+                "Portal at distance {}: without pruning visited {} emitted {} {} us, with pruning visited {} emitted {} {} us",
+                distance,
+                notPruned.walkNum(), notPruned.sections().size(), notPrunedTime / roundNum / 1000,
+                pruned.walkNum(), pruned.sections().size(), prunedTime / roundNum / 1000
+            );
+            
+            Validate.isTrue(pruned.sections().size() < notPruned.sections().size());
+            if (distance >= 8) {
+                Validate.isTrue(pruned.sections().size() * 4 < notPruned.sections().size());
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package qouteall.imm_ptl.core.render;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+public class PortalRenderPlannerTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    /**
+     * Each node has some sub-portals at random places inside its screen rect, like a room full of portals.
+     */
+    private static Consumer<PortalRenderPlanner.Node> randomExpander(
+        Random random, int maxLayer, int maxChildren, int[] expandedNum
+    ) {
+        return node -> {
+            expandedNum[0]++;
+            if (node.layer >= maxLayer) {
+                return;
+            }
+            
+            int childNum = random.nextInt(maxChildren + 1);
+            for (int i = 0; i < childNum; i++) {
+                float w = random.nextFloat() * 1.5f;
+                float h = random.nextFloat() * 1.5f;
+                float x = random.nextFloat() * 2 - 1 - w / 2;
+                float y = random.nextFloat() * 2 - 1 - h / 2;
+                node.addChild(
+                    new Object(),
+                    new PortalRenderPlanner.ScreenRect(x, y, x + w, y + h),
+                    random.nextDouble() * 30
+                );
+            }
+        };
+    }
+    
+    private static List<PortalRenderPlanner.Node> getAllNodes(PortalRenderPlanner.Node root) {
+        List<PortalRenderPlanner.Node> result = new ArrayList<>();
+        root.forEachNode(result::add);
+        return result;
+    }
+    
+    @Test
+    public void testBudgetAndOrder() {
+        Random random = new Random(1);
+        
+        for (int i = 0; i < 200; i++) {
+            double budget = random.nextDouble() * 50;
+            PortalRenderPlanner.Node root = PortalRenderPlanner.Node.createRoot();
+            PortalRenderPlanner.Result result = PortalRenderPlanner.plan(
+                root, budget, randomExpander(random, 1 + random.nextInt(5), 6, new int[1])
+            );
+            
+            List<PortalRenderPlanner.Node> nodes = getAllNodes(root);
+            double usedCost = 0;
+            int selectedNum = 0;
+            double minSelectedArea = Double.POSITIVE_INFINITY;
+            for (PortalRenderPlanner.Node node : nodes) {
+                if (node.parent == null) {
+                    continue;
+                }
+                // the outer world portals are always rendered
+                if (node.layer == 1) {
+                    Validate.isTrue(node.isSelected());
+                    selectedNum++;
+                    continue;
+                }
+                if (!node.isSelected()) {
+                    continue;
+                }
+                // the parent is always rendered before the child
+                Validate.isTrue(node.parent.isSelected());
+                Validate.isTrue(node.getScreenArea() <= node.parent.getScreenArea());
+                Validate.isTrue(node.getScreenArea() > 0);
+                usedCost += node.cost;
+                selectedNum++;
+                minSelectedArea = Math.min(minSelectedArea, node.getScreenArea());
+            }
+            Validate.isTrue(usedCost <= budget + 1e-9);
+            Validate.isTrue(selectedNum == result.selectedNum());
+            Validate.isTrue(Math.abs(usedCost - result.usedCost()) < 1e-9);
+            
+            // the cut nodes are not larger than the selected nodes
+            int cutNum = 0;
+            for (PortalRenderPlanner.Node node : nodes) {
+                if (!node.isSelected()) {
+                    cutNum++;
+                    Validate.isTrue(node.layer >= 2);
+                    Validate.isTrue(node.parent.isSelected(), "the sub-tree of a cut node should not be built");
+                    Validate.isTrue(node.getScreenArea() <= minSelectedArea);
+                }
+            }
+            Validate.isTrue(cutNum == result.cutNum());
+        }
+    }
+    
+    @Test
+    public void testLargeBudgetSelectsAllVisible() {
+        Random random = new Random(2);
+        
+        for (int i = 0; i < 50; i++) {
+            PortalRenderPlanner.Node root = PortalRenderPlanner.Node.createRoot();
+            PortalRenderPlanner.plan(root, 1e9, randomExpander(random, 3, 4, new int[1]));
+            
+            for (PortalRenderPlanner.Node node : getAllNodes(root)) {
+                Validate.isTrue(node.isSelected() == (node.layer == 1 || node.getScreenArea() > 0));
+            }
+        }
+    }
+    
+    @Test
+    public void testFacingMirrors() {
+        // two facing mirrors, each reflection covers 70% of the previous one in width and height
+        Consumer<PortalRenderPlanner.Node> expander = node -> {
+            PortalRenderPlanner.ScreenRect rect = node.screenRect;
+            float w = (rect.maxX() - rect.minX()) * 0.7f / 2;
+            float h = (rect.maxY() - rect.minY()) * 0.7f / 2;
+            node.addChild(
+                "mirror " + (node.layer + 1),
+                new PortalRenderPlanner.ScreenRect(-w, -h, w, h),
+                node.distance + 5
+            );
+        };
+        
+        PortalRenderPlanner.Node root = PortalRenderPlanner.Node.createRoot();
+        PortalRenderPlanner.Result result = PortalRenderPlanner.plan(root, 4.5, expander);
+        
+        // the first mirror is always rendered.
+        // then 1.24 + 1.12 + 1.06 + 1.03 = 4.44, the next one costs 1.01
+        Validate.isTrue(result.selectedNum() == 5, "selected %d", result.selectedNum());
+        Validate.isTrue(result.cutNum() == 1);
+        PortalRenderPlanner.Node node = root;
+        for (int layer = 1; layer <= 6; layer++) {
+            Validate.isTrue(node.getChildren().size() == 1);
+            node = node.getChildren().iterator().next();
+            Validate.isTrue(node.isSelected() == (layer <= 5));
+        }
+        Validate.isTrue(node.getChildren().isEmpty());
+    }
+    
+    @Test
+    public void testProjectToScreen() {
+        // 90 degrees vertical fov, square screen, looking towards -Z
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(90), 1, 0.05f, 1000);
+        
+        // a 2x2 square at distance 2 covers the middle half of the screen on both axes
+        PortalRenderPlanner.ScreenRect rect = PortalRenderPlanner.projectToScreen(projection, new Vec3[]{
+            new Vec3(-1, -1, -2), new Vec3(1, -1, -2), new Vec3(1, 1, -2), new Vec3(-1, 1, -2)
+        });
+        Validate.isTrue(Math.abs(rect.getScreenArea() - 0.25) < 1e-5, "area %f", rect.getScreenArea());
+        
+        // the farther it is, the smaller it is
+        PortalRenderPlanner.ScreenRect farRect = PortalRenderPlanner.projectToScreen(projection, new Vec3[]{
+            new Vec3(-1, -1, -20), new Vec3(1, -1, -20), new Vec3(1, 1, -20), new Vec3(-1, 1, -20)
+        });
+        Validate.isTrue(Math.abs(farRect.getScreenArea() - 0.0025) < 1e-5, "area %f", farRect.getScreenArea());
+        
+        // crossing the camera plane, cannot be bounded
+        PortalRenderPlanner.ScreenRect crossingRect = PortalRenderPlanner.projectToScreen(projection, new Vec3[]{
+            new Vec3(-1, 0, 1), new Vec3(1, 0, -3)
+        });
+        Validate.isTrue(crossingRect.equals(PortalRenderPlanner.ScreenRect.FULL));
+        
+        // behind the camera, not visible
+        PortalRenderPlanner.ScreenRect behindRect = PortalRenderPlanner.projectToScreen(projection, new Vec3[]{
+            new Vec3(-1, -1, 2), new Vec3(1, -1, 2), new Vec3(1, 1, 3), new Vec3(-1, 1, 3)
+        });
+        Validate.isTrue(behindRect.isEmpty());
+        Validate.isTrue(behindRect.getScreenArea() == 0);
+        
+        // outside the screen
+        PortalRenderPlanner.ScreenRect outsideRect = PortalRenderPlanner.projectToScreen(projection, new Vec3[]{
+            new Vec3(10, -1, -2), new Vec3(12, 1, -2)
+        });
+        Validate.isTrue(outsideRect.getScreenArea() == 0);
+    }
+    
+    @Test
+    public void testOuterPortalsAreNotCut() {
+        // many large portals in the outer world, each has a nested portal
+        Consumer<PortalRenderPlanner.Node> expander = node -> {
+            if (node.layer == 0) {
+                for (int i = 0; i < 50; i++) {
+                    node.addChild("outer " + i, PortalRenderPlanner.ScreenRect.FULL, i);
+                }
+            }
+            else if (node.layer == 1) {
+                node.addChild(node.key + " nested", new PortalRenderPlanner.ScreenRect(-0.5f, -0.5f, 0.5f, 0.5f), 10);
+            }
+        };
+        
+        PortalRenderPlanner.Node root = PortalRenderPlanner.Node.createRoot();
+        PortalRenderPlanner.Result result = PortalRenderPlanner.plan(root, 5, expander);
+        
+        for (PortalRenderPlanner.Node node : root.getChildren()) {
+            Validate.isTrue(node.isSelected());
+        }
+        // each nested one costs 1.25
+        Validate.isTrue(result.selectedNum() == 50 + 4, "selected %d", result.selectedNum());
+        Validate.isTrue(result.cutNum() == 46);
+        Validate.isTrue(result.usedCost() <= 5);
+    }
+    
+    @Test
+    public void testSubTreeOfCutNodesNotBuilt() {
+        Random random = new Random(3);
+        int[] plannedExpandedNum = new int[1];
+        int[] fullExpandedNum = new int[1];
+        
+        for (int i = 0; i < 20; i++) {
+            long seed = random.nextLong();
+            PortalRenderPlanner.plan(
+                PortalRenderPlanner.Node.createRoot(), 40,
+                randomExpander(new Random(seed), 5, 6, plannedExpandedNum)
+            );
+            PortalRenderPlanner.plan(
+                PortalRenderPlanner.Node.createRoot(), 1e9,
+                randomExpander(new Random(seed), 5, 6, fullExpandedNum)
+            );
+        }
+        
+        LOGGER.info(
+            "Expanded nodes with budget {}, without budget {}", plannedExpandedNum[0], fullExpandedNum[0]
+        );
+        Validate.isTrue(plannedExpandedNum[0] < fullExpandedNum[0]);
+    }
+}
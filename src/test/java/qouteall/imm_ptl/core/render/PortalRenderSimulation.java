@@ -0,0 +1,702 @@
+package qouteall.imm_ptl.core.render;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.joml.Matrix4f;
+import qouteall.imm_ptl.core.render.renderer.PortalRecursionPlan;
+import qouteall.imm_ptl.core.render.renderer.PortalRenderer;
+import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.my_util.BoxPredicateF;
+import qouteall.q_misc_util.my_util.DQuaternion;
+import qouteall.q_misc_util.my_util.Plane;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Runs the CPU side of portal rendering on synthetic scenes, without the game and without a GPU.
+ * The camera moves along a scripted path, and for each frame:
+ * <ul>
+ *     <li>select: the outer world portals in the view frustum,
+ *     a stand-in for {@link PortalRenderer#getPortalsToRender}</li>
+ *     <li>plan: gathering the nested portals and the budget, by {@link PortalRecursionPlan#buildPlan}</li>
+ *     <li>sections: the section discovery of each rendered world by {@link VisibleSectionDiscovery},
+ *     culled by the view frustum in the outer world, and by the portal's inner frustum and clipping plane
+ *     inside a portal</li>
+ * </ul>
+ * These stages do not call GL, so nothing needs to be stubbed. The drawing itself is not simulated.
+ * <p>
+ * All scenes are in one {@link SyntheticSectionGrid} world. The scenes are laid out in its voxel coordinates
+ * and turned into blocks by {@link #voxel}, because the discovery uses 16-block sections.
+ * The portals are {@link SimPortal}s, because portal entities cannot be created without a world.
+ * The counts are deterministic, so the report of {@link #formatReport} can be compared between revisions.
+ * The time of each stage is not, it's in {@link #formatTimingReport}.
+ */
+public final class PortalRenderSimulation {
+    
+    public static record Settings(
+        double budget, int maxPortalLayer, int renderDistance,
+        double portalRenderRange, boolean screenSizedRenderDistance
+    ) {
+        // the same as the default config, except that the portal render range (in blocks)
+        // does not shrink in deeper layers
+        public static final Settings DEFAULT = new Settings(40, 5, 12, 256, true);
+        
+        public Settings withBudget(double newBudget) {
+            return new Settings(newBudget, maxPortalLayer, renderDistance, portalRenderRange, screenSizedRenderDistance);
+        }
+        
+        public Settings withScreenSizedRenderDistance(boolean enabled) {
+            return new Settings(budget, maxPortalLayer, renderDistance, portalRenderRange, enabled);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(
+                Locale.ROOT, "budget %.1f max layer %d render distance %d portal range %.1f screen sized distance %s",
+                budget, maxPortalLayer, renderDistance, portalRenderRange, screenSizedRenderDistance
+            );
+        }
+    }
+    
+    /**
+     * A flat rectangular portal or mirror. The normal is axisW cross axisH, pointing to the side it can be seen from.
+     */
+    public static record SimPortal(
+        String name, Vec3 origin, Vec3 axisW, Vec3 axisH, double width, double height,
+        Vec3 destination, DQuaternion rotation, boolean isMirror
+    ) {
+        public static SimPortal portal(
+            String name, Vec3 origin, Vec3 normal, double width, double height,
+            Vec3 destination, DQuaternion rotation
+        ) {
+            Vec3 up = Math.abs(normal.y) > 0.9 ? new Vec3(1, 0, 0) : new Vec3(0, 1, 0);
+            Vec3 axisW = up.cross(normal).normalize();
+            Vec3 axisH = normal.cross(axisW);
+            return new SimPortal(name, origin, axisW, axisH, width, height, destination, rotation, false);
+        }
+        
+        public static SimPortal mirror(String name, Vec3 origin, Vec3 normal, double width, double height) {
+            SimPortal portal = portal(name, origin, normal, width, height, origin, DQuaternion.identity);
+            return new SimPortal(
+                name, origin, portal.axisW, portal.axisH, width, height, origin, DQuaternion.identity, true
+            );
+        }
+        
+        public Vec3 getNormal() {
+            return axisW.cross(axisH);
+        }
+        
+        public Vec3 transformVec(Vec3 vec) {
+            if (isMirror) {
+                Vec3 normal = getNormal();
+                return vec.subtract(normal.scale(2 * vec.dot(normal)));
+            }
+            return rotation.rotate(vec);
+        }
+        
+        public Vec3 transformPoint(Vec3 pos) {
+            return transformVec(pos.subtract(origin)).add(destination);
+        }
+        
+        public Vec3 inverseTransformPoint(Vec3 pos) {
+            if (isMirror) {
+                return transformPoint(pos);
+            }
+            return rotation.getConjugated().rotate(pos.subtract(destination)).add(origin);
+        }
+        
+        public Vec3 getContentDirection() {
+            return transformVec(getNormal().scale(-1));
+        }
+        
+        public boolean isRoughlyVisibleTo(Vec3 cameraPos) {
+            return cameraPos.subtract(origin).dot(getNormal()) > 0;
+        }
+        
+        public double getDistanceToNearestPoint(Vec3 pos) {
+            Vec3 offset = pos.subtract(origin);
+            double x = Math.max(-width / 2, Math.min(width / 2, offset.dot(axisW)));
+            double y = Math.max(-height / 2, Math.min(height / 2, offset.dot(axisH)));
+            return origin.add(axisW.scale(x)).add(axisH.scale(y)).distanceTo(pos);
+        }
+        
+        // 2  1
+        // 3  0
+        public Vec3[] getFourVerticesCounterClockwise() {
+            Vec3 w = axisW.scale(width / 2);
+            Vec3 h = axisH.scale(height / 2);
+            return new Vec3[]{
+                origin.add(w).subtract(h),
+                origin.add(w).add(h),
+                origin.subtract(w).add(h),
+                origin.subtract(w).subtract(h)
+            };
+        }
+        
+        // the simulated portals don't scale
+        public double getScale() {
+            return 1;
+        }
+        
+        public AABB getThinBoundingBox() {
+            return Helper.boundingBoxOfPoints(getFourVerticesCounterClockwise());
+        }
+        
+        // same as the rectangular portal shape
+        public Plane getInnerClipping() {
+            return new Plane(destination, getContentDirection());
+        }
+        
+        public boolean isReverseOf(SimPortal other) {
+            return !isMirror && !other.isMirror &&
+                origin.distanceTo(other.destination) < 1e-3 &&
+                destination.distanceTo(other.origin) < 1e-3;
+        }
+        
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+    
+    /**
+     * @param yaw   in degrees, 0 is looking towards +Z, 90 is looking towards -X, same as Minecraft
+     * @param pitch in degrees, positive is looking down
+     */
+    public static record CameraPose(Vec3 pos, double yaw, double pitch) {
+        public static final float FOV_DEGREES = 70;
+        public static final float ASPECT_RATIO = 16f / 9f;
+        
+        public Vec3 getForward() {
+            double yawRad = Math.toRadians(yaw);
+            double pitchRad = Math.toRadians(pitch);
+            return new Vec3(
+                -Math.sin(yawRad) * Math.cos(pitchRad),
+                -Math.sin(pitchRad),
+                Math.cos(yawRad) * Math.cos(pitchRad)
+            );
+        }
+        
+        public Vec3 getRight() {
+            return getForward().cross(new Vec3(0, 1, 0)).normalize();
+        }
+        
+        public Vec3 getUp() {
+            return getRight().cross(getForward());
+        }
+        
+        public Matrix4f getViewProjection() {
+            Vec3 forward = getForward();
+            Matrix4f projection = new Matrix4f().perspective(
+                (float) Math.toRadians(FOV_DEGREES), ASPECT_RATIO, 0.05f, 1000
+            );
+            Matrix4f view = new Matrix4f().lookAlong(
+                (float) forward.x, (float) forward.y, (float) forward.z, 0, 1, 0
+            );
+            return projection.mul(view);
+        }
+        
+        /**
+         * The screen corners at distance 1, relative to the camera.
+         */
+        public Vec3[] getFrustumVerticesCounterClockwise() {
+            double tanHalfFov = Math.tan(Math.toRadians(FOV_DEGREES / 2));
+            Vec3 center = getForward();
+            Vec3 w = getRight().scale(tanHalfFov * ASPECT_RATIO);
+            Vec3 h = getUp().scale(tanHalfFov);
+            return new Vec3[]{
+                center.add(w).subtract(h),
+                center.add(w).add(h),
+                center.subtract(w).add(h),
+                center.subtract(w).subtract(h)
+            };
+        }
+        
+        public static CameraPose interpolate(CameraPose a, CameraPose b, double t) {
+            return new CameraPose(
+                a.pos.lerp(b.pos, t),
+                a.yaw + (b.yaw - a.yaw) * t,
+                a.pitch + (b.pitch - a.pitch) * t
+            );
+        }
+    }
+    
+    /**
+     * @param cameraPath the key poses, the frames are evenly distributed on it
+     */
+    public static record Scene(
+        String name, SyntheticSectionGrid grid, List<SimPortal> portals,
+        List<CameraPose> cameraPath, int frameNum
+    ) {
+        public CameraPose getCameraOfFrame(int frame) {
+            if (cameraPath.size() == 1 || frameNum == 1) {
+                return cameraPath.get(0);
+            }
+            double progress = (double) frame * (cameraPath.size() - 1) / (frameNum - 1);
+            int index = Math.min((int) Math.floor(progress), cameraPath.size() - 2);
+            return CameraPose.interpolate(cameraPath.get(index), cameraPath.get(index + 1), progress - index);
+        }
+    }
+    
+    /**
+     * @param visitedPortalNum  the number of portal candidate tests in all portal layers
+     * @param planNanos         including gathering the nested portals
+     * @param maxLayer          the deepest rendered portal layer, 0 if no portal is rendered
+     * @param emittedSectionNum the number of sections to draw in all rendered worlds
+     * @param walkedSectionNum  the number of sections walked by the traversals
+     * @param frustumTestNum    the number of section frustum tests
+     */
+    public static record FrameStats(
+        int frame, CameraPose camera,
+        int visitedPortalNum, int renderedPortalNum, int cutPortalNum, int maxLayer, double usedCost,
+        int emittedSectionNum, int walkedSectionNum, int frustumTestNum,
+        long selectNanos, long planNanos, long sectionNanos
+    ) {}
+    
+    public static record SceneResult(Scene scene, Settings settings, List<FrameStats> frames) {
+        public int sum(ToIntFunction<FrameStats> func) {
+            return frames.stream().mapToInt(func).sum();
+        }
+    }
+    
+    private final VisibleSectionDiscovery<SyntheticSectionGrid.Section> discovery = new VisibleSectionDiscovery<>();
+    private final ObjectArrayList<SyntheticSectionGrid.Section> sectionResult = new ObjectArrayList<>();
+    private final SimContext context = new SimContext();
+    
+    private int visitedPortalNum;
+    private int emittedSectionNum;
+    private int walkedSectionNum;
+    private int frustumTestNum;
+    
+    /**
+     * The nested portals are gathered from all portals of the scene, as they are all in the same world.
+     */
+    private final class SimContext implements PortalRecursionPlan.Context<SimPortal> {
+        private Scene scene;
+        private Settings settings;
+        
+        @Override
+        public void forEachPortalNear(SimPortal outerPortal, Vec3 pos, double range, Consumer<SimPortal> func) {
+            for (SimPortal portal : scene.portals()) {
+                visitedPortalNum++;
+                func.accept(portal);
+            }
+        }
+        
+        @Override
+        public double getRenderRange(int portalLayer, SimPortal outerPortal) {
+            return settings.portalRenderRange();
+        }
+        
+        @Override
+        public boolean isRoughlyVisibleTo(SimPortal portal, Vec3 cameraPos) {
+            return portal.isRoughlyVisibleTo(cameraPos);
+        }
+        
+        @Override
+        public double getDistanceToNearestPoint(SimPortal portal, Vec3 pos) {
+            return portal.getDistanceToNearestPoint(pos);
+        }
+        
+        @Override
+        public boolean isReverse(SimPortal portal, SimPortal outerPortal) {
+            return portal.isReverseOf(outerPortal);
+        }
+        
+        @Override
+        public SimPortal getRenderingDelegate(SimPortal portal) {
+            return portal;
+        }
+        
+        @Override
+        public Vec3 transformPoint(SimPortal portal, Vec3 pos) {
+            return portal.transformPoint(pos);
+        }
+        
+        @Override
+        public Vec3 inverseTransformPoint(SimPortal portal, Vec3 pos) {
+            return portal.inverseTransformPoint(pos);
+        }
+        
+        @Override
+        public AABB getThinBoundingBox(SimPortal portal) {
+            return portal.getThinBoundingBox();
+        }
+    }
+    
+    public SceneResult run(Scene scene, Settings settings) {
+        List<FrameStats> frames = new ArrayList<>();
+        for (int frame = 0; frame < scene.frameNum(); frame++) {
+            frames.add(simulateFrame(scene, settings, frame, scene.getCameraOfFrame(frame)));
+        }
+        return new SceneResult(scene, settings, frames);
+    }
+    
+    public FrameStats simulateFrame(Scene scene, Settings settings, int frame, CameraPose camera) {
+        visitedPortalNum = 0;
+        emittedSectionNum = 0;
+        walkedSectionNum = 0;
+        frustumTestNum = 0;
+        context.scene = scene;
+        context.settings = settings;
+        
+        Vec3 cameraPos = camera.pos();
+        Matrix4f viewProjection = camera.getViewProjection();
+        FrustumCuller.Frustum4Planes viewFrustum = FrustumCuller.getFrustumPlanesFromFourVerticesCounterClockwise(
+            camera.getFrustumVerticesCounterClockwise()
+        );
+        
+        long selectStartTime = System.nanoTime();
+        List<SimPortal> outerPortals = selectOuterPortals(scene, settings, cameraPos, viewFrustum);
+        long selectNanos = System.nanoTime() - selectStartTime;
+        
+        long planStartTime = System.nanoTime();
+        PortalRenderPlanner.Node root = PortalRenderPlanner.Node.createRoot();
+        PortalRenderPlanner.Result result = PortalRecursionPlan.buildPlan(
+            root, context, outerPortals, viewProjection, cameraPos,
+            settings.budget(), settings.maxPortalLayer()
+        );
+        long planNanos = System.nanoTime() - planStartTime;
+        
+        long sectionStartTime = System.nanoTime();
+        int[] maxLayer = new int[1];
+        root.forEachNode(node -> {
+            if (node.isSelected()) {
+                maxLayer[0] = Math.max(maxLayer[0], node.layer);
+                discoverSections(scene, settings, node, camera, viewFrustum);
+            }
+        });
+        long sectionNanos = System.nanoTime() - sectionStartTime;
+        
+        context.scene = null;
+        context.settings = null;
+        
+        return new FrameStats(
+            frame, camera,
+            visitedPortalNum, result.selectedNum(), result.cutNum(), maxLayer[0], result.usedCost(),
+            emittedSectionNum, walkedSectionNum, frustumTestNum,
+            selectNanos, planNanos, sectionNanos
+        );
+    }
+    
+    /**
+     * Like {@link PortalRenderer#getPortalsToRender},
+     * the outer world portals are culled by the distance and the view frustum.
+     */
+    private List<SimPortal> selectOuterPortals(
+        Scene scene, Settings settings, Vec3 cameraPos, FrustumCuller.Frustum4Planes viewFrustum
+    ) {
+        List<SimPortal> result = new ArrayList<>();
+        for (SimPortal portal : scene.portals()) {
+            visitedPortalNum++;
+            
+            if (!portal.isRoughlyVisibleTo(cameraPos)) {
+                continue;
+            }
+            
+            double distance = portal.getDistanceToNearestPoint(cameraPos);
+            if (distance > settings.portalRenderRange()) {
+                continue;
+            }
+            
+            // frustum culling does not work when portal is very close
+            if (distance > 0.1) {
+                AABB box = portal.getThinBoundingBox().move(cameraPos.scale(-1));
+                if (viewFrustum.isFullyOutside(
+                    (float) box.minX, (float) box.minY, (float) box.minZ,
+                    (float) box.maxX, (float) box.maxY, (float) box.maxZ
+                )) {
+                    continue;
+                }
+            }
+            
+            result.add(portal);
+        }
+        return result;
+    }
+    
+    private void discoverSections(
+        Scene scene, Settings settings, PortalRenderPlanner.Node node, CameraPose camera,
+        FrustumCuller.Frustum4Planes viewFrustum
+    ) {
+        Vec3 innerCameraPos = PortalRecursionPlan.transformFromOuterWorld(context, node, camera.pos());
+        
+        BoxPredicateF frustum;
+        Plane clippingPlane = null;
+        BoxPredicateF portalFrustum = null;
+        int renderDistance = settings.renderDistance();
+        if (node.parent == null) {
+            frustum = viewFrustum;
+        }
+        else {
+            SimPortal portal = (SimPortal) node.key;
+            assert portal != null;
+            
+            // the view frustum is not transformed into the portal, the portal's inner frustum is narrower
+            frustum = BoxPredicateF.nonePredicate;
+            
+            Vec3[] vertices = portal.getFourVerticesCounterClockwise();
+            for (int i = 0; i < vertices.length; i++) {
+                vertices[i] = portal.transformPoint(vertices[i]);
+            }
+            portalFrustum = FrustumCuller.getFlatPortalInnerFrustumCullingFunc(
+                vertices, portal.isMirror(), innerCameraPos
+            );
+            clippingPlane = portal.getInnerClipping();
+            
+            if (settings.screenSizedRenderDistance()) {
+                renderDistance = PortalRecursionPlan.getScreenSizedRenderDistance(
+                    node, portal.getScale(), renderDistance
+                );
+            }
+        }
+        
+        BoxPredicateF countedFrustum = (minX, minY, minZ, maxX, maxY, maxZ) -> {
+            frustumTestNum++;
+            return frustum.test(minX, minY, minZ, maxX, maxY, maxZ);
+        };
+        
+        SyntheticSectionGrid grid = scene.grid();
+        VisibleSectionDiscovery.Input input = VisibleSectionDiscovery.Input.create(
+            innerCameraPos, renderDistance, 0, grid.sizeY, node.layer,
+            countedFrustum, clippingPlane, portalFrustum, null
+        );
+        discovery.discover(grid, input, sectionResult);
+        
+        emittedSectionNum += sectionResult.size();
+        walkedSectionNum += discovery.getWalkNum();
+        sectionResult.clear();
+    }
+    
+    /**
+     * A position in the voxel coordinates of the world, in blocks.
+     */
+    public static Vec3 voxel(double x, double y, double z) {
+        return new Vec3(x, y, z).scale(SyntheticSectionGrid.BLOCKS_PER_VOXEL);
+    }
+    
+    /**
+     * A floor with some pillars on it. The same for all scenes.
+     */
+    public static SyntheticSectionGrid createWorld() {
+        SyntheticSectionGrid grid = new SyntheticSectionGrid(48, 12, 48, false);
+        int floorHeight = 8;
+        for (int x = 0; x < grid.getVoxelSizeX(); x++) {
+            for (int z = 0; z < grid.getVoxelSizeZ(); z++) {
+                for (int y = 0; y < floorHeight; y++) {
+                    grid.setSolid(x, y, z, true);
+                }
+            }
+        }
+        
+        Random random = new Random(1);
+        for (int i = 0; i < 80; i++) {
+            int px = random.nextInt(grid.getVoxelSizeX() - 2);
+            int pz = random.nextInt(grid.getVoxelSizeZ() - 2);
+            int height = 4 + random.nextInt(24);
+            for (int x = px; x < px + 2; x++) {
+                for (int z = pz; z < pz + 2; z++) {
+                    for (int y = floorHeight; y < floorHeight + height; y++) {
+                        grid.setSolid(x, y, z, true);
+                    }
+                }
+            }
+        }
+        
+        grid.updateConnectivity();
+        return grid;
+    }
+    
+    public static List<Scene> createScenes(SyntheticSectionGrid world) {
+        return List.of(
+            createMirrorRoom(world),
+            createNestedPortals(world),
+            createGlobalPortal(world),
+            createPortalWall(world)
+        );
+    }
+    
+    /**
+     * Two facing mirrors, the reflections recurse until the max portal layer or the budget.
+     */
+    public static Scene createMirrorRoom(SyntheticSectionGrid world) {
+        int b = SyntheticSectionGrid.BLOCKS_PER_VOXEL;
+        return new Scene(
+            "mirror_room", world,
+            List.of(
+                SimPortal.mirror("mirror_west", voxel(88, 14, 96), new Vec3(1, 0, 0), 12 * b, 8 * b),
+                SimPortal.mirror("mirror_east", voxel(104, 14, 96), new Vec3(-1, 0, 0), 12 * b, 8 * b)
+            ),
+            List.of(
+                new CameraPose(voxel(96, 14, 100), 90, 0),
+                new CameraPose(voxel(96, 14, 96), 180, 10),
+                new CameraPose(voxel(98, 14, 96), 270, 0),
+                new CameraPose(voxel(102, 14, 96), 270, -10),
+                new CameraPose(voxel(92, 14, 90), 60, 0)
+            ),
+            40
+        );
+    }
+    
+    /**
+     * A chain of portals, each one leads to the place in front of the next one.
+     * Each portal has a reverse portal.
+     */
+    public static Scene createNestedPortals(SyntheticSectionGrid world) {
+        int b = SyntheticSectionGrid.BLOCKS_PER_VOXEL;
+        List<SimPortal> portals = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Vec3 origin = voxel(24 + 40 * i, 14, 60);
+            Vec3 destination = voxel(64 + 40 * i, 14, 64);
+            portals.add(SimPortal.portal(
+                "chain_" + i, origin, new Vec3(0, 0, 1), 8 * b, 8 * b, destination, DQuaternion.identity
+            ));
+            portals.add(SimPortal.portal(
+                "chain_" + i + "_reverse", destination, new Vec3(0, 0, -1), 8 * b, 8 * b, origin, DQuaternion.identity
+            ));
+        }
+        return new Scene(
+            "nested_portals", world, portals,
+            List.of(
+                new CameraPose(voxel(24, 14, 90), 180, 0),
+                new CameraPose(voxel(24, 14, 76), 165, 5),
+                new CameraPose(voxel(26, 15, 66), 195, -5),
+                new CameraPose(voxel(20, 14, 80), 180, 0)
+            ),
+            40
+        );
+    }
+    
+    /**
+     * A huge portal that leads to the same place rotated by 90 degrees.
+     */
+    public static Scene createGlobalPortal(SyntheticSectionGrid world) {
+        int b = SyntheticSectionGrid.BLOCKS_PER_VOXEL;
+        Vec3 origin = voxel(96, 28, 100);
+        return new Scene(
+            "global_portal", world,
+            List.of(SimPortal.portal(
+                "global", origin, new Vec3(0, 0, 1), 160 * b, 40 * b,
+                origin, DQuaternion.rotationByDegrees(new Vec3(0, 1, 0), 90)
+            )),
+            List.of(
+                new CameraPose(voxel(96, 20, 160), 180, 0),
+                new CameraPose(voxel(96, 20, 110), 200, 0),
+                new CameraPose(voxel(60, 24, 104), 150, 20),
+                new CameraPose(voxel(140, 16, 120), 210, 0)
+            ),
+            40
+        );
+    }
+    
+    /**
+     * A wall of many small portals, more than the budget allows.
+     */
+    public static Scene createPortalWall(SyntheticSectionGrid world) {
+        int b = SyntheticSectionGrid.BLOCKS_PER_VOXEL;
+        List<SimPortal> portals = new ArrayList<>();
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 10; column++) {
+                double x = 42 + column * 12;
+                double y = 12 + row * 6;
+                portals.add(SimPortal.portal(
+                    "wall_%d_%d".formatted(row, column),
+                    voxel(x, y, 140), new Vec3(0, 0, 1), 4 * b, 4 * b,
+                    voxel(x, y, 40), DQuaternion.identity
+                ));
+            }
+        }
+        return new Scene(
+            "portal_wall", world, portals,
+            List.of(
+                new CameraPose(voxel(96, 22, 186), 180, 10),
+                new CameraPose(voxel(96, 20, 156), 180, 5),
+                new CameraPose(voxel(70, 18, 150), 160, 0)
+            ),
+            30
+        );
+    }
+    
+    private static String formatPos(Vec3 pos) {
+        return String.format(Locale.ROOT, "(%.2f %.2f %.2f)", pos.x, pos.y, pos.z);
+    }
+    
+    /**
+     * Only contains the counts, so the same revision always gives the same report.
+     */
+    public static String formatReport(List<SceneResult> results) {
+        StringBuilder sb = new StringBuilder();
+        for (SceneResult result : results) {
+            sb.append(String.format(
+                Locale.ROOT, "scene %s portals %d frames %d %s\n",
+                result.scene().name(), result.scene().portals().size(), result.frames().size(), result.settings()
+            ));
+            for (FrameStats frame : result.frames()) {
+                sb.append(String.format(
+                    Locale.ROOT,
+                    "  frame %3d camera %s yaw %.1f pitch %.1f visited %d rendered %d cut %d depth %d cost %.2f" +
+                        " sections %d walked %d frustum tests %d\n",
+                    frame.frame(), formatPos(frame.camera().pos()), frame.camera().yaw(), frame.camera().pitch(),
+                    frame.visitedPortalNum(), frame.renderedPortalNum(), frame.cutPortalNum(), frame.maxLayer(),
+                    frame.usedCost(),
+                    frame.emittedSectionNum(), frame.walkedSectionNum(), frame.frustumTestNum()
+                ));
+            }
+            sb.append(String.format(
+                Locale.ROOT,
+                "  total visited %d rendered %d cut %d sections %d walked %d frustum tests %d\n",
+                result.sum(FrameStats::visitedPortalNum), result.sum(FrameStats::renderedPortalNum),
+                result.sum(FrameStats::cutPortalNum), result.sum(FrameStats::emittedSectionNum),
+                result.sum(FrameStats::walkedSectionNum), result.sum(FrameStats::frustumTestNum)
+            ));
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * The average and max time of each stage per frame, in microseconds.
+     */
+    public static String formatTimingReport(List<SceneResult> results) {
+        StringBuilder sb = new StringBuilder();
+        for (SceneResult result : results) {
+            List<FrameStats> frames = result.frames();
+            long[] select = frames.stream().mapToLong(FrameStats::selectNanos).toArray();
+            long[] plan = frames.stream().mapToLong(FrameStats::planNanos).toArray();
+            long[] sections = frames.stream().mapToLong(FrameStats::sectionNanos).toArray();
+            sb.append(String.format(
+                Locale.ROOT,
+                "scene %s select avg %.1f max %.1f plan avg %.1f max %.1f sections avg %.1f max %.1f us\n",
+                result.scene().name(),
+                average(select) / 1000, max(select) / 1000.0,
+                average(plan) / 1000, max(plan) / 1000.0,
+                average(sections) / 1000, max(sections) / 1000.0
+            ));
+        }
+        return sb.toString();
+    }
+    
+    private static double average(long[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return (double) sum / values.length;
+    }
+    
+    private static long max(long[] values) {
+        long result = 0;
+        for (long value : values) {
+            result = Math.max(result, value);
+        }
+        return result;
+    }
+}
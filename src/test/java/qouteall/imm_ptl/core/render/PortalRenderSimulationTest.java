@@ -0,0 +1,134 @@
+package qouteall.imm_ptl.core.render;
+
+import com.mojang.logging.LogUtils;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The benchmark writes the reports to build/portal_render_simulation
+ * (or the dir of the imm_ptl.renderSimulationReportDir property).
+ * Diff report.txt of two revisions to see how the rendering decisions change.
+ */
+public class PortalRenderSimulationTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final SyntheticSectionGrid WORLD = PortalRenderSimulation.createWorld();
+    
+    private static List<PortalRenderSimulation.SceneResult> runAll(PortalRenderSimulation.Settings settings) {
+        PortalRenderSimulation simulation = new PortalRenderSimulation();
+        List<PortalRenderSimulation.SceneResult> results = new ArrayList<>();
+        for (PortalRenderSimulation.Scene scene : PortalRenderSimulation.createScenes(WORLD)) {
+            results.add(simulation.run(scene, settings));
+        }
+        return results;
+    }
+    
+    private static PortalRenderSimulation.SceneResult getResult(
+        List<PortalRenderSimulation.SceneResult> results, String sceneName
+    ) {
+        return results.stream()
+            .filter(r -> r.scene().name().equals(sceneName))
+            .findFirst().orElseThrow();
+    }
+    
+    private static int getMaxLayer(PortalRenderSimulation.SceneResult result) {
+        return result.frames().stream().mapToInt(PortalRenderSimulation.FrameStats::maxLayer).max().orElse(0);
+    }
+    
+    private static Path getReportDir() {
+        return Path.of(System.getProperty("imm_ptl.renderSimulationReportDir", "build/portal_render_simulation"));
+    }
+    
+    @Test
+    public void testReportIsStable() {
+        PortalRenderSimulation.Settings settings = PortalRenderSimulation.Settings.DEFAULT;
+        List<PortalRenderSimulation.SceneResult> results = runAll(settings);
+        String report = PortalRenderSimulation.formatReport(results);
+        
+        Validate.isTrue(report.equals(PortalRenderSimulation.formatReport(runAll(settings))));
+        
+        for (PortalRenderSimulation.SceneResult result : results) {
+            for (PortalRenderSimulation.FrameStats frame : result.frames()) {
+                Validate.isTrue(frame.usedCost() <= settings.budget() + 1e-9);
+                Validate.isTrue(frame.maxLayer() <= settings.maxPortalLayer());
+                Validate.isTrue(frame.emittedSectionNum() <= frame.walkedSectionNum());
+            }
+        }
+        
+        // the reflections and the portals in portals recurse
+        Validate.isTrue(getMaxLayer(getResult(results, "mirror_room")) >= 3);
+        Validate.isTrue(getMaxLayer(getResult(results, "nested_portals")) >= 3);
+        Validate.isTrue(getMaxLayer(getResult(results, "global_portal")) >= 1);
+    }
+    
+    @Test
+    public void testBudgetCutsNestedPortals() {
+        // a nested portal costs more than 1, so none of them fits
+        PortalRenderSimulation.Settings settings = PortalRenderSimulation.Settings.DEFAULT.withBudget(1);
+        PortalRenderSimulation.SceneResult result = new PortalRenderSimulation().run(
+            PortalRenderSimulation.createMirrorRoom(WORLD), settings
+        );
+        
+        for (PortalRenderSimulation.FrameStats frame : result.frames()) {
+            // the outer world portals are still rendered
+            Validate.isTrue(frame.maxLayer() <= 1);
+            Validate.isTrue(frame.usedCost() == 0);
+        }
+        Validate.isTrue(getMaxLayer(result) == 1);
+        Validate.isTrue(result.sum(PortalRenderSimulation.FrameStats::cutPortalNum) > 0);
+    }
+    
+    @Test
+    public void testScreenSizedRenderDistanceEmitsLess() {
+        List<PortalRenderSimulation.SceneResult> screenSized = runAll(
+            PortalRenderSimulation.Settings.DEFAULT.withScreenSizedRenderDistance(true)
+        );
+        List<PortalRenderSimulation.SceneResult> notScreenSized = runAll(
+            PortalRenderSimulation.Settings.DEFAULT.withScreenSizedRenderDistance(false)
+        );
+        
+        int screenSizedNum = 0;
+        int notScreenSizedNum = 0;
+        for (int i = 0; i < screenSized.size(); i++) {
+            int a = screenSized.get(i).sum(PortalRenderSimulation.FrameStats::emittedSectionNum);
+            int b = notScreenSized.get(i).sum(PortalRenderSimulation.FrameStats::emittedSectionNum);
+            // the planning does not depend on the render distance, so the same portals are rendered
+            Validate.isTrue(a <= b, "scene %s", screenSized.get(i).scene().name());
+            screenSizedNum += a;
+            notScreenSizedNum += b;
+        }
+        
+        LOGGER.info(
+            "Emitted sections with screen sized render distance {}, without {}", screenSizedNum, notScreenSizedNum
+        );
+    }
+    
+    /**
+     * Run it with {@code gradlew benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmark() throws IOException {
+        List<PortalRenderSimulation.SceneResult> results = null;
+        for (int round = 0; round < 5; round++) {
+            results = runAll(PortalRenderSimulation.Settings.DEFAULT);
+        }
+        
+        String timingReport = PortalRenderSimulation.formatTimingReport(results);
+        LOGGER.info("Portal render simulation timing:\n{}", timingReport);
+        
+        Path dir = getReportDir();
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("report.txt"), PortalRenderSimulation.formatReport(results));
+        Files.writeString(dir.resolve("timing.txt"), timingReport);
+        LOGGER.info("Wrote portal render simulation reports to {}", dir.toAbsolutePath());
+    }
+}
@@ -0,0 +1,142 @@
+package qouteall.imm_ptl.core.render;
+
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+public class SectionTraversalTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static ObjectArrayList<SyntheticSectionGrid.Section> traverse(
+        SyntheticSectionGrid grid, Vec3 cameraPos, int viewDistance, boolean occlusionCulling
+    ) {
+        int cx = (int) Math.floor(cameraPos.x / SyntheticSectionGrid.N);
+        int cy = (int) Math.floor(cameraPos.y / SyntheticSectionGrid.N);
+        int cz = (int) Math.floor(cameraPos.z / SyntheticSectionGrid.N);
+        
+        ObjectArrayList<SyntheticSectionGrid.Section> result = new ObjectArrayList<>();
+        SectionTraversal<SyntheticSectionGrid.Section> traversal = new SectionTraversal<>();
+        traversal.begin(grid, cx, cy, cz, viewDistance, occlusionCulling, result);
+        traversal.addStart(cx, cy, cz, true);
+        traversal.run();
+        traversal.end();
+        return result;
+    }
+    
+    private static void checkNoVisibleSectionDropped(
+        SyntheticSectionGrid grid, Vec3 cameraPos, Predicate<Vec3> targetFilter, int[] counts
+    ) {
+        ObjectArrayList<SyntheticSectionGrid.Section> culled = traverse(grid, cameraPos, 1000, true);
+        ObjectArrayList<SyntheticSectionGrid.Section> notCulled = traverse(grid, cameraPos, 1000, false);
+        
+        Set<SyntheticSectionGrid.Section> culledSet = new HashSet<>(culled);
+        Validate.isTrue(culledSet.size() == culled.size(), "duplicated section in result");
+        Validate.isTrue(new HashSet<>(notCulled).containsAll(culledSet));
+        
+        Set<SyntheticSectionGrid.Section> visible = grid.getRayVisibleSections(cameraPos, targetFilter);
+        for (SyntheticSectionGrid.Section section : visible) {
+            Validate.isTrue(
+                culledSet.contains(section),
+                "visible section %s dropped, camera %s", section, cameraPos
+            );
+        }
+        
+        counts[0] += visible.size();
+        counts[1] += culled.size();
+        counts[2] += notCulled.size();
+    }
+    
+    @Test
+    public void testNoVisibleSectionDroppedInCaves() {
+        Random random = new Random(1);
+        int[] counts = new int[3];
+        
+        for (int i = 0; i < 30; i++) {
+            SyntheticSectionGrid grid = SyntheticSectionGrid.caves(random, 12, 8, 12, 12);
+            Vec3 cameraPos = grid.getRandomAirPos(random);
+            Validate.notNull(cameraPos);
+            
+            checkNoVisibleSectionDropped(grid, cameraPos, p -> true, counts);
+        }
+        
+        LOGGER.info("Caves: visible {} traversed with culling {} without culling {}", counts[0], counts[1], counts[2]);
+        Validate.isTrue(counts[1] < counts[2]);
+    }
+    
+    @Test
+    public void testNoVisibleSectionDroppedWithRandomBlocks() {
+        Random random = new Random(2);
+        int[] counts = new int[3];
+        
+        for (int i = 0; i < 30; i++) {
+            SyntheticSectionGrid grid = SyntheticSectionGrid.randomBlocks(
+                random, 10, 6, 10, 0.3 + random.nextDouble() * 0.4
+            );
+            Vec3 cameraPos = grid.getRandomAirPos(random);
+            Validate.notNull(cameraPos);
+            
+            checkNoVisibleSectionDropped(grid, cameraPos, p -> true, counts);
+        }
+        
+        LOGGER.info("Random blocks: visible {} traversed with culling {} without culling {}", counts[0], counts[1], counts[2]);
+    }
+    
+    @Test
+    public void testNoVisibleSectionDroppedWithFrustum() {
+        Random random = new Random(3);
+        int[] counts = new int[3];
+        
+        for (int i = 0; i < 30; i++) {
+            SyntheticSectionGrid grid = SyntheticSectionGrid.caves(random, 12, 8, 12, 12);
+            Vec3 cameraPos = grid.getRandomAirPos(random);
+            Validate.notNull(cameraPos);
+            
+            // a half space frustum, looking towards +X
+            double cameraX = cameraPos.x;
+            grid.frustum = s -> (s.cx + 1) * SyntheticSectionGrid.N >= cameraX;
+            
+            checkNoVisibleSectionDropped(grid, cameraPos, p -> p.x >= cameraX, counts);
+        }
+        
+        LOGGER.info("With frustum: visible {} traversed with culling {} without culling {}", counts[0], counts[1], counts[2]);
+    }
+    
+    @Test
+    public void testOpenSpaceWalksAllSectionsInViewDistance() {
+        SyntheticSectionGrid grid = new SyntheticSectionGrid(9, 9, 9, false);
+        grid.updateConnectivity();
+        Vec3 cameraPos = new Vec3(4.5, 4.5, 4.5).scale(SyntheticSectionGrid.N);
+        
+        Validate.isTrue(traverse(grid, cameraPos, 1000, false).size() == grid.getSectionNum());
+        Validate.isTrue(traverse(grid, cameraPos, 1000, true).size() == grid.getSectionNum());
+        Validate.isTrue(traverse(grid, cameraPos, 2, true).size() == 5 * 5 * 5);
+    }
+    
+    @Test
+    public void testClosedRoomIsNotLeft() {
+        // a solid grid with a closed room in the middle
+        SyntheticSectionGrid grid = new SyntheticSectionGrid(7, 7, 7, true);
+        int n = SyntheticSectionGrid.N;
+        for (int x = 3 * n + 1; x < 4 * n - 1; x++) {
+            for (int y = 3 * n + 1; y < 4 * n - 1; y++) {
+                for (int z = 3 * n + 1; z < 4 * n - 1; z++) {
+                    grid.setSolid(x, y, z, false);
+                }
+            }
+        }
+        grid.updateConnectivity();
+        Vec3 cameraPos = new Vec3(3.5, 3.5, 3.5).scale(n);
+        
+        // the start section can be left from any face, the solid neighbors block further walking
+        Validate.isTrue(traverse(grid, cameraPos, 1000, true).size() == 7);
+        Validate.isTrue(traverse(grid, cameraPos, 1000, false).size() == grid.getSectionNum());
+    }
+}
@@ -0,0 +1,190 @@
+package qouteall.imm_ptl.core.render;
+
+import com.mojang.blaze3d.shaders.Program;
+import com.mojang.logging.LogUtils;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transforms the sample shaders in the test resources "shader_transformation" directory
+ * with the real shader_transformation.yaml, and compares with the expected outputs.
+ * After intentionally changing the transformation, run with the system property
+ * "imm_ptl.updateShaderGoldens" to rewrite the expected outputs in the source tree, then review the diff.
+ */
+public class ShaderCodeTransformationTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final String GOLDEN_DIR = "shader_transformation";
+    
+    private record Case(Program.Type type, String shaderId, String inputFile) {}
+    
+    private static String readResource(String path) throws IOException {
+        try (InputStream stream = ShaderCodeTransformationTest.class.getResourceAsStream(path)) {
+            Validate.notNull(stream, "missing resource %s", path);
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+    
+    private static Path getGoldenDir() throws URISyntaxException {
+        URL dirUrl = ShaderCodeTransformationTest.class.getResource("/" + GOLDEN_DIR);
+        Validate.notNull(dirUrl);
+        return Path.of(dirUrl.toURI());
+    }
+    
+    private static List<Case> readCases(Path dir) throws IOException {
+        List<Case> cases = new ArrayList<>();
+        for (String line : Files.readAllLines(dir.resolve("cases.txt"))) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.trim().split(" +");
+            Validate.isTrue(parts.length == 3, "wrong case line %s", line);
+            Program.Type type = switch (parts[0]) {
+                case "vs" -> Program.Type.VERTEX;
+                case "fs" -> Program.Type.FRAGMENT;
+                default -> throw new IllegalArgumentException(line);
+            };
+            cases.add(new Case(type, parts[1], parts[2]));
+        }
+        return cases;
+    }
+    
+    @BeforeEach
+    public void loadConfigs() throws IOException {
+        ShaderCodeTransformation.loadConfigs(
+            readResource("/assets/immersive_portals/shaders/shader_transformation.yaml")
+        );
+    }
+    
+    @Test
+    public void testGoldenFiles() throws IOException, URISyntaxException {
+        Path dir = getGoldenDir();
+        List<Case> cases = readCases(dir);
+        Validate.isTrue(!cases.isEmpty());
+        
+        boolean update = System.getProperty("imm_ptl.updateShaderGoldens") != null;
+        
+        for (Case c : cases) {
+            String input = Files.readString(dir.resolve(c.inputFile()));
+            String output = ShaderCodeTransformation.transform(c.type(), c.shaderId(), input);
+            String expectedFile = c.inputFile() + ".expected";
+            
+            if (update) {
+                Path sourceDir = Path.of("src", "test", "resources", GOLDEN_DIR);
+                Files.writeString(sourceDir.resolve(expectedFile), output);
+                LOGGER.info("Updated {}", expectedFile);
+                continue;
+            }
+            
+            String expected = Files.readString(dir.resolve(expectedFile));
+            Validate.isTrue(
+                output.equals(expected),
+                "%s %s differs from %s:\n%s", c.type(), c.shaderId(), expectedFile, output
+            );
+        }
+    }
+    
+    @Test
+    public void testClippingAdded() throws IOException, URISyntaxException {
+        Path dir = getGoldenDir();
+        for (Case c : readCases(dir)) {
+            String input = Files.readString(dir.resolve(c.inputFile()));
+            String output = ShaderCodeTransformation.transform(c.type(), c.shaderId(), input);
+            
+            boolean shouldAddClipping = c.type() == Program.Type.VERTEX &&
+                ShaderCodeTransformation.shouldAddUniform(c.shaderId());
+            if (shouldAddClipping) {
+                // exactly one clipping uniform and one clip distance assignment
+                Validate.isTrue(
+                    output.split("uniform vec4 imm_ptl_ClippingEquation;", -1).length == 2, "%s", c
+                );
+                Validate.isTrue(output.split("gl_ClipDistance\\[0]", -1).length == 2, "%s", c);
+            }
+            else {
+                Validate.isTrue(output.equals(input), "%s", c);
+            }
+        }
+    }
+    
+    @Test
+    public void testCache() throws IOException, URISyntaxException {
+        Path dir = getGoldenDir();
+        Case c = readCases(dir).get(0);
+        String input = Files.readString(dir.resolve(c.inputFile()));
+        
+        long hit = ShaderCodeTransformation.getCacheHitCount();
+        long miss = ShaderCodeTransformation.getCacheMissCount();
+        
+        String first = ShaderCodeTransformation.transform(c.type(), c.shaderId(), input);
+        Validate.isTrue(ShaderCodeTransformation.getCacheMissCount() == miss + 1);
+        
+        // a new String object with the same content hits the cache
+        String second = ShaderCodeTransformation.transform(c.type(), c.shaderId(), new String(input));
+        Validate.isTrue(ShaderCodeTransformation.getCacheHitCount() == hit + 1);
+        Validate.isTrue(second.equals(first));
+        
+        // a different source, shader id or type does not hit
+        ShaderCodeTransformation.transform(c.type(), c.shaderId(), input + "\n");
+        ShaderCodeTransformation.transform(c.type(), "rendertype_cutout", input);
+        String fragmentResult = ShaderCodeTransformation.transform(Program.Type.FRAGMENT, c.shaderId(), input);
+        Validate.isTrue(fragmentResult.equals(input));
+        Validate.isTrue(ShaderCodeTransformation.getCacheHitCount() == hit + 1);
+        Validate.isTrue(ShaderCodeTransformation.getCacheMissCount() == miss + 4);
+        
+        // reloading the configs drops the cache
+        loadConfigs();
+        ShaderCodeTransformation.transform(c.type(), c.shaderId(), input);
+        Validate.isTrue(ShaderCodeTransformation.getCacheMissCount() == miss + 5);
+        
+        LOGGER.info(ShaderCodeTransformation.getGlobalStatString());
+    }
+    
+    @Test
+    @Tag("benchmark")
+    public void benchmark() throws IOException, URISyntaxException {
+        Path dir = getGoldenDir();
+        List<Case> cases = readCases(dir);
+        List<String> inputs = new ArrayList<>();
+        for (Case c : cases) {
+            inputs.add(Files.readString(dir.resolve(c.inputFile())));
+        }
+        
+        int reloadNum = 200;
+        
+        // every resource reload transforms all shaders again
+        long start = System.nanoTime();
+        for (int reload = 0; reload < reloadNum; reload++) {
+            loadConfigs();
+            for (int i = 0; i < cases.size(); i++) {
+                ShaderCodeTransformation.transform(cases.get(i).type(), cases.get(i).shaderId(), inputs.get(i));
+            }
+        }
+        long uncachedTime = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        for (int reload = 0; reload < reloadNum; reload++) {
+            for (int i = 0; i < cases.size(); i++) {
+                ShaderCodeTransformation.transform(cases.get(i).type(), cases.get(i).shaderId(), inputs.get(i));
+            }
+        }
+        long cachedTime = System.nanoTime() - start;
+        
+        LOGGER.info(
+            "{} reloads of {} shaders: with config reloading {} us, cached {} us",
+            reloadNum, cases.size(), uncachedTime / 1000, cachedTime / 1000
+        );
+    }
+}
@@ -0,0 +1,334 @@
+package qouteall.imm_ptl.core.render;
+
+import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A grid of small sections made of solid and air voxels, for testing {@link SectionTraversal}
+ * and {@link VisibleSectionDiscovery} without the game.
+ * The face connectivity of each section is computed by flood filling the air voxels,
+ * in the same way as vanilla's VisGraph.
+ * {@link VisibleSectionDiscovery} uses 16-block sections, so for it a voxel is {@link #BLOCKS_PER_VOXEL} blocks.
+ */
+public class SyntheticSectionGrid implements
+    SectionGrid<SyntheticSectionGrid.Section>, VisibleSectionDiscovery.SectionSource<SyntheticSectionGrid.Section> {
+    // the voxel number along one side of a section
+    public static final int N = 4;
+    
+    public static final int BLOCKS_PER_VOXEL = VisibleSectionDiscovery.SECTION_SIZE / N;
+    
+    private static final Direction[] DIRECTIONS = Direction.values();
+    
+    public static final class Section {
+        public final int cx;
+        public final int cy;
+        public final int cz;
+        // bit (from * 6 + to)
+        private long connectivity;
+        
+        private Section(int cx, int cy, int cz) {
+            this.cx = cx;
+            this.cy = cy;
+            this.cz = cz;
+        }
+        
+        @Override
+        public String toString() {
+            return "Section(%d %d %d)".formatted(cx, cy, cz);
+        }
+    }
+    
+    public final int sizeX;
+    public final int sizeY;
+    public final int sizeZ;
+    private final boolean[] solid;
+    private final Section[] sections;
+    
+    public Predicate<Section> frustum = s -> true;
+    public Predicate<Section> clipped = s -> false;
+    
+    public SyntheticSectionGrid(int sizeX, int sizeY, int sizeZ, boolean initiallySolid) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.solid = new boolean[sizeX * N * sizeY * N * sizeZ * N];
+        if (initiallySolid) {
+            Arrays.fill(solid, true);
+        }
+        this.sections = new Section[sizeX * sizeY * sizeZ];
+        for (int cx = 0; cx < sizeX; cx++) {
+            for (int cy = 0; cy < sizeY; cy++) {
+                for (int cz = 0; cz < sizeZ; cz++) {
+                    sections[(cx * sizeY + cy) * sizeZ + cz] = new Section(cx, cy, cz);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Solid terrain with tunnels carved by random walks.
+     */
+    public static SyntheticSectionGrid caves(Random random, int sizeX, int sizeY, int sizeZ, int tunnelNum) {
+        SyntheticSectionGrid grid = new SyntheticSectionGrid(sizeX, sizeY, sizeZ, true);
+        for (int i = 0; i < tunnelNum; i++) {
+            double x = random.nextDouble() * grid.getVoxelSizeX();
+            double y = random.nextDouble() * grid.getVoxelSizeY();
+            double z = random.nextDouble() * grid.getVoxelSizeZ();
+            Vec3 direction = new Vec3(random.nextGaussian(), random.nextGaussian() * 0.3, random.nextGaussian()).normalize();
+            int length = 20 + random.nextInt(60);
+            for (int step = 0; step < length; step++) {
+                double radius = 0.8 + random.nextDouble() * 1.2;
+                grid.carveSphere(x, y, z, radius);
+                direction = direction.add(
+                    random.nextGaussian() * 0.3, random.nextGaussian() * 0.1, random.nextGaussian() * 0.3
+                ).normalize();
+                x += direction.x;
+                y += direction.y;
+                z += direction.z;
+            }
+        }
+        grid.updateConnectivity();
+        return grid;
+    }
+    
+    public static SyntheticSectionGrid randomBlocks(Random random, int sizeX, int sizeY, int sizeZ, double density) {
+        SyntheticSectionGrid grid = new SyntheticSectionGrid(sizeX, sizeY, sizeZ, false);
+        for (int i = 0; i < grid.solid.length; i++) {
+            grid.solid[i] = random.nextDouble() < density;
+        }
+        grid.updateConnectivity();
+        return grid;
+    }
+    
+    public int getVoxelSizeX() {
+        return sizeX * N;
+    }
+    
+    public int getVoxelSizeY() {
+        return sizeY * N;
+    }
+    
+    public int getVoxelSizeZ() {
+        return sizeZ * N;
+    }
+    
+    public boolean isInGrid(int x, int y, int z) {
+        return x >= 0 && y >= 0 && z >= 0 &&
+            x < getVoxelSizeX() && y < getVoxelSizeY() && z < getVoxelSizeZ();
+    }
+    
+    private int voxelIndex(int x, int y, int z) {
+        return (x * getVoxelSizeY() + y) * getVoxelSizeZ() + z;
+    }
+    
+    public boolean isSolid(int x, int y, int z) {
+        return solid[voxelIndex(x, y, z)];
+    }
+    
+    public void setSolid(int x, int y, int z, boolean value) {
+        solid[voxelIndex(x, y, z)] = value;
+    }
+    
+    private void carveSphere(double cx, double cy, double cz, double radius) {
+        int r = (int) Math.ceil(radius);
+        for (int x = (int) cx - r; x <= (int) cx + r; x++) {
+            for (int y = (int) cy - r; y <= (int) cy + r; y++) {
+                for (int z = (int) cz - r; z <= (int) cz + r; z++) {
+                    if (!isInGrid(x, y, z)) {
+                        continue;
+                    }
+                    double dx = x + 0.5 - cx;
+                    double dy = y + 0.5 - cy;
+                    double dz = z + 0.5 - cz;
+                    if (dx * dx + dy * dy + dz * dz <= radius * radius) {
+                        setSolid(x, y, z, false);
+                    }
+                }
+            }
+        }
+    }
+    
+    public void updateConnectivity() {
+        for (Section section : sections) {
+            section.connectivity = computeConnectivity(section);
+        }
+    }
+    
+    private long computeConnectivity(Section section) {
+        boolean[] visited = new boolean[N * N * N];
+        long result = 0;
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        
+        for (int start = 0; start < N * N * N; start++) {
+            int sx = start / (N * N);
+            int sy = (start / N) % N;
+            int sz = start % N;
+            if (visited[start] || isSolid(section.cx * N + sx, section.cy * N + sy, section.cz * N + sz)) {
+                continue;
+            }
+            
+            // flood fill one air region and collect the faces it touches
+            int faces = 0;
+            visited[start] = true;
+            queue.add(new int[]{sx, sy, sz});
+            while (!queue.isEmpty()) {
+                int[] p = queue.poll();
+                for (Direction direction : DIRECTIONS) {
+                    int nx = p[0] + direction.getStepX();
+                    int ny = p[1] + direction.getStepY();
+                    int nz = p[2] + direction.getStepZ();
+                    if (nx < 0 || ny < 0 || nz < 0 || nx >= N || ny >= N || nz >= N) {
+                        faces |= 1 << direction.ordinal();
+                        continue;
+                    }
+                    int index = (nx * N + ny) * N + nz;
+                    if (visited[index] || isSolid(section.cx * N + nx, section.cy * N + ny, section.cz * N + nz)) {
+                        continue;
+                    }
+                    visited[index] = true;
+                    queue.add(new int[]{nx, ny, nz});
+                }
+            }
+            
+            for (int from = 0; from < 6; from++) {
+                for (int to = 0; to < 6; to++) {
+                    if ((faces & (1 << from)) != 0 && (faces & (1 << to)) != 0) {
+                        result |= 1L << (from * 6 + to);
+                    }
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public @Nullable Section getSection(int cx, int cy, int cz) {
+        if (cx < 0 || cy < 0 || cz < 0 || cx >= sizeX || cy >= sizeY || cz >= sizeZ) {
+            return null;
+        }
+        return sections[(cx * sizeY + cy) * sizeZ + cz];
+    }
+    
+    @Override
+    public long getSectionPos(Section section) {
+        return SectionPos.asLong(section.cx, section.cy, section.cz);
+    }
+    
+    @Override
+    public boolean isInFrustum(Section section) {
+        return frustum.test(section);
+    }
+    
+    @Override
+    public boolean isFullyClipped(Section section) {
+        return clipped.test(section);
+    }
+    
+    @Override
+    public boolean canSeeThrough(Section section, Direction from, Direction to) {
+        return (section.connectivity & (1L << (from.ordinal() * 6 + to.ordinal()))) != 0;
+    }
+    
+    public int getSectionNum() {
+        return sections.length;
+    }
+    
+    /**
+     * A random position in an air voxel, in voxel coordinates.
+     */
+    public @Nullable Vec3 getRandomAirPos(Random random) {
+        for (int attempt = 0; attempt < 10000; attempt++) {
+            int x = random.nextInt(getVoxelSizeX());
+            int y = random.nextInt(getVoxelSizeY());
+            int z = random.nextInt(getVoxelSizeZ());
+            if (!isSolid(x, y, z)) {
+                return new Vec3(
+                    x + 0.1 + random.nextDouble() * 0.8,
+                    y + 0.1 + random.nextDouble() * 0.8,
+                    z + 0.1 + random.nextDouble() * 0.8
+                );
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The sections that contain an air voxel whose center can be seen from the camera
+     * by a straight line that only goes through air voxels.
+     */
+    public Set<Section> getRayVisibleSections(Vec3 cameraPos, Predicate<Vec3> targetFilter) {
+        Set<Section> result = new HashSet<>();
+        for (int x = 0; x < getVoxelSizeX(); x++) {
+            for (int y = 0; y < getVoxelSizeY(); y++) {
+                for (int z = 0; z < getVoxelSizeZ(); z++) {
+                    if (isSolid(x, y, z)) {
+                        continue;
+                    }
+                    Section section = getSection(x / N, y / N, z / N);
+                    if (result.contains(section)) {
+                        continue;
+                    }
+                    Vec3 target = new Vec3(x + 0.5, y + 0.5, z + 0.5);
+                    if (targetFilter.test(target) && isRayClear(cameraPos, target)) {
+                        result.add(section);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+    
+    // voxel traversal of Amanatides and Woo
+    private boolean isRayClear(Vec3 from, Vec3 to) {
+        int x = (int) Math.floor(from.x);
+        int y = (int) Math.floor(from.y);
+        int z = (int) Math.floor(from.z);
+        int endX = (int) Math.floor(to.x);
+        int endY = (int) Math.floor(to.y);
+        int endZ = (int) Math.floor(to.z);
+        
+        Vec3 delta = to.subtract(from);
+        int stepX = delta.x > 0 ? 1 : -1;
+        int stepY = delta.y > 0 ? 1 : -1;
+        int stepZ = delta.z > 0 ? 1 : -1;
+        double tDeltaX = delta.x == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / delta.x);
+        double tDeltaY = delta.y == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / delta.y);
+        double tDeltaZ = delta.z == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / delta.z);
+        double tMaxX = delta.x == 0 ? Double.POSITIVE_INFINITY :
+            (stepX > 0 ? (x + 1 - from.x) : (from.x - x)) * tDeltaX;
+        double tMaxY = delta.y == 0 ? Double.POSITIVE_INFINITY :
+            (stepY > 0 ? (y + 1 - from.y) : (from.y - y)) * tDeltaY;
+        double tMaxZ = delta.z == 0 ? Double.POSITIVE_INFINITY :
+            (stepZ > 0 ? (z + 1 - from.z) : (from.z - z)) * tDeltaZ;
+        
+        while (x != endX || y != endY || z != endZ) {
+            if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+                x += stepX;
+                tMaxX += tDeltaX;
+            }
+            else if (tMaxY < tMaxZ) {
+                y += stepY;
+                tMaxY += tDeltaY;
+            }
+            else {
+                z += stepZ;
+                tMaxZ += tDeltaZ;
+            }
+            
+            if (!isInGrid(x, y, z) || isSolid(x, y, z)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
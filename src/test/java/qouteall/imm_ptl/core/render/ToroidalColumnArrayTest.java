@@ -0,0 +1,197 @@
+package qouteall.imm_ptl.core.render;
+
+import com.mojang.logging.LogUtils;
+import com.sun.management.ThreadMXBean;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.world.level.ChunkPos;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.LongFunction;
+
+public class ToroidalColumnArrayTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private record Section(int cx, int offsetY, int cz) {}
+    
+    private static LongFunction<Section[]> columnFactory(int sizeY) {
+        return chunkPos -> {
+            Section[] column = new Section[sizeY];
+            for (int offsetY = 0; offsetY < sizeY; offsetY++) {
+                column[offsetY] = new Section(ChunkPos.getX(chunkPos), offsetY, ChunkPos.getZ(chunkPos));
+            }
+            return column;
+        };
+    }
+    
+    /**
+     * The previous ImmPtlViewArea logic that creates a new array for each camera chunk.
+     */
+    private static Section[] createPreset(
+        int sectionX, int sectionZ, int sizeX, int sizeY, int sizeZ,
+        LongFunction<Section[]> columnProvider
+    ) {
+        Section[] result = new Section[sizeX * sizeY * sizeZ];
+        
+        for (int cx = 0; cx < sizeX; ++cx) {
+            int xBlockSize = sizeX * 16;
+            int xStart = (sectionX << 4) - xBlockSize / 2;
+            int px = xStart + Math.floorMod(cx * 16 - xStart, xBlockSize);
+            
+            for (int cz = 0; cz < sizeZ; ++cz) {
+                int zBlockSize = sizeZ * 16;
+                int zStart = (sectionZ << 4) - zBlockSize / 2;
+                int pz = zStart + Math.floorMod(cz * 16 - zStart, zBlockSize);
+                
+                Section[] column = columnProvider.apply(ChunkPos.asLong(px >> 4, pz >> 4));
+                
+                for (int offsetCy = 0; offsetCy < sizeY; ++offsetCy) {
+                    result[(cz * sizeY + offsetCy) * sizeX + cx] = column[offsetCy];
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    private static LongOpenHashSet getCoveredColumns(ToroidalColumnArray<Section> array) {
+        LongOpenHashSet result = new LongOpenHashSet();
+        array.forEachCoveredColumn(result::add);
+        return result;
+    }
+    
+    @Test
+    public void testSameAsPresetsOnRandomPaths() {
+        Random random = new Random(1);
+        
+        for (int pathIndex = 0; pathIndex < 50; pathIndex++) {
+            int sizeX = 1 + random.nextInt(20);
+            int sizeY = 1 + random.nextInt(4);
+            int sizeZ = 1 + random.nextInt(20);
+            LongFunction<Section[]> columnFactory = columnFactory(sizeY);
+            
+            ToroidalColumnArray<Section> array =
+                new ToroidalColumnArray<>(new Section[sizeX * sizeY * sizeZ], sizeX, sizeY, sizeZ);
+            
+            int centerX = random.nextInt(200) - 100;
+            int centerZ = random.nextInt(200) - 100;
+            for (int step = 0; step < 200; step++) {
+                switch (random.nextInt(4)) {
+                    case 0 -> {
+                        // walking
+                        centerX += random.nextInt(3) - 1;
+                        centerZ += random.nextInt(3) - 1;
+                    }
+                    case 1 -> {
+                        centerX += random.nextInt(sizeX * 2 + 1) - sizeX;
+                        centerZ += random.nextInt(sizeZ * 2 + 1) - sizeZ;
+                    }
+                    case 2 -> {
+                        // teleporting
+                        centerX += random.nextInt(2000) - 1000;
+                        centerZ += random.nextInt(2000) - 1000;
+                    }
+                    default -> {
+                        // staying
+                    }
+                }
+                
+                LongOpenHashSet oldCovered = getCoveredColumns(array);
+                LongOpenHashSet provided = new LongOpenHashSet();
+                LongOpenHashSet left = new LongOpenHashSet();
+                array.moveTo(
+                    centerX, centerZ,
+                    chunkPos -> {
+                        Validate.isTrue(provided.add(chunkPos));
+                        return columnFactory.apply(chunkPos);
+                    },
+                    chunkPos -> Validate.isTrue(left.add(chunkPos))
+                );
+                LongOpenHashSet newCovered = getCoveredColumns(array);
+                
+                // only the entering columns are provided, and all leaving columns are reported
+                LongOpenHashSet entering = new LongOpenHashSet(newCovered);
+                entering.removeAll(oldCovered);
+                LongOpenHashSet leaving = new LongOpenHashSet(oldCovered);
+                leaving.removeAll(newCovered);
+                Validate.isTrue(provided.equals(entering));
+                Validate.isTrue(left.equals(leaving));
+                
+                Section[] expected = createPreset(centerX, centerZ, sizeX, sizeY, sizeZ, columnFactory);
+                for (int i = 0; i < expected.length; i++) {
+                    Validate.isTrue(
+                        expected[i].equals(array.getData()[i]),
+                        "different at %d, expected %s actual %s", i, expected[i], array.getData()[i]
+                    );
+                }
+                
+                int minX = ToroidalColumnArray.getMinCovered(centerX, sizeX);
+                int minZ = ToroidalColumnArray.getMinCovered(centerZ, sizeZ);
+                for (int cx = minX; cx < minX + sizeX; cx++) {
+                    for (int cz = minZ; cz < minZ + sizeZ; cz++) {
+                        for (int offsetY = 0; offsetY < sizeY; offsetY++) {
+                            Validate.isTrue(array.get(cx, offsetY, cz).equals(new Section(cx, offsetY, cz)));
+                        }
+                    }
+                }
+                Validate.isTrue(array.get(centerX, -1, centerZ) == null);
+                Validate.isTrue(array.get(centerX, sizeY, centerZ) == null);
+            }
+        }
+    }
+    
+    @Test
+    public void allocationBenchmark() {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        
+        // render distance 32, walking in a straight line
+        int sizeX = 65;
+        int sizeY = 24;
+        int sizeZ = 65;
+        int stepNum = 1000;
+        // the columns are managed outside, the same for both
+        Section[] sharedColumn = columnFactory(sizeY).apply(0);
+        LongFunction<Section[]> columnProvider = chunkPos -> sharedColumn;
+        
+        for (int round = 0; round < 3; round++) {
+            // presets are kept for some time, so the arrays are not garbage collected immediately
+            Long2ObjectOpenHashMap<Section[]> presets = new Long2ObjectOpenHashMap<>();
+            long presetStartBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+            long presetStartTime = System.nanoTime();
+            for (int step = 0; step < stepNum; step++) {
+                int centerX = step;
+                presets.computeIfAbsent(
+                    ChunkPos.asLong(centerX, 0),
+                    k -> createPreset(centerX, 0, sizeX, sizeY, sizeZ, columnProvider)
+                );
+                if (presets.size() > 100) {
+                    presets.clear();
+                }
+            }
+            long presetTime = System.nanoTime() - presetStartTime;
+            long presetBytes = threadMXBean.getThreadAllocatedBytes(threadId) - presetStartBytes;
+            
+            ToroidalColumnArray<Section> array =
+                new ToroidalColumnArray<>(new Section[sizeX * sizeY * sizeZ], sizeX, sizeY, sizeZ);
+            long arrayStartBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+            long arrayStartTime = System.nanoTime();
+            for (int step = 0; step < stepNum; step++) {
+                array.moveTo(step, 0, columnProvider, chunkPos -> {});
+            }
+            long arrayTime = System.nanoTime() - arrayStartTime;
+            long arrayBytes = threadMXBean.getThreadAllocatedBytes(threadId) - arrayStartBytes;
+            
+            LOGGER.info(
+                "{} camera chunks: presets allocated {} KB in {} us, toroidal array allocated {} KB in {} us",
+                stepNum, presetBytes / 1024, presetTime / 1000, arrayBytes / 1024, arrayTime / 1000
+            );
+            
+            Validate.isTrue(arrayBytes * 100 < presetBytes);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.core.Direction;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import qouteall.imm_ptl.core.portal.PortalState;
+import qouteall.imm_ptl.core.portal.animation.UnilateralPortalState;
+import qouteall.imm_ptl.core.portal.shape.RectangularPortalShape;
+import qouteall.q_misc_util.my_util.DQuaternion;
+import qouteall.q_misc_util.my_util.RayTraceResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link ContinuousPortalCrossing#findCrossing} with random fast movements near a portal
+ * against a reference that moves the entity box in many small steps,
+ * and checks that the entities that cross in one tick are found by the near search or the swept box search.
+ */
+public class ContinuousPortalCrossingTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final int REFERENCE_STEPS = 2048;
+    
+    private static final double TOLERANCE = 0.002;
+    
+    private record Sample(
+        PortalState state, AABB portalBounds,
+        AABB startBox, Vec3 fromEyePos, Vec3 toEyePos
+    ) {
+        UnilateralPortalState thisSide() {
+            return state.getThisSideState();
+        }
+        
+        Vec3 motion() {
+            return toEyePos.subtract(fromEyePos);
+        }
+        
+        AABB endBox() {
+            return startBox.move(motion());
+        }
+        
+        AABB sweptBox() {
+            return ContinuousPortalCrossing.sweepBox(startBox, Vec3.ZERO, motion());
+        }
+    }
+    
+    private static Vec3 randomUnitVec(Random random) {
+        return new Vec3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize();
+    }
+    
+    /**
+     * An entity moving near a portal. Some go through the portal,
+     * some pass by the edge with the eye or the whole box outside the portal.
+     */
+    private static Sample randomSample(Random random, double minSpeed, double maxSpeed) {
+        PortalState state = new PortalState(
+            null, new Vec3(random.nextDouble() * 100, random.nextDouble() * 100, random.nextDouble() * 100),
+            null, Vec3.ZERO,
+            1, DQuaternion.identity,
+            DQuaternion.rotationByDegrees(randomUnitVec(random), random.nextDouble() * 360),
+            0.5 + random.nextDouble() * 4, 0.5 + random.nextDouble() * 4
+        );
+        AABB portalBounds = RectangularPortalShape.INSTANCE
+            .getBoundingBox(state.getThisSideState(), false, 0)
+            .inflate(TeleportationBroadPhase.BOUNDS_MARGIN);
+        
+        double speed = minSpeed + random.nextDouble() * (maxSpeed - minSpeed);
+        Vec3 localTarget = new Vec3(
+            (random.nextDouble() * 2 - 1) * (state.width / 2 + 1.5),
+            (random.nextDouble() * 2 - 1) * (state.height / 2 + 1.5),
+            0
+        );
+        Vec3 target = state.portalLocalPosToWorldPos(localTarget);
+        Vec3 direction = randomUnitVec(random);
+        // the plane crossing point is anywhere in the movement
+        double before = random.nextDouble() * speed;
+        Vec3 fromEyePos = target.subtract(direction.scale(before));
+        Vec3 toEyePos = target.add(direction.scale(speed - before));
+        
+        double halfWidth = 0.1 + random.nextDouble();
+        double height = 0.2 + random.nextDouble() * 2;
+        double eyeHeight = height * 0.85;
+        AABB startBox = new AABB(
+            fromEyePos.x - halfWidth, fromEyePos.y - eyeHeight, fromEyePos.z - halfWidth,
+            fromEyePos.x + halfWidth, fromEyePos.y - eyeHeight + height, fromEyePos.z + halfWidth
+        );
+        
+        return new Sample(state, portalBounds, startBox, fromEyePos, toEyePos);
+    }
+    
+    private enum Reference {
+        NONE, CROSSING, EDGE
+    }
+    
+    /**
+     * The eye should go from the front of the portal plane to the back,
+     * and the box should touch the portal rectangle at some time in the movement.
+     * The box is moved in small steps, and the touching is checked by clipping the rectangle by the box.
+     * The result is {@link Reference#EDGE} if it depends on the tolerance or the step length.
+     */
+    private static Reference getReference(Sample sample) {
+        PortalState state = sample.state();
+        double fromZ = state.worldPosToPortalLocalPos(sample.fromEyePos()).z;
+        double toZ = state.worldPosToPortalLocalPos(sample.toEyePos()).z;
+        if (Math.abs(fromZ) <= TOLERANCE || Math.abs(toZ) <= TOLERANCE) {
+            return Reference.EDGE;
+        }
+        if (!(fromZ > 0 && toZ < 0)) {
+            return Reference.NONE;
+        }
+        
+        List<Vec3> rectangle = List.of(
+            state.portalLocalPosToWorldPos(new Vec3(-state.width / 2, -state.height / 2, 0)),
+            state.portalLocalPosToWorldPos(new Vec3(state.width / 2, -state.height / 2, 0)),
+            state.portalLocalPosToWorldPos(new Vec3(state.width / 2, state.height / 2, 0)),
+            state.portalLocalPosToWorldPos(new Vec3(-state.width / 2, state.height / 2, 0))
+        );
+        
+        double stepLength = sample.motion().length() / REFERENCE_STEPS;
+        boolean maybeTouching = false;
+        for (int i = 0; i <= REFERENCE_STEPS; i++) {
+            AABB box = sample.startBox().move(sample.motion().scale((double) i / REFERENCE_STEPS));
+            if (!clipPolygon(rectangle, box.deflate(TOLERANCE)).isEmpty()) {
+                return Reference.CROSSING;
+            }
+            if (!clipPolygon(rectangle, box.inflate(TOLERANCE + stepLength / 2)).isEmpty()) {
+                maybeTouching = true;
+            }
+        }
+        return maybeTouching ? Reference.EDGE : Reference.NONE;
+    }
+    
+    /**
+     * Clips the convex polygon by the 6 faces of the box.
+     */
+    private static List<Vec3> clipPolygon(List<Vec3> polygon, AABB box) {
+        for (int axis = 0; axis < 3; axis++) {
+            polygon = clipPolygon(polygon, axis, box.min(getAxis(axis)), 1);
+            polygon = clipPolygon(polygon, axis, box.max(getAxis(axis)), -1);
+        }
+        return polygon;
+    }
+    
+    private static Direction.Axis getAxis(int axis) {
+        return Direction.Axis.values()[axis];
+    }
+    
+    /**
+     * Keeps the part where (coordinate - bound) * sign >= 0.
+     */
+    private static List<Vec3> clipPolygon(List<Vec3> polygon, int axis, double bound, double sign) {
+        List<Vec3> result = new ArrayList<>();
+        for (int i = 0; i < polygon.size(); i++) {
+            Vec3 curr = polygon.get(i);
+            Vec3 next = polygon.get((i + 1) % polygon.size());
+            double currDist = (getComponent(curr, axis) - bound) * sign;
+            double nextDist = (getComponent(next, axis) - bound) * sign;
+            if (currDist >= 0) {
+                result.add(curr);
+            }
+            if ((currDist >= 0) != (nextDist >= 0)) {
+                result.add(curr.lerp(next, currDist / (currDist - nextDist)));
+            }
+        }
+        return result;
+    }
+    
+    private static double getComponent(Vec3 vec, int axis) {
+        return axis == 0 ? vec.x : (axis == 1 ? vec.y : vec.z);
+    }
+    
+    private static RayTraceResult findCrossing(Sample sample) {
+        return ContinuousPortalCrossing.findCrossing(
+            RectangularPortalShape.INSTANCE, sample.thisSide(), sample.portalBounds(),
+            sample.startBox(), sample.fromEyePos(), sample.toEyePos()
+        );
+    }
+    
+    private static boolean isEyeCrossing(Sample sample) {
+        return RectangularPortalShape.INSTANCE.raytracePortalShape(
+            sample.thisSide(), sample.fromEyePos(), sample.toEyePos(), ContinuousPortalCrossing.LENIENCY
+        ) != null;
+    }
+    
+    private static void checkSameAsReference(Sample sample, Reference reference) {
+        RayTraceResult result = findCrossing(sample);
+        if (reference == Reference.CROSSING) {
+            Validate.isTrue(result != null, "missed %s", sample);
+            
+            Vec3 localHit = sample.state().worldPosToPortalLocalPos(result.hitPos());
+            Validate.isTrue(Math.abs(localHit.z) < 1e-6, "%s", localHit);
+        }
+        else {
+            Validate.isTrue(result == null, "false crossing %s", sample);
+        }
+    }
+    
+    @Test
+    public void testSameAsFineSteppedReference() {
+        Random random = new Random(1);
+        
+        int crossingNum = 0;
+        int boxOnlyNum = 0;
+        int edgeNum = 0;
+        for (int i = 0; i < 5000; i++) {
+            Sample sample = randomSample(random, 0, 10);
+            
+            Reference reference = getReference(sample);
+            if (reference == Reference.EDGE) {
+                edgeNum++;
+                continue;
+            }
+            
+            checkSameAsReference(sample, reference);
+            if (reference == Reference.CROSSING) {
+                crossingNum++;
+                if (!isEyeCrossing(sample)) {
+                    boxOnlyNum++;
+                }
+            }
+        }
+        
+        LOGGER.info("Crossings {} box only {} edge cases {}", crossingNum, boxOnlyNum, edgeNum);
+        Validate.isTrue(crossingNum > 500);
+        // the box clips the portal edge while the eye passes beside the portal
+        Validate.isTrue(boxOnlyNum > 50);
+    }
+    
+    /**
+     * The entities moving 16 to 64 blocks per tick are far from the portal at the tick start and tick end.
+     * The legacy search near the portal does not find them, the swept box search does.
+     */
+    @Test
+    public void testFastEntitiesAreFound() {
+        Random random = new Random(2);
+        
+        int crossingNum = 0;
+        int legacyMissedNum = 0;
+        for (int i = 0; i < 5000; i++) {
+            Sample sample = randomSample(random, 16, ContinuousPortalCrossing.MAX_MOTION);
+            Reference reference = getReference(sample);
+            if (reference == Reference.EDGE) {
+                continue;
+            }
+            checkSameAsReference(sample, reference);
+            if (reference != Reference.CROSSING) {
+                continue;
+            }
+            crossingNum++;
+            
+            Validate.isTrue(ContinuousPortalCrossing.isMotionAcceptable(sample.motion().lengthSqr()));
+            
+            // the entity is searched by its box at the end of the tick movement
+            AABB nearSearchBox = sample.portalBounds().inflate(ContinuousPortalCrossing.NEAR_SEARCH_MARGIN);
+            boolean foundNear = nearSearchBox.intersects(sample.endBox());
+            if (!foundNear || sample.motion().lengthSqr() > ContinuousPortalCrossing.LEGACY_MAX_MOTION_SQ) {
+                legacyMissedNum++;
+            }
+            
+            boolean isFast = ContinuousPortalCrossing.isFastMoving(sample.fromEyePos().subtract(sample.toEyePos()), Vec3.ZERO);
+            Validate.isTrue(isFast);
+            Validate.isTrue(
+                sample.sweptBox().inflate(TeleportationBroadPhase.BOUNDS_MARGIN).intersects(sample.portalBounds()),
+                "not found %s", sample
+            );
+        }
+        
+        LOGGER.info("Crossings {} missed by the previous limits {}", crossingNum, legacyMissedNum);
+        Validate.isTrue(crossingNum > 200);
+        Validate.isTrue(legacyMissedNum == crossingNum);
+    }
+    
+    /**
+     * The entities that are not fast moving are found by the search near the portal.
+     */
+    @Test
+    public void testSlowEntitiesAreFoundNear() {
+        Random random = new Random(5);
+        
+        int crossingNum = 0;
+        for (int i = 0; i < 5000; i++) {
+            Sample sample = randomSample(random, 0, 4);
+            if (getReference(sample) != Reference.CROSSING) {
+                continue;
+            }
+            if (ContinuousPortalCrossing.isFastMoving(sample.fromEyePos().subtract(sample.toEyePos()), Vec3.ZERO)) {
+                continue;
+            }
+            crossingNum++;
+            
+            AABB nearSearchBox = sample.portalBounds().inflate(ContinuousPortalCrossing.NEAR_SEARCH_MARGIN);
+            Validate.isTrue(nearSearchBox.intersects(sample.endBox()), "not found %s", sample);
+        }
+        
+        Validate.isTrue(crossingNum > 500);
+    }
+    
+    @Test
+    public void testSweptBoxContainsEye() {
+        Random random = new Random(3);
+        
+        for (int i = 0; i < 10000; i++) {
+            Sample sample = randomSample(random, 0, 30);
+            AABB sweptBox = sample.sweptBox();
+            for (int k = 0; k <= 10; k++) {
+                Vec3 eyePos = sample.fromEyePos().lerp(sample.toEyePos(), k / 10.0);
+                Validate.isTrue(sweptBox.inflate(1e-9).contains(eyePos));
+            }
+        }
+    }
+    
+    /**
+     * Run it with {@code gradlew benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmark() {
+        Random random = new Random(4);
+        
+        // most entities near a portal do not go through it
+        int sampleNum = 100000;
+        Sample[] samples = new Sample[sampleNum];
+        for (int i = 0; i < sampleNum; i++) {
+            Sample sample = randomSample(random, 0, 8);
+            Vec3 offset = randomUnitVec(random).scale(random.nextDouble() * 20);
+            samples[i] = new Sample(
+                sample.state(), sample.portalBounds(),
+                sample.startBox().move(offset), sample.fromEyePos().add(offset), sample.toEyePos().add(offset)
+            );
+        }
+        
+        for (int round = 0; round < 5; round++) {
+            long continuousStart = System.nanoTime();
+            int continuousNum = 0;
+            for (Sample sample : samples) {
+                if (findCrossing(sample) != null) {
+                    continuousNum++;
+                }
+            }
+            long continuousTime = System.nanoTime() - continuousStart;
+            
+            // the previous check: raytrace the eye without the box tests
+            long legacyStart = System.nanoTime();
+            int legacyNum = 0;
+            for (Sample sample : samples) {
+                if (isEyeCrossing(sample)) {
+                    legacyNum++;
+                }
+            }
+            long legacyTime = System.nanoTime() - legacyStart;
+            
+            // the box crossing includes the eye crossing
+            Validate.isTrue(continuousNum >= legacyNum);
+            
+            if (round == 4) {
+                LOGGER.info(
+                    "{} entities, swept box check {} ns/entity, eye raytrace only {} ns/entity, crossings {} {}",
+                    sampleNum, continuousTime / sampleNum, legacyTime / sampleNum, continuousNum, legacyNum
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import com.mojang.logging.LogUtils;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the {@link GlobalPortalCandidateSet} used by ServerTeleportationManager.
+ * A server level cannot be created without a running server, so the entities are plain objects
+ * that have the same collision entry layout as PortalCollisionHandler.
+ */
+public class GlobalPortalTeleportCandidateTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final int ENTITY_NUM = 50000;
+    
+    private record FakePortal(boolean isGlobal) {}
+    
+    private static class FakeEntity {
+        String dimension = "overworld";
+        boolean removed = false;
+        @Nullable List<FakePortal> collisions;
+        
+        @Nullable FakePortal getCollidingPortal() {
+            if (collisions == null || collisions.isEmpty()) {
+                return null;
+            }
+            return collisions.get(0);
+        }
+        
+        boolean hasGlobalPortalCollision() {
+            if (collisions == null) {
+                return false;
+            }
+            for (FakePortal collision : collisions) {
+                if (collision.isGlobal()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        // the same conditions as ServerTeleportationManager
+        boolean isStaleIn(String world) {
+            return removed || !dimension.equals(world) || !hasGlobalPortalCollision();
+        }
+    }
+    
+    @Test
+    public void testPrune() {
+        GlobalPortalCandidateSet<String, FakeEntity> set = new GlobalPortalCandidateSet<>();
+        FakePortal globalPortal = new FakePortal(true);
+        
+        FakeEntity a = new FakeEntity();
+        a.collisions = new ArrayList<>(List.of(globalPortal));
+        FakeEntity b = new FakeEntity();
+        b.collisions = new ArrayList<>(List.of(globalPortal));
+        FakeEntity c = new FakeEntity();
+        c.collisions = new ArrayList<>(List.of(new FakePortal(false), globalPortal));
+        
+        set.add("overworld", a);
+        set.add("overworld", a);
+        set.add("overworld", b);
+        set.add("overworld", c);
+        Validate.isTrue(set.size("overworld") == 3);
+        
+        // still colliding with a global portal although the colliding portal is another one
+        Validate.isTrue(set.pruneAndGet("overworld", e -> e.isStaleIn("overworld")).equals(List.of(a, b, c)));
+        
+        a.removed = true;
+        b.dimension = "the_nether";
+        c.collisions = null;
+        Validate.isTrue(set.pruneAndGet("overworld", e -> e.isStaleIn("overworld")).isEmpty());
+        Validate.isTrue(set.size("overworld") == 0);
+        
+        set.add("the_nether", b);
+        Validate.isTrue(set.pruneAndGet("the_nether", e -> e.isStaleIn("the_nether")).equals(List.of(b)));
+        set.removeDimension("the_nether");
+        Validate.isTrue(set.size("the_nether") == 0);
+        Validate.isTrue(set.pruneAndGet("the_end", e -> false).isEmpty());
+    }
+    
+    @Test
+    @Tag("benchmark")
+    public void benchmark() {
+        Random random = new Random(1);
+        
+        // one world-wrapping portal and some normal portals
+        FakePortal wrappingPortal = new FakePortal(true);
+        FakePortal normalPortal = new FakePortal(false);
+        
+        List<FakeEntity> allEntities = new ArrayList<>();
+        GlobalPortalCandidateSet<String, FakeEntity> candidates = new GlobalPortalCandidateSet<>();
+        for (int i = 0; i < ENTITY_NUM; i++) {
+            allEntities.add(new FakeEntity());
+        }
+        
+        for (int tick = 0; tick < 200; tick++) {
+            // a few entities touch the portals each tick
+            for (int i = 0; i < 20; i++) {
+                FakeEntity entity = allEntities.get(random.nextInt(ENTITY_NUM));
+                FakePortal portal = random.nextBoolean() ? wrappingPortal : normalPortal;
+                if (entity.collisions == null) {
+                    entity.collisions = new ArrayList<>();
+                }
+                if (!entity.collisions.contains(portal)) {
+                    entity.collisions.add(portal);
+                }
+                if (portal.isGlobal()) {
+                    candidates.add(entity.dimension, entity);
+                }
+            }
+            // and some stop touching
+            for (int i = 0; i < 20; i++) {
+                FakeEntity entity = allEntities.get(random.nextInt(ENTITY_NUM));
+                entity.collisions = null;
+                if (random.nextInt(10) == 0) {
+                    entity.removed = true;
+                }
+            }
+            
+            long scanStart = System.nanoTime();
+            List<FakeEntity> fromScan = new ArrayList<>();
+            for (FakeEntity entity : allEntities) {
+                FakePortal collidingPortal = entity.getCollidingPortal();
+                if (!entity.removed && collidingPortal != null && collidingPortal.isGlobal()) {
+                    fromScan.add(entity);
+                }
+            }
+            long scanTime = System.nanoTime() - scanStart;
+            
+            long setStart = System.nanoTime();
+            List<FakeEntity> fromSet = new ArrayList<>();
+            for (FakeEntity entity : candidates.pruneAndGet("overworld", e -> e.isStaleIn("overworld"))) {
+                FakePortal collidingPortal = entity.getCollidingPortal();
+                if (collidingPortal != null && collidingPortal.isGlobal()) {
+                    fromSet.add(entity);
+                }
+            }
+            long setTime = System.nanoTime() - setStart;
+            
+            Validate.isTrue(fromScan.size() == fromSet.size());
+            Validate.isTrue(fromScan.containsAll(fromSet));
+            
+            if (tick % 50 == 49) {
+                LOGGER.info(
+                    "Tick {} scanning all {}us candidate set {}us, candidates {} teleporting {}",
+                    tick, scanTime / 1000.0, setTime / 1000.0, candidates.size("overworld"), fromSet.size()
+                );
+            }
+        }
+    }
+}
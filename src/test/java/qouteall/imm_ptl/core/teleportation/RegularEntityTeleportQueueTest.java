@@ -0,0 +1,215 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import qouteall.imm_ptl.core.IPGlobal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the waiting rules of {@link RegularEntityTeleportQueue}.
+ * The entities and portals are plain objects, the destination chunk of an entity is given directly.
+ */
+public class RegularEntityTeleportQueueTest {
+    
+    private static class FakeEntity {
+        final String name;
+        String dimension = "overworld";
+        boolean removed = false;
+        long destChunk = 0;
+        
+        FakeEntity(String name) {
+            this.name = name;
+        }
+    }
+    
+    private record FakePortal(String destDim) {}
+    
+    private record Teleported(FakeEntity entity, boolean isDeferred) {}
+    
+    private static class FakeContext implements RegularEntityTeleportQueue.Context<String, FakeEntity, FakePortal> {
+        final LongOpenHashSet unloadedChunks = new LongOpenHashSet();
+        
+        @Override
+        public String getDimension(FakeEntity entity) {
+            return entity.dimension;
+        }
+        
+        @Override
+        public String getDestDimension(FakePortal portal) {
+            return portal.destDim();
+        }
+        
+        @Override
+        public boolean canStillTeleport(FakeEntity entity, FakePortal portal, String fromDim, String toDim) {
+            return !entity.removed && entity.dimension.equals(fromDim);
+        }
+        
+        @Override
+        public long getDestChunk(FakeEntity entity, FakePortal portal) {
+            return entity.destChunk;
+        }
+        
+        @Override
+        public boolean isChunkLoaded(String dimension, long chunkPos) {
+            return !unloadedChunks.contains(chunkPos);
+        }
+    }
+    
+    private int oldBudget;
+    private final FakeContext context = new FakeContext();
+    private final RegularEntityTeleportQueue<String, FakeEntity, FakePortal> queue =
+        new RegularEntityTeleportQueue<>(context);
+    private final List<Teleported> teleported = new ArrayList<>();
+    private int entityNum = 0;
+    
+    @BeforeEach
+    public void setUp() {
+        oldBudget = IPGlobal.regularEntityTeleportBudgetPerTick;
+    }
+    
+    @AfterEach
+    public void tearDown() {
+        IPGlobal.regularEntityTeleportBudgetPerTick = oldBudget;
+    }
+    
+    private void processTick() {
+        queue.processTick((entity, portal, fromEyePos, isDeferred) -> {
+            teleported.add(new Teleported(entity, isDeferred));
+            entity.dimension = portal.destDim();
+        });
+    }
+    
+    private List<FakeEntity> enqueue(int num, FakePortal portal) {
+        List<FakeEntity> entities = new ArrayList<>();
+        for (int i = 0; i < num; i++) {
+            FakeEntity entity = new FakeEntity("e" + entityNum++);
+            entities.add(entity);
+            Validate.isTrue(queue.enqueue(entity, portal, Vec3.ZERO));
+        }
+        return entities;
+    }
+    
+    @Test
+    public void testBudgetExhaustion() {
+        IPGlobal.regularEntityTeleportBudgetPerTick = 3;
+        FakePortal portal = new FakePortal("nether");
+        
+        List<FakeEntity> entities = enqueue(5, portal);
+        Validate.isTrue(!queue.enqueue(entities.get(0), portal, Vec3.ZERO));
+        
+        processTick();
+        Validate.isTrue(teleported.size() == 3);
+        Validate.isTrue(teleported.stream().noneMatch(Teleported::isDeferred));
+        Validate.isTrue(queue.getPendingNum() == 2);
+        Validate.isTrue(queue.isQueued(entities.get(3)));
+        Validate.isTrue(queue.isQueued(entities.get(4)));
+        
+        // the over-budget ones are carried to the next tick, before the new ones
+        List<FakeEntity> newEntities = enqueue(2, portal);
+        processTick();
+        Validate.isTrue(teleported.size() == 6);
+        Validate.isTrue(teleported.get(3).entity() == entities.get(3));
+        Validate.isTrue(teleported.get(3).isDeferred());
+        Validate.isTrue(teleported.get(4).entity() == entities.get(4));
+        Validate.isTrue(teleported.get(5).entity() == newEntities.get(0));
+        Validate.isTrue(!teleported.get(5).isDeferred());
+        
+        processTick();
+        Validate.isTrue(teleported.size() == 7);
+        Validate.isTrue(queue.getPendingNum() == 0);
+        Validate.isTrue(queue.getDroppedNum() == 0);
+    }
+    
+    @Test
+    public void testQueuedBeforeProcessingIsNotDeferred() {
+        IPGlobal.regularEntityTeleportBudgetPerTick = 100;
+        FakePortal portal = new FakePortal("nether");
+        
+        processTick();
+        // queued at different points of a tick, for example by a portal tick and by the global portal check
+        enqueue(1, portal);
+        enqueue(1, portal);
+        processTick();
+        Validate.isTrue(teleported.size() == 2);
+        Validate.isTrue(teleported.stream().noneMatch(Teleported::isDeferred));
+    }
+    
+    @Test
+    public void testExpiredEntriesIgnoreBudget() {
+        IPGlobal.regularEntityTeleportBudgetPerTick = 0;
+        List<FakeEntity> entities = enqueue(4, new FakePortal("nether"));
+        
+        for (int i = 0; i < RegularEntityTeleportQueue.MAX_WAIT_TICKS; i++) {
+            processTick();
+            Validate.isTrue(teleported.isEmpty());
+        }
+        
+        // a valid teleportation is never lost
+        processTick();
+        Validate.isTrue(teleported.size() == 4);
+        Validate.isTrue(teleported.stream().allMatch(Teleported::isDeferred));
+        Validate.isTrue(queue.getExpiredNum() == 4);
+        Validate.isTrue(queue.getDroppedNum() == 0);
+        for (FakeEntity entity : entities) {
+            Validate.isTrue(entity.dimension.equals("nether"));
+        }
+    }
+    
+    @Test
+    public void testUnloadedChunk() {
+        IPGlobal.regularEntityTeleportBudgetPerTick = 100;
+        FakePortal portal = new FakePortal("nether");
+        
+        FakeEntity loaded = enqueue(1, portal).get(0);
+        FakeEntity unloaded = new FakeEntity("unloaded");
+        unloaded.destChunk = 42;
+        context.unloadedChunks.add(42);
+        queue.enqueue(unloaded, portal, Vec3.ZERO);
+        
+        processTick();
+        Validate.isTrue(teleported.size() == 1);
+        Validate.isTrue(teleported.get(0).entity() == loaded);
+        Validate.isTrue(queue.isQueued(unloaded));
+        
+        // the chunk gets loaded
+        context.unloadedChunks.remove(42);
+        processTick();
+        Validate.isTrue(teleported.size() == 2);
+        Validate.isTrue(teleported.get(1).entity() == unloaded);
+        Validate.isTrue(teleported.get(1).isDeferred());
+        
+        // the chunk never gets loaded, it's teleported when it expires
+        FakeEntity neverLoaded = new FakeEntity("neverLoaded");
+        neverLoaded.destChunk = 43;
+        context.unloadedChunks.add(43);
+        queue.enqueue(neverLoaded, portal, Vec3.ZERO);
+        for (int i = 0; i < RegularEntityTeleportQueue.MAX_WAIT_TICKS; i++) {
+            processTick();
+        }
+        Validate.isTrue(teleported.size() == 2);
+        processTick();
+        Validate.isTrue(teleported.size() == 3);
+        Validate.isTrue(teleported.get(2).entity() == neverLoaded);
+    }
+    
+    @Test
+    public void testDropInvalidEntries() {
+        IPGlobal.regularEntityTeleportBudgetPerTick = 0;
+        List<FakeEntity> entities = enqueue(3, new FakePortal("nether"));
+        entities.get(0).removed = true;
+        entities.get(1).dimension = "end";
+        
+        processTick();
+        Validate.isTrue(queue.getDroppedNum() == 2);
+        Validate.isTrue(!queue.isQueued(entities.get(0)));
+        Validate.isTrue(!queue.isQueued(entities.get(1)));
+        Validate.isTrue(queue.isQueued(entities.get(2)));
+        Validate.isTrue(teleported.isEmpty());
+    }
+}
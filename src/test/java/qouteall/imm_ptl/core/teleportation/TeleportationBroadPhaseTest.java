@@ -0,0 +1,186 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import qouteall.imm_ptl.core.portal.PortalState;
+import qouteall.imm_ptl.core.portal.shape.RectangularPortalShape;
+import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.my_util.DQuaternion;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Uses synthetic rectangular portals described by {@link PortalState},
+ * because portal entities cannot be created without a world.
+ */
+public class TeleportationBroadPhaseTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static PortalState randomPortalState(Random random, double range) {
+        Vec3 axis = new Vec3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize();
+        return new PortalState(
+            null, randomPos(random, range),
+            null, randomPos(random, range),
+            1, DQuaternion.identity,
+            DQuaternion.rotationByDegrees(axis, random.nextDouble() * 360),
+            0.5 + random.nextDouble() * 4, 0.5 + random.nextDouble() * 4
+        );
+    }
+    
+    private static Vec3 randomPos(Random random, double range) {
+        return new Vec3(
+            (random.nextDouble() * 2 - 1) * range,
+            (random.nextDouble() * 2 - 1) * range,
+            (random.nextDouble() * 2 - 1) * range
+        );
+    }
+    
+    private static @Nullable TeleportationUtil.Teleportation checkCrossing(
+        PortalState state, Vec3 from, Vec3 to
+    ) {
+        return TeleportationUtil.checkStaticTeleportation(
+            null, RectangularPortalShape.INSTANCE, state, state.getThisSideState(),
+            from, to, from, to
+        );
+    }
+    
+    private static AABB getBounds(PortalState state) {
+        double halfW = state.width / 2;
+        double halfH = state.height / 2;
+        return Helper.boundingBoxOfPoints(new Vec3[]{
+            state.getPointOnSurface(halfW, halfH),
+            state.getPointOnSurface(halfW, -halfH),
+            state.getPointOnSurface(-halfW, halfH),
+            state.getPointOnSurface(-halfW, -halfH)
+        }).inflate(TeleportationBroadPhase.BOUNDS_MARGIN);
+    }
+    
+    @Test
+    public void testSameResultAsCheckingAllPortals() {
+        Random random = new Random(1);
+        
+        int exactCheckNum = 0;
+        int skippedNum = 0;
+        int teleportNum = 0;
+        
+        for (int round = 0; round < 2000; round++) {
+            List<PortalState> portals = new ArrayList<>();
+            List<AABB> bounds = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                PortalState state = randomPortalState(random, 8);
+                portals.add(state);
+                bounds.add(getBounds(state));
+            }
+            
+            for (int segmentIndex = 0; segmentIndex < 50; segmentIndex++) {
+                Vec3 from = randomPos(random, 8);
+                Vec3 to = from.add(randomPos(random, 2));
+                
+                // the previous logic: check all, collect, then find the closest with stream
+                ArrayList<TeleportationUtil.Teleportation> candidates = new ArrayList<>();
+                for (PortalState portal : portals) {
+                    TeleportationUtil.Teleportation teleportation = checkCrossing(portal, from, to);
+                    if (teleportation != null) {
+                        candidates.add(teleportation);
+                    }
+                }
+                TeleportationUtil.Teleportation expected = candidates.stream()
+                    .min(Comparator.comparingDouble(
+                        p -> p.worldCollisionPoint().distanceToSqr(from)
+                    ))
+                    .orElse(null);
+                
+                TeleportationBroadPhase.ClosestSelector selector =
+                    new TeleportationBroadPhase.ClosestSelector(from);
+                for (int i = 0; i < portals.size(); i++) {
+                    if (!TeleportationBroadPhase.segmentIntersectsBox(from, to, bounds.get(i))) {
+                        skippedNum++;
+                        continue;
+                    }
+                    exactCheckNum++;
+                    selector.accept(checkCrossing(portals.get(i), from, to));
+                }
+                TeleportationUtil.Teleportation actual = selector.getClosest();
+                
+                if (expected == null) {
+                    Validate.isTrue(actual == null);
+                }
+                else {
+                    teleportNum++;
+                    Validate.isTrue(actual != null);
+                    Validate.isTrue(actual.worldCollisionPoint().equals(expected.worldCollisionPoint()));
+                    Validate.isTrue(actual.collidingPortalState() == expected.collidingPortalState());
+                }
+            }
+        }
+        
+        LOGGER.info(
+            "Exact checks {} skipped by broad phase {} teleportations {}",
+            exactCheckNum, skippedNum, teleportNum
+        );
+        Validate.isTrue(teleportNum > 0);
+        Validate.isTrue(skippedNum > exactCheckNum);
+    }
+    
+    @Test
+    public void testSegmentIntersectsBox() {
+        Random random = new Random(2);
+        
+        for (int i = 0; i < 100000; i++) {
+            Vec3 from = randomPos(random, 3);
+            Vec3 to = random.nextInt(10) == 0 ?
+                // axis-aligned segments
+                from.add(random.nextInt(3) == 0 ? random.nextGaussian() : 0, 0, random.nextGaussian()) :
+                randomPos(random, 3);
+            AABB box = new AABB(randomPos(random, 2), randomPos(random, 2));
+            
+            boolean result = TeleportationBroadPhase.segmentIntersectsBox(from, to, box);
+            
+            boolean expected = box.contains(from) || box.clip(from, to).isPresent();
+            Validate.isTrue(result == expected);
+        }
+    }
+    
+    @Test
+    public void testAnimatedPortalBoundsContainInterpolatedPortal() {
+        Random random = new Random(3);
+        
+        for (int i = 0; i < 10000; i++) {
+            PortalState lastFrameState = randomPortalState(random, 8);
+            Vec3 axis = new Vec3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize();
+            PortalState currentFrameState = new PortalState(
+                null, lastFrameState.fromPos.add(randomPos(random, 1)),
+                null, lastFrameState.toPos,
+                1, DQuaternion.identity,
+                DQuaternion.rotationByDegrees(axis, random.nextDouble() * 30)
+                    .hamiltonProduct(lastFrameState.orientation),
+                lastFrameState.width * (0.5 + random.nextDouble()),
+                lastFrameState.height * (0.5 + random.nextDouble())
+            );
+            
+            AABB bounds = TeleportationBroadPhase.getAnimatedPortalBounds(lastFrameState, currentFrameState);
+            
+            PortalState interpolated = PortalState.interpolate(
+                lastFrameState, currentFrameState, random.nextDouble(), false
+            );
+            double halfW = interpolated.width / 2;
+            double halfH = interpolated.height / 2;
+            for (Vec3 corner : new Vec3[]{
+                interpolated.getPointOnSurface(halfW, halfH),
+                interpolated.getPointOnSurface(halfW, -halfH),
+                interpolated.getPointOnSurface(-halfW, halfH),
+                interpolated.getPointOnSurface(-halfW, -halfH)
+            }) {
+                Validate.isTrue(bounds.contains(corner));
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.logging.LogUtils;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.TagParser;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import qouteall.imm_ptl.core.portal.PortalState;
+import qouteall.imm_ptl.core.portal.shape.RectangularPortalShape;
+import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.my_util.DQuaternion;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Runs {@link TeleportationTestHarness} with generated eye paths and the recorded replays
+ * in the test resources "teleportation_replays" directory.
+ * A replay dumped by the "dump_teleport_replay" client debug command can be put there,
+ * with an "expectedTeleportations" field added.
+ */
+public class TeleportationRegressionTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final ResourceKey<Level> FROM_DIM = Helper.dimIdToKey("minecraft:overworld");
+    private static final ResourceKey<Level> TO_DIM = Helper.dimIdToKey("minecraft:the_nether");
+    
+    static {
+        RectangularPortalShape.init();
+    }
+    
+    private static Vec3 randomUnitVec(Random random) {
+        return new Vec3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize();
+    }
+    
+    private static PortalState randomPortalState(Random random) {
+        return new PortalState(
+            FROM_DIM, new Vec3(random.nextDouble() * 20 - 10, random.nextDouble() * 20, random.nextDouble() * 20 - 10),
+            TO_DIM, new Vec3(random.nextDouble() * 200, random.nextDouble() * 100, random.nextDouble() * 200),
+            0.25 + random.nextDouble() * 4,
+            DQuaternion.rotationByDegrees(randomUnitVec(random), random.nextDouble() * 360),
+            DQuaternion.rotationByDegrees(randomUnitVec(random), random.nextDouble() * 360),
+            1 + random.nextDouble() * 4, 1 + random.nextDouble() * 4
+        );
+    }
+    
+    /**
+     * A straight path that goes through the portal, away from the portal edges.
+     */
+    private static List<Vec3> randomCrossingPath(Random random, PortalState state, int frameNum) {
+        double halfW = state.width / 2 * 0.7;
+        double halfH = state.height / 2 * 0.7;
+        double x = (random.nextDouble() * 2 - 1) * halfW;
+        double y = (random.nextDouble() * 2 - 1) * halfH;
+        double distance = 0.5 + random.nextDouble() * 3;
+        Vec3 startLocal = new Vec3(x, y, distance);
+        Vec3 endLocal = new Vec3(
+            x + (random.nextDouble() * 2 - 1) * halfW * 0.3,
+            y + (random.nextDouble() * 2 - 1) * halfH * 0.3,
+            -distance
+        );
+        
+        List<Vec3> path = new ArrayList<>();
+        for (int i = 0; i < frameNum; i++) {
+            // the sampling is irregular, like the frame time
+            double t = (i + random.nextDouble() * 0.5) / (frameNum - 1);
+            path.add(state.portalLocalPosToWorldPos(startLocal.lerp(endLocal, Math.min(t, 1))));
+        }
+        return path;
+    }
+    
+    private static TeleportationReplay makeStaticReplay(PortalState state, List<Vec3> path) {
+        List<TeleportationReplay.Frame> frames = new ArrayList<>();
+        for (Vec3 eyePos : path) {
+            frames.add(new TeleportationReplay.Frame(eyePos, state));
+        }
+        return new TeleportationReplay("generated", RectangularPortalShape.INSTANCE, frames);
+    }
+    
+    @Test
+    public void testStaticRotatedScaledPortals() {
+        Random random = new Random(1);
+        TeleportationTestHarness harness = new TeleportationTestHarness(1e-6);
+        
+        for (int i = 0; i < 2000; i++) {
+            PortalState state = randomPortalState(random);
+            TeleportationReplay replay = makeStaticReplay(state, randomCrossingPath(random, state, 12));
+            
+            TeleportationTestHarness.Report report = harness.run(replay);
+            
+            Validate.isTrue(report.isClean(), "%s", report);
+            Validate.isTrue(report.teleportationNum == 1, "%s", report);
+        }
+    }
+    
+    @Test
+    public void testAnimatedPortals() {
+        Random random = new Random(2);
+        // the reference samples the frame, so the crossing point differs a little from the linear check
+        TeleportationTestHarness harness = new TeleportationTestHarness(1e-3);
+        
+        int teleportationNum = 0;
+        int edgeCaseNum = 0;
+        for (int i = 0; i < 1000; i++) {
+            PortalState state = randomPortalState(random);
+            int frameNum = 16;
+            List<Vec3> path = randomCrossingPath(random, state, frameNum);
+            
+            // moves, rotates a few degrees per frame and changes size
+            Vec3 moveDirection = randomUnitVec(random).scale(random.nextDouble() * 0.05);
+            Vec3 rotationAxis = randomUnitVec(random);
+            double degreesPerFrame = random.nextDouble() * 2;
+            double sizeChangePerFrame = 1 + (random.nextDouble() * 2 - 1) * 0.02;
+            
+            List<TeleportationReplay.Frame> frames = new ArrayList<>();
+            for (int f = 0; f < frameNum; f++) {
+                PortalState animated = new PortalState(
+                    FROM_DIM, state.fromPos.add(moveDirection.scale(f)),
+                    TO_DIM, state.toPos,
+                    state.scaling, state.rotation,
+                    DQuaternion.rotationByDegrees(rotationAxis, degreesPerFrame * f)
+                        .hamiltonProduct(state.orientation),
+                    state.width * Math.pow(sizeChangePerFrame, f),
+                    state.height * Math.pow(sizeChangePerFrame, f)
+                );
+                frames.add(new TeleportationReplay.Frame(path.get(f), animated));
+            }
+            
+            TeleportationTestHarness.Report report = harness.run(
+                new TeleportationReplay("generated", RectangularPortalShape.INSTANCE, frames)
+            );
+            
+            Validate.isTrue(report.isClean(), "%s", report);
+            teleportationNum += report.teleportationNum;
+            edgeCaseNum += report.edgeCaseNum;
+        }
+        
+        LOGGER.info("Animated portals: teleportations {} edge cases {}", teleportationNum, edgeCaseNum);
+        Validate.isTrue(teleportationNum > 0);
+    }
+    
+    @Test
+    public void testFloatingPointEdgeCases() {
+        TeleportationTestHarness harness = new TeleportationTestHarness(1e-9);
+        PortalState state = new PortalState(
+            FROM_DIM, Vec3.ZERO, TO_DIM, new Vec3(100, 64, 100),
+            1, DQuaternion.identity, DQuaternion.identity, 2, 2
+        );
+        
+        // moving inside the portal plane never teleports
+        TeleportationTestHarness.Report alongPlane = harness.run(makeStaticReplay(state, List.of(
+            new Vec3(-2, 0, 0), new Vec3(-0.5, 0, 0), new Vec3(0.5, 0, 0), new Vec3(2, 0, 0)
+        )));
+        Validate.isTrue(alongPlane.isClean(), "%s", alongPlane);
+        Validate.isTrue(alongPlane.teleportationNum == 0, "%s", alongPlane);
+        Validate.isTrue(alongPlane.edgeCaseNum > 0, "%s", alongPlane);
+        
+        // stopping exactly on the portal plane.
+        // the rectangular shape requires both ends to be strictly on different sides, so it's missed.
+        // it's an edge case, so it's reported but not a failure
+        TeleportationTestHarness.Report onPlane = harness.run(makeStaticReplay(state, List.of(
+            new Vec3(0, 0, 1), new Vec3(0, 0, 0), new Vec3(0, 0, -1)
+        )));
+        Validate.isTrue(onPlane.isClean(), "%s", onPlane);
+        Validate.isTrue(onPlane.teleportationNum == 0, "%s", onPlane);
+        Validate.isTrue(onPlane.edgeCaseDisagreementNum == 1, "%s", onPlane);
+        
+        // the smallest step across the plane
+        TeleportationTestHarness.Report tinyStep = harness.run(makeStaticReplay(state, List.of(
+            new Vec3(0.3, 0.3, 1e-12), new Vec3(0.3, 0.3, -1e-12), new Vec3(0.3, 0.3, -1)
+        )));
+        Validate.isTrue(tinyStep.isClean(), "%s", tinyStep);
+        Validate.isTrue(tinyStep.teleportationNum == 1, "%s", tinyStep);
+        
+        // crossing exactly on the portal edge is reported as an edge case, either result is fine
+        TeleportationTestHarness.Report onEdge = harness.run(makeStaticReplay(state, List.of(
+            new Vec3(1, 0, 1), new Vec3(1, 0, -1)
+        )));
+        Validate.isTrue(onEdge.isClean(), "%s", onEdge);
+        Validate.isTrue(onEdge.edgeCaseNum == 1, "%s", onEdge);
+        
+        LOGGER.info("On edge: {}", onEdge);
+    }
+    
+    @Test
+    public void testReplayFormatRoundTrip() {
+        Random random = new Random(3);
+        TeleportationTestHarness harness = new TeleportationTestHarness(1e-6);
+        
+        for (int i = 0; i < 100; i++) {
+            PortalState state = randomPortalState(random);
+            TeleportationReplay replay = makeStaticReplay(state, randomCrossingPath(random, state, 10));
+            
+            TeleportationReplay loaded = TeleportationReplay.fromSnbt(replay.toSnbt());
+            
+            Validate.isTrue(loaded.frames.size() == replay.frames.size());
+            // the static portal is stored once
+            Validate.isTrue(loaded.frames.get(0).portalState() == loaded.frames.get(9).portalState());
+            for (int f = 0; f < replay.frames.size(); f++) {
+                Validate.isTrue(loaded.frames.get(f).eyePos().equals(replay.frames.get(f).eyePos()));
+            }
+            
+            Validate.isTrue(
+                harness.run(loaded).toString().equals(harness.run(replay).toString())
+            );
+        }
+    }
+    
+    @Test
+    public void testRecordedReplays() throws IOException, URISyntaxException, CommandSyntaxException {
+        URL dirUrl = TeleportationRegressionTest.class.getResource("/teleportation_replays");
+        Validate.notNull(dirUrl);
+        
+        TeleportationTestHarness harness = new TeleportationTestHarness(1e-6);
+        
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(Path.of(dirUrl.toURI()))) {
+            files = stream.filter(p -> p.toString().endsWith(".snbt")).sorted().toList();
+        }
+        Validate.isTrue(!files.isEmpty());
+        
+        for (Path file : files) {
+            CompoundTag tag = TagParser.parseTag(Files.readString(file));
+            TeleportationReplay replay = TeleportationReplay.fromTag(tag);
+            
+            TeleportationTestHarness.Report report = harness.run(replay);
+            LOGGER.info("Replay {}: {}", file.getFileName(), report);
+            
+            Validate.isTrue(report.isClean(), "%s %s", file.getFileName(), report);
+            if (tag.contains("expectedTeleportations")) {
+                Validate.isTrue(
+                    report.teleportationNum == tag.getInt("expectedTeleportations"),
+                    "%s %s", file.getFileName(), report
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
+import qouteall.imm_ptl.core.portal.PortalState;
+import qouteall.imm_ptl.core.portal.animation.UnilateralPortalState;
+import qouteall.imm_ptl.core.portal.shape.PortalShape;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drives {@link TeleportationUtil} with a replay without the game, in the same way as
+ * ClientTeleportationManager: the previous eye position is set to the teleportation checkpoint
+ * after teleporting, and then the eye is checked against the reverse portal on the other side.
+ * Every frame is also treated as a tick, so the tick states are the frame states.
+ * <p>
+ * The result of each frame is compared with a reference that samples the frame in many sub-steps,
+ * interpolating the portal state, so it does not share the linear assumption of the dynamic check.
+ * A frame is an edge case when the eye is within the tolerance of the portal plane
+ * or the crossing point is within the tolerance of the shape boundary.
+ * The disagreements in edge cases are reported but not counted as failures.
+ */
+public class TeleportationTestHarness {
+    public static final int REFERENCE_SUB_STEPS = 64;
+    
+    // same as ClientTeleportationManager
+    private static final double CHECKPOINT_ADJUSTMENT = 0.001;
+    
+    private final double edgeTolerance;
+    
+    public TeleportationTestHarness(double edgeTolerance) {
+        this.edgeTolerance = edgeTolerance;
+    }
+    
+    public static final class Report {
+        public int frameNum = 0;
+        public int teleportationNum = 0;
+        public int expectedCrossingNum = 0;
+        public int missedCrossingNum = 0;
+        public int falseCrossingNum = 0;
+        // a false crossing right after a teleportation, usually going back through the reverse portal
+        public int doubleCrossingNum = 0;
+        // teleported to behind the destination plane
+        public int wrongSideNum = 0;
+        public int edgeCaseNum = 0;
+        public int edgeCaseDisagreementNum = 0;
+        public final List<String> messages = new ArrayList<>();
+        
+        public boolean isClean() {
+            return missedCrossingNum == 0 && falseCrossingNum == 0 &&
+                doubleCrossingNum == 0 && wrongSideNum == 0;
+        }
+        
+        @Override
+        public String toString() {
+            return ("frames %d teleportations %d expected %d missed %d false %d double %d " +
+                "wrong side %d edge cases %d (disagreed %d)%s").formatted(
+                frameNum, teleportationNum, expectedCrossingNum, missedCrossingNum,
+                falseCrossingNum, doubleCrossingNum, wrongSideNum,
+                edgeCaseNum, edgeCaseDisagreementNum,
+                messages.isEmpty() ? "" : "\n" + String.join("\n", messages)
+            );
+        }
+    }
+    
+    private enum Reference {
+        NONE, CROSSING, EDGE_NONE, EDGE_CROSSING;
+        
+        boolean isEdge() {
+            return this == EDGE_NONE || this == EDGE_CROSSING;
+        }
+        
+        boolean isCrossing() {
+            return this == CROSSING || this == EDGE_CROSSING;
+        }
+    }
+    
+    public Report run(TeleportationReplay replay) {
+        PortalShape shape = replay.shape;
+        Validate.isTrue(shape.isPlanar(), "only planar portal shapes are supported");
+        
+        List<TeleportationReplay.Frame> frames = replay.frames;
+        Report report = new Report();
+        report.frameNum = frames.size();
+        
+        if (frames.isEmpty()) {
+            return report;
+        }
+        
+        // keep the identity, so that a static portal is still static on the other side
+        Map<PortalState, PortalState> reverseStates = new IdentityHashMap<>();
+        
+        boolean onOtherSide = false;
+        // the transformations applied to the eye movement after teleporting
+        List<PortalState> movementTransformations = new ArrayList<>();
+        Vec3 eyePos = frames.get(0).eyePos();
+        Vec3 lastCheckedEyePos = eyePos;
+        int lastTeleportFrame = Integer.MIN_VALUE / 2;
+        
+        for (int i = 1; i < frames.size(); i++) {
+            TeleportationReplay.Frame lastFrame = frames.get(i - 1);
+            TeleportationReplay.Frame frame = frames.get(i);
+            
+            Vec3 movement = frame.eyePos().subtract(lastFrame.eyePos());
+            for (PortalState transformation : movementTransformations) {
+                movement = transformation.transformVec(movement);
+            }
+            Vec3 newEyePos = eyePos.add(movement);
+            
+            PortalState lastState = lastFrame.portalState();
+            PortalState state = frame.portalState();
+            if (onOtherSide) {
+                lastState = reverseStates.computeIfAbsent(lastState, TeleportationTestHarness::reverse);
+                state = reverseStates.computeIfAbsent(state, TeleportationTestHarness::reverse);
+            }
+            
+            TeleportationUtil.Teleportation teleportation = check(
+                shape, lastState, state, lastCheckedEyePos, newEyePos, eyePos
+            );
+            Reference reference = getReference(shape, lastState, state, lastCheckedEyePos, newEyePos);
+            
+            if (reference.isCrossing()) {
+                report.expectedCrossingNum++;
+            }
+            if (reference.isEdge()) {
+                report.edgeCaseNum++;
+                if (reference.isCrossing() != (teleportation != null)) {
+                    report.edgeCaseDisagreementNum++;
+                    report.messages.add("frame %d: edge case, reference %s, teleported %s".formatted(
+                        i, reference, teleportation != null
+                    ));
+                }
+            }
+            
+            if (teleportation != null) {
+                report.teleportationNum++;
+                
+                if (reference == Reference.NONE) {
+                    if (i - lastTeleportFrame <= 2) {
+                        report.doubleCrossingNum++;
+                        report.messages.add("frame %d: double crossing".formatted(i));
+                    }
+                    else {
+                        report.falseCrossingNum++;
+                        report.messages.add("frame %d: false crossing".formatted(i));
+                    }
+                }
+                
+                double dot = teleportation.newThisTickEyePos().subtract(state.toPos)
+                    .dot(state.getContentDirection());
+                if (dot < -edgeTolerance) {
+                    report.wrongSideNum++;
+                    report.messages.add("frame %d: teleported to behind destination, %s".formatted(i, dot));
+                }
+                
+                onOtherSide = !onOtherSide;
+                movementTransformations.add(teleportation.collidingPortalState());
+                lastTeleportFrame = i;
+                
+                eyePos = teleportation.newThisTickEyePos();
+                Vec3 newDelta = teleportation.newThisTickEyePos()
+                    .subtract(teleportation.newLastTickEyePos());
+                lastCheckedEyePos = teleportation.teleportationCheckpoint()
+                    .add(newDelta.scale(CHECKPOINT_ADJUSTMENT));
+            }
+            else {
+                if (reference == Reference.CROSSING) {
+                    report.missedCrossingNum++;
+                    report.messages.add("frame %d: missed crossing".formatted(i));
+                }
+                
+                eyePos = newEyePos;
+                lastCheckedEyePos = newEyePos;
+            }
+        }
+        
+        return report;
+    }
+    
+    private static @Nullable TeleportationUtil.Teleportation check(
+        PortalShape shape, PortalState lastState, PortalState state,
+        Vec3 lastCheckedEyePos, Vec3 eyePos, Vec3 lastTickEyePos
+    ) {
+        UnilateralPortalState thisSideState = state.getThisSideState();
+        if (lastState == state) {
+            return TeleportationUtil.checkStaticTeleportation(
+                null, shape, state, thisSideState,
+                lastCheckedEyePos, eyePos, lastTickEyePos, eyePos
+            );
+        }
+        else {
+            return TeleportationUtil.checkDynamicTeleportation(
+                null, shape, thisSideState,
+                lastState, state,
+                lastCheckedEyePos, eyePos,
+                lastState, state,
+                lastTickEyePos, eyePos, 1
+            );
+        }
+    }
+    
+    private Reference getReference(
+        PortalShape shape, PortalState lastState, PortalState state,
+        Vec3 lastEyePos, Vec3 eyePos
+    ) {
+        Vec3 lastLocal = lastState.worldPosToPortalLocalPos(lastEyePos);
+        Vec3 endLocal = state.worldPosToPortalLocalPos(eyePos);
+        boolean nearPlane = Math.abs(lastLocal.z) <= edgeTolerance ||
+            Math.abs(endLocal.z) <= edgeTolerance;
+        
+        Vec3 prevLocal = lastLocal;
+        for (int k = 1; k <= REFERENCE_SUB_STEPS; k++) {
+            double t = (double) k / REFERENCE_SUB_STEPS;
+            PortalState subStepState = lastState == state ? state :
+                PortalState.interpolate(lastState, state, t, false);
+            Vec3 local = k == REFERENCE_SUB_STEPS ? endLocal :
+                subStepState.worldPosToPortalLocalPos(lastEyePos.lerp(eyePos, t));
+            
+            if (prevLocal.z > 0 && local.z <= 0) {
+                double crossT = prevLocal.z / (prevLocal.z - local.z);
+                Vec3 hit = prevLocal.lerp(local, crossT);
+                UnilateralPortalState thisSide = subStepState.getThisSideState();
+                
+                boolean inside = isInShape(shape, thisSide, hit.x, hit.y, 0);
+                boolean nearBoundary = isInShape(shape, thisSide, hit.x, hit.y, edgeTolerance) !=
+                    isInShape(shape, thisSide, hit.x, hit.y, -edgeTolerance);
+                
+                if (nearPlane || nearBoundary) {
+                    return inside ? Reference.EDGE_CROSSING : Reference.EDGE_NONE;
+                }
+                return inside ? Reference.CROSSING : Reference.NONE;
+            }
+            
+            prevLocal = local;
+        }
+        
+        return nearPlane ? Reference.EDGE_NONE : Reference.NONE;
+    }
+    
+    private static boolean isInShape(
+        PortalShape shape, UnilateralPortalState thisSide,
+        double localX, double localY, double leniency
+    ) {
+        return shape.raytracePortalShapeByLocalPos(
+            thisSide, new Vec3(localX, localY, 1), new Vec3(localX, localY, -1), leniency
+        ) != null;
+    }
+    
+    /**
+     * The portal on the other side that goes back.
+     */
+    public static PortalState reverse(PortalState state) {
+        return UnilateralPortalState.combine(state.getOtherSideState(), state.getThisSideState());
+    }
+}
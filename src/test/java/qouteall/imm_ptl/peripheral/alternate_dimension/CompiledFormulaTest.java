@@ -0,0 +1,129 @@
+package qouteall.imm_ptl.peripheral.alternate_dimension;
+
+import com.mojang.logging.LogUtils;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.util.Random;
+
+public class CompiledFormulaTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final int COLUMN_HEIGHT = ErrorTerrainGenerator.maxY;
+    
+    @BeforeAll
+    public static void init() {
+        FormulaGenerator.init();
+    }
+    
+    @Test
+    public void testMatchesLambdaTree() {
+        double[] ys = new double[COLUMN_HEIGHT];
+        for (int i = 0; i < COLUMN_HEIGHT; i++) {
+            ys[i] = i / ((double) COLUMN_HEIGHT);
+        }
+        double[] out = new double[COLUMN_HEIGHT];
+        CompiledFormula.Workspace workspace = new CompiledFormula.Workspace(COLUMN_HEIGHT);
+        
+        for (long seed = 0; seed < 2000; seed++) {
+            for (int nestLayer = 0; nestLayer <= 3; nestLayer++) {
+                FormulaGenerator.TriNumFunction lambdaTree =
+                    FormulaGenerator.newGetRandomTriCompositeExpression(new Random(seed), nestLayer);
+                CompiledFormula compiled =
+                    FormulaGenerator.newRandomCompiledExpression(new Random(seed), nestLayer);
+                
+                Random pointRandom = new Random(seed);
+                double x = pointRandom.nextDouble();
+                double z = pointRandom.nextDouble();
+                
+                compiled.evalColumn(x, ys, z, out, COLUMN_HEIGHT, workspace);
+                
+                for (int i = 0; i < COLUMN_HEIGHT; i++) {
+                    double expected = lambdaTree.eval(x, ys[i], z);
+                    assertSameBits(expected, compiled.eval(x, ys[i], z), seed);
+                    assertSameBits(expected, out[i], seed);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testRandomConsumption() {
+        // the composition is selected after the expression, so the random must be consumed equally
+        for (long seed = 0; seed < 2000; seed++) {
+            Random r1 = new Random(seed);
+            Random r2 = new Random(seed);
+            FormulaGenerator.newGetRandomTriCompositeExpression(r1, 3);
+            FormulaGenerator.newRandomCompiledExpression(r2, 3);
+            Validate.isTrue(r1.nextLong() == r2.nextLong());
+        }
+    }
+    
+    /**
+     * Times the function evaluation of filling a chunk (16 * 16 columns).
+     * Run it with {@code gradlew benchmark}.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkChunkNoiseFilling() {
+        int chunkNum = 200;
+        
+        FormulaGenerator.TriNumFunction lambdaTree =
+            FormulaGenerator.newGetRandomTriCompositeExpression(new Random(42), 3);
+        CompiledFormula compiled =
+            FormulaGenerator.newRandomCompiledExpression(new Random(42), 3);
+        
+        double[] ys = new double[COLUMN_HEIGHT];
+        for (int i = 0; i < COLUMN_HEIGHT; i++) {
+            ys[i] = i / ((double) COLUMN_HEIGHT);
+        }
+        double[] out = new double[COLUMN_HEIGHT];
+        CompiledFormula.Workspace workspace = new CompiledFormula.Workspace(COLUMN_HEIGHT);
+        
+        // warm up
+        double sink = 0;
+        for (int round = 0; round < 2; round++) {
+            long lambdaStart = System.nanoTime();
+            for (int chunk = 0; chunk < chunkNum; chunk++) {
+                for (int column = 0; column < 256; column++) {
+                    double x = (column & 15) / 64.0;
+                    double z = (column >> 4) / 64.0;
+                    for (int i = 0; i < COLUMN_HEIGHT; i++) {
+                        sink += lambdaTree.eval(x, ys[i], z);
+                    }
+                }
+            }
+            long lambdaTime = System.nanoTime() - lambdaStart;
+            
+            long compiledStart = System.nanoTime();
+            for (int chunk = 0; chunk < chunkNum; chunk++) {
+                for (int column = 0; column < 256; column++) {
+                    double x = (column & 15) / 64.0;
+                    double z = (column >> 4) / 64.0;
+                    compiled.evalColumn(x, ys, z, out, COLUMN_HEIGHT, workspace);
+                    sink += out[0];
+                }
+            }
+            long compiledTime = System.nanoTime() - compiledStart;
+            
+            LOGGER.info(
+                "Chunk noise filling round {}: lambda tree {} us/chunk, compiled {} us/chunk",
+                round,
+                lambdaTime / 1000.0 / chunkNum,
+                compiledTime / 1000.0 / chunkNum
+            );
+        }
+        
+        LOGGER.info("sink {}", sink);
+    }
+    
+    private static void assertSameBits(double expected, double actual, long seed) {
+        Validate.isTrue(
+            Double.doubleToLongBits(expected) == Double.doubleToLongBits(actual),
+            "Mismatch at seed %d: expected %s actual %s", seed, expected, actual
+        );
+    }
+}
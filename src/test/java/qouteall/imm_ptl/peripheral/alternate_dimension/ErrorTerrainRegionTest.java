@@ -0,0 +1,117 @@
+package qouteall.imm_ptl.peripheral.alternate_dimension;
+
+import net.minecraft.nbt.CompoundTag;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+/**
+ * The blocks of a region are decided by the formula values and the composition,
+ * so comparing them does not need the blocks (and the registry bootstrapping).
+ */
+public class ErrorTerrainRegionTest {
+    
+    @BeforeAll
+    public static void init() {
+        FormulaGenerator.init();
+    }
+    
+    private static void checkSameRegion(
+        RegionErrorTerrainGenerator.RegionData a, RegionErrorTerrainGenerator.RegionData b
+    ) {
+        Validate.isTrue(a.regionX() == b.regionX() && a.regionZ() == b.regionZ());
+        Validate.isTrue(a.compositionIndex() == b.compositionIndex());
+        Validate.isTrue(Arrays.equals(a.expression().getCode(), b.expression().getCode()));
+        Validate.isTrue(Arrays.equals(a.expression().getConstants(), b.expression().getConstants()));
+        
+        int height = ErrorTerrainGenerator.maxY;
+        double[] ys = new double[height];
+        for (int y = 0; y < height; y++) {
+            ys[y] = y / ((double) height);
+        }
+        double[] columnA = new double[height];
+        double[] columnB = new double[height];
+        CompiledFormula.Workspace workspace = new CompiledFormula.Workspace(height);
+        
+        // sample some columns to keep the test fast
+        for (double x = 0; x < 1; x += 0.1) {
+            for (double z = 0; z < 1; z += 0.1) {
+                a.expression().evalColumn(x, ys, z, columnA, height, workspace);
+                b.expression().evalColumn(x, ys, z, columnB, height, workspace);
+                for (int y = 0; y < height; y++) {
+                    Validate.isTrue(
+                        Double.doubleToRawLongBits(columnA[y]) == Double.doubleToRawLongBits(columnB[y])
+                    );
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testSameRegionYieldsSameBlocks() {
+        long worldSeed = 1234567L;
+        
+        for (int regionX = -2; regionX <= 2; regionX++) {
+            for (int regionZ = -2; regionZ <= 2; regionZ++) {
+                RegionErrorTerrainGenerator.RegionData data1 =
+                    RegionErrorTerrainGenerator.RegionData.generate(regionX, regionZ, worldSeed);
+                RegionErrorTerrainGenerator.RegionData data2 =
+                    RegionErrorTerrainGenerator.RegionData.generate(regionX, regionZ, worldSeed);
+                
+                // simulate reloading from level data
+                CompoundTag tag = ErrorTerrainRegionStorage.regionDataToTag(data1);
+                RegionErrorTerrainGenerator.RegionData reloaded =
+                    ErrorTerrainRegionStorage.regionDataFromTag(tag);
+                
+                checkSameRegion(data1, data2);
+                checkSameRegion(data1, reloaded);
+                
+                Validate.isTrue(data1.compositionIndex() < ErrorTerrainComposition.Weights.size());
+            }
+        }
+    }
+    
+    @Test
+    public void testStorageRoundTrip() {
+        ErrorTerrainRegionStorage storage = new ErrorTerrainRegionStorage();
+        for (int i = 0; i < 20; i++) {
+            storage.putRegionIfAbsent(
+                RegionErrorTerrainGenerator.RegionData.generate(i, -i, 42)
+            );
+        }
+        
+        // the existing data is kept
+        RegionErrorTerrainGenerator.RegionData existing = storage.getRegion(3, -3);
+        Validate.isTrue(storage.putRegionIfAbsent(
+            RegionErrorTerrainGenerator.RegionData.generate(3, -3, 43)
+        ) == existing);
+        
+        ErrorTerrainRegionStorage reloaded =
+            ErrorTerrainRegionStorage.fromTag(storage.save(new CompoundTag()));
+        
+        Validate.isTrue(reloaded.getRegionNum() == 20);
+        for (int i = 0; i < 20; i++) {
+            RegionErrorTerrainGenerator.RegionData b = reloaded.getRegion(i, -i);
+            Validate.notNull(b);
+            checkSameRegion(storage.getRegion(i, -i), b);
+        }
+    }
+    
+    @Test
+    public void testStorageIsBounded() {
+        ErrorTerrainRegionStorage storage = new ErrorTerrainRegionStorage();
+        int num = ErrorTerrainRegionStorage.MAX_REGION_NUM + 10;
+        for (int i = 0; i < num; i++) {
+            storage.putRegionIfAbsent(
+                RegionErrorTerrainGenerator.RegionData.generate(i, 0, 42)
+            );
+        }
+        
+        Validate.isTrue(storage.getRegionNum() == ErrorTerrainRegionStorage.MAX_REGION_NUM);
+        // the oldest ones are evicted
+        Validate.isTrue(storage.getRegion(0, 0) == null);
+        Validate.isTrue(storage.getRegion(num - 1, 0) != null);
+    }
+}
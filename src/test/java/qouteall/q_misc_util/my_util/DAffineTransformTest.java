@@ -0,0 +1,169 @@
+package qouteall.q_misc_util.my_util;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.joml.Matrix4d;
+import org.joml.Quaterniond;
+import org.joml.Vector3d;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import qouteall.imm_ptl.core.portal.PortalTransform;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+public class DAffineTransformTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final double EPSILON = 1e-9;
+    
+    @Test
+    public void testAgainstQuaternionTransform() {
+        Random random = new Random(42);
+        
+        for (int i = 0; i < 1000; i++) {
+            DQuaternion rotation = randomRotation(random);
+            double scale = random.nextInt(3) == 0 ? 1 : Math.exp(random.nextDouble() * 4 - 2);
+            boolean mirror = random.nextInt(4) == 0;
+            Vec3 mirrorNormal = mirror ? randomVec(random, 1).normalize() : null;
+            Vec3 originPos = randomVec(random, 10000);
+            Vec3 destPos = randomVec(random, 10000);
+            
+            // the transformation that Portal and Mirror use
+            UnaryOperator<Vec3> transformLocalVec =
+                v -> PortalTransform.transformLocalVec(rotation, scale, mirrorNormal, v);
+            UnaryOperator<Vec3> inverseTransformLocalVec =
+                v -> PortalTransform.inverseTransformLocalVec(rotation, scale, mirrorNormal, v);
+            
+            DAffineTransform transform = PortalTransform.getTransform(
+                originPos, destPos, rotation, scale, mirrorNormal
+            );
+            DAffineTransform inverse = PortalTransform.getInverseTransform(
+                originPos, destPos, rotation, scale, mirrorNormal
+            );
+            
+            double[] out = new double[3];
+            for (int j = 0; j < 10; j++) {
+                Vec3 point = originPos.add(randomVec(random, 100));
+                
+                // same as Portal.transformPoint
+                Vec3 expected = transformLocalVec.apply(point.subtract(originPos)).add(destPos);
+                transform.transformPoint(point.x, point.y, point.z, out, 0);
+                assertClose(expected, out);
+                assertClose(expected, transform.transformPoint(point));
+                
+                // same as Portal.inverseTransformPoint
+                Vec3 expectedInverse = originPos.add(inverseTransformLocalVec.apply(expected.subtract(destPos)));
+                inverse.transformPoint(expected.x, expected.y, expected.z, out, 0);
+                assertClose(expectedInverse, out);
+                assertClose(point, out);
+                
+                Vec3 vec = randomVec(random, 10);
+                transform.transformVec(vec.x, vec.y, vec.z, out, 0);
+                assertClose(transformLocalVec.apply(vec), out);
+            }
+            
+            if (!mirror) {
+                // same as Portal.getFullSpaceTransformation, but with double quaternion
+                Matrix4d expectedMatrix = new Matrix4d()
+                    .translation(destPos.x, destPos.y, destPos.z)
+                    .scale(scale)
+                    .rotate(new Quaterniond(rotation.x, rotation.y, rotation.z, rotation.w))
+                    .translate(-originPos.x, -originPos.y, -originPos.z);
+                Matrix4d matrix = transform.toMatrix(new Matrix4d());
+                
+                Vec3 point = originPos.add(randomVec(random, 100));
+                Vector3d p1 = expectedMatrix.transformPosition(new Vector3d(point.x, point.y, point.z));
+                Vector3d p2 = matrix.transformPosition(new Vector3d(point.x, point.y, point.z));
+                // the matrix form loses some precision for large coordinates
+                Validate.isTrue(p1.distance(p2) < 1e-6);
+            }
+        }
+    }
+    
+    @Test
+    @Tag("benchmark")
+    public void benchmarkAllocation() {
+        Random random = new Random(1);
+        DQuaternion rotation = randomRotation(random);
+        double scale = 2;
+        Vec3 originPos = randomVec(random, 1000);
+        Vec3 destPos = randomVec(random, 1000);
+        
+        DAffineTransform transform = DAffineTransform.fromLinearPart(
+            v -> rotation.rotate(v).scale(scale), originPos, destPos
+        );
+        
+        int num = 1000000;
+        double[] out = new double[3];
+        
+        for (int round = 0; round < 3; round++) {
+            double sum = 0;
+            
+            long allocStart = getAllocatedBytes();
+            long timeStart = System.nanoTime();
+            for (int i = 0; i < num; i++) {
+                Vec3 p = new Vec3(i, i * 0.5, -i);
+                sum += rotation.rotate(p.subtract(originPos)).scale(scale).add(destPos).x;
+            }
+            long oldTime = System.nanoTime() - timeStart;
+            long oldAlloc = getAllocatedBytes() - allocStart;
+            
+            allocStart = getAllocatedBytes();
+            timeStart = System.nanoTime();
+            for (int i = 0; i < num; i++) {
+                transform.transformPoint(i, i * 0.5, -i, out, 0);
+                sum += out[0];
+            }
+            long newTime = System.nanoTime() - timeStart;
+            long newAlloc = getAllocatedBytes() - allocStart;
+            
+            LOGGER.info(
+                "quaternion {}ms {} bytes/call, cached transform {}ms {} bytes/call ({})",
+                oldTime / 1000000.0, (double) oldAlloc / num,
+                newTime / 1000000.0, (double) newAlloc / num,
+                sum
+            );
+        }
+    }
+    
+    private static long getAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean) {
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+    
+    private static DQuaternion randomRotation(Random random) {
+        if (random.nextInt(5) == 0) {
+            return DQuaternion.identity;
+        }
+        return DQuaternion.rotationByDegrees(
+            randomVec(random, 1).normalize(), random.nextDouble() * 360
+        );
+    }
+    
+    private static Vec3 randomVec(Random random, double range) {
+        return new Vec3(
+            (random.nextDouble() * 2 - 1) * range,
+            (random.nextDouble() * 2 - 1) * range,
+            (random.nextDouble() * 2 - 1) * range
+        );
+    }
+    
+    private static void assertClose(Vec3 expected, double[] actual) {
+        Validate.isTrue(
+            Math.abs(expected.x - actual[0]) < EPSILON &&
+                Math.abs(expected.y - actual[1]) < EPSILON &&
+                Math.abs(expected.z - actual[2]) < EPSILON,
+            "%s %s %s %s", expected, actual[0], actual[1], actual[2]
+        );
+    }
+    
+    private static void assertClose(Vec3 expected, Vec3 actual) {
+        assertClose(expected, new double[]{actual.x, actual.y, actual.z});
+    }
+}
@@ -0,0 +1,175 @@
+package qouteall.q_misc_util.my_util;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.DoubleTag;
+import net.minecraft.nbt.IntTag;
+import net.minecraft.nbt.ListTag;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class Mesh2DSerializationTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    @Test
+    public void testRoundTrip() {
+        for (Mesh2D mesh : createTestMeshes()) {
+            Mesh2D result = Mesh2D.fromTag(mesh.toTag());
+            Validate.notNull(result);
+            result.checkStorageIntegrity();
+            
+            // the quantization error is within half grid
+            assertSameTriangles(mesh, result, 1.0 / Mesh2D.gridCountForOneSide);
+            
+            // the quantized mesh is stable under serialization
+            Mesh2D result2 = Mesh2D.fromBinary(result.toBinary());
+            Validate.notNull(result2);
+            Validate.isTrue(Arrays.equals(result.toBinary(), result2.toBinary()));
+        }
+    }
+    
+    @Test
+    public void testOutOfRangeCoordinates() {
+        Mesh2D mesh = new Mesh2D();
+        mesh.addTriangle(-3.5, -1, 2.25, -1, 2.25, 5.125);
+        mesh.addTriangle(0.1, 0.2, 0.3, 0.2, 0.3, 0.4);
+        
+        Mesh2D result = Mesh2D.fromBinary(mesh.toBinary());
+        Validate.notNull(result);
+        // stored as raw doubles, so no error
+        assertSameTriangles(mesh, result, 0);
+    }
+    
+    @Test
+    public void testReadingOldFormat() {
+        for (Mesh2D mesh : createTestMeshes()) {
+            Mesh2D result = Mesh2D.fromTag(toOldFormatTag(mesh));
+            Validate.notNull(result);
+            assertSameTriangles(mesh, result, 0);
+        }
+    }
+    
+    @Test
+    public void testMalformedData() {
+        Mesh2D mesh = createTestMeshes()[2];
+        byte[] bytes = mesh.toBinary();
+        
+        // truncated
+        for (int len = 0; len < bytes.length; len += 7) {
+            Validate.isTrue(Mesh2D.fromBinary(Arrays.copyOf(bytes, len)) == null);
+        }
+        
+        // unknown version
+        byte[] newVersion = bytes.clone();
+        newVersion[0] = (byte) (Mesh2D.BINARY_FORMAT_VERSION + 1);
+        Validate.isTrue(Mesh2D.fromBinary(newVersion) == null);
+        
+        // random garbage should not throw
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            byte[] garbage = bytes.clone();
+            garbage[random.nextInt(garbage.length)] = (byte) random.nextInt();
+            Mesh2D.fromBinary(garbage);
+        }
+    }
+    
+    @Test
+    public void testSizeComparison() {
+        for (Mesh2D mesh : createTestMeshes()) {
+            int oldSize = toOldFormatTag(mesh).sizeInBytes();
+            int newSize = mesh.toTag().sizeInBytes();
+            
+            LOGGER.info(
+                "Triangles {} old format {} bytes, binary format {} bytes, ratio {}",
+                mesh.getStoredTriangleNum(), oldSize, newSize, (double) newSize / oldSize
+            );
+            
+            Validate.isTrue(newSize < oldSize);
+        }
+    }
+    
+    private static Mesh2D[] createTestMeshes() {
+        Random random = new Random(42);
+        
+        Mesh2D fullQuad = Mesh2D.createNewFullQuadMesh();
+        
+        Mesh2D subtracted = Mesh2D.createNewFullQuadMesh();
+        for (int i = 0; i < 30; i++) {
+            double x = random.nextDouble() * 2 - 1;
+            double y = random.nextDouble() * 2 - 1;
+            subtracted.subtractTriangleFromMesh(x, y, x + 0.2, y, x, y + 0.2);
+        }
+        
+        // a grid close to the max triangle num of portal shapes
+        Mesh2D grid = new Mesh2D();
+        int gridNum = 70;
+        for (int ix = 0; ix < gridNum; ix++) {
+            for (int iy = 0; iy < gridNum; iy++) {
+                if (random.nextInt(10) == 0) {
+                    continue;
+                }
+                double x1 = ix * 2.0 / gridNum - 1;
+                double y1 = iy * 2.0 / gridNum - 1;
+                grid.addQuad(x1, y1, x1 + 2.0 / gridNum, y1 + 2.0 / gridNum);
+            }
+        }
+        
+        Mesh2D randomTriangles = new Mesh2D();
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 1.6 - 0.8;
+            double y = random.nextDouble() * 1.6 - 0.8;
+            randomTriangles.addTriangle(
+                x, y,
+                x + random.nextDouble() * 0.2, y,
+                x, y + random.nextDouble() * 0.2
+            );
+        }
+        
+        return new Mesh2D[]{fullQuad, subtracted, grid, randomTriangles};
+    }
+    
+    private static CompoundTag toOldFormatTag(Mesh2D mesh) {
+        mesh.compact();
+        
+        ListTag pointCoordsTag = new ListTag();
+        ListTag trianglesTag = new ListTag();
+        
+        for (int i = 0; i < mesh.getStoredPointNum(); i++) {
+            pointCoordsTag.add(DoubleTag.valueOf(mesh.getPointX(i)));
+            pointCoordsTag.add(DoubleTag.valueOf(mesh.getPointY(i)));
+        }
+        
+        for (int i = 0; i < mesh.getStoredTriangleNum(); i++) {
+            if (!mesh.isTriangleValid(i)) {
+                continue;
+            }
+            trianglesTag.add(IntTag.valueOf(mesh.getTrianglePointIndex(i, 0)));
+            trianglesTag.add(IntTag.valueOf(mesh.getTrianglePointIndex(i, 1)));
+            trianglesTag.add(IntTag.valueOf(mesh.getTrianglePointIndex(i, 2)));
+        }
+        
+        CompoundTag tag = new CompoundTag();
+        tag.put("pointCoords", pointCoordsTag);
+        tag.put("triangles", trianglesTag);
+        return tag;
+    }
+    
+    private static void assertSameTriangles(Mesh2D expected, Mesh2D actual, double tolerance) {
+        expected.compact();
+        actual.compact();
+        Validate.isTrue(expected.getStoredTriangleNum() == actual.getStoredTriangleNum());
+        
+        for (int ti = 0; ti < expected.getStoredTriangleNum(); ti++) {
+            for (int v = 0; v < 3; v++) {
+                int ep = expected.getTrianglePointIndex(ti, v);
+                int ap = actual.getTrianglePointIndex(ti, v);
+                Validate.isTrue(Math.abs(expected.getPointX(ep) - actual.getPointX(ap)) <= tolerance);
+                Validate.isTrue(Math.abs(expected.getPointY(ep) - actual.getPointY(ap)) <= tolerance);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package qouteall.q_misc_util.my_util;
+
+import com.mojang.logging.LogUtils;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.util.Random;
+
+public class TriangleBVHTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    @Test
+    public void testAgainstBruteForceOnRandomMeshes() {
+        Random random = new Random(42);
+        
+        for (int meshIndex = 0; meshIndex < 20; meshIndex++) {
+            Mesh2D mesh = createRandomMesh(random, 300);
+            
+            TriangleBVH bvh = TriangleBVH.build(mesh);
+            checkQueries(mesh, bvh, random, 500);
+        }
+        
+        // empty mesh
+        Mesh2D emptyMesh = new Mesh2D();
+        TriangleBVH emptyBVH = TriangleBVH.build(emptyMesh);
+        Validate.isTrue(emptyBVH.getTriangleNum() == 0);
+        Validate.isTrue(!emptyBVH.boxIntersects(-1, -1, 1, 1));
+    }
+    
+    @Test
+    public void testAfterMeshOperations() {
+        Random random = new Random(7);
+        
+        Mesh2D mesh = Mesh2D.createNewFullQuadMesh();
+        for (int i = 0; i < 30; i++) {
+            double x = random.nextDouble() * 2 - 1;
+            double y = random.nextDouble() * 2 - 1;
+            mesh.subtractTriangleFromMesh(
+                x, y, x + 0.2, y, x, y + 0.2
+            );
+        }
+        
+        int modificationCount = mesh.getModificationCount();
+        TriangleBVH bvh = TriangleBVH.build(mesh);
+        checkQueries(mesh, bvh, random, 500);
+        
+        mesh.fixTJunction();
+        mesh.simplify();
+        mesh.compact();
+        Validate.isTrue(mesh.getModificationCount() != modificationCount);
+        
+        bvh = TriangleBVH.build(mesh);
+        checkQueries(mesh, bvh, random, 500);
+    }
+    
+    @Test
+    @Tag("benchmark")
+    public void benchmark() {
+        Random random = new Random(1);
+        
+        // a 71x71 grid with some holes, about 10000 triangles
+        Mesh2D mesh = new Mesh2D();
+        int gridNum = 71;
+        for (int ix = 0; ix < gridNum; ix++) {
+            for (int iy = 0; iy < gridNum; iy++) {
+                if (random.nextInt(10) == 0) {
+                    continue;
+                }
+                double x1 = ix * 2.0 / gridNum - 1;
+                double y1 = iy * 2.0 / gridNum - 1;
+                mesh.addQuad(x1, y1, x1 + 2.0 / gridNum, y1 + 2.0 / gridNum);
+            }
+        }
+        mesh.enableTriangleLookup();
+        LOGGER.info("Triangle num {}", mesh.getStoredTriangleNum());
+        
+        long buildStart = System.nanoTime();
+        TriangleBVH bvh = TriangleBVH.build(mesh);
+        LOGGER.info("BVH build time {}ms", (System.nanoTime() - buildStart) / 1000000.0);
+        
+        int queryNum = 200000;
+        double[] queries = new double[queryNum * 4];
+        for (int i = 0; i < queryNum; i++) {
+            double x = random.nextDouble() * 2.2 - 1.1;
+            double y = random.nextDouble() * 2.2 - 1.1;
+            double r = random.nextDouble() * 0.01;
+            queries[i * 4] = x - r;
+            queries[i * 4 + 1] = y - r;
+            queries[i * 4 + 2] = x + r;
+            queries[i * 4 + 3] = y + r;
+        }
+        
+        for (int round = 0; round < 3; round++) {
+            int bvhHits = 0;
+            long bvhStart = System.nanoTime();
+            for (int i = 0; i < queryNum; i++) {
+                if (bvh.boxIntersects(
+                    queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3]
+                )) {
+                    bvhHits++;
+                }
+            }
+            long bvhTime = System.nanoTime() - bvhStart;
+            
+            int quadTreeHits = 0;
+            long quadTreeStart = System.nanoTime();
+            for (int i = 0; i < queryNum; i++) {
+                if (mesh.boxIntersects(
+                    queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3]
+                )) {
+                    quadTreeHits++;
+                }
+            }
+            long quadTreeTime = System.nanoTime() - quadTreeStart;
+            
+            // brute force is slow, only run a part of the queries
+            int bruteForceQueryNum = queryNum / 100;
+            int bruteForceHits = 0;
+            long bruteForceStart = System.nanoTime();
+            for (int i = 0; i < bruteForceQueryNum; i++) {
+                if (bruteForceIntersects(
+                    mesh, queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3]
+                )) {
+                    bruteForceHits++;
+                }
+            }
+            long bruteForceTime = (System.nanoTime() - bruteForceStart) * 100;
+            
+            Validate.isTrue(bvhHits == quadTreeHits);
+            
+            LOGGER.info(
+                "BVH {}ms quad tree {}ms brute force (estimated) {}ms hits {} {}",
+                bvhTime / 1000000.0, quadTreeTime / 1000000.0, bruteForceTime / 1000000.0,
+                bvhHits, bruteForceHits
+            );
+        }
+    }
+    
+    private static Mesh2D createRandomMesh(Random random, int triangleNum) {
+        Mesh2D mesh = new Mesh2D();
+        for (int i = 0; i < triangleNum; i++) {
+            double x = random.nextDouble() * 2 - 1;
+            double y = random.nextDouble() * 2 - 1;
+            double size = Math.pow(random.nextDouble(), 3);
+            int ti = mesh.addTriangle(
+                x, y,
+                x + (random.nextDouble() - 0.5) * size, y + (random.nextDouble() - 0.5) * size,
+                x + (random.nextDouble() - 0.5) * size, y + (random.nextDouble() - 0.5) * size
+            );
+            mesh.turnTriangleToCounterClockwise(ti);
+        }
+        
+        // remove some triangles
+        for (int ti = 0; ti < mesh.getStoredTriangleNum(); ti++) {
+            if (mesh.isTriangleValid(ti) && random.nextInt(4) == 0) {
+                mesh.removeTriangle(ti);
+            }
+        }
+        return mesh;
+    }
+    
+    private static void checkQueries(Mesh2D mesh, TriangleBVH bvh, Random random, int queryNum) {
+        for (int q = 0; q < queryNum; q++) {
+            double minX = random.nextDouble() * 2.5 - 1.25;
+            double minY = random.nextDouble() * 2.5 - 1.25;
+            double maxX = minX + random.nextDouble() * 0.3;
+            double maxY = minY + random.nextDouble() * 0.3;
+            
+            Validate.isTrue(
+                bvh.boxIntersects(minX, minY, maxX, maxY) ==
+                    bruteForceIntersects(mesh, minX, minY, maxX, maxY)
+            );
+            
+            Validate.isTrue(
+                bvh.containsPoint(minX, minY) ==
+                    bruteForceIntersects(mesh, minX, minY, minX, minY)
+            );
+        }
+    }
+    
+    private static boolean bruteForceIntersects(
+        Mesh2D mesh, double minX, double minY, double maxX, double maxY
+    ) {
+        for (int ti = 0; ti < mesh.getStoredTriangleNum(); ti++) {
+            if (!mesh.isTriangleValid(ti)) {
+                continue;
+            }
+            
+            int p0 = mesh.getTrianglePointIndex(ti, 0);
+            int p1 = mesh.getTrianglePointIndex(ti, 1);
+            int p2 = mesh.getTrianglePointIndex(ti, 2);
+            if (GeometryUtil.triangleIntersectsWithAABB(
+                mesh.getPointX(p0), mesh.getPointY(p0),
+                mesh.getPointX(p1), mesh.getPointY(p1),
+                mesh.getPointX(p2), mesh.getPointY(p2),
+                minX, minY, maxX, maxY
+            )) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,113 @@
+package qouteall.q_misc_util.my_util;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class TriangleQuadTreeTest {
+    
+    @Test
+    public void testAgainstBruteForceOnRandomMeshes() {
+        Random random = new Random(42);
+        
+        for (int meshIndex = 0; meshIndex < 20; meshIndex++) {
+            Mesh2D mesh = new Mesh2D();
+            mesh.enableTriangleLookup();
+            
+            for (int i = 0; i < 300; i++) {
+                double x = random.nextDouble() * 2 - 1;
+                double y = random.nextDouble() * 2 - 1;
+                double size = Math.pow(random.nextDouble(), 3);
+                mesh.addTriangle(
+                    x, y,
+                    x + (random.nextDouble() - 0.5) * size, y + (random.nextDouble() - 0.5) * size,
+                    x + (random.nextDouble() - 0.5) * size, y + (random.nextDouble() - 0.5) * size
+                );
+            }
+            
+            // remove some triangles
+            for (int ti = 0; ti < mesh.getStoredTriangleNum(); ti++) {
+                if (mesh.isTriangleValid(ti) && random.nextInt(4) == 0) {
+                    mesh.removeTriangle(ti);
+                }
+            }
+            mesh.checkStorageIntegrity();
+            
+            checkQueries(mesh, random);
+            
+            // moving triangles also updates the lookup
+            mesh.compact();
+            mesh.checkStorageIntegrity();
+            
+            checkQueries(mesh, random);
+        }
+    }
+    
+    @Test
+    public void testAfterMeshOperations() {
+        Random random = new Random(7);
+        
+        Mesh2D mesh = Mesh2D.createNewFullQuadMesh();
+        for (int i = 0; i < 30; i++) {
+            double x = random.nextDouble() * 2 - 1;
+            double y = random.nextDouble() * 2 - 1;
+            mesh.subtractTriangleFromMesh(
+                x, y, x + 0.2, y, x, y + 0.2
+            );
+        }
+        mesh.checkStorageIntegrity();
+        checkQueries(mesh, random);
+        
+        mesh.fixTJunction();
+        mesh.simplify();
+        mesh.compact();
+        mesh.checkStorageIntegrity();
+        checkQueries(mesh, random);
+    }
+    
+    private static void checkQueries(Mesh2D mesh, Random random) {
+        TriangleQuadTree lookup = mesh.triangleLookup;
+        Validate.notNull(lookup);
+        
+        for (int q = 0; q < 200; q++) {
+            double minX = random.nextDouble() * 2.5 - 1.25;
+            double minY = random.nextDouble() * 2.5 - 1.25;
+            double maxX = minX + random.nextDouble() * 0.5;
+            double maxY = minY + random.nextDouble() * 0.5;
+            
+            IntOpenHashSet fromLookup = new IntOpenHashSet();
+            lookup.traverse(minX, minY, maxX, maxY, ti -> {
+                Validate.isTrue(fromLookup.add(ti), "visited twice %d", ti);
+                return null;
+            });
+            
+            IntOpenHashSet bruteForce = new IntOpenHashSet();
+            boolean bruteForceIntersects = false;
+            for (int ti = 0; ti < mesh.getStoredTriangleNum(); ti++) {
+                if (!mesh.isTriangleValid(ti)) {
+                    continue;
+                }
+                if (mesh.boundingBoxIntersects(ti, minX, minY, maxX, maxY)) {
+                    bruteForce.add(ti);
+                }
+                
+                int p0 = mesh.getTrianglePointIndex(ti, 0);
+                int p1 = mesh.getTrianglePointIndex(ti, 1);
+                int p2 = mesh.getTrianglePointIndex(ti, 2);
+                if (GeometryUtil.triangleIntersectsWithAABB(
+                    mesh.getPointX(p0), mesh.getPointY(p0),
+                    mesh.getPointX(p1), mesh.getPointY(p1),
+                    mesh.getPointX(p2), mesh.getPointY(p2),
+                    minX, minY, maxX, maxY
+                )) {
+                    bruteForceIntersects = true;
+                }
+            }
+            
+            Validate.isTrue(fromLookup.equals(bruteForce));
+            Validate.isTrue(mesh.boxIntersects(minX, minY, maxX, maxY) == bruteForceIntersects);
+        }
+    }
+}